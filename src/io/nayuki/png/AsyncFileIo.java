@@ -0,0 +1,193 @@
+/* 
+ * PNG library (Java)
+ * 
+ * Copyright (c) Project Nayuki
+ * MIT License. See readme file.
+ * https://www.nayuki.io/page/png-library
+ */
+
+package io.nayuki.png;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.SequenceInputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.AsynchronousFileChannel;
+import java.nio.channels.CompletionHandler;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+
+
+/**
+ * Transfers whole files with {@link AsynchronousFileChannel}, where each
+ * step is started by the completion of the previous one, so that no thread
+ * waits on I/O. Parsing and serialization are done in memory. Not instantiable.
+ */
+final class AsyncFileIo {
+	
+	/*---- Functions ----*/
+	
+	// Asynchronously reads the entire file, and completes with
+	// an in-memory stream of all the bytes that were read.
+	public static CompletableFuture<InputStream> readAll(Path file) {
+		Objects.requireNonNull(file);
+		var result = new CompletableFuture<InputStream>();
+		try {
+			new Reader(AsynchronousFileChannel.open(file, StandardOpenOption.READ), result).start();
+		} catch (IOException | RuntimeException e) {
+			result.completeExceptionally(e);
+		}
+		return result;
+	}
+	
+	
+	// Asynchronously truncates or creates the file and writes all the buffers in order. Each buffer
+	// is requested from the iterator only after the previous one has been completely written.
+	public static CompletableFuture<Void> writeAll(Path file, Iterator<ByteBuffer> buffers) {
+		Objects.requireNonNull(file);
+		Objects.requireNonNull(buffers);
+		var result = new CompletableFuture<Void>();
+		try {
+			new Writer(AsynchronousFileChannel.open(file, StandardOpenOption.WRITE,
+				StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING), buffers, result).next();
+		} catch (IOException | RuntimeException e) {
+			result.completeExceptionally(e);
+		}
+		return result;
+	}
+	
+	
+	private static final int BLOCK_SIZE = 1 << 20;
+	
+	
+	private AsyncFileIo() {}
+	
+	
+	
+	/*---- Helper classes ----*/
+	
+	private static final class Reader implements CompletionHandler<Integer,Void> {
+		
+		private final AsynchronousFileChannel channel;
+		private final CompletableFuture<InputStream> result;
+		private final List<InputStream> blocks = new ArrayList<>();
+		private long expectedSize;
+		private long position = 0;
+		private ByteBuffer buffer;
+		
+		
+		public Reader(AsynchronousFileChannel ch, CompletableFuture<InputStream> result) {
+			channel = ch;
+			this.result = result;
+		}
+		
+		
+		public void start() throws IOException {
+			try {
+				expectedSize = channel.size();
+				buffer = newBuffer();
+				channel.read(buffer, position, null, this);
+			} catch (IOException | RuntimeException e) {
+				channel.close();
+				throw e;
+			}
+		}
+		
+		
+		@Override public void completed(Integer n, Void attachment) {
+			try {
+				if (n == -1) {
+					blocks.add(new ByteArrayInputStream(buffer.array(), 0, buffer.position()));
+					channel.close();
+					result.complete(new SequenceInputStream(Collections.enumeration(blocks)));
+					return;
+				}
+				position += n;
+				if (!buffer.hasRemaining()) {
+					blocks.add(new ByteArrayInputStream(buffer.array()));
+					buffer = newBuffer();
+				}
+				channel.read(buffer, position, null, this);
+			} catch (IOException | RuntimeException e) {
+				failed(e, attachment);
+			}
+		}
+		
+		
+		@Override public void failed(Throwable exc, Void attachment) {
+			try {
+				channel.close();
+			} catch (IOException e) {
+				exc.addSuppressed(e);
+			}
+			result.completeExceptionally(exc);
+		}
+		
+		
+		// The size is only a hint, because the file can change length while being read
+		private ByteBuffer newBuffer() {
+			return ByteBuffer.allocate((int)Math.max(Math.min(expectedSize - position, BLOCK_SIZE), 1));
+		}
+		
+	}
+	
+	
+	
+	private static final class Writer implements CompletionHandler<Integer,Void> {
+		
+		private final AsynchronousFileChannel channel;
+		private final Iterator<ByteBuffer> buffers;
+		private final CompletableFuture<Void> result;
+		private long position = 0;
+		private ByteBuffer buffer = ByteBuffer.allocate(0);
+		
+		
+		public Writer(AsynchronousFileChannel ch, Iterator<ByteBuffer> bufs, CompletableFuture<Void> result) {
+			channel = ch;
+			buffers = bufs;
+			this.result = result;
+		}
+		
+		
+		public void next() {
+			try {
+				while (!buffer.hasRemaining()) {
+					if (!buffers.hasNext()) {
+						channel.close();
+						result.complete(null);
+						return;
+					}
+					buffer = buffers.next();
+				}
+				channel.write(buffer, position, null, this);
+			} catch (IOException | RuntimeException e) {
+				failed(e, null);
+			}
+		}
+		
+		
+		@Override public void completed(Integer n, Void attachment) {
+			position += n;
+			next();
+		}
+		
+		
+		@Override public void failed(Throwable exc, Void attachment) {
+			try {
+				channel.close();
+			} catch (IOException e) {
+				exc.addSuppressed(e);
+			}
+			result.completeExceptionally(exc);
+		}
+		
+	}
+	
+}
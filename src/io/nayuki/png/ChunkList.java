@@ -0,0 +1,133 @@
+/* 
+ * PNG library (Java)
+ * 
+ * Copyright (c) Project Nayuki
+ * MIT License. See readme file.
+ * https://www.nayuki.io/page/png-library
+ */
+
+package io.nayuki.png;
+
+import java.lang.reflect.Modifier;
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.RandomAccess;
+import io.nayuki.png.chunk.Chunk;
+import io.nayuki.png.chunk.Custom;
+
+
+/**
+ * A mutable list of chunks that keeps an index of its elements by class, so that looking
+ * up the chunks of a given type doesn't scan the whole list. The index is built on first
+ * lookup and discarded on every mutation (including through iterators and sublists, which
+ * all go through this class's methods). Lookups on other list implementations fall
+ * back to a linear scan. Instances are not thread-safe.
+ */
+final class ChunkList<E extends Chunk> extends AbstractList<E> implements RandomAccess {
+	
+	/*---- Fields ----*/
+	
+	private final List<E> elements = new ArrayList<>();
+	
+	private Map<Class<?>,List<E>> index = null;  // Null if invalidated
+	
+	private boolean hasCriticalCustom;  // Only valid if index is not null
+	
+	
+	
+	/*---- Methods ----*/
+	
+	@Override public E get(int index) {
+		return elements.get(index);
+	}
+	
+	
+	@Override public int size() {
+		return elements.size();
+	}
+	
+	
+	@Override public E set(int index, E element) {
+		E result = elements.set(index, Objects.requireNonNull(element));
+		this.index = null;
+		return result;
+	}
+	
+	
+	@Override public void add(int index, E element) {
+		elements.add(index, Objects.requireNonNull(element));
+		modCount++;
+		this.index = null;
+	}
+	
+	
+	@Override public E remove(int index) {
+		E result = elements.remove(index);
+		modCount++;
+		this.index = null;
+		return result;
+	}
+	
+	
+	@Override public void clear() {
+		elements.clear();
+		modCount++;
+		index = null;
+	}
+	
+	
+	private void buildIndex() {
+		if (index != null)
+			return;
+		index = new HashMap<>();
+		hasCriticalCustom = false;
+		for (E chk : elements) {
+			index.computeIfAbsent(chk.getClass(), k -> new ArrayList<>()).add(chk);
+			hasCriticalCustom |= chk instanceof Custom && chk.isCritical();
+		}
+	}
+	
+	
+	
+	/*---- Static functions ----*/
+	
+	// Returns an unmodifiable list of the chunks in the given list that are instances of the given type, in order.
+	public static <T> List<T> instancesOf(List<? extends Chunk> list, Class<T> type) {
+		Objects.requireNonNull(list);
+		Objects.requireNonNull(type);
+		if (list instanceof ChunkList<?> lst && Modifier.isFinal(type.getModifiers())) {
+			lst.buildIndex();
+			@SuppressWarnings("unchecked")
+			List<T> result = (List<T>)lst.index.getOrDefault(type, List.of());  // Each element's class is exactly type
+			return Collections.unmodifiableList(result);
+		}
+		List<T> result = new ArrayList<>();
+		for (Chunk chk : list) {
+			if (type.isInstance(chk))
+				result.add(type.cast(chk));
+		}
+		return result;
+	}
+	
+	
+	// Returns the first unrecognized critical chunk (i.e. a critical Custom) in the given list, or null if none.
+	public static Chunk findCriticalCustom(List<? extends Chunk> list) {
+		Objects.requireNonNull(list);
+		if (list instanceof ChunkList<?> lst) {
+			lst.buildIndex();
+			if (!lst.hasCriticalCustom)
+				return null;
+		}
+		for (Chunk chk : list) {
+			if (chk instanceof Custom && chk.isCritical())
+				return chk;
+		}
+		return null;
+	}
+	
+}
@@ -0,0 +1,247 @@
+/* 
+ * PNG library (Java)
+ * 
+ * Copyright (c) Project Nayuki
+ * MIT License. See readme file.
+ * https://www.nayuki.io/page/png-library
+ */
+
+package io.nayuki.png;
+
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.function.Function;
+import java.util.zip.CRC32;
+import io.nayuki.png.chunk.Chunk;
+
+
+/**
+ * Copies a PNG/MNG/JNG file from an input stream to an output stream one chunk at a time,
+ * applying rules by chunk type: strip (drop), transform (parse and replace), or move (hold
+ * back until a later chunk type). Chunks without a rule are copied through without parsing,
+ * using a fixed-size buffer, so the memory used doesn't depend on the size of IDAT (or other
+ * bulk) chunks; only transformed and moved chunks are held in memory. Every chunk that is
+ * copied or transformed has its CRC-32 verified, but chunks that are stripped are skipped
+ * unverified. This doesn't check constraints between chunks (e.g. chunk ordering).
+ * A pipeline can be reused after its rules are set, but is not thread-safe.
+ */
+public final class ChunkPipeline {
+	
+	/*---- Fields ----*/
+	
+	private final Map<String,Rule> rules = new HashMap<>();
+	
+	
+	
+	/*---- Constructor ----*/
+	
+	/**
+	 * Constructs a pipeline with no rules, which copies every chunk through unchanged.
+	 */
+	public ChunkPipeline() {}
+	
+	
+	
+	/*---- Methods for rules ----*/
+	
+	/**
+	 * Makes this pipeline drop all chunks of the specified types,
+	 * replacing any previous rules for those types.
+	 * @param types the chunk types to drop (e.g. "tEXt")
+	 * @return this pipeline
+	 * @throws NullPointerException if the array or any type is {@code null}
+	 * @throws IllegalArgumentException if any type is invalid as per {@link Chunk#checkType(String)}
+	 */
+	public ChunkPipeline strip(String... types) {
+		for (String type : types)
+			setRule(type, new Rule(null, null));
+		return this;
+	}
+	
+	
+	/**
+	 * Makes this pipeline parse every chunk of the specified type (as per {@link
+	 * Chunk#read(InputStream)}) and write the chunks returned by the transformer
+	 * in its place, replacing any previous rule for the type. The transformer can
+	 * return an empty list to drop the chunk, or multiple chunks to insert some.
+	 * @param type the chunk type to transform (e.g. "pHYs")
+	 * @param transformer the function from a parsed chunk to its replacements (not {@code null})
+	 * @return this pipeline
+	 * @throws NullPointerException if {@code type} or {@code transformer} is {@code null}
+	 * @throws IllegalArgumentException if the type is invalid as per {@link Chunk#checkType(String)}
+	 */
+	public ChunkPipeline transform(String type, Function<? super Chunk,? extends List<? extends Chunk>> transformer) {
+		setRule(type, new Rule(Objects.requireNonNull(transformer), null));
+		return this;
+	}
+	
+	
+	/**
+	 * Makes this pipeline hold back every chunk of the specified type and write them
+	 * (in their original order) immediately before the next chunk of the anchor type,
+	 * replacing any previous rule for the type. If no chunk of the anchor type follows,
+	 * the held chunks are written before IEND/MEND, or else at the end of the stream.
+	 * @param type the chunk type to move (e.g. "tEXt")
+	 * @param anchorType the chunk type to move before (e.g. "IEND")
+	 * @return this pipeline
+	 * @throws NullPointerException if {@code type} or {@code anchorType} is {@code null}
+	 * @throws IllegalArgumentException if either type is invalid
+	 * as per {@link Chunk#checkType(String)}, or they are equal
+	 */
+	public ChunkPipeline moveBefore(String type, String anchorType) {
+		Chunk.checkType(anchorType);
+		if (type.equals(anchorType))
+			throw new IllegalArgumentException("Chunk type cannot be moved before itself");
+		setRule(type, new Rule(null, anchorType));
+		return this;
+	}
+	
+	
+	private void setRule(String type, Rule rule) {
+		Chunk.checkType(type);
+		rules.put(type, rule);
+	}
+	
+	
+	
+	/*---- Method for processing ----*/
+	
+	/**
+	 * Reads a whole PNG/MNG/JNG file from the specified input stream and writes the result
+	 * of applying this pipeline's rules to the specified output stream. This does not close
+	 * either stream. If an exception is thrown, some output may already have been written.
+	 * @param in the input stream to read from (not {@code null})
+	 * @param out the output stream to write to (not {@code null})
+	 * @throws NullPointerException if {@code in} or {@code out} is {@code null}
+	 * @throws IllegalArgumentException if the input contains invalid data in the header
+	 * signature, chunk outer structure, CRC-32 of a non-stripped chunk, or chunk inner
+	 * structure of a transformed chunk, or a transformer returns {@code null}
+	 * @throws IOException if an I/O exception occurs
+	 */
+	public void run(InputStream in, OutputStream out) throws IOException {
+		Objects.requireNonNull(in);
+		Objects.requireNonNull(out);
+		var din = new DataInputStream(in);
+		
+		var sig = new byte[8];
+		din.readFully(sig);
+		boolean known = false;
+		for (XngFile.Type t : XngFile.Type.values())
+			known |= Arrays.equals(t.getSignature(), sig);
+		if (!known)
+			throw new IllegalArgumentException("Unrecognized file signature");
+		out.write(sig);
+		
+		List<HeldChunk> held = new ArrayList<>();  // In original order
+		var header = new byte[8];
+		var buffer = new byte[BUFFER_SIZE];
+		while (true) {
+			int b = din.read();
+			if (b == -1)
+				break;
+			header[0] = (byte)b;
+			din.readFully(header, 1, header.length - 1);
+			int dataLen = ByteBuffer.wrap(header).getInt(0);
+			if (dataLen < 0)
+				throw new IllegalArgumentException("Chunk data length out of range");
+			var type = new String(header, 4, 4, StandardCharsets.US_ASCII);
+			Chunk.checkType(type);
+			
+			boolean isEnd = type.equals("IEND") || type.equals("MEND");
+			for (var iter = held.iterator(); iter.hasNext(); ) {
+				HeldChunk chk = iter.next();
+				if (isEnd || chk.anchorType().equals(type)) {
+					out.write(chk.raw());
+					iter.remove();
+				}
+			}
+			
+			Rule rule = rules.get(type);
+			if (rule == null)
+				copyChunk(header, dataLen, din, out, buffer);
+			else if (rule.transformer() == null && rule.anchorType() == null)
+				din.skipNBytes(dataLen + 4L);
+			else {
+				byte[] raw = readChunk(header, dataLen, din);
+				if (rule.anchorType() != null)
+					held.add(new HeldChunk(rule.anchorType(), raw));
+				else {
+					Chunk chk = Chunk.read(new ByteArrayInputStream(raw)).orElseThrow();
+					List<? extends Chunk> replacements = rule.transformer().apply(chk);
+					if (replacements == null)
+						throw new IllegalArgumentException("Transformer returned null");
+					for (Chunk c : replacements)
+						c.writeChunk(out);
+				}
+			}
+		}
+		for (HeldChunk chk : held)
+			out.write(chk.raw());
+	}
+	
+	
+	private static final int BUFFER_SIZE = 1 << 16;
+	
+	
+	
+	/*---- Helper functions ----*/
+	
+	// Copies the chunk's data and CRC-32 from the input to the output with the given
+	// buffer, after writing the given header, and verifies the CRC-32 before writing it.
+	private static void copyChunk(byte[] header, int dataLen, DataInputStream in, OutputStream out, byte[] buffer) throws IOException {
+		out.write(header);
+		var crc = new CRC32();
+		crc.update(header, 4, 4);
+		for (int remain = dataLen; remain > 0; ) {
+			int n = Math.min(remain, buffer.length);
+			in.readFully(buffer, 0, n);
+			crc.update(buffer, 0, n);
+			out.write(buffer, 0, n);
+			remain -= n;
+		}
+		in.readFully(buffer, 0, 4);
+		if (ByteBuffer.wrap(buffer).getInt(0) != (int)crc.getValue())
+			throw new IllegalArgumentException("Chunk CRC-32 mismatch");
+		out.write(buffer, 0, 4);
+	}
+	
+	
+	// Returns the whole chunk (header, data, CRC-32) as a new array, verifying the CRC-32.
+	private static byte[] readChunk(byte[] header, int dataLen, DataInputStream in) throws IOException {
+		if (dataLen > Integer.MAX_VALUE - 12)
+			throw new IllegalArgumentException("Chunk too long to hold in memory");
+		var result = new byte[dataLen + 12];
+		System.arraycopy(header, 0, result, 0, header.length);
+		in.readFully(result, header.length, dataLen + 4);
+		var crc = new CRC32();
+		crc.update(result, 4, dataLen + 4);
+		if (ByteBuffer.wrap(result).getInt(dataLen + 8) != (int)crc.getValue())
+			throw new IllegalArgumentException("Chunk CRC-32 mismatch");
+		return result;
+	}
+	
+	
+	
+	/*---- Helper records ----*/
+	
+	// At most one of the fields is non-null; both null means strip.
+	private record Rule(
+		Function<? super Chunk,? extends List<? extends Chunk>> transformer,
+		String anchorType) {}
+	
+	
+	// A whole raw chunk (header, data, CRC-32) waiting to be written before a chunk of the anchor type.
+	private record HeldChunk(String anchorType, byte[] raw) {}
+	
+}
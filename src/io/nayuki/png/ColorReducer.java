@@ -0,0 +1,359 @@
+/* 
+ * PNG library (Java)
+ * 
+ * Copyright (c) Project Nayuki
+ * MIT License. See readme file.
+ * https://www.nayuki.io/page/png-library
+ */
+
+package io.nayuki.png;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.stream.IntStream;
+import io.nayuki.png.image.BufferedPaletteImage;
+import io.nayuki.png.image.GrayImage;
+import io.nayuki.png.image.RgbaImage;
+
+
+/**
+ * Finds the smallest lossless PNG representation of an RGBA image, by analyzing all
+ * the pixels (in parallel across bands of rows) and converting the image to a gray,
+ * true color, or palette image with possibly reduced bit depths and without an alpha
+ * channel. The image's {@code getPixel()} must be safe to call from multiple threads.
+ * Not instantiable.
+ */
+final class ColorReducer {
+	
+	/*---- Function ----*/
+	
+	// Returns a reduced image that has the same color as the given image at every pixel.
+	// If the result has a transparent key color, then the result's pixel at (keyX, keyY) has it.
+	public static Result reduce(RgbaImage img) {
+		Objects.requireNonNull(img);
+		int[] depths = img.getBitDepths();
+		int width = img.getWidth();
+		int height = img.getHeight();
+		int bandHeight = Math.max(BAND_PIXELS / width, 1);
+		Stats st = IntStream.range(0, Math.ceilDiv(height, bandHeight)).parallel()
+			.mapToObj(i -> new Stats(img, depths, i * bandHeight, Math.min((i + 1) * bandHeight, height)))
+			.reduce(Stats::merge).orElseThrow();
+		
+		boolean hasAlpha = depths[3] > 0;
+		boolean dropAlpha = !hasAlpha || st.opaque;
+		boolean useKey = !dropAlpha && st.binaryAlpha && st.keyColor != NO_KEY && st.keyColor != MULTIPLE_KEYS && !isOpaqueColor(img, depths, st.keyColor);
+		boolean keepAlpha = !dropAlpha && !useKey;
+		boolean rgb16 = depths[0] == 16 && depths[1] == 16 && depths[2] == 16;
+		// Whether every kept sample is 16-bit and equal to an 8-bit sample times 257
+		boolean halfKept = rgb16 && st.halfRgb && (!keepAlpha || depths[3] == 16 && st.halfAlpha);
+		boolean halfAll  = rgb16 && st.halfRgb && (dropAlpha || depths[3] == 16 && st.halfAlpha);
+		
+		// Gray candidate
+		int grayDepth = depths[0];
+		int grayDiv = 1;
+		if (keepAlpha) {
+			if (halfKept) {
+				grayDepth = 8;
+				grayDiv = 257;
+			}
+		} else {
+			for (int i = 0; i < 4; i++) {
+				int k = 1 << i;
+				if (k < depths[0] && (st.grayFactors >>> i & 1) != 0) {
+					grayDepth = k;
+					grayDiv = grayFactor(depths[0], k);
+					break;
+				}
+			}
+		}
+		int grayBits = keepAlpha
+			? Math.ceilDiv(Math.max(grayDepth, halfKept ? 8 : depths[3]), 8) * 16
+			: 0x8000_0000 >>> (Integer.numberOfLeadingZeros(grayDepth - 1) - 1);  // Round up to power of 2
+		
+		// True color candidate
+		int trueDepth = halfKept ? 8 : Math.max(Math.max(depths[0], depths[1]), Math.max(depths[2], keepAlpha ? depths[3] : 0));
+		int trueBits = Math.ceilDiv(trueDepth, 8) * 8 * (keepAlpha ? 4 : 3);
+		
+		// Palette candidate
+		int[] palDepths = halfAll ? new int[]{8, 8, 8, dropAlpha ? 0 : 8} : new int[]{depths[0], depths[1], depths[2], dropAlpha ? 0 : 8};
+		boolean palOk = st.colors != null && palDepths[0] <= 8 && palDepths[1] <= 8 && palDepths[2] <= 8 && (dropAlpha || halfAll || depths[3] <= 8);
+		int palBits = Integer.MAX_VALUE;
+		if (palOk) {
+			int n = st.colors.size();
+			palBits = n <= 2 ? 1 : n <= 4 ? 2 : n <= 16 ? 4 : 8;
+		}
+		
+		// Choose the smallest, preferring gray and then true color on ties
+		if (st.gray && grayBits <= trueBits && grayBits <= palBits) {
+			var result = new ReducedGrayImage(img, grayDepth, grayDiv, keepAlpha ? (halfKept ? 8 : depths[3]) : 0, halfKept ? 257 : 1);
+			return new Result(result, useKey ? st.keyX : -1, st.keyY);
+		} else if (trueBits <= palBits) {
+			int[] outDepths = halfKept ? new int[]{8, 8, 8, keepAlpha ? 8 : 0} : new int[]{depths[0], depths[1], depths[2], keepAlpha ? depths[3] : 0};
+			var result = new ReducedRgbaImage(img, outDepths, halfKept ? 257 : 1);
+			return new Result(result, useKey ? st.keyX : -1, st.keyY);
+		} else
+			return new Result(toPalette(img, st.colors, palDepths, halfAll ? 257 : 1, depths[3]), -1, -1);
+	}
+	
+	
+	private static final int BAND_PIXELS = 1 << 16;
+	
+	// Values of Stats.keyColor that aren't colors, because they have nonzero alpha bits
+	private static final long NO_KEY = 1;
+	private static final long MULTIPLE_KEYS = 2;
+	
+	
+	// Tests whether any opaque pixel has the given RGB color (with zero alpha bits).
+	private static boolean isOpaqueColor(RgbaImage img, int[] depths, long rgb) {
+		long aMax = (1L << depths[3]) - 1;
+		int width = img.getWidth();
+		return IntStream.range(0, img.getHeight()).parallel().anyMatch(y -> {
+			for (int x = 0; x < width; x++) {
+				long val = img.getPixel(x, y);
+				if ((val & 0xFFFF) == aMax && (val & ~0xFFFFL) == rgb)
+					return true;
+			}
+			return false;
+		});
+	}
+	
+	
+	// Returns (2^from - 1) / (2^to - 1), where 'to' divides 'from'.
+	private static int grayFactor(int from, int to) {
+		return ((1 << from) - 1) / ((1 << to) - 1);
+	}
+	
+	
+	private static BufferedPaletteImage toPalette(RgbaImage img, Set<Long> colors, int[] palDepths, int div, int alphaDepth) {
+		// Put non-opaque entries first in order to minimize the length of the tRNS chunk
+		List<Long> order = new ArrayList<>();
+		long aMax = (1L << alphaDepth) - 1;
+		for (int pass = 0; pass < 2; pass++) {
+			for (long val : colors) {
+				if ((palDepths[3] > 0 && (val & 0xFFFF) != aMax) == (pass == 0))
+					order.add(val);
+			}
+		}
+		
+		var palette = new long[order.size()];
+		Map<Long,Integer> indexes = new HashMap<>();
+		for (int i = 0; i < palette.length; i++) {
+			long val = order.get(i);
+			indexes.put(val, i);
+			long r = (val >>> 48 & 0xFFFF) / div;
+			long g = (val >>> 32 & 0xFFFF) / div;
+			long b = (val >>> 16 & 0xFFFF) / div;
+			long a = 0;
+			if (palDepths[3] > 0) {
+				a = val & 0xFFFF;
+				if (div != 1)
+					a /= div;
+				else if (alphaDepth < 8)
+					a = SampleScaler.scaleTable(alphaDepth, 8)[(int)a];
+			}
+			palette[i] = r << 48 | g << 32 | b << 16 | a << 0;
+		}
+		
+		int width = img.getWidth();
+		long mask = alphaDepth > 0 ? -1L : ~0xFFFFL;  // Same as in Stats
+		var result = new BufferedPaletteImage(width, img.getHeight(), palDepths, palette);
+		IntStream.range(0, img.getHeight()).parallel().forEach(y -> {
+			for (int x = 0; x < width; x++)
+				result.setPixel(x, y, indexes.get(img.getPixel(x, y) & mask));
+		});
+		return result;
+	}
+	
+	
+	private ColorReducer() {}
+	
+	
+	
+	/*---- Helper records and classes ----*/
+	
+	// The image is a GrayImage, RgbaImage, or PaletteImage. keyX is -1 if there is no transparent key color.
+	public record Result(Object image, int keyX, int keyY) {}
+	
+	
+	
+	// Statistics about a band of rows, or the merger of consecutive bands.
+	private static final class Stats {
+		
+		public boolean gray;  // Every pixel has red = green = blue, with equal bit depths
+		public int grayFactors = 0b1111;  // Bit i is set if every gray value is a multiple of grayFactor(depth, 2^i)
+		public boolean opaque = true;  // Every alpha value is the maximum
+		public boolean binaryAlpha = true;  // Every alpha value is 0 or the maximum
+		public long keyColor = NO_KEY;  // RGB of all transparent pixels, or NO_KEY, or MULTIPLE_KEYS
+		public int keyX = -1, keyY = -1;  // Coordinates of a transparent pixel
+		public boolean halfRgb = true;  // Every RGB sample has its high byte equal to its low byte
+		public boolean halfAlpha = true;  // Likewise for every alpha sample
+		public Set<Long> colors = new LinkedHashSet<>();  // Distinct pixel values in order of appearance, or null if more than 256
+		
+		
+		public Stats(RgbaImage img, int[] depths, int yStart, int yEnd) {
+			gray = depths[0] == depths[1] && depths[1] == depths[2];
+			var factors = new int[4];
+			for (int i = 0; i < factors.length; i++) {
+				int k = 1 << i;
+				factors[i] = k < depths[0] && depths[0] % k == 0 && Integer.bitCount(depths[0]) == 1 ? grayFactor(depths[0], k) : 0;
+				if (factors[i] == 0)
+					grayFactors &= ~(1 << i);
+			}
+			boolean hasAlpha = depths[3] > 0;
+			long aMax = (1L << depths[3]) - 1;
+			long mask = hasAlpha ? -1L : ~0xFFFFL;
+			
+			for (int y = yStart; y < yEnd; y++) {
+				for (int x = 0, width = img.getWidth(); x < width; x++) {
+					long val = img.getPixel(x, y) & mask;
+					int r = (int)(val >>> 48) & 0xFFFF;
+					int g = (int)(val >>> 32) & 0xFFFF;
+					int b = (int)(val >>> 16) & 0xFFFF;
+					int a = (int)(val >>>  0) & 0xFFFF;
+					if (gray) {
+						gray = r == g && g == b;
+						for (int i = 0; i < factors.length; i++) {
+							if (factors[i] != 0 && r % factors[i] != 0)
+								grayFactors &= ~(1 << i);
+						}
+					}
+					halfRgb &= isHalf(r) && isHalf(g) && isHalf(b);
+					if (hasAlpha) {
+						halfAlpha &= isHalf(a);
+						if (a != aMax) {
+							opaque = false;
+							if (a != 0)
+								binaryAlpha = false;
+							else if (keyColor == NO_KEY) {
+								keyColor = val;
+								keyX = x;
+								keyY = y;
+							} else if (keyColor != val)
+								keyColor = MULTIPLE_KEYS;
+						}
+					}
+					if (colors != null && colors.add(val) && colors.size() > 256)
+						colors = null;
+				}
+			}
+		}
+		
+		
+		private static boolean isHalf(int val) {
+			return (val >>> 8) == (val & 0xFF);
+		}
+		
+		
+		// Combines this band with the immediately following band, returning this object.
+		public Stats merge(Stats other) {
+			gray &= other.gray;
+			grayFactors &= other.grayFactors;
+			opaque &= other.opaque;
+			binaryAlpha &= other.binaryAlpha;
+			if (keyColor == NO_KEY) {
+				keyColor = other.keyColor;
+				keyX = other.keyX;
+				keyY = other.keyY;
+			} else if (other.keyColor != NO_KEY && other.keyColor != keyColor)
+				keyColor = MULTIPLE_KEYS;
+			halfRgb &= other.halfRgb;
+			halfAlpha &= other.halfAlpha;
+			if (colors != null && other.colors != null) {
+				colors.addAll(other.colors);
+				if (colors.size() > 256)
+					colors = null;
+			} else
+				colors = null;
+			return this;
+		}
+		
+	}
+	
+	
+	
+	// Takes the red channel (divided) as gray and the alpha channel (divided) if kept.
+	private static final class ReducedGrayImage implements GrayImage {
+		
+		private final RgbaImage image;
+		private final int[] bitDepths;
+		private final int grayDiv;
+		private final int alphaDiv;
+		
+		
+		public ReducedGrayImage(RgbaImage img, int grayDepth, int grayDiv, int alphaDepth, int alphaDiv) {
+			image = img;
+			bitDepths = new int[]{grayDepth, alphaDepth};
+			this.grayDiv = grayDiv;
+			this.alphaDiv = alphaDiv;
+		}
+		
+		
+		@Override public int getWidth() {
+			return image.getWidth();
+		}
+		
+		@Override public int getHeight() {
+			return image.getHeight();
+		}
+		
+		@Override public int[] getBitDepths() {
+			return bitDepths.clone();
+		}
+		
+		
+		@Override public int getPixel(int x, int y) {
+			long val = image.getPixel(x, y);
+			int w = (int)(val >>> 48 & 0xFFFF) / grayDiv;
+			int a = bitDepths[1] > 0 ? (int)(val & 0xFFFF) / alphaDiv : 0;
+			return w << 16 | a << 0;
+		}
+		
+	}
+	
+	
+	
+	// Divides every channel by the same number, and zeros the alpha channel if dropped.
+	private static final class ReducedRgbaImage implements RgbaImage {
+		
+		private final RgbaImage image;
+		private final int[] bitDepths;
+		private final int div;
+		
+		
+		public ReducedRgbaImage(RgbaImage img, int[] bitDepths, int div) {
+			image = img;
+			this.bitDepths = bitDepths;
+			this.div = div;
+		}
+		
+		
+		@Override public int getWidth() {
+			return image.getWidth();
+		}
+		
+		@Override public int getHeight() {
+			return image.getHeight();
+		}
+		
+		@Override public int[] getBitDepths() {
+			return bitDepths.clone();
+		}
+		
+		
+		@Override public long getPixel(int x, int y) {
+			long val = image.getPixel(x, y);
+			long r = (val >>> 48 & 0xFFFF) / div;
+			long g = (val >>> 32 & 0xFFFF) / div;
+			long b = (val >>> 16 & 0xFFFF) / div;
+			long a = bitDepths[3] > 0 ? (val & 0xFFFF) / div : 0;
+			return r << 48 | g << 32 | b << 16 | a << 0;
+		}
+		
+	}
+	
+}
@@ -0,0 +1,241 @@
+/* 
+ * PNG library (Java)
+ * 
+ * Copyright (c) Project Nayuki
+ * MIT License. See readme file.
+ * https://www.nayuki.io/page/png-library
+ */
+
+package io.nayuki.png;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.reflect.Modifier;
+import java.nio.channels.WritableByteChannel;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+import io.nayuki.png.chunk.Chunk;
+import io.nayuki.png.chunk.Idat;
+import io.nayuki.png.chunk.Ihdr;
+
+
+/**
+ * An immutable snapshot of the chunks of a {@link PngImage}, created by {@link PngImage#freeze()}.
+ * The lists are unmodifiable, and the serialized length and an index of the chunks by type are
+ * computed once when the snapshot is created. Instances can be published to and used by
+ * multiple threads without synchronization, as long as nobody modifies the arrays in the
+ * chunks (which should be treated as immutable anyway). To edit the image, call
+ * {@link #toPngImage()} to get a new mutable copy of the lists.
+ * @see PngImage#freeze()
+ */
+public final class FrozenPngImage {
+	
+	/*---- Fields ----*/
+	
+	private final Ihdr ihdr;
+	private final List<Chunk> afterIhdr;
+	private final List<Idat> idats;
+	private final List<Chunk> afterIdats;
+	
+	private final XngFile file;
+	private final Map<Class<?>,List<Chunk>> index;
+	private final long serializedLength;
+	
+	
+	
+	/*---- Constructor ----*/
+	
+	FrozenPngImage(PngImage png) {
+		ihdr = png.ihdr.orElseThrow(() -> new IllegalStateException("Missing IHDR chunk"));
+		afterIhdr = List.copyOf(png.afterIhdr);
+		idats = List.copyOf(png.idats);
+		afterIdats = List.copyOf(png.afterIdats);
+		if (idats.isEmpty())
+			throw new IllegalStateException("Missing IDAT chunks");
+		file = new XngFile(XngFile.Type.PNG, List.copyOf(png.toXngFile().chunks()));
+		
+		Map<Class<?>,List<Chunk>> index = new HashMap<>();
+		for (Chunk chk : file.chunks())
+			index.computeIfAbsent(chk.getClass(), k -> new ArrayList<>()).add(chk);
+		index.replaceAll((k, v) -> List.copyOf(v));
+		this.index = Map.copyOf(index);
+		
+		var counter = new OutputStream() {
+			long count = 0;
+			
+			@Override public void write(int b) {
+				count++;
+			}
+			
+			@Override public void write(byte[] b, int off, int len) {
+				count += len;
+			}
+		};
+		long length = XngFile.Type.PNG.getSignature().length;
+		for (Chunk chk : file.chunks()) {
+			if (chk instanceof Idat idat)  // Avoid calculating the CRC-32 of bulk data
+				length += 12 + idat.data().length;
+			else {
+				counter.count = 0;
+				try {
+					chk.writeChunk(counter);
+				} catch (IOException e) {
+					throw new AssertionError("Unreachable exception", e);
+				}
+				length += counter.count;
+			}
+		}
+		serializedLength = length;
+	}
+	
+	
+	
+	/*---- Methods ----*/
+	
+	/**
+	 * Returns the IHDR chunk of this image.
+	 * @return the IHDR chunk (not {@code null})
+	 */
+	public Ihdr ihdr() {
+		return ihdr;
+	}
+	
+	
+	/**
+	 * Returns an unmodifiable list of the chunks positioned after IHDR.
+	 * @return the chunks positioned after IHDR (not {@code null})
+	 */
+	public List<Chunk> afterIhdr() {
+		return afterIhdr;
+	}
+	
+	
+	/**
+	 * Returns an unmodifiable list of the consecutive IDAT chunks.
+	 * @return the IDAT chunks (not {@code null})
+	 */
+	public List<Idat> idats() {
+		return idats;
+	}
+	
+	
+	/**
+	 * Returns an unmodifiable list of the chunks positioned after the IDAT chunks.
+	 * @return the chunks positioned after the IDAT chunks (not {@code null})
+	 */
+	public List<Chunk> afterIdats() {
+		return afterIdats;
+	}
+	
+	
+	/**
+	 * Returns the number of bytes that this image serializes to,
+	 * including the signature and the IHDR and IEND chunks.
+	 * @return the serialized length of this image
+	 */
+	public long serializedLength() {
+		return serializedLength;
+	}
+	
+	
+	/**
+	 * Returns the single chunk (including IHDR, IDAT, and IEND)
+	 * that matches the specified type or empty.
+	 * @param <T> the chunk type
+	 * @param type the class object of the desired chunk type
+	 * @return the single chunk matching the type or empty
+	 * @throws IllegalArgumentException if multiple chunks match the type
+	 */
+	public <T> Optional<T> getChunk(Class<T> type) {
+		List<T> matches = getChunks(type);
+		if (matches.size() > 1)
+			throw new IllegalArgumentException("Multiple chunks with given type");
+		return matches.stream().findFirst();
+	}
+	
+	
+	/**
+	 * Returns an unmodifiable list of all the chunks (including IHDR, IDAT,
+	 * and IEND) that match the specified type, possibly an empty list.
+	 * @param <T> the chunk type
+	 * @param type the class object of the desired chunk type
+	 * @return a list (not {@code null}) of all the chunks matching the type
+	 */
+	public <T> List<T> getChunks(Class<T> type) {
+		Objects.requireNonNull(type);
+		if (Modifier.isFinal(type.getModifiers())) {
+			@SuppressWarnings("unchecked")
+			List<T> result = (List<T>)index.getOrDefault(type, List.of());  // Each element's class is exactly type
+			return result;
+		}
+		return file.chunks().stream()
+			.filter(chk -> type.isInstance(chk))
+			.map(chk -> type.cast(chk))
+			.toList();
+	}
+	
+	
+	/**
+	 * Returns the signature and all chunks of this image (including
+	 * IHDR and IEND) as an XNG file whose list is unmodifiable.
+	 * @return an XNG file (not {@code null}) representing this image
+	 */
+	public XngFile toXngFile() {
+		return file;
+	}
+	
+	
+	/**
+	 * Returns a new mutable {@code PngImage} with new lists of the chunks in this snapshot.
+	 * The chunk objects themselves are shared, not copied.
+	 * @return a new mutable image (not {@code null}) with the chunks of this snapshot
+	 */
+	public PngImage toPngImage() {
+		var result = new PngImage();
+		result.ihdr = Optional.of(ihdr);
+		result.afterIhdr.addAll(afterIhdr);
+		result.idats.addAll(idats);
+		result.afterIdats.addAll(afterIdats);
+		return result;
+	}
+	
+	
+	/**
+	 * Decodes this image to a new buffered image, as per {@link ImageDecoder#toImage(PngImage)}.
+	 * Multiple threads can decode the same snapshot concurrently.
+	 * @return a new buffered image (not {@code null}) decoded from this image
+	 * @throws IllegalArgumentException if the image data is invalid
+	 */
+	public Object toImage() {
+		return ImageDecoder.toImage(toPngImage());
+	}
+	
+	
+	/**
+	 * Writes the signature and chunks of this image to the
+	 * specified output stream. This does not close the stream.
+	 * @param out the output stream to write to
+	 * @throws NullPointerException if {@code out} is {@code null}
+	 * @throws IOException if an I/O exception occurs
+	 */
+	public void write(OutputStream out) throws IOException {
+		file.write(out);
+	}
+	
+	
+	/**
+	 * Writes the signature and chunks of this image to the specified channel,
+	 * which must be in blocking mode. This does not close the channel.
+	 * @param out the channel to write to
+	 * @throws NullPointerException if {@code out} is {@code null}
+	 * @throws IOException if an I/O exception occurs
+	 */
+	public void write(WritableByteChannel out) throws IOException {
+		file.write(out);
+	}
+	
+}
@@ -9,21 +9,32 @@
 package io.nayuki.png;
 
 import java.io.ByteArrayInputStream;
-import java.io.DataInput;
+import java.io.ByteArrayOutputStream;
 import java.io.DataInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.PushbackInputStream;
 import java.io.SequenceInputStream;
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
 import java.util.Objects;
 import java.util.Optional;
-import java.util.stream.Stream;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.zip.Adler32;
+import java.util.zip.CheckedInputStream;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
 import java.util.zip.InflaterInputStream;
-import io.nayuki.png.chunk.Custom;
+import io.nayuki.png.chunk.Chunk;
+import io.nayuki.png.chunk.Idat;
 import io.nayuki.png.chunk.Ihdr;
 import io.nayuki.png.chunk.Plte;
 import io.nayuki.png.chunk.Sbit;
+import io.nayuki.png.chunk.Sgix;
 import io.nayuki.png.chunk.Trns;
 import io.nayuki.png.image.BufferedGrayImage;
 import io.nayuki.png.image.BufferedPaletteImage;
@@ -45,14 +56,88 @@ public final class ImageDecoder {
 	 * returned. Else if the PNG's color type is grayscale, then a {@link
 	 * BufferedGrayImage} is returned. Else if the PNG's color type is
 	 * indexed color, then a {@link BufferedPaletteImage} is returned.
+	 * If the PNG has a valid {@link Sgix} chunk, then its row segments are decoded
+	 * concurrently on the common fork-join pool.
 	 * @param png the PNG image to decode (not {@code null})
 	 * @return a new buffered image (not {@code null})
 	 * @throws NullPointerException if {@code png} is {@code null}
 	 * @throws IllegalArgumentException if the PNG image is malformed
 	 */
 	public static Object toImage(PngImage png) {
-		// Check header chunk
+		return toImage(png, ForkJoinPool.commonPool());
+	}
+	
+	
+	/**
+	 * Decodes the specified PNG image to a new mutable buffered image, decoding the row
+	 * segments of a valid {@link Sgix} chunk concurrently on the specified executor. This
+	 * is otherwise the same as {@link #toImage(PngImage)}. If the segment index doesn't match
+	 * the image data, then it is ignored and the image data is decoded sequentially.
+	 * @param png the PNG image to decode (not {@code null})
+	 * @param executor the executor to decode segments on (not {@code null})
+	 * @return a new buffered image (not {@code null})
+	 * @throws NullPointerException if {@code png} or {@code executor} is {@code null}
+	 * @throws IllegalArgumentException if the PNG image is malformed
+	 */
+	public static Object toImage(PngImage png, Executor executor) {
+		return toImage(png, executor, InflateEngine.ZLIB);
+	}
+	
+	
+	/**
+	 * Decodes the specified PNG image to a new mutable buffered image, decompressing the
+	 * image data with the specified engine. This is otherwise the same as {@link
+	 * #toImage(PngImage, Executor)}. The engine only applies to sequential decoding;
+	 * the row segments of a valid {@link Sgix} chunk are always decompressed with zlib.
+	 * @param png the PNG image to decode (not {@code null})
+	 * @param executor the executor to decode segments on (not {@code null})
+	 * @param engine the implementation of DEFLATE decompression to use (not {@code null})
+	 * @return a new buffered image (not {@code null})
+	 * @throws NullPointerException if any argument is {@code null}
+	 * @throws IllegalArgumentException if the PNG image is malformed
+	 */
+	public static Object toImage(PngImage png, Executor executor, InflateEngine engine) {
+		Objects.requireNonNull(png);
+		Objects.requireNonNull(executor);
+		Objects.requireNonNull(engine);
+		Ihdr ihdr = png.ihdr.orElseThrow(() -> new IllegalArgumentException("Missing IHDR chunk"));
+		return newDecoder(png, ihdr.height()).decode(executor, engine);
+	}
+	
+	
+	/**
+	 * Decodes the rows in the specified range of the specified non-interlaced PNG image
+	 * to a new mutable buffered image, resuming decompression from the nearest checkpoint
+	 * of the specified index. The result has the image's width, {@code endRow - startRow}
+	 * rows, and the same type and bit depths as {@link #toImage(PngImage)} would give.
+	 * The image data after the last requested row is not read, so it isn't checked.
+	 * @param png the PNG image to decode (not {@code null})
+	 * @param index the row index that was built from the PNG image (not {@code null})
+	 * @param startRow the first row to decode, in the range [0, height)
+	 * @param endRow the row after the last row to decode, in the range (startRow, height]
+	 * @return a new buffered image of the rows (not {@code null})
+	 * @throws NullPointerException if {@code png} or {@code index} is {@code null}
+	 * @throws IllegalArgumentException if the PNG image is malformed or interlaced,
+	 * the index doesn't match its image data, or the row range is invalid
+	 */
+	public static Object toImage(PngImage png, RowIndex index, int startRow, int endRow) {
 		Objects.requireNonNull(png);
+		Objects.requireNonNull(index);
+		Ihdr ihdr = png.ihdr.orElseThrow(() -> new IllegalArgumentException("Missing IHDR chunk"));
+		if (!(0 <= startRow && startRow < endRow && endRow <= ihdr.height()))
+			throw new IllegalArgumentException("Invalid row range");
+		Decoder dec = newDecoder(png, endRow - startRow);
+		try (var in = new DataInputStream(index.openRows(png, startRow, endRow))) {
+			dec.decodeSubimage(in::readFully, 0, 0, 1, 1, ihdr.width(), endRow - startRow);
+		} catch (IOException e) {
+			throw new IllegalArgumentException(e);
+		}
+		return dec.getResult();
+	}
+	
+	
+	private static Decoder newDecoder(PngImage png, int height) {
+		// Check header chunk
 		Ihdr ihdr = png.ihdr.orElseThrow(() -> new IllegalArgumentException("Missing IHDR chunk"));
 		// Force exhaustive matches at compile time
 		int discard0 = switch (ihdr.compressionMethod()) {
@@ -63,12 +148,12 @@ public final class ImageDecoder {
 		};
 		assert discard0 + discard1 == 0;
 		
-		// Decode image by color type
-		return (switch (ihdr.colorType()) {
-			case TRUE_COLOR, TRUE_COLOR_WITH_ALPHA -> new RgbaDecoder   (png);
-			case GRAYSCALE , GRAYSCALE_WITH_ALPHA  -> new GrayDecoder   (png);
-			case INDEXED_COLOR                     -> new PaletteDecoder(png);
-		}).decode();
+		// Choose decoder by color type
+		return switch (ihdr.colorType()) {
+			case TRUE_COLOR, TRUE_COLOR_WITH_ALPHA -> new RgbaDecoder   (png, height);
+			case GRAYSCALE , GRAYSCALE_WITH_ALPHA  -> new GrayDecoder   (png, height);
+			case INDEXED_COLOR                     -> new PaletteDecoder(png, height);
+		};
 	}
 	
 	
@@ -80,59 +165,288 @@ public final class ImageDecoder {
 		protected final int inBitDepth;
 		protected final Optional<Sbit> sbit;
 		protected final Optional<Trns> trns;
-		protected DataInputStream din;
+		protected final int outHeight;  // Less than the image height when decoding a range of rows
+		private ByteInput input;  // Only used by handleSubimage()
 		
 		
-		protected Decoder(PngImage png) {
+		protected Decoder(PngImage png, int outHeight) {
 			super(png.ihdr.orElseThrow(() -> new IllegalArgumentException("Missing IHDR chunk")));
 			this.png = png;
+			this.outHeight = outHeight;
 			inBitDepth = ihdr.bitDepth();
 			sbit = PngImage.getChunk(Sbit.class, png.afterIhdr);
 			trns = PngImage.getChunk(Trns.class, png.afterIhdr);
-			Stream.concat(png.afterIhdr.stream(), png.afterIdats.stream())
-				.filter(chk -> chk instanceof Custom && chk.isCritical())
-				.findFirst()
-				.ifPresent(chk -> { throw new IllegalArgumentException("Unrecognized critical chunk: " + chk.getType()); });
+			for (List<Chunk> lst : List.of(png.afterIhdr, png.afterIdats)) {
+				Chunk chk = ChunkList.findCriticalCustom(lst);
+				if (chk != null)
+					throw new IllegalArgumentException("Unrecognized critical chunk: " + chk.getType());
+			}
 		}
 		
 		
-		public final Object decode() {
-			// Virtually concatenate bytes from all data chunks, then decompress
-			List<InputStream> ins = png.idats.stream()
-				.map(idat -> (InputStream)new ByteArrayInputStream(idat.data()))
-				.toList();
-			var in0 = new SequenceInputStream(Collections.enumeration(ins));
-			var in1 = new InflaterInputStream(in0);
-			try (var in2 = din = new DataInputStream(in1)) {
-				doInterlace();
-				din = null;
+		public final Object decode(Executor executor, InflateEngine engine) {
+			Optional<Sgix> sgix = PngImage.getChunk(Sgix.class, png.afterIhdr);
+			if (sgix.isPresent() && ihdr.interlaceMethod() == Ihdr.InterlaceMethod.NONE && decodeSegments(sgix.get(), executor))
+				return getResult();
+			
+			switch (engine) {
+				case ZLIB -> {
+					// Virtually concatenate bytes from all data chunks, then decompress
+					List<InputStream> ins = png.idats.stream()
+						.map(idat -> (InputStream)new ByteArrayInputStream(idat.data()))
+						.toList();
+					var in0 = new SequenceInputStream(Collections.enumeration(ins));
+					var in1 = new InflaterInputStream(in0);
+					try (var in2 = new DataInputStream(in1)) {
+						input = in2::readFully;
+						doInterlace();
+						input = null;
+						
+						if (in2.read() != -1)
+							throw new IllegalArgumentException("Extra decompressed data after all pixels");
+					} catch (IOException e) {
+						throw new IllegalArgumentException(e);
+					}
+				}
 				
-				if (in2.read() != -1)
-					throw new IllegalArgumentException("Extra decompressed data after all pixels");
-			} catch (IOException e) {
-				throw new IllegalArgumentException(e);
+				case PURE_JAVA -> {
+					// Decompress each row straight into the row decoder's buffer
+					var bout = new ByteArrayOutputStream();
+					for (Idat idat : png.idats)
+						bout.writeBytes(idat.data());
+					var inf = new JavaInflater(bout.toByteArray());
+					bout = null;
+					input = inf::readFully;
+					try {
+						doInterlace();
+					} catch (IOException e) {
+						throw new AssertionError("Unreachable exception", e);
+					}
+					input = null;
+					
+					var buf = new byte[1];
+					int n;
+					do n = inf.inflate(buf, 0, buf.length);
+					while (n == 0);
+					if (n != -1)
+						throw new IllegalArgumentException("Extra decompressed data after all pixels");
+				}
+				
+				default -> throw new AssertionError("Unreachable value");
 			}
 			return getResult();
 		}
 		
 		
+		// Decodes the segments of the given index concurrently, returning false if the index doesn't
+		// match the image data. In that case, the caller decodes sequentially, which overwrites
+		// every pixel and reports any errors in the image data itself.
+		private boolean decodeSegments(Sgix index, Executor executor) {
+			var bout = new ByteArrayOutputStream();
+			for (Idat idat : png.idats)
+				bout.writeBytes(idat.data());
+			byte[] data = bout.toByteArray();
+			bout = null;
+			int n = index.startRows().length + 1;
+			if (index.startRows()[n - 2] >= ihdr.height() || index.dataOffsets()[n - 2] > data.length - 4)
+				return false;
+			
+			List<CompletableFuture<Segment>> tasks = new ArrayList<>();
+			for (int i = 1; i < n; i++) {
+				int seg = i;
+				tasks.add(CompletableFuture.supplyAsync(() -> decodeSegment(data, index, seg), executor));
+			}
+			Segment result;
+			try {
+				result = decodeSegment(data, index, 0);
+			} catch (IllegalArgumentException e) {
+				result = null;
+			}
+			// Wait for every task, so that none writes pixels after this method returns
+			for (CompletableFuture<Segment> task : tasks) {
+				try {
+					Segment seg = task.join();
+					if (result != null)
+						result = new Segment(adler32Combine(result.adler(), seg.adler(), seg.length()), result.length() + seg.length());
+				} catch (CompletionException e) {
+					if (!(e.getCause() instanceof IllegalArgumentException))
+						throw e;
+					result = null;
+				}
+			}
+			int expect = 0;
+			for (int i = data.length - 4; i < data.length; i++)
+				expect = expect << 8 | (data[i] & 0xFF);
+			return result != null && result.adler() == expect;
+		}
+		
+		
+		// Decodes the rows of the given segment, returning the checksum and length
+		// of its decompressed data, or throws IllegalArgumentException.
+		private Segment decodeSegment(byte[] data, Sgix index, int seg) {
+			boolean isLast = seg == index.startRows().length;
+			int startRow = seg > 0 ? index.startRows()[seg - 1] : 0;
+			int endRow = isLast ? ihdr.height() : index.startRows()[seg];
+			int start = seg > 0 ? index.dataOffsets()[seg - 1] : 0;
+			int end = isLast ? data.length : index.dataOffsets()[seg];
+			var bin = new ByteArrayInputStream(data, start, end - start);
+			var inf = new Inflater(seg > 0);  // Only the first segment has the ZLIB header
+			var adler = new Adler32();
+			try {
+				InputStream raw = new CheckedInputStream(new InflaterInputStream(bin, inf), adler);
+				if (seg > 0) {
+					// The sequential decoder unfilters this row against the real row above, so only
+					// filter types that ignore that row give the same pixels when decoded alone
+					var pin = new PushbackInputStream(raw);
+					int filter = pin.read();
+					if (filter > 1)
+						throw new IllegalArgumentException("Segment begins with a filter that uses the previous row");
+					if (filter != -1)
+						pin.unread(filter);
+					raw = pin;
+				}
+				var in = new DataInputStream(raw);
+				decodeSubimage(in::readFully, 0, startRow, 1, 1, ihdr.width(), endRow - startRow);
+				if (isLast) {
+					if (in.read() != -1)
+						throw new IllegalArgumentException("Extra decompressed data after all pixels");
+					if (inf.getRemaining() + bin.available() != 4)
+						throw new IllegalArgumentException("Misaligned segment");
+				} else {
+					// The rest of the input must be the end of a full flush, which decompresses to nothing
+					var buf = new byte[1024];
+					while (true) {
+						if (inf.needsInput()) {
+							int len = bin.read(buf);
+							if (len == -1)
+								break;
+							inf.setInput(buf, 0, len);
+						}
+						if (inf.inflate(buf, 0, 1) != 0 || inf.finished() || inf.needsDictionary())
+							throw new IllegalArgumentException("Misaligned segment");
+					}
+				}
+				return new Segment((int)adler.getValue(), inf.getBytesWritten());
+			} catch (IOException | DataFormatException e) {
+				throw new IllegalArgumentException(e);
+			} finally {
+				inf.end();
+			}
+		}
+		
+		
+		@Override protected final void handleSubimage(int xOffset, int yOffset, int xStep, int yStep, int subwidth, int subheight) throws IOException {
+			decodeSubimage(input, xOffset, yOffset, xStep, yStep, subwidth, subheight);
+		}
+		
+		
+		// Reads the rows of the given subimage from the given input and sets the pixels of
+		// the result. This may be called concurrently for disjoint ranges of rows.
+		protected abstract void decodeSubimage(ByteInput in, int xOffset, int yOffset, int xStep, int yStep, int subwidth, int subheight) throws IOException;
+		
+		
 		public abstract Object getResult();
 		
 	}
 	
 	
+	private record Segment(int adler, long length) {}
+	
+	
+	
+	/*---- Helper functions ----*/
+	
+	// Returns the Adler-32 checksum of the concatenation of two byte sequences,
+	// given the checksum of each one and the length of the second one.
+	static int adler32Combine(int adler1, int adler2, long length2) {
+		final int MOD = 65521;
+		long rem = length2 % MOD;
+		long sum1 = adler1 & 0xFFFF;
+		long sum2 = rem * sum1 % MOD;
+		sum1 = (sum1 + (adler2 & 0xFFFF) + MOD - 1) % MOD;
+		sum2 = (sum2 + (adler1 >>> 16) + (adler2 >>> 16) + MOD - rem) % MOD;
+		return (int)(sum2 << 16 | sum1);
+	}
+	
+	
+	
+	// Reverses the given filter type on currentRow in place, where previousRow is the
+	// unfiltered preceding row (or all zeros). Both arrays begin with filterStride padding
+	// bytes of zero, followed by the row's sample bytes without the filter type byte.
+	static void unfilterRow(int filter, byte[] currentRow, byte[] previousRow, int filterStride) {
+		switch (filter) {
+			case 0 -> {  // None
+			}
+			case 1 -> {  // Sub
+				for (int i = filterStride; i < currentRow.length; i++)
+					currentRow[i] += currentRow[i - filterStride];
+			}
+			case 2 -> {  // Up
+				for (int i = filterStride; i < currentRow.length; i++)
+					currentRow[i] += previousRow[i];
+			}
+			case 3 -> {  // Average
+				for (int i = filterStride; i < currentRow.length; i++)
+					currentRow[i] += ((currentRow[i - filterStride] & 0xFF) + (previousRow[i] & 0xFF)) >>> 1;
+			}
+			case 4 -> {  // Paeth
+				for (int i = filterStride; i < currentRow.length; i++) {
+					int a = currentRow[i - filterStride] & 0xFF;  // Left
+					int b = previousRow[i] & 0xFF;  // Up
+					int c = previousRow[i - filterStride] & 0xFF;  // Up left
+					int p = a + b - c;
+					int pa = Math.abs(p - a);
+					int pb = Math.abs(p - b);
+					int pc = Math.abs(p - c);
+					int pr;
+					if (pa <= pb && pa <= pc) pr = a;
+					else if (pb <= pc) pr = b;
+					else pr = c;
+					currentRow[i] += pr;
+				}
+			}
+			default -> throw new IllegalArgumentException("Unsupported filter type: " + filter);
+		}
+	}
+	
+	
+	
+	/*---- Helper types ----*/
+	
+	/**
+	 * The implementations of DEFLATE decompression that the decoder can use.
+	 * @see ImageDecoder#toImage(PngImage, Executor, InflateEngine)
+	 */
+	public enum InflateEngine {
+		/** The zlib library of the Java runtime, through {@link InflaterInputStream}. */
+		ZLIB,
+		
+		/**
+		 * A decompressor written in Java that inflates each row directly into the
+		 * buffer where it gets unfiltered, without any intermediate stream layers.
+		 */
+		PURE_JAVA,
+	}
+	
+	
+	// A source of decompressed image data, whose method has the contract of DataInput.readFully().
+	private interface ByteInput {
+		
+		public void readFully(byte[] b, int off, int len) throws IOException;
+		
+	}
+	
 	
-	/*---- Helper class ----*/
 	
 	private static final class RowDecoder {
 		
-		private DataInput input;
+		private ByteInput input;
 		private int filterStride;
 		private byte[] previousRow;
 		private byte[] currentRow;
 		
 		
-		public RowDecoder(DataInput in, int filterStride, int rowSizeBytes) {
+		public RowDecoder(ByteInput in, int filterStride, int rowSizeBytes) {
 			input = Objects.requireNonNull(in);
 			if (filterStride <= 0)
 				throw new IllegalArgumentException("Non-positive filter stride");
@@ -150,44 +464,13 @@ public final class ImageDecoder {
 			currentRow = previousRow;
 			previousRow = temp;
 			
-			// Read all the necessary bytes
-			int filter = input.readUnsignedByte();
-			input.readFully(currentRow, filterStride, currentRow.length - filterStride);
+			// Read the filter type into the last padding byte, together with the row's bytes
+			input.readFully(currentRow, filterStride - 1, currentRow.length - filterStride + 1);
+			int filter = currentRow[filterStride - 1] & 0xFF;
+			currentRow[filterStride - 1] = 0;
 			
 			// Do un-filtering
-			switch (filter) {
-				case 0 -> {  // None
-				}
-				case 1 -> {  // Sub
-					for (int i = filterStride; i < currentRow.length; i++)
-						currentRow[i] += currentRow[i - filterStride];
-				}
-				case 2 -> {  // Up
-					for (int i = filterStride; i < currentRow.length; i++)
-						currentRow[i] += previousRow[i];
-				}
-				case 3 -> {  // Average
-					for (int i = filterStride; i < currentRow.length; i++)
-						currentRow[i] += ((currentRow[i - filterStride] & 0xFF) + (previousRow[i] & 0xFF)) >>> 1;
-				}
-				case 4 -> {  // Paeth
-					for (int i = filterStride; i < currentRow.length; i++) {
-						int a = currentRow[i - filterStride] & 0xFF;  // Left
-						int b = previousRow[i] & 0xFF;  // Up
-						int c = previousRow[i - filterStride] & 0xFF;  // Up left
-						int p = a + b - c;
-						int pa = Math.abs(p - a);
-						int pb = Math.abs(p - b);
-						int pc = Math.abs(p - c);
-						int pr;
-						if (pa <= pb && pa <= pc) pr = a;
-						else if (pb <= pc) pr = b;
-						else pr = c;
-						currentRow[i] += pr;
-					}
-				}
-				default -> throw new IllegalArgumentException("Unsupported filter type: " + filter);
-			}
+			unfilterRow(filter, currentRow, previousRow, filterStride);
 			return currentRow;
 		}
 		
@@ -203,8 +486,8 @@ public final class ImageDecoder {
 		private BufferedRgbaImage result;
 		
 		
-		public RgbaDecoder(PngImage png) {
-			super(png);
+		public RgbaDecoder(PngImage png, int outHeight) {
+			super(png, outHeight);
 			
 			// Handle significant bits
 			int outRBits = inBitDepth, outGBits = inBitDepth, outBBits = inBitDepth,
@@ -241,11 +524,11 @@ public final class ImageDecoder {
 					outABits = 1;
 			}
 			
-			result = new BufferedRgbaImage(ihdr.width(), ihdr.height(), new int[]{outRBits, outGBits, outBBits, outABits});
+			result = new BufferedRgbaImage(ihdr.width(), outHeight, new int[]{outRBits, outGBits, outBBits, outABits});
 		}
 		
 		
-		@Override protected void handleSubimage(int xOffset, int yOffset, int xStep, int yStep, int subwidth, int subheight) throws IOException {
+		@Override protected void decodeSubimage(ByteInput in, int xOffset, int yOffset, int xStep, int yStep, int subwidth, int subheight) throws IOException {
 			int[] outBitDepths = result.getBitDepths();
 			int rShift = inBitDepth - outBitDepths[0];
 			int gShift = inBitDepth - outBitDepths[1];
@@ -255,7 +538,7 @@ public final class ImageDecoder {
 			int mode = (inBitDepth / 8 - 1) * 2 + (hasAlpha ? 1 : 0);
 			
 			int filterStride = Math.ceilDiv(inBitDepth * (hasAlpha ? 4 : 3), 8);
-			var dec = new RowDecoder(din, filterStride,
+			var dec = new RowDecoder(in, filterStride,
 				Math.toIntExact(Math.ceilDiv((long)subwidth * inBitDepth * (hasAlpha ? 4 : 3), 8)));
 			for (int y = 0; y < subheight; y++) {
 				byte[] row = dec.readRow();
@@ -318,8 +601,8 @@ public final class ImageDecoder {
 		private BufferedGrayImage result;
 		
 		
-		public GrayDecoder(PngImage png) {
-			super(png);
+		public GrayDecoder(PngImage png, int outHeight) {
+			super(png, outHeight);
 			
 			// Handle significant bits
 			int outWBits = inBitDepth, outABits = ihdr.colorType() == Ihdr.ColorType.GRAYSCALE ? 0 : inBitDepth;
@@ -353,11 +636,11 @@ public final class ImageDecoder {
 					outABits = 1;
 			}
 			
-			result = new BufferedGrayImage(ihdr.width(), ihdr.height(), new int[]{outWBits, outABits});
+			result = new BufferedGrayImage(ihdr.width(), outHeight, new int[]{outWBits, outABits});
 		}
 		
 		
-		@Override protected void handleSubimage(int xOffset, int yOffset, int xStep, int yStep, int subwidth, int subheight) throws IOException {
+		@Override protected void decodeSubimage(ByteInput in, int xOffset, int yOffset, int xStep, int yStep, int subwidth, int subheight) throws IOException {
 			int[] outBitDepths = result.getBitDepths();
 			int wShift = inBitDepth - outBitDepths[0];
 			int aShift = inBitDepth - outBitDepths[1];
@@ -365,7 +648,7 @@ public final class ImageDecoder {
 			int mode = inBitDepth >= 8 ? (inBitDepth / 8 - 1) * 2 + (hasAlpha ? 1 : 0) : 4;
 			
 			int filterStride = Math.ceilDiv(inBitDepth * (hasAlpha ? 2 : 1), 8);
-			var dec = new RowDecoder(din, filterStride,
+			var dec = new RowDecoder(in, filterStride,
 				Math.toIntExact(Math.ceilDiv((long)subwidth * inBitDepth * (hasAlpha ? 2 : 1), 8)));
 			for (int y = 0; y < subheight; y++) {
 				byte[] row = dec.readRow();
@@ -434,8 +717,8 @@ public final class ImageDecoder {
 		private BufferedPaletteImage result;
 		
 		
-		public PaletteDecoder(PngImage png) {
-			super(png);
+		public PaletteDecoder(PngImage png, int outHeight) {
+			super(png, outHeight);
 			
 			// Handle significant bits
 			int outRBits = 8, outGBits = 8, outBBits = 8;
@@ -469,14 +752,14 @@ public final class ImageDecoder {
 				palette[i] = (long)r << 48 | (long)g << 32 | (long)b << 16 | (long)a << 0;
 			}
 			
-			result = new BufferedPaletteImage(ihdr.width(), ihdr.height(),
+			result = new BufferedPaletteImage(ihdr.width(), outHeight,
 				new int[]{outRBits, outGBits, outBBits, outABits}, palette);
 		}
 		
 		
-		@Override protected void handleSubimage(int xOffset, int yOffset, int xStep, int yStep, int subwidth, int subheight) throws IOException {
+		@Override protected void decodeSubimage(ByteInput in, int xOffset, int yOffset, int xStep, int yStep, int subwidth, int subheight) throws IOException {
 			int filterStride = 1;  // Equal to ceil(inBitDepth / 8)
-			var dec = new RowDecoder(din, filterStride,
+			var dec = new RowDecoder(in, filterStride,
 				Math.toIntExact(Math.ceilDiv((long)subwidth * inBitDepth, 8)));
 			for (int y = 0; y < subheight; y++) {
 				byte[] row = dec.readRow();
@@ -11,14 +11,19 @@ package io.nayuki.png;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.OutputStream;
+import java.util.Arrays;
 import java.util.Objects;
 import java.util.Optional;
 import java.util.stream.IntStream;
+import java.util.zip.Adler32;
+import java.util.zip.Deflater;
 import java.util.zip.DeflaterOutputStream;
 import io.nayuki.png.chunk.Idat;
 import io.nayuki.png.chunk.Ihdr;
+import io.nayuki.png.chunk.OptimalDeflater;
 import io.nayuki.png.chunk.Plte;
 import io.nayuki.png.chunk.Sbit;
+import io.nayuki.png.chunk.Sgix;
 import io.nayuki.png.chunk.Trns;
 import io.nayuki.png.image.GrayImage;
 import io.nayuki.png.image.PaletteImage;
@@ -40,14 +45,27 @@ public final class ImageEncoder {
 	 * @throws NullPointerException if {@code img} is {@code null}
 	 */
 	public static PngImage toPng(RgbaImage img, Ihdr.InterlaceMethod interMeth) {
+		return toPng(img, interMeth, Options.DEFAULT);
+	}
+	
+	
+	/**
+	 * Encodes the specified image to a new PNG image with the specified options.
+	 * This is like {@link #toPng(RgbaImage, Ihdr.InterlaceMethod)},
+	 * except that the image data is compressed as per the options.
+	 * @param img the image to encode (not {@code null})
+	 * @param interMeth the interlace method (not {@code null})
+	 * @param opts the encoding options (not {@code null})
+	 * @return a new PNG image (not {@code null})
+	 * @throws NullPointerException if {@code img} or {@code opts} is {@code null}
+	 */
+	public static PngImage toPng(RgbaImage img, Ihdr.InterlaceMethod interMeth, Options opts) {
 		Objects.requireNonNull(img);
+		Objects.requireNonNull(opts);
 		int[] bitDepths = img.getBitDepths();
-		int bitDepth = bitDepths[0];
 		boolean hasAlpha = bitDepths[3] > 0;
-		// If bitDepths is not in the set {(8,8,8,0), (8,8,8,8), (16,16,16,0), (16,16,16,16)}
-		boolean supported = (bitDepth == 8 || bitDepth == 16) && bitDepths[1] == bitDepth && bitDepths[2] == bitDepth && (!hasAlpha || bitDepths[3] == bitDepth);
 		Optional<Sbit> sbit = Optional.empty();
-		if (!supported) {
+		if (!isSupported(img)) {
 			img = new UpBitDepthRgbaImage(img);
 			byte[] bitDepthsBytes;
 			if (!hasAlpha)
@@ -56,7 +74,7 @@ public final class ImageEncoder {
 				bitDepthsBytes = new byte[]{(byte)bitDepths[0], (byte)bitDepths[1], (byte)bitDepths[2], (byte)bitDepths[3]};
 			sbit = Optional.of(new Sbit(bitDepthsBytes));
 		}
-		return new RgbaEncoder(img, sbit, interMeth).encode();
+		return new RgbaEncoder(img, sbit, interMeth).encode(opts);
 	}
 	
 	
@@ -69,15 +87,27 @@ public final class ImageEncoder {
 	 * @throws NullPointerException if {@code img} is {@code null}
 	 */
 	public static PngImage toPng(GrayImage img, Ihdr.InterlaceMethod interMeth) {
+		return toPng(img, interMeth, Options.DEFAULT);
+	}
+	
+	
+	/**
+	 * Encodes the specified image to a new PNG image with the specified options.
+	 * This is like {@link #toPng(GrayImage, Ihdr.InterlaceMethod)},
+	 * except that the image data is compressed as per the options.
+	 * @param img the image to encode (not {@code null})
+	 * @param interMeth the interlace method (not {@code null})
+	 * @param opts the encoding options (not {@code null})
+	 * @return a new PNG image (not {@code null})
+	 * @throws NullPointerException if {@code img} or {@code opts} is {@code null}
+	 */
+	public static PngImage toPng(GrayImage img, Ihdr.InterlaceMethod interMeth, Options opts) {
 		Objects.requireNonNull(img);
+		Objects.requireNonNull(opts);
 		int[] bitDepths = img.getBitDepths();
-		int bitDepth = bitDepths[0];
 		boolean hasAlpha = bitDepths[1] > 0;
-		// If bitDepths is not in the set {(1,0), (2,0), (4,0), (8,0), (8,8), (16,0), (16,16)}
-		boolean supported = (bitDepth == 1 || bitDepth == 2 || bitDepth == 4) && !hasAlpha;
-		supported |= (bitDepth == 8 || bitDepth == 16) && (!hasAlpha || bitDepths[1] == bitDepth);
 		Optional<Sbit> sbit = Optional.empty();
-		if (!supported) {
+		if (!isSupported(img)) {
 			img = new UpBitDepthGrayImage(img);
 			byte[] bitDepthsBytes;
 			if (!hasAlpha)
@@ -86,7 +116,7 @@ public final class ImageEncoder {
 				bitDepthsBytes = new byte[]{(byte)bitDepths[0], (byte)bitDepths[1]};
 			sbit = Optional.of(new Sbit(bitDepthsBytes));
 		}
-		return new GrayEncoder(img, sbit, interMeth).encode();
+		return new GrayEncoder(img, sbit, interMeth).encode(opts);
 	}
 	
 	
@@ -98,7 +128,23 @@ public final class ImageEncoder {
 	 * @throws NullPointerException if {@code img} is {@code null}
 	 */
 	public static PngImage toPng(PaletteImage img, Ihdr.InterlaceMethod interMeth) {
+		return toPng(img, interMeth, Options.DEFAULT);
+	}
+	
+	
+	/**
+	 * Encodes the specified image to a new PNG image with the specified options.
+	 * This is like {@link #toPng(PaletteImage, Ihdr.InterlaceMethod)},
+	 * except that the image data is compressed as per the options.
+	 * @param img the image to encode (not {@code null})
+	 * @param interMeth the interlace method (not {@code null})
+	 * @param opts the encoding options (not {@code null})
+	 * @return a new PNG image (not {@code null})
+	 * @throws NullPointerException if {@code img} or {@code opts} is {@code null}
+	 */
+	public static PngImage toPng(PaletteImage img, Ihdr.InterlaceMethod interMeth, Options opts) {
 		Objects.requireNonNull(img);
+		Objects.requireNonNull(opts);
 		long[] palette = img.getPalette();
 		int bitDepth;  // Equal to 2^ceil(log2(ceil(log2(palette.length))))}
 		if (palette.length <= (1 << 1))
@@ -111,7 +157,395 @@ public final class ImageEncoder {
 			bitDepth = 8;
 		else
 			throw new AssertionError("Unreachable value");
-		return new PaletteEncoder(img, bitDepth, interMeth).encode();
+		return new PaletteEncoder(img, bitDepth, interMeth).encode(opts);
+	}
+	
+	
+	/**
+	 * Encodes the specified image to a new PNG image after reordering its palette
+	 * as per the specified order, which can make the image data compress better.
+	 * The colors of the pixels are unchanged, and the specified image is not modified.
+	 * @param img the image to encode (not {@code null})
+	 * @param interMeth the interlace method (not {@code null})
+	 * @param order the palette order to apply (not {@code null})
+	 * @return a new PNG image (not {@code null})
+	 * @throws NullPointerException if any argument is {@code null}
+	 */
+	public static PngImage toPng(PaletteImage img, Ihdr.InterlaceMethod interMeth, PaletteOrder order) {
+		return toPng(order.apply(img), interMeth);
+	}
+	
+	
+	/**
+	 * Encodes the specified image to a new PNG image in the smallest lossless representation
+	 * found by analyzing all the pixels. The result can be gray instead of true color, can
+	 * use a palette if there are at most 256 distinct colors, can drop an alpha channel
+	 * that is all opaque or replace one that is all fully transparent or opaque with a
+	 * transparent color (tRNS), and can halve 16-bit samples that are all 8-bit values
+	 * times 257 or shrink gray samples to fewer bits. The analysis reads the image's pixels
+	 * in parallel, so its {@code getPixel()} method must be safe to call from multiple threads.
+	 * Decoding the result yields an image of a possibly different type and bit depths, but
+	 * with the same color at every pixel (as defined by the PNG specification).
+	 * @param img the image to encode (not {@code null})
+	 * @param interMeth the interlace method (not {@code null})
+	 * @return a new PNG image (not {@code null})
+	 * @throws NullPointerException if {@code img} or {@code interMeth} is {@code null}
+	 */
+	public static PngImage toPngReduced(RgbaImage img, Ihdr.InterlaceMethod interMeth) {
+		return toPngReduced(img, interMeth, Options.DEFAULT);
+	}
+	
+	
+	/**
+	 * Encodes the specified image to a new PNG image in the smallest lossless representation,
+	 * with the specified options. This is like {@link #toPngReduced(RgbaImage, Ihdr.InterlaceMethod)},
+	 * except that the image data is compressed as per the options.
+	 * @param img the image to encode (not {@code null})
+	 * @param interMeth the interlace method (not {@code null})
+	 * @param opts the encoding options (not {@code null})
+	 * @return a new PNG image (not {@code null})
+	 * @throws NullPointerException if any argument is {@code null}
+	 */
+	public static PngImage toPngReduced(RgbaImage img, Ihdr.InterlaceMethod interMeth, Options opts) {
+		Objects.requireNonNull(img);
+		Objects.requireNonNull(interMeth);
+		Objects.requireNonNull(opts);
+		return toPng(ColorReducer.reduce(img), interMeth, opts);
+	}
+	
+	
+	// Encodes the given reduced image, adding a tRNS chunk for its transparent color if any.
+	static PngImage toPng(ColorReducer.Result red, Ihdr.InterlaceMethod interMeth, Options opts) {
+		if (red.image() instanceof PaletteImage pal)
+			return toPng(pal, interMeth, opts);
+		else if (red.image() instanceof GrayImage gray) {
+			PngImage result = toPng(gray, interMeth, opts);
+			if (red.keyX() != -1) {
+				GrayImage enc = isSupported(gray) ? gray : new UpBitDepthGrayImage(gray);
+				int val = enc.getPixel(red.keyX(), red.keyY());
+				result.afterIhdr.add(new Trns(new short[]{(short)(val >>> 16)}));
+			}
+			return result;
+		} else if (red.image() instanceof RgbaImage rgba) {
+			PngImage result = toPng(rgba, interMeth, opts);
+			if (red.keyX() != -1) {
+				RgbaImage enc = isSupported(rgba) ? rgba : new UpBitDepthRgbaImage(rgba);
+				long val = enc.getPixel(red.keyX(), red.keyY());
+				result.afterIhdr.add(new Trns(new short[]{(short)(val >>> 48), (short)(val >>> 32), (short)(val >>> 16)}));
+			}
+			return result;
+		} else
+			throw new AssertionError("Unreachable type");
+	}
+	
+	
+	/**
+	 * Encodes the specified array of packed ARGB pixels to a new 8-bit true color PNG image
+	 * with the specified options. Each pixel is an {@code int} with alpha in bits 24 to 31,
+	 * red in bits 16 to 23, green in bits 8 to 15, and blue in bits 0 to 7, like the default
+	 * color model of Java AWT. The pixel at (<var>x</var>, <var>y</var>) is at the array index
+	 * {@code offset + y * stride + x}. The pixels are read directly, without per-pixel calls.
+	 * @param argb the array of pixels (not {@code null})
+	 * @param offset the index of the top left pixel
+	 * @param stride the difference in index between vertically adjacent pixels
+	 * @param width the width of the image, which is positive
+	 * @param height the height of the image, which is positive
+	 * @param hasAlpha whether to encode the alpha channel, or else ignore it
+	 * @param interMeth the interlace method (not {@code null})
+	 * @param opts the encoding options (not {@code null})
+	 * @return a new PNG image (not {@code null})
+	 * @throws NullPointerException if {@code argb}, {@code interMeth}, or {@code opts} is {@code null}
+	 * @throws IllegalArgumentException if the width or height is non-positive, or the stride is less than the width
+	 * @throws IndexOutOfBoundsException if the specified pixels are not all inside the array
+	 */
+	public static PngImage toPngFromArgb(int[] argb, int offset, int stride, int width, int height,
+			boolean hasAlpha, Ihdr.InterlaceMethod interMeth, Options opts) {
+		Objects.requireNonNull(argb);
+		Objects.requireNonNull(opts);
+		var ihdr = new Ihdr(width, height, 8,
+			hasAlpha ? Ihdr.ColorType.TRUE_COLOR_WITH_ALPHA : Ihdr.ColorType.TRUE_COLOR,
+			Ihdr.CompressionMethod.ZLIB_DEFLATE,
+			Ihdr.FilterMethod.ADAPTIVE,
+			interMeth);
+		checkArrayLayout(argb.length, offset, stride, width, height);
+		return new ArgbEncoder(ihdr, argb, offset, stride).encode(opts);
+	}
+	
+	
+	/**
+	 * Encodes the specified array of 8-bit RGBA samples to a new 8-bit true color with alpha
+	 * PNG image with the specified options. Each pixel is 4 consecutive bytes in the order
+	 * red, green, blue, alpha. The pixel at (<var>x</var>, <var>y</var>) starts at the array
+	 * index {@code offset + y * stride + x * 4}. This is the same as {@link
+	 * #toPngFromScanlines(Ihdr, byte[], int, int, Options)} with the corresponding header.
+	 * @param rgba the array of samples (not {@code null})
+	 * @param offset the index of the first sample of the top left pixel
+	 * @param stride the difference in index between vertically adjacent pixels
+	 * @param width the width of the image, which is positive
+	 * @param height the height of the image, which is positive
+	 * @param interMeth the interlace method (not {@code null})
+	 * @param opts the encoding options (not {@code null})
+	 * @return a new PNG image (not {@code null})
+	 * @throws NullPointerException if {@code rgba}, {@code interMeth}, or {@code opts} is {@code null}
+	 * @throws IllegalArgumentException if the width or height is non-positive, or the stride is less than 4 times the width
+	 * @throws IndexOutOfBoundsException if the specified samples are not all inside the array
+	 */
+	public static PngImage toPngFromRgba(byte[] rgba, int offset, int stride, int width, int height,
+			Ihdr.InterlaceMethod interMeth, Options opts) {
+		var ihdr = new Ihdr(width, height, 8,
+			Ihdr.ColorType.TRUE_COLOR_WITH_ALPHA,
+			Ihdr.CompressionMethod.ZLIB_DEFLATE,
+			Ihdr.FilterMethod.ADAPTIVE,
+			interMeth);
+		return toPngFromScanlines(ihdr, rgba, offset, stride, opts);
+	}
+	
+	
+	/**
+	 * Encodes the specified packed scanlines to a new PNG image with the specified header and
+	 * options. Each row of the image is ceil(width &times; bits per pixel / 8) bytes of samples
+	 * in the PNG order for the header's color type and bit depth (without a filter type byte),
+	 * and the row at <var>y</var> starts at the array index {@code offset + y * stride}. The rows
+	 * are always given in non-interlaced order; the header's interlace method only affects
+	 * the output. When no interlacing is needed, each row is copied in bulk. The result only has
+	 * the header and image data; for indexed color, the caller must add a PLTE chunk (and
+	 * optionally tRNS) to {@code afterIhdr}. No sBIT chunk is added.
+	 * @param ihdr the header of the image to create (not {@code null})
+	 * @param scanlines the array of packed rows (not {@code null})
+	 * @param offset the index of the first byte of the top row
+	 * @param stride the difference in index between the starts of adjacent rows
+	 * @param opts the encoding options (not {@code null})
+	 * @return a new PNG image (not {@code null})
+	 * @throws NullPointerException if any argument is {@code null}
+	 * @throws IllegalArgumentException if the stride is less than the number of bytes per row
+	 * @throws IndexOutOfBoundsException if the specified rows are not all inside the array
+	 */
+	public static PngImage toPngFromScanlines(Ihdr ihdr, byte[] scanlines, int offset, int stride, Options opts) {
+		Objects.requireNonNull(ihdr);
+		Objects.requireNonNull(scanlines);
+		Objects.requireNonNull(opts);
+		int bitsPerPixel = ihdr.bitDepth() * switch (ihdr.colorType()) {
+			case GRAYSCALE, INDEXED_COLOR -> 1;
+			case GRAYSCALE_WITH_ALPHA     -> 2;
+			case TRUE_COLOR               -> 3;
+			case TRUE_COLOR_WITH_ALPHA    -> 4;
+		};
+		int rowBytes = Math.toIntExact(Math.ceilDiv((long)ihdr.width() * bitsPerPixel, 8));
+		checkArrayLayout(scanlines.length, offset, stride, rowBytes, ihdr.height());
+		return new ScanlineEncoder(ihdr, scanlines, offset, stride, bitsPerPixel).encode(opts);
+	}
+	
+	
+	// Checks that the given number of rows, each with rowLength elements starting at offset + y * stride, fit in an array.
+	private static void checkArrayLayout(int arrayLength, int offset, int stride, int rowLength, int height) {
+		if (stride < rowLength)
+			throw new IllegalArgumentException("Stride too small");
+		Objects.checkFromIndexSize(offset, (long)(height - 1) * stride + rowLength, arrayLength);
+	}
+	
+	
+	/**
+	 * Estimates the size and the encoding time of the PNG file that {@link
+	 * #toPng(RgbaImage, Ihdr.InterlaceMethod, Options)} would produce, by encoding only
+	 * evenly spaced bands of rows and extrapolating. The sampling runs the real packing,
+	 * filtering, and compression, and takes roughly the sample fraction of the full time.
+	 * @param img the image to estimate (not {@code null})
+	 * @param interMeth the interlace method (not {@code null})
+	 * @param opts the encoding options (not {@code null})
+	 * @param sampleFraction the approximate fraction of rows to encode, in the range (0, 1]
+	 * @return an estimate with confidence bounds (not {@code null})
+	 * @throws NullPointerException if {@code img}, {@code interMeth}, or {@code opts} is {@code null}
+	 * @throws IllegalArgumentException if the sample fraction is out of range
+	 */
+	public static Estimate estimate(RgbaImage img, Ihdr.InterlaceMethod interMeth, Options opts, double sampleFraction) {
+		Objects.requireNonNull(img);
+		Objects.requireNonNull(interMeth);
+		Objects.requireNonNull(opts);
+		return estimate(img.getHeight(), sampleFraction, (y0, rows) -> toPng(new RgbaImage() {
+			@Override public int getWidth() {
+				return img.getWidth();
+			}
+			@Override public int getHeight() {
+				return rows;
+			}
+			@Override public int[] getBitDepths() {
+				return img.getBitDepths();
+			}
+			@Override public long getPixel(int x, int y) {
+				return img.getPixel(x, y0 + y);
+			}
+		}, interMeth, opts));
+	}
+	
+	
+	/**
+	 * Estimates the size and the encoding time of the PNG file that {@link
+	 * #toPng(GrayImage, Ihdr.InterlaceMethod, Options)} would produce.
+	 * This is like {@link #estimate(RgbaImage, Ihdr.InterlaceMethod, Options, double)}.
+	 * @param img the image to estimate (not {@code null})
+	 * @param interMeth the interlace method (not {@code null})
+	 * @param opts the encoding options (not {@code null})
+	 * @param sampleFraction the approximate fraction of rows to encode, in the range (0, 1]
+	 * @return an estimate with confidence bounds (not {@code null})
+	 * @throws NullPointerException if {@code img}, {@code interMeth}, or {@code opts} is {@code null}
+	 * @throws IllegalArgumentException if the sample fraction is out of range
+	 */
+	public static Estimate estimate(GrayImage img, Ihdr.InterlaceMethod interMeth, Options opts, double sampleFraction) {
+		Objects.requireNonNull(img);
+		Objects.requireNonNull(interMeth);
+		Objects.requireNonNull(opts);
+		return estimate(img.getHeight(), sampleFraction, (y0, rows) -> toPng(new GrayImage() {
+			@Override public int getWidth() {
+				return img.getWidth();
+			}
+			@Override public int getHeight() {
+				return rows;
+			}
+			@Override public int[] getBitDepths() {
+				return img.getBitDepths();
+			}
+			@Override public int getPixel(int x, int y) {
+				return img.getPixel(x, y0 + y);
+			}
+		}, interMeth, opts));
+	}
+	
+	
+	/**
+	 * Estimates the size and the encoding time of the PNG file that {@link
+	 * #toPng(PaletteImage, Ihdr.InterlaceMethod, Options)} would produce.
+	 * This is like {@link #estimate(RgbaImage, Ihdr.InterlaceMethod, Options, double)}.
+	 * @param img the image to estimate (not {@code null})
+	 * @param interMeth the interlace method (not {@code null})
+	 * @param opts the encoding options (not {@code null})
+	 * @param sampleFraction the approximate fraction of rows to encode, in the range (0, 1]
+	 * @return an estimate with confidence bounds (not {@code null})
+	 * @throws NullPointerException if {@code img}, {@code interMeth}, or {@code opts} is {@code null}
+	 * @throws IllegalArgumentException if the sample fraction is out of range
+	 */
+	public static Estimate estimate(PaletteImage img, Ihdr.InterlaceMethod interMeth, Options opts, double sampleFraction) {
+		Objects.requireNonNull(img);
+		Objects.requireNonNull(interMeth);
+		Objects.requireNonNull(opts);
+		return estimate(img.getHeight(), sampleFraction, (y0, rows) -> toPng(new PaletteImage() {
+			@Override public int getWidth() {
+				return img.getWidth();
+			}
+			@Override public int getHeight() {
+				return rows;
+			}
+			@Override public int[] getBitDepths() {
+				return img.getBitDepths();
+			}
+			@Override public long[] getPalette() {
+				return img.getPalette();
+			}
+			@Override public int getPixel(int x, int y) {
+				return img.getPixel(x, y0 + y);
+			}
+		}, interMeth, opts));
+	}
+	
+	
+	// Encodes evenly spaced bands of rows, then extrapolates the per-row size and time of the
+	// image data, weighting each band by its number of rows (so a short last band counts little).
+	// The bounds are the ratio estimate plus or minus 1.96 standard errors (about 95% confidence),
+	// treating the bands as a sample without replacement from all bands.
+	private static Estimate estimate(int height, double sampleFraction, BandEncoder encoder) {
+		if (!(0 < sampleFraction && sampleFraction <= 1))
+			throw new IllegalArgumentException("Invalid sample fraction");
+		final int BAND_ROWS = 32;  // A multiple of 8, so that every band has all Adam7 passes
+		int totalBands = Math.ceilDiv(height, BAND_ROWS);
+		int numBands = (int)Math.min(Math.max(Math.ceil(totalBands * sampleFraction), Math.min(totalBands, 2)), totalBands);
+		
+		var sizes = new double[numBands];  // Compressed bytes
+		var times = new double[numBands];  // Nanoseconds
+		var bandRows = new int[numBands];
+		long fixedSize = 0;
+		for (int i = 0; i < numBands; i++) {
+			int band = (int)((2L * i + 1) * totalBands / (2L * numBands));  // Centers of equal strata
+			int y0 = band * BAND_ROWS;
+			int rows = Math.min(BAND_ROWS, height - y0);
+			long start = System.nanoTime();
+			PngImage png = encoder.encode(y0, rows);
+			times[i] = System.nanoTime() - start;
+			bandRows[i] = rows;
+			long dataSize = 0;
+			for (Idat idat : png.idats)
+				dataSize += idat.data().length - ZLIB_OVERHEAD;
+			sizes[i] = dataSize;
+			if (i == 0) {
+				var bout = new ByteArrayOutputStream();
+				try {
+					png.write(bout);
+				} catch (IOException e) {
+					throw new AssertionError("Unreachable exception", e);
+				}
+				fixedSize = bout.size() - dataSize;
+			}
+		}
+		double correction = Math.sqrt(1 - (double)numBands / totalBands);
+		double[] size = ratioAndMargin(sizes, bandRows, correction);
+		double[] time = ratioAndMargin(times, bandRows, correction);
+		return new Estimate(
+			fixedSize + Math.round(size[0] * height),
+			fixedSize + Math.round(Math.max(size[0] - size[1], 0) * height),
+			fixedSize + Math.round((size[0] + size[1]) * height),
+			Math.round(time[0] * height),
+			Math.round(Math.max(time[0] - time[1], 0) * height),
+			Math.round((time[0] + time[1]) * height));
+	}
+	
+	
+	// Returns {sum(values) / sum(rows), 1.96 * standard error * correction}, where the standard
+	// error is that of the ratio estimator: based on the residuals values[i] - ratio * rows[i].
+	private static double[] ratioAndMargin(double[] values, int[] rows, double correction) {
+		double valueSum = 0;
+		long rowSum = 0;
+		for (int i = 0; i < values.length; i++) {
+			valueSum += values[i];
+			rowSum += rows[i];
+		}
+		double ratio = valueSum / rowSum;
+		int n = values.length;
+		if (n < 2)
+			return new double[]{ratio, 0};
+		double sqSum = 0;
+		for (int i = 0; i < n; i++) {
+			double resid = values[i] - ratio * rows[i];
+			sqSum += resid * resid;
+		}
+		double meanRows = (double)rowSum / n;
+		double stdErr = Math.sqrt(sqSum / (n - 1) / n) / meanRows;
+		return new double[]{ratio, 1.96 * stdErr * correction};
+	}
+	
+	
+	private static final int ZLIB_OVERHEAD = 2 + 4;  // Header and Adler-32 checksum
+	
+	
+	private interface BandEncoder {
+		public PngImage encode(int y0, int rows);
+	}
+	
+	
+	// Tests whether bitDepths is in the set {(8,8,8,0), (8,8,8,8), (16,16,16,0), (16,16,16,16)}.
+	private static boolean isSupported(RgbaImage img) {
+		int[] bitDepths = img.getBitDepths();
+		int bitDepth = bitDepths[0];
+		boolean hasAlpha = bitDepths[3] > 0;
+		return (bitDepth == 8 || bitDepth == 16) && bitDepths[1] == bitDepth && bitDepths[2] == bitDepth && (!hasAlpha || bitDepths[3] == bitDepth);
+	}
+	
+	
+	// Tests whether bitDepths is in the set {(1,0), (2,0), (4,0), (8,0), (8,8), (16,0), (16,16)}.
+	private static boolean isSupported(GrayImage img) {
+		int[] bitDepths = img.getBitDepths();
+		int bitDepth = bitDepths[0];
+		boolean hasAlpha = bitDepths[1] > 0;
+		boolean supported = (bitDepth == 1 || bitDepth == 2 || bitDepth == 4) && !hasAlpha;
+		supported |= (bitDepth == 8 || bitDepth == 16) && (!hasAlpha || bitDepths[1] == bitDepth);
+		return supported;
 	}
 	
 	
@@ -119,10 +553,107 @@ public final class ImageEncoder {
 	
 	
 	
+	/*---- Helper types ----*/
+	
+	/**
+	 * Options for filtering and compressing the image data of an encoded PNG image. If an
+	 * optimal deflater is present, then it compresses the data and the level and strategy
+	 * are ignored; otherwise the data is compressed by {@link Deflater} with them.
+	 * @param filterStrategy how to choose the filter type of each row (not {@code null})
+	 * @param compressionLevel the compression level as per {@link Deflater#setLevel(int)},
+	 * in the range [0, 9] or {@link Deflater#DEFAULT_COMPRESSION}
+	 * @param compressionStrategy the compression strategy as per {@link Deflater#setStrategy(int)},
+	 * which is {@link Deflater#DEFAULT_STRATEGY}, {@link Deflater#FILTERED}, or {@link Deflater#HUFFMAN_ONLY}
+	 * @param optimalDeflater the high-effort deflater to use, or empty (not {@code null})
+	 * @param segments the number of independently decodable row segments, at least 1; if more than 1
+	 * and the image is not interlaced, then the rows are split into segments of equal height (except
+	 * the last) that are compressed separately and recorded in an {@link Sgix} chunk
+	 */
+	public record Options(
+			FilterStrategy filterStrategy,
+			int compressionLevel,
+			int compressionStrategy,
+			Optional<OptimalDeflater> optimalDeflater,
+			int segments) {
+		
+		/** The options that the encoder methods without an options parameter use. */
+		public static final Options DEFAULT = new Options(FilterStrategy.NONE,
+			Deflater.DEFAULT_COMPRESSION, Deflater.DEFAULT_STRATEGY, Optional.empty(), 1);
+		
+		
+		/**
+		 * Constructs options with the specified field values.
+		 * @throws NullPointerException if {@code filterStrategy} or {@code optimalDeflater} is {@code null}
+		 * @throws IllegalArgumentException if the compression level, strategy, or number of segments is invalid
+		 */
+		public Options {
+			Objects.requireNonNull(filterStrategy);
+			if (!(compressionLevel == Deflater.DEFAULT_COMPRESSION || 0 <= compressionLevel && compressionLevel <= 9))
+				throw new IllegalArgumentException("Invalid compression level");
+			if (compressionStrategy != Deflater.DEFAULT_STRATEGY && compressionStrategy != Deflater.FILTERED && compressionStrategy != Deflater.HUFFMAN_ONLY)
+				throw new IllegalArgumentException("Invalid compression strategy");
+			Objects.requireNonNull(optimalDeflater);
+			if (segments < 1)
+				throw new IllegalArgumentException("Invalid number of segments");
+		}
+		
+	}
+	
+	
+	/**
+	 * An estimate of the encoded size and the encoding time of an image, with the
+	 * lower and upper bounds of an approximate 95% confidence interval for each.
+	 * The estimate is exact for size when every row is sampled, except that
+	 * separately compressed bands can't share matches with each other.
+	 * @param size the estimated size of the PNG file in bytes
+	 * @param sizeLow the lower bound of the size
+	 * @param sizeHigh the upper bound of the size
+	 * @param nanos the estimated encoding time in nanoseconds
+	 * @param nanosLow the lower bound of the time
+	 * @param nanosHigh the upper bound of the time
+	 * @see ImageEncoder#estimate(RgbaImage, Ihdr.InterlaceMethod, Options, double)
+	 */
+	public record Estimate(long size, long sizeLow, long sizeHigh, long nanos, long nanosLow, long nanosHigh) {}
+	
+	
+	/**
+	 * A way of choosing the filter type of each row of image data. Filtering is lossless and
+	 * usually makes true color and grayscale images compress better, while paletted images and
+	 * images with bit depths below 8 usually compress best without filtering.
+	 */
+	public enum FilterStrategy {
+		
+		/** Uses filter type 0 (None) on every row. */
+		NONE,
+		
+		/** Uses filter type 1 (Sub) on every row. */
+		SUB,
+		
+		/** Uses filter type 2 (Up) on every row. */
+		UP,
+		
+		/** Uses filter type 3 (Average) on every row. */
+		AVERAGE,
+		
+		/** Uses filter type 4 (Paeth) on every row. */
+		PAETH,
+		
+		/**
+		 * Uses, for each row, the filter type that minimizes the sum of the absolute values
+		 * of the filtered bytes interpreted as signed, like the heuristic of libpng.
+		 */
+		MINIMUM_SUM,
+		
+	}
+	
+	
+	
 	private static abstract class Encoder extends Interlacer {
 		
 		protected PngImage result = new PngImage();
 		protected OutputStream dout;
+		private FilterStrategy filterStrategy = FilterStrategy.NONE;
+		private int segmentRows;  // The first row of each segment after the first is filtered independently
 		
 		
 		protected Encoder(Ihdr ihdr) {
@@ -131,18 +662,201 @@ public final class ImageEncoder {
 		}
 		
 		
-		public PngImage encode() {
+		public PngImage encode(Options opts) {
+			filterStrategy = opts.filterStrategy();
+			int height = ihdr.height();
+			segmentRows = height;
+			if (opts.segments() > 1 && ihdr.interlaceMethod() == Ihdr.InterlaceMethod.NONE)
+				segmentRows = Math.ceilDiv(height, Math.min(opts.segments(), height));
+			
 			var bout = new ByteArrayOutputStream();
-			try (var out = dout = new DeflaterOutputStream(bout)) {
-				doInterlace();
-			} catch (IOException e) {
-				throw new AssertionError("Unreachable exception", e);
+			if (opts.optimalDeflater().isEmpty() && segmentRows == height) {
+				var deflater = new Deflater(opts.compressionLevel());
+				deflater.setStrategy(opts.compressionStrategy());
+				try (var out = dout = new DeflaterOutputStream(bout, deflater)) {
+					doInterlace();
+				} catch (IOException e) {
+					throw new AssertionError("Unreachable exception", e);
+				} finally {
+					deflater.end();
+				}
+				result.idats.add(new Idat(bout.toByteArray()));
+			} else {
+				dout = bout;
+				try {
+					doInterlace();
+				} catch (IOException e) {
+					throw new AssertionError("Unreachable exception", e);
+				}
+				byte[] data = bout.toByteArray();
+				if (segmentRows == height)
+					result.idats.add(new Idat(opts.optimalDeflater().get().compress(data)));
+				else
+					compressSegments(data, data.length / height * segmentRows, opts);
 			}
-			result.idats.add(new Idat(bout.toByteArray()));
 			bout = null;
 			return result;
 		}
 		
+		
+		// Compresses each segment of the given non-interlaced filtered data separately, such that
+		// they form one ZLIB stream, and adds the data chunk and the segment index chunk.
+		private void compressSegments(byte[] data, int segmentBytes, Options opts) {
+			var out = new ByteArrayOutputStream();
+			out.write(0x78);  // Deflate with 32 KiB window
+			int level = opts.optimalDeflater().isPresent() ? 9 : opts.compressionLevel();
+			int flevel = switch (level) {
+				case 0, 1 -> 0;
+				case 2, 3, 4, 5 -> 1;
+				case 7, 8, 9 -> 3;
+				default -> 2;
+			};
+			out.write(flevel << 6 | (31 - (0x7800 | flevel << 6) % 31));  // Level and header checksum
+			
+			int numSegments = Math.ceilDiv(data.length, segmentBytes);
+			var startRows = new int[numSegments - 1];
+			var dataOffsets = new int[numSegments - 1];
+			for (int i = 0; i < numSegments; i++) {
+				int start = i * segmentBytes;
+				int end = Math.min(start + segmentBytes, data.length);
+				boolean isFinal = i == numSegments - 1;
+				if (i > 0) {
+					startRows[i - 1] = i * segmentRows;
+					dataOffsets[i - 1] = out.size();
+				}
+				if (opts.optimalDeflater().isPresent())
+					out.writeBytes(opts.optimalDeflater().get().compressRaw(Arrays.copyOfRange(data, start, end), isFinal));
+				else {
+					var deflater = new Deflater(opts.compressionLevel(), true);
+					try {
+						deflater.setStrategy(opts.compressionStrategy());
+						deflater.setInput(data, start, end - start);
+						if (isFinal)
+							deflater.finish();
+						var buf = new byte[16384];
+						while (true) {
+							int n = deflater.deflate(buf, 0, buf.length, isFinal ? Deflater.NO_FLUSH : Deflater.FULL_FLUSH);
+							out.write(buf, 0, n);
+							if (isFinal ? deflater.finished() : n < buf.length && deflater.needsInput())  // A strategy change defers the input
+								break;
+						}
+					} finally {
+						deflater.end();
+					}
+				}
+			}
+			var adler = new Adler32();
+			adler.update(data);
+			int checksum = (int)adler.getValue();
+			for (int i = 24; i >= 0; i -= 8)
+				out.write(checksum >>> i);
+			result.idats.add(new Idat(out.toByteArray()));
+			result.afterIhdr.add(new Sgix(startRows, dataOffsets));
+		}
+		
+		
+		// Filters the given rows of a subimage in place as per the strategy, then writes them.
+		// Each row is a filter type byte (initially 0) followed by bytesPerRow - 1 sample bytes.
+		protected void writeRows(byte[] filtersAndSamples, int bytesPerRow, int filterStride) throws IOException {
+			if (filterStrategy != FilterStrategy.NONE)
+				filterRows(filterStrategy, filtersAndSamples, bytesPerRow, filterStride, segmentRows);
+			dout.write(filtersAndSamples);
+		}
+		
+	}
+	
+	
+	
+	/*---- Filtering functions ----*/
+	
+	// Filters every row of the given array in place. Rows are processed from the bottom up,
+	// so that the row above the current one is still unfiltered when it is used. Each row at
+	// a nonzero multiple of segmentRows only uses filter types that ignore the row above.
+	static void filterRows(FilterStrategy strategy, byte[] filtersAndSamples, int bytesPerRow, int filterStride, int segmentRows) {
+		int rowLen = bytesPerRow - 1;
+		var temp = new byte[rowLen];
+		var best = new byte[rowLen];
+		for (int start = filtersAndSamples.length - rowLen; start > 0; start -= bytesPerRow) {
+			int row = start / bytesPerRow;
+			boolean independent = row > 0 && row % segmentRows == 0;
+			int filter;
+			if (strategy == FilterStrategy.MINIMUM_SUM) {
+				filter = 0;
+				long bestSum = Long.MAX_VALUE;
+				for (int f = 0; f < (independent ? 2 : 5); f++) {
+					filterRow(f, filtersAndSamples, start, bytesPerRow, filterStride, temp);
+					long sum = 0;
+					for (byte b : temp)
+						sum += Math.abs(b);
+					if (sum < bestSum) {
+						filter = f;
+						bestSum = sum;
+						byte[] swap = best;
+						best = temp;
+						temp = swap;
+					}
+				}
+			} else {
+				filter = switch (strategy) {
+					case NONE    -> 0;
+					case SUB     -> 1;
+					case UP      -> 2;
+					case AVERAGE -> 3;
+					case PAETH   -> 4;
+					default -> throw new AssertionError("Unreachable value");
+				};
+				if (independent && filter >= 2)  // What each filter becomes (Average approximately) with a zero row above
+					filter = filter == 2 ? 0 : 1;
+				filterRow(filter, filtersAndSamples, start, bytesPerRow, filterStride, best);
+			}
+			filtersAndSamples[start - 1] = (byte)filter;
+			System.arraycopy(best, 0, filtersAndSamples, start, rowLen);
+		}
+	}
+	
+	
+	// Writes the given filter type applied to the row of samples beginning at index start
+	// into out, where the preceding row (if start is not 1) is unfiltered. This is the
+	// inverse of ImageDecoder.unfilterRow().
+	private static void filterRow(int filter, byte[] rows, int start, int bytesPerRow, int filterStride, byte[] out) {
+		int prev = start - bytesPerRow;  // Negative if this is the first row
+		switch (filter) {
+			case 0 -> {  // None
+				System.arraycopy(rows, start, out, 0, out.length);
+			}
+			case 1 -> {  // Sub
+				for (int i = 0; i < out.length; i++)
+					out[i] = (byte)(rows[start + i] - (i >= filterStride ? rows[start + i - filterStride] : 0));
+			}
+			case 2 -> {  // Up
+				for (int i = 0; i < out.length; i++)
+					out[i] = (byte)(rows[start + i] - (prev >= 0 ? rows[prev + i] : 0));
+			}
+			case 3 -> {  // Average
+				for (int i = 0; i < out.length; i++) {
+					int a = i >= filterStride ? rows[start + i - filterStride] & 0xFF : 0;
+					int b = prev >= 0 ? rows[prev + i] & 0xFF : 0;
+					out[i] = (byte)(rows[start + i] - ((a + b) >>> 1));
+				}
+			}
+			case 4 -> {  // Paeth
+				for (int i = 0; i < out.length; i++) {
+					int a = i >= filterStride ? rows[start + i - filterStride] & 0xFF : 0;  // Left
+					int b = prev >= 0 ? rows[prev + i] & 0xFF : 0;  // Up
+					int c = i >= filterStride && prev >= 0 ? rows[prev + i - filterStride] & 0xFF : 0;  // Up left
+					int p = a + b - c;
+					int pa = Math.abs(p - a);
+					int pb = Math.abs(p - b);
+					int pc = Math.abs(p - c);
+					int pr;
+					if (pa <= pb && pa <= pc) pr = a;
+					else if (pb <= pc) pr = b;
+					else pr = c;
+					out[i] = (byte)(rows[start + i] - pr);
+				}
+			}
+			default -> throw new AssertionError("Unreachable value");
+		}
 	}
 	
 	
@@ -169,6 +883,7 @@ public final class ImageEncoder {
 		
 		@Override protected void handleSubimage(int xOffset, int yOffset, int xStep, int yStep, int subwidth, int subheight) throws IOException {
 			int bytesPerRow = Math.toIntExact(Math.ceilDiv((long)subwidth * bitDepth * (hasAlpha ? 4 : 3), 8) + 1);
+			int filterStride = Math.ceilDiv(bitDepth * (hasAlpha ? 4 : 3), 8);
 			var filtersAndSamples = new byte[Math.multiplyExact(bytesPerRow, subheight)];
 			for (int y = 0, i = 0; y < subheight; y++) {
 				filtersAndSamples[i] = 0;
@@ -219,7 +934,7 @@ public final class ImageEncoder {
 					default -> throw new AssertionError("Unreachable value");
 				}
 			}
-			dout.write(filtersAndSamples);
+			writeRows(filtersAndSamples, bytesPerRow, filterStride);
 		}
 		
 	}
@@ -248,6 +963,7 @@ public final class ImageEncoder {
 		
 		@Override protected void handleSubimage(int xOffset, int yOffset, int xStep, int yStep, int subwidth, int subheight) throws IOException {
 			int bytesPerRow = Math.toIntExact(Math.ceilDiv((long)subwidth * bitDepth * (hasAlpha ? 2 : 1), 8) + 1);
+			int filterStride = Math.ceilDiv(bitDepth * (hasAlpha ? 2 : 1), 8);
 			var filtersAndSamples = new byte[Math.multiplyExact(bytesPerRow, subheight)];
 			for (int y = 0, i = 0; y < subheight; y++) {
 				filtersAndSamples[i] = 0;
@@ -302,7 +1018,7 @@ public final class ImageEncoder {
 					default -> throw new AssertionError("Unreachable value");
 				}
 			}
-			dout.write(filtersAndSamples);
+			writeRows(filtersAndSamples, bytesPerRow, filterStride);
 		}
 		
 	}
@@ -328,23 +1044,16 @@ public final class ImageEncoder {
 			var paletteBytes = new byte[Math.multiplyExact(palette.length, 3)];
 			int transpLen = 0;
 			{  // Up-convert RGB channels to 8 bits
-				long mul = (2 << 8) - 2;
 				int[] bitDepths = img.getBitDepths();
-				long rDiv = (1 << bitDepths[0]) - 1;
-				long gDiv = (1 << bitDepths[1]) - 1;
-				long bDiv = (1 << bitDepths[2]) - 1;
+				char[] rTable = SampleScaler.scaleTable(bitDepths[0], 8);
+				char[] gTable = SampleScaler.scaleTable(bitDepths[1], 8);
+				char[] bTable = SampleScaler.scaleTable(bitDepths[2], 8);
 				for (int i = 0; i < palette.length; i++) {
 					long rgba = palette[i];
-					long r = (rgba >>> 48) & 0xFF;
-					long g = (rgba >>> 32) & 0xFF;
-					long b = (rgba >>> 16) & 0xFF;
 					long a = (rgba >>>  0) & 0xFF;
-					r = (r * mul + rDiv) / rDiv >>> 1;
-					g = (g * mul + gDiv) / gDiv >>> 1;
-					b = (b * mul + bDiv) / bDiv >>> 1;
-					paletteBytes[i * 3 + 0] = (byte)r;
-					paletteBytes[i * 3 + 1] = (byte)g;
-					paletteBytes[i * 3 + 2] = (byte)b;
+					paletteBytes[i * 3 + 0] = (byte)rTable[(int)(rgba >>> 48) & 0xFF];
+					paletteBytes[i * 3 + 1] = (byte)gTable[(int)(rgba >>> 32) & 0xFF];
+					paletteBytes[i * 3 + 2] = (byte)bTable[(int)(rgba >>> 16) & 0xFF];
 					if (bitDepths[3] > 0 && a < 0xFF)
 						transpLen = i + 1;
 				}
@@ -363,6 +1072,7 @@ public final class ImageEncoder {
 		
 		@Override protected void handleSubimage(int xOffset, int yOffset, int xStep, int yStep, int subwidth, int subheight) throws IOException {
 			int bytesPerRow = Math.toIntExact(Math.ceilDiv((long)subwidth * bitDepth, 8) + 1);
+			int filterStride = 1;  // Equal to ceil(bitDepth / 8)
 			var filtersAndSamples = new byte[Math.multiplyExact(bytesPerRow, subheight)];
 			for (int y = 0, i = 0; y < subheight; y++) {
 				filtersAndSamples[i] = 0;
@@ -391,7 +1101,118 @@ public final class ImageEncoder {
 					default -> throw new AssertionError("Unreachable value");
 				}
 			}
-			dout.write(filtersAndSamples);
+			writeRows(filtersAndSamples, bytesPerRow, filterStride);
+		}
+		
+	}
+	
+	
+	
+	private static final class ArgbEncoder extends Encoder {
+		
+		private final int[] pixels;
+		private final int offset;
+		private final int stride;
+		private final boolean hasAlpha;
+		
+		
+		public ArgbEncoder(Ihdr ihdr, int[] pixels, int offset, int stride) {
+			super(ihdr);
+			this.pixels = pixels;
+			this.offset = offset;
+			this.stride = stride;
+			hasAlpha = ihdr.colorType() == Ihdr.ColorType.TRUE_COLOR_WITH_ALPHA;
+		}
+		
+		
+		@Override protected void handleSubimage(int xOffset, int yOffset, int xStep, int yStep, int subwidth, int subheight) throws IOException {
+			int filterStride = hasAlpha ? 4 : 3;
+			int bytesPerRow = Math.toIntExact((long)subwidth * filterStride + 1);
+			var filtersAndSamples = new byte[Math.multiplyExact(bytesPerRow, subheight)];
+			for (int y = 0, i = 0; y < subheight; y++) {
+				filtersAndSamples[i] = 0;
+				i++;
+				
+				int j = offset + (yOffset + y * yStep) * stride + xOffset;
+				if (hasAlpha) {
+					for (int x = 0; x < subwidth; x++, i += 4, j += xStep) {
+						int val = pixels[j];
+						filtersAndSamples[i + 0] = (byte)(val >>> 16);
+						filtersAndSamples[i + 1] = (byte)(val >>>  8);
+						filtersAndSamples[i + 2] = (byte)(val >>>  0);
+						filtersAndSamples[i + 3] = (byte)(val >>> 24);
+					}
+				} else {
+					for (int x = 0; x < subwidth; x++, i += 3, j += xStep) {
+						int val = pixels[j];
+						filtersAndSamples[i + 0] = (byte)(val >>> 16);
+						filtersAndSamples[i + 1] = (byte)(val >>>  8);
+						filtersAndSamples[i + 2] = (byte)(val >>>  0);
+					}
+				}
+			}
+			writeRows(filtersAndSamples, bytesPerRow, filterStride);
+		}
+		
+	}
+	
+	
+	
+	private static final class ScanlineEncoder extends Encoder {
+		
+		private final byte[] data;
+		private final int offset;
+		private final int stride;
+		private final int bitsPerPixel;
+		
+		
+		public ScanlineEncoder(Ihdr ihdr, byte[] data, int offset, int stride, int bitsPerPixel) {
+			super(ihdr);
+			this.data = data;
+			this.offset = offset;
+			this.stride = stride;
+			this.bitsPerPixel = bitsPerPixel;
+		}
+		
+		
+		@Override protected void handleSubimage(int xOffset, int yOffset, int xStep, int yStep, int subwidth, int subheight) throws IOException {
+			int bytesPerRow = Math.toIntExact(Math.ceilDiv((long)subwidth * bitsPerPixel, 8) + 1);
+			int filterStride = Math.ceilDiv(bitsPerPixel, 8);
+			var filtersAndSamples = new byte[Math.multiplyExact(bytesPerRow, subheight)];
+			for (int y = 0, i = 0; y < subheight; y++) {
+				filtersAndSamples[i] = 0;
+				i++;
+				
+				int rowStart = offset + (yOffset + y * yStep) * stride;
+				if (xStep == 1) {  // Rows are already in PNG order
+					System.arraycopy(data, rowStart, filtersAndSamples, i, bytesPerRow - 1);
+					i += bytesPerRow - 1;
+				} else if (bitsPerPixel % 8 == 0) {
+					int bytesPerPixel = bitsPerPixel / 8;
+					for (int x = 0, j = rowStart + xOffset * bytesPerPixel; x < subwidth; x++, j += xStep * bytesPerPixel) {
+						for (int k = 0; k < bytesPerPixel; k++, i++)
+							filtersAndSamples[i] = data[j + k];
+					}
+				} else {  // Bit depth 1, 2, or 4 with one channel
+					int xMask = 8 / bitsPerPixel - 1;
+					int valMask = (1 << bitsPerPixel) - 1;
+					int b = 0;
+					for (int x = 0; x < subwidth; x++) {
+						int bit = (xOffset + x * xStep) * bitsPerPixel;
+						int val = data[rowStart + (bit >>> 3)] >>> (8 - bitsPerPixel - (bit & 7)) & valMask;
+						b = (b << bitsPerPixel) | val;
+						if ((x & xMask) == xMask) {
+							filtersAndSamples[i] = (byte)b;
+							i++;
+						}
+					}
+					if ((subwidth & xMask) != 0) {
+						filtersAndSamples[i] = (byte)(b << (8 - (subwidth & xMask) * bitsPerPixel));
+						i++;
+					}
+				}
+			}
+			writeRows(filtersAndSamples, bytesPerRow, filterStride);
 		}
 		
 	}
@@ -406,7 +1227,7 @@ public final class ImageEncoder {
 		
 		private RgbaImage image;
 		private int[] bitDepths;
-		private final int mul, rDiv, gDiv, bDiv, aDiv;
+		private final char[] rTable, gTable, bTable, aTable;  // For each channel: out = floor(in / IN_MAX * OUT_MAX + 0.5)
 		
 		
 		public UpBitDepthRgbaImage(RgbaImage img) {
@@ -425,11 +1246,10 @@ public final class ImageEncoder {
 			if (chosenBitDepth != 8 && chosenBitDepth != 16)
 				throw new AssertionError("Unreachable value");
 			
-			mul = (2 << chosenBitDepth) - 2;
-			rDiv = (1 << bitDepths[0]) - 1;
-			gDiv = (1 << bitDepths[1]) - 1;
-			bDiv = (1 << bitDepths[2]) - 1;
-			aDiv = Math.max((1 << bitDepths[3]) - 1, 1);
+			rTable = SampleScaler.scaleTable(bitDepths[0], chosenBitDepth);
+			gTable = SampleScaler.scaleTable(bitDepths[1], chosenBitDepth);
+			bTable = SampleScaler.scaleTable(bitDepths[2], chosenBitDepth);
+			aTable = SampleScaler.scaleTable(bitDepths[3], chosenBitDepth);
 			
 			bitDepths[0] = chosenBitDepth;
 			bitDepths[1] = chosenBitDepth;
@@ -454,11 +1274,10 @@ public final class ImageEncoder {
 		
 		@Override public long getPixel(int x, int y) {
 			long val = image.getPixel(x, y);
-			// For each channel: out = floor(in / IN_MAX * OUT_MAX + 0.5)
-			long r = (((val >>> 48) & 0xFFFF) * mul + rDiv) / rDiv >>> 1;
-			long g = (((val >>> 32) & 0xFFFF) * mul + gDiv) / gDiv >>> 1;
-			long b = (((val >>> 16) & 0xFFFF) * mul + bDiv) / bDiv >>> 1;
-			long a = (((val >>>  0) & 0xFFFF) * mul + aDiv) / aDiv >>> 1;
+			long r = rTable[(int)(val >>> 48) & 0xFFFF];
+			long g = gTable[(int)(val >>> 32) & 0xFFFF];
+			long b = bTable[(int)(val >>> 16) & 0xFFFF];
+			long a = aTable[(int)(val >>>  0) & 0xFFFF];
 			return r << 48 | g << 32 | b << 16 | a << 0;
 		}
 		
@@ -474,7 +1293,7 @@ public final class ImageEncoder {
 		
 		private GrayImage image;
 		private int[] bitDepths;
-		private final long mul, wDiv, aDiv;
+		private final char[] wTable, aTable;  // For each channel: out = floor(in / IN_MAX * OUT_MAX + 0.5)
 		
 		
 		public UpBitDepthGrayImage(GrayImage img) {
@@ -502,9 +1321,8 @@ public final class ImageEncoder {
 					throw new AssertionError("Unreachable value");
 			}
 			
-			mul = (2 << chosenBitDepth) - 2;
-			wDiv = (1 << bitDepths[0]) - 1;
-			aDiv = Math.max((1 << bitDepths[1]) - 1, 1);
+			wTable = SampleScaler.scaleTable(bitDepths[0], chosenBitDepth);
+			aTable = SampleScaler.scaleTable(bitDepths[1], chosenBitDepth);
 			
 			bitDepths[0] = chosenBitDepth;
 			if (bitDepths[1] != 0)
@@ -527,9 +1345,8 @@ public final class ImageEncoder {
 		
 		@Override public int getPixel(int x, int y) {
 			int val = image.getPixel(x, y);
-			// For each channel: out = floor(in / IN_MAX * OUT_MAX + 0.5)
-			int w = (int)((((val >>> 16) & 0xFFFF) * mul + wDiv) / wDiv >>> 1);
-			int a = (int)((((val >>>  0) & 0xFFFF) * mul + aDiv) / aDiv >>> 1);
+			int w = wTable[(val >>> 16) & 0xFFFF];
+			int a = aTable[(val >>>  0) & 0xFFFF];
 			return w << 16 | a << 0;
 		}
 		
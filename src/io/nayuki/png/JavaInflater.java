@@ -0,0 +1,540 @@
+/* 
+ * PNG library (Java)
+ * 
+ * Copyright (c) Project Nayuki
+ * MIT License. See readme file.
+ * https://www.nayuki.io/page/png-library
+ */
+
+package io.nayuki.png;
+
+import java.util.Arrays;
+import java.util.Objects;
+import java.util.zip.Adler32;
+
+
+/**
+ * Decompresses an in-memory ZLIB stream (RFC 1950) in pure Java. Unlike {@link
+ * java.util.zip.Inflater}, its state can be captured at every DEFLATE block boundary as
+ * the bit position plus the preceding 32 KiB of output, and decompression can resume
+ * from such a checkpoint later. Decompression stops at the end of each block, so that
+ * the caller can see every boundary. Output is written straight into the caller's array,
+ * which lets {@link ImageDecoder} inflate each row into the buffer where it is unfiltered.
+ * Not thread-safe.
+ */
+final class JavaInflater {
+	
+	/*---- Fields ----*/
+	
+	private final byte[] input;
+	private int inputIndex;  // Next byte to load into the bit buffer, possibly past the end
+	private long bitBuffer;  // Bits not yet consumed, least significant first
+	private int bitCount;  // In the range [0, 64]
+	
+	private final byte[] window = new byte[WINDOW_SIZE];  // Circular buffer of recent output
+	private long outputCount;  // Including any history that was preset
+	private final Adler32 checksum;  // Null if resumed from a checkpoint
+	
+	private State state = State.BLOCK_HEADER;
+	private boolean isFinalBlock = false;
+	private int storedRemaining;
+	private Huffman litLenCode;
+	private Huffman distCode;
+	private int copyLength = 0;  // Remaining bytes of a back-reference that didn't fit in the output
+	private int copyDistance;
+	
+	
+	
+	/*---- Constructors ----*/
+	
+	// Starts decompressing the given ZLIB stream from the beginning, verifying its header and checksum.
+	public JavaInflater(byte[] input) {
+		this.input = Objects.requireNonNull(input);
+		checksum = new Adler32();
+		int cmf = readBits(8);
+		int flg = readBits(8);
+		if ((cmf << 8 | flg) % 31 != 0)
+			throw new IllegalArgumentException("ZLIB header checksum mismatch");
+		if ((cmf & 0xF) != 8 || cmf >>> 4 > 7)
+			throw new IllegalArgumentException("Unsupported ZLIB compression method");
+		if ((flg & 0x20) != 0)
+			throw new IllegalArgumentException("Preset dictionary not supported");
+	}
+	
+	
+	// Resumes decompressing the given ZLIB stream at the given block boundary, where history
+	// holds the preceding output (only the last 32 KiB matters). The checksum isn't verified.
+	public JavaInflater(byte[] input, long bitPosition, byte[] history) {
+		this.input = Objects.requireNonNull(input);
+		if (!(0 <= bitPosition && bitPosition <= input.length * 8L))
+			throw new IllegalArgumentException("Bit position out of range");
+		checksum = null;
+		inputIndex = (int)(bitPosition >>> 3);
+		readBits((int)(bitPosition & 7));
+		for (byte b : history) {
+			window[(int)outputCount & WINDOW_MASK] = b;
+			outputCount++;
+		}
+	}
+	
+	
+	
+	/*---- Methods ----*/
+	
+	// Decompresses up to len bytes into the given array, returning the number of bytes
+	// written, or -1 if the stream has ended. This stops early at the end of each block,
+	// so it can return 0 before the end of the stream. Throws IllegalArgumentException
+	// if the data is malformed or the checksum doesn't match.
+	public int inflate(byte[] b, int off, int len) {
+		Objects.checkFromIndexSize(off, len, b.length);
+		if (state == State.END)
+			return -1;
+		int start = off;
+		int end = off + len;
+		outer:
+		while (off < end) {
+			if (copyLength > 0) {
+				int n = Math.min(copyLength, end - off);
+				copy(b, start, off, n, copyDistance);
+				off += n;
+				copyLength -= n;
+				continue;
+			}
+			switch (state) {
+				case BLOCK_HEADER -> {
+					readBlockHeader();
+					if (isAtBlockBoundary())  // Empty stored block
+						break outer;
+				}
+				
+				case STORED -> {
+					int n = Math.min(storedRemaining, end - off);
+					System.arraycopy(input, inputIndex, b, off, n);
+					inputIndex += n;
+					off += n;
+					storedRemaining -= n;
+					if (storedRemaining == 0) {
+						endBlock();
+						break outer;
+					}
+				}
+				
+				case HUFFMAN -> {
+					off = inflateHuffman(b, start, off, end);
+					if (state != State.HUFFMAN)
+						break outer;
+				}
+				
+				case END -> {
+					break outer;
+				}
+				
+				default -> throw new AssertionError("Unreachable value");
+			}
+		}
+		int n = off - start;
+		appendWindow(b, start, n);
+		if (checksum != null)
+			checksum.update(b, start, n);
+		if (state == State.END && isFinalBlock) {
+			isFinalBlock = false;
+			readTrailer();
+		}
+		return n == 0 && state == State.END ? -1 : n;
+	}
+	
+	
+	// Decompresses exactly len bytes into the given array. Throws IllegalArgumentException
+	// if the stream ends before that or the data is malformed.
+	public void readFully(byte[] b, int off, int len) {
+		Objects.checkFromIndexSize(off, len, b.length);
+		while (len > 0) {
+			int n = inflate(b, off, len);
+			if (n == -1)
+				throw new IllegalArgumentException("Unexpected end of decompressed data");
+			off += n;
+			len -= n;
+		}
+	}
+	
+	
+	// Tests whether the next bit to be read begins a block (or ends the stream), with no pending output.
+	public boolean isAtBlockBoundary() {
+		return (state == State.BLOCK_HEADER || state == State.END) && copyLength == 0;
+	}
+	
+	
+	// Returns the number of bits consumed from the beginning of the input.
+	public long bitPosition() {
+		return inputIndex * 8L - bitCount;
+	}
+	
+	
+	// Returns a new array of the last min(32 KiB, output length) bytes of output, including preset history.
+	public byte[] window() {
+		int len = (int)Math.min(outputCount, WINDOW_SIZE);
+		var result = new byte[len];
+		for (int i = 0; i < len; i++)
+			result[i] = window[(int)(outputCount - len + i) & WINDOW_MASK];
+		return result;
+	}
+	
+	
+	private void readBlockHeader() {
+		isFinalBlock = readBits(1) == 1;
+		switch (readBits(2)) {
+			case 0 -> {
+				readBits(bitCount & 7);  // Align to byte
+				int len = readBits(16);
+				if ((len ^ 0xFFFF) != readBits(16))
+					throw new IllegalArgumentException("Invalid stored block length");
+				// Give back the whole bytes in the bit buffer, then copy straight from the input
+				inputIndex -= bitCount >>> 3;
+				bitBuffer = 0;
+				bitCount = 0;
+				if (len > input.length - inputIndex)
+					throw new IllegalArgumentException("Unexpected end of data");
+				storedRemaining = len;
+				state = State.STORED;
+				if (len == 0)
+					endBlock();
+			}
+			case 1 -> {
+				litLenCode = FIXED_LIT_LEN_CODE;
+				distCode = FIXED_DIST_CODE;
+				state = State.HUFFMAN;
+			}
+			case 2 -> {
+				readDynamicCodes();
+				state = State.HUFFMAN;
+			}
+			case 3 -> throw new IllegalArgumentException("Reserved block type");
+			default -> throw new AssertionError("Unreachable value");
+		}
+	}
+	
+	
+	private void readDynamicCodes() {
+		int numLitLen = readBits(5) + 257;
+		int numDist = readBits(5) + 1;
+		int numCodeLen = readBits(4) + 4;
+		var codeLenLens = new int[CODE_LENGTH_ORDER.length];
+		for (int i = 0; i < numCodeLen; i++)
+			codeLenLens[CODE_LENGTH_ORDER[i]] = readBits(3);
+		var codeLenCode = new Huffman(codeLenLens);
+		
+		var lens = new int[numLitLen + numDist];
+		for (int i = 0; i < lens.length; ) {
+			int sym = decodeSymbol(codeLenCode);
+			if (sym < 16) {
+				lens[i] = sym;
+				i++;
+				continue;
+			}
+			int val, count;
+			switch (sym) {
+				case 16 -> {
+					if (i == 0)
+						throw new IllegalArgumentException("No code length to repeat");
+					val = lens[i - 1];
+					count = readBits(2) + 3;
+				}
+				case 17 -> {
+					val = 0;
+					count = readBits(3) + 3;
+				}
+				case 18 -> {
+					val = 0;
+					count = readBits(7) + 11;
+				}
+				default -> throw new AssertionError("Unreachable value");
+			}
+			if (count > lens.length - i)
+				throw new IllegalArgumentException("Run of code lengths exceeds count");
+			Arrays.fill(lens, i, i + count, val);
+			i += count;
+		}
+		if (lens[256] == 0)
+			throw new IllegalArgumentException("Missing end-of-block code");
+		litLenCode = new Huffman(Arrays.copyOf(lens, numLitLen));
+		distCode = new Huffman(Arrays.copyOfRange(lens, numLitLen, lens.length));
+	}
+	
+	
+	private void endBlock() {
+		state = isFinalBlock ? State.END : State.BLOCK_HEADER;
+	}
+	
+	
+	private void readTrailer() {
+		readBits(bitCount & 7);  // Align to byte
+		int expect = 0;
+		for (int i = 0; i < 4; i++)
+			expect = expect << 8 | readBits(8);
+		if (checksum != null && expect != (int)checksum.getValue())
+			throw new IllegalArgumentException("ZLIB checksum mismatch");
+		if (bitPosition() > input.length * 8L)
+			throw new IllegalArgumentException("Unexpected end of data");
+	}
+	
+	
+	// Decodes literals and back-references of the current block into b until it is full or the
+	// block ends, returning the new offset. Output from this call starts at index start of b.
+	// The bit reader is kept in local variables here, because this is the innermost loop.
+	private int inflateHuffman(byte[] b, int start, int off, int end) {
+		int[] litLenTable = litLenCode.fastTable;
+		int[] distTable = distCode.fastTable;
+		long bits = bitBuffer;
+		int count = bitCount;
+		int index = inputIndex;
+		while (off < end) {
+			// A length symbol, a distance symbol, and their extra bits take at most 48 bits
+			if (count < 48) {
+				if (input.length - index >= 8) {
+					for (; count <= 56; count += 8, index++)
+						bits |= (input[index] & 0xFFL) << count;
+				} else {
+					bitBuffer = bits;
+					bitCount = count;
+					inputIndex = index;
+					refill();
+					bits = bitBuffer;
+					count = bitCount;
+					index = inputIndex;
+				}
+			}
+			
+			int sym = litLenTable[(int)bits & FAST_MASK];
+			if (sym != 0) {
+				bits >>>= sym & 0xF;
+				count -= sym & 0xF;
+				sym >>>= 4;
+			} else {
+				bitBuffer = bits;
+				bitCount = count;
+				sym = decodeSymbol(litLenCode);
+				bits = bitBuffer;
+				count = bitCount;
+			}
+			
+			if (sym < 256) {
+				b[off] = (byte)sym;
+				off++;
+			} else if (sym == 256) {
+				endBlock();
+				break;
+			} else {
+				sym -= 257;
+				if (sym >= LENGTH_BASES.length)
+					throw new IllegalArgumentException("Invalid length symbol");
+				int extra = LENGTH_EXTRA_BITS[sym];
+				int length = LENGTH_BASES[sym] + (int)(bits & ((1 << extra) - 1));
+				bits >>>= extra;
+				count -= extra;
+				
+				int distSym = distTable[(int)bits & FAST_MASK];
+				if (distSym != 0) {
+					bits >>>= distSym & 0xF;
+					count -= distSym & 0xF;
+					distSym >>>= 4;
+				} else {
+					bitBuffer = bits;
+					bitCount = count;
+					distSym = decodeSymbol(distCode);
+					bits = bitBuffer;
+					count = bitCount;
+				}
+				if (distSym >= DISTANCE_BASES.length)
+					throw new IllegalArgumentException("Invalid distance symbol");
+				extra = DISTANCE_EXTRA_BITS[distSym];
+				int dist = DISTANCE_BASES[distSym] + (int)(bits & ((1 << extra) - 1));
+				bits >>>= extra;
+				count -= extra;
+				if (dist > outputCount + (off - start))
+					throw new IllegalArgumentException("Distance exceeds output");
+				
+				int n = Math.min(length, end - off);
+				copy(b, start, off, n, dist);
+				off += n;
+				copyLength = length - n;
+				copyDistance = dist;
+			}
+		}
+		bitBuffer = bits;
+		bitCount = count;
+		inputIndex = index;
+		return off;
+	}
+	
+	
+	// Copies n bytes of earlier output at the given distance into b at index off, where
+	// output from this call starts at index start of b and older output is in the window.
+	private void copy(byte[] b, int start, int off, int n, int dist) {
+		int fromWindow = Math.max(Math.min(dist - (off - start), n), 0);
+		int src = (int)(outputCount + (off - start) - dist) & WINDOW_MASK;
+		for (int i = 0; i < fromWindow; i++)
+			b[off + i] = window[(src + i) & WINDOW_MASK];
+		if (fromWindow == n)
+			return;
+		if (dist >= n)
+			System.arraycopy(b, off + fromWindow - dist, b, off + fromWindow, n - fromWindow);
+		else {  // Overlapping run
+			for (int i = fromWindow; i < n; i++)
+				b[off + i] = b[off + i - dist];
+		}
+	}
+	
+	
+	// Appends the given n bytes of new output to the window.
+	private void appendWindow(byte[] b, int off, int n) {
+		if (n > WINDOW_SIZE) {
+			off += n - WINDOW_SIZE;
+			outputCount += n - WINDOW_SIZE;
+			n = WINDOW_SIZE;
+		}
+		int pos = (int)outputCount & WINDOW_MASK;
+		int k = Math.min(n, WINDOW_SIZE - pos);
+		System.arraycopy(b, off, window, pos, k);
+		System.arraycopy(b, off + k, window, 0, n - k);
+		outputCount += n;
+	}
+	
+	
+	private int decodeSymbol(Huffman code) {
+		if (bitCount < MAX_CODE_LENGTH)
+			refill();
+		int entry = code.fastTable[(int)bitBuffer & FAST_MASK];
+		if (entry != 0) {
+			int len = entry & 0xF;
+			bitBuffer >>>= len;
+			bitCount -= len;
+			return entry >>> 4;
+		}
+		// Canonical decoding one bit at a time, for codes longer than the fast table
+		int codeVal = 0;
+		int first = 0;
+		int index = 0;
+		for (int len = 1; len <= MAX_CODE_LENGTH; len++) {
+			codeVal |= (int)bitBuffer & 1;
+			bitBuffer >>>= 1;
+			bitCount--;
+			int count = code.counts[len];
+			if (codeVal - count < first)
+				return code.symbols[index + (codeVal - first)];
+			index += count;
+			first = (first + count) << 1;
+			codeVal <<= 1;
+		}
+		throw new IllegalArgumentException("Invalid Huffman code");
+	}
+	
+	
+	private int readBits(int n) {
+		if (bitCount < n)
+			refill();
+		int result = (int)(bitBuffer & ((1L << n) - 1));
+		bitBuffer >>>= n;
+		bitCount -= n;
+		return result;
+	}
+	
+	
+	// Fills the bit buffer to at least 57 bits, using zeros past the end of the input.
+	private void refill() {
+		if (bitPosition() > input.length * 8L)
+			throw new IllegalArgumentException("Unexpected end of data");
+		for (; bitCount <= 56; bitCount += 8, inputIndex++) {
+			if (inputIndex < input.length)
+				bitBuffer |= (input[inputIndex] & 0xFFL) << bitCount;
+		}
+	}
+	
+	
+	private static final int WINDOW_SIZE = 1 << 15;
+	private static final int WINDOW_MASK = WINDOW_SIZE - 1;
+	private static final int MAX_CODE_LENGTH = 15;
+	private static final int FAST_BITS = 10;
+	private static final int FAST_MASK = (1 << FAST_BITS) - 1;
+	
+	private static final int[] CODE_LENGTH_ORDER = {16, 17, 18, 0, 8, 7, 9, 6, 10, 5, 11, 4, 12, 3, 13, 2, 14, 1, 15};
+	private static final int[] LENGTH_BASES = {3, 4, 5, 6, 7, 8, 9, 10, 11, 13, 15, 17, 19, 23, 27, 31, 35, 43, 51, 59, 67, 83, 99, 115, 131, 163, 195, 227, 258};
+	private static final int[] LENGTH_EXTRA_BITS = {0, 0, 0, 0, 0, 0, 0, 0, 1, 1, 1, 1, 2, 2, 2, 2, 3, 3, 3, 3, 4, 4, 4, 4, 5, 5, 5, 5, 0};
+	private static final int[] DISTANCE_BASES = {1, 2, 3, 4, 5, 7, 9, 13, 17, 25, 33, 49, 65, 97, 129, 193, 257, 385, 513, 769,
+		1025, 1537, 2049, 3073, 4097, 6145, 8193, 12289, 16385, 24577};
+	private static final int[] DISTANCE_EXTRA_BITS = {0, 0, 0, 0, 1, 1, 2, 2, 3, 3, 4, 4, 5, 5, 6, 6, 7, 7, 8, 8, 9, 9, 10, 10, 11, 11, 12, 12, 13, 13};
+	
+	private static final Huffman FIXED_LIT_LEN_CODE;
+	private static final Huffman FIXED_DIST_CODE;
+	
+	static {
+		var lens = new int[288];
+		Arrays.fill(lens,   0, 144, 8);
+		Arrays.fill(lens, 144, 256, 9);
+		Arrays.fill(lens, 256, 280, 7);
+		Arrays.fill(lens, 280, 288, 8);
+		FIXED_LIT_LEN_CODE = new Huffman(lens);
+		lens = new int[32];
+		Arrays.fill(lens, 5);
+		FIXED_DIST_CODE = new Huffman(lens);
+	}
+	
+	
+	
+	/*---- Helper types ----*/
+	
+	private enum State {
+		BLOCK_HEADER,
+		STORED,
+		HUFFMAN,
+		END,
+	}
+	
+	
+	
+	// A canonical Huffman code, decoded by a table lookup for short codes and by counting for long ones.
+	private static final class Huffman {
+		
+		public final int[] counts = new int[MAX_CODE_LENGTH + 1];  // Number of codes of each length
+		public final int[] symbols;  // Symbols ordered by code
+		public final int[] fastTable = new int[1 << FAST_BITS];  // Bit-reversed code -> symbol << 4 | length, or 0
+		
+		
+		public Huffman(int[] lengths) {
+			for (int len : lengths)
+				counts[len]++;
+			counts[0] = 0;
+			int left = 1;
+			for (int len = 1; len <= MAX_CODE_LENGTH; len++) {
+				left = (left << 1) - counts[len];
+				if (left < 0)
+					throw new IllegalArgumentException("Over-subscribed Huffman code");
+			}
+			
+			var offsets = new int[MAX_CODE_LENGTH + 2];
+			for (int len = 1; len <= MAX_CODE_LENGTH; len++)
+				offsets[len + 1] = offsets[len] + counts[len];
+			symbols = new int[offsets[MAX_CODE_LENGTH + 1]];
+			var nextCode = new int[MAX_CODE_LENGTH + 1];
+			for (int len = 1, code = 0; len <= MAX_CODE_LENGTH; len++) {
+				code = (code + counts[len - 1]) << 1;
+				nextCode[len] = code;
+			}
+			for (int sym = 0; sym < lengths.length; sym++) {
+				int len = lengths[sym];
+				if (len == 0)
+					continue;
+				symbols[offsets[len]] = sym;
+				offsets[len]++;
+				int code = nextCode[len];
+				nextCode[len]++;
+				if (len <= FAST_BITS) {
+					int rev = Integer.reverse(code) >>> (32 - len);
+					for (int i = rev; i < fastTable.length; i += 1 << len)
+						fastTable[i] = sym << 4 | len;
+				}
+			}
+		}
+		
+	}
+	
+}
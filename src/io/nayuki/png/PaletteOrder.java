@@ -0,0 +1,157 @@
+/* 
+ * PNG library (Java)
+ * 
+ * Copyright (c) Project Nayuki
+ * MIT License. See readme file.
+ * https://www.nayuki.io/page/png-library
+ */
+
+package io.nayuki.png;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Objects;
+import io.nayuki.png.image.BufferedPaletteImage;
+import io.nayuki.png.image.PaletteImage;
+
+
+/**
+ * An ordering of palette entries, used to renumber the colors of a paletted image so that
+ * its filtered pixel data compresses better. Every order except {@link #ORIGINAL} puts all
+ * the entries that aren't fully opaque first (so that the tRNS chunk is as short as possible),
+ * in the groups: used translucent, unused translucent, used opaque, unused opaque; within
+ * each group, the entries are ordered by the rule of the constant, breaking ties by original
+ * index. Reordering is lossless (every pixel keeps its color, and duplicate entries are
+ * preserved) and deterministic.
+ * @see ImageEncoder#toPng(PaletteImage, io.nayuki.png.chunk.Ihdr.InterlaceMethod, PaletteOrder)
+ */
+public enum PaletteOrder {
+	
+	/*---- Constants ----*/
+	
+	/** Keeps the palette in the image's order. */
+	ORIGINAL,
+	
+	/** Orders entries by increasing luminance, then by increasing alpha. */
+	LUMINANCE,
+	
+	/** Orders entries by decreasing number of pixels that use them. */
+	FREQUENCY,
+	
+	/**
+	 * Starts with the most frequently used entry, then repeatedly appends the remaining
+	 * entry nearest (in squared RGBA distance) to the last one, so that adjacent indexes
+	 * have similar colors.
+	 */
+	NEAREST_NEIGHBOR;
+	
+	
+	
+	/*---- Method ----*/
+	
+	/**
+	 * Returns a new image with the same colors at every pixel as the specified image, but with
+	 * the palette reordered and the pixel indexes remapped according to this order. The bit
+	 * depths and the palette length are unchanged. For {@link #ORIGINAL}, this returns a copy.
+	 * @param img the paletted image to reorder (not {@code null})
+	 * @return a new reordered image (not {@code null})
+	 * @throws NullPointerException if {@code img} is {@code null}
+	 */
+	public BufferedPaletteImage apply(PaletteImage img) {
+		Objects.requireNonNull(img);
+		long[] palette = img.getPalette();
+		int width = img.getWidth();
+		int height = img.getHeight();
+		var counts = new long[palette.length];
+		for (int y = 0; y < height; y++) {
+			for (int x = 0; x < width; x++)
+				counts[img.getPixel(x, y)]++;
+		}
+		
+		// Group entries by (used, not opaque), (unused, not opaque), (used, opaque), (unused, opaque)
+		int[] bitDepths = img.getBitDepths();
+		boolean hasAlpha = bitDepths[3] > 0;
+		List<List<Integer>> groups = List.of(new ArrayList<>(), new ArrayList<>(), new ArrayList<>(), new ArrayList<>());
+		for (int i = 0; i < palette.length; i++) {
+			int group;
+			if (this == ORIGINAL)
+				group = 0;
+			else {
+				boolean opaque = !hasAlpha || (palette[i] & 0xFFFF) == 0xFF;
+				group = (opaque ? 2 : 0) + (counts[i] == 0 ? 1 : 0);
+			}
+			groups.get(group).add(i);
+		}
+		
+		List<Integer> order = new ArrayList<>();  // New index to old index
+		for (List<Integer> group : groups) {
+			switch (this) {
+				case ORIGINAL -> {}
+				case LUMINANCE -> {
+					group.sort(Comparator.comparingDouble((Integer i) -> luminance(palette[i], bitDepths))
+						.thenComparingLong(i -> palette[i] & 0xFFFF));
+				}
+				case FREQUENCY -> group.sort(Comparator.comparingLong(i -> -counts[i]));
+				case NEAREST_NEIGHBOR -> {
+					List<Integer> remain = new ArrayList<>(group);
+					group.clear();
+					int j = 0;  // Index in remain of the most frequent entry
+					for (int k = 1; k < remain.size(); k++) {
+						if (counts[remain.get(k)] > counts[remain.get(j)])
+							j = k;
+					}
+					while (!remain.isEmpty()) {
+						long prev = palette[remain.get(j)];
+						group.add(remain.remove(j));
+						j = 0;
+						for (int k = 1; k < remain.size(); k++) {
+							if (distance(prev, palette[remain.get(k)]) < distance(prev, palette[remain.get(j)]))
+								j = k;
+						}
+					}
+				}
+				default -> throw new AssertionError("Unreachable value");
+			}
+			order.addAll(group);
+		}
+		
+		var newPalette = new long[palette.length];
+		var oldToNew = new int[palette.length];
+		for (int i = 0; i < newPalette.length; i++) {
+			int old = order.get(i);
+			newPalette[i] = palette[old];
+			oldToNew[old] = i;
+		}
+		var result = new BufferedPaletteImage(width, height, bitDepths, newPalette);
+		for (int y = 0; y < height; y++) {
+			for (int x = 0; x < width; x++)
+				result.setPixel(x, y, oldToNew[img.getPixel(x, y)]);
+		}
+		return result;
+	}
+	
+	
+	
+	/*---- Helper functions ----*/
+	
+	// Returns the Rec. 601 luma of the given palette entry, with each channel scaled to [0, 1].
+	private static double luminance(long rgba, int[] bitDepths) {
+		double r = (rgba >>> 48 & 0xFFFF) / (double)((1 << bitDepths[0]) - 1);
+		double g = (rgba >>> 32 & 0xFFFF) / (double)((1 << bitDepths[1]) - 1);
+		double b = (rgba >>> 16 & 0xFFFF) / (double)((1 << bitDepths[2]) - 1);
+		return 0.299 * r + 0.587 * g + 0.114 * b;
+	}
+	
+	
+	// Returns the squared Euclidean distance between the given palette entries over all four channels.
+	private static long distance(long x, long y) {
+		long result = 0;
+		for (int i = 0; i < 64; i += 16) {
+			long d = (x >>> i & 0xFFFF) - (y >>> i & 0xFFFF);
+			result += d * d;
+		}
+		return result;
+	}
+	
+}
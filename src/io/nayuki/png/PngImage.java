@@ -16,6 +16,8 @@ import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Path;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.HashSet;
@@ -24,10 +26,13 @@ import java.util.Map;
 import java.util.Objects;
 import java.util.Optional;
 import java.util.Set;
+import java.util.concurrent.CompletableFuture;
 import io.nayuki.png.chunk.Chunk;
+import io.nayuki.png.chunk.ChunkInterner;
 import io.nayuki.png.chunk.Idat;
 import io.nayuki.png.chunk.Iend;
 import io.nayuki.png.chunk.Ihdr;
+import io.nayuki.png.chunk.IntegrityCheck;
 
 
 /**
@@ -57,9 +62,28 @@ public final class PngImage {
 	 * @throws IOException if an I/O exception occurs
 	 */
 	public static PngImage read(File inFile) throws IOException {
+		return read(inFile, new IntegrityCheck(IntegrityCheck.Mode.INLINE));
+	}
+	
+	
+	/**
+	 * Reads the specified input file and returns a new {@code PngImage} object representing
+	 * chunks read. This is the same as {@link #read(File)}, except that chunk CRC-32
+	 * values are verified according to the specified integrity check, which also
+	 * records the stored CRC-32 value of each chunk (including IEND) in file order.
+	 * @param inFile the input file to read from
+	 * @param integrity the integrity check to verify and record CRC-32 values with
+	 * @return a new {@code XngFile} object representing chunks read
+	 * @throws NullPointerException if {@code inFile} or {@code integrity} is {@code null}
+	 * @throws IllegalArgumentException if the file contains invalid data in the header
+	 * signature, chunk outer structure, chunk inner structure, or constraints between chunks
+	 * @throws IOException if an I/O exception occurs
+	 */
+	public static PngImage read(File inFile, IntegrityCheck integrity) throws IOException {
 		Objects.requireNonNull(inFile);
+		Objects.requireNonNull(integrity);
 		try (var in = new BufferedInputStream(new FileInputStream(inFile))) {
-			return read(in);
+			return read(in, integrity);
 		}
 	}
 	
@@ -76,8 +100,67 @@ public final class PngImage {
 	 * @throws IOException if an I/O exception occurs
 	 */
 	public static PngImage read(InputStream in) throws IOException {
+		return read(in, new IntegrityCheck(IntegrityCheck.Mode.INLINE));
+	}
+	
+	
+	/**
+	 * Reads the specified input stream and returns a new {@code PngImage} object representing
+	 * chunks read. This is the same as {@link #read(InputStream)}, except that chunk CRC-32
+	 * values are verified according to the specified integrity check, which also
+	 * records the stored CRC-32 value of each chunk (including IEND) in stream order.
+	 * @param in the input stream to read from
+	 * @param integrity the integrity check to verify and record CRC-32 values with
+	 * @return a new {@code XngFile} object representing chunks read
+	 * @throws NullPointerException if {@code in} or {@code integrity} is {@code null}
+	 * @throws IllegalArgumentException if the stream contains invalid data in the header
+	 * signature, chunk outer structure, chunk inner structure, or constraints between chunks
+	 * @throws IOException if an I/O exception occurs
+	 */
+	public static PngImage read(InputStream in, IntegrityCheck integrity) throws IOException {
 		Objects.requireNonNull(in);
-		XngFile xng = XngFile.read(in, true);
+		Objects.requireNonNull(integrity);
+		return fromXngFile(XngFile.read(in, true, integrity));
+	}
+	
+	
+	/**
+	 * Reads the specified input stream and returns a new {@code PngImage} object representing
+	 * chunks read. This is the same as {@link #read(InputStream, IntegrityCheck)}, except
+	 * that each chunk is replaced by its canonical instance from the specified interner,
+	 * so that identical chunks across many images read with the same interner are shared.
+	 * @param in the input stream to read from
+	 * @param integrity the integrity check to verify and record CRC-32 values with
+	 * @param interner the interner to canonicalize chunks with
+	 * @return a new {@code XngFile} object representing chunks read
+	 * @throws NullPointerException if {@code in}, {@code integrity}, or {@code interner} is {@code null}
+	 * @throws IllegalArgumentException if the stream contains invalid data in the header
+	 * signature, chunk outer structure, chunk inner structure, or constraints between chunks
+	 * @throws IOException if an I/O exception occurs
+	 */
+	public static PngImage read(InputStream in, IntegrityCheck integrity, ChunkInterner interner) throws IOException {
+		Objects.requireNonNull(interner);
+		return fromXngFile(XngFile.read(in, true, integrity, interner));
+	}
+	
+	
+	/**
+	 * Asynchronously reads the specified input file and returns a future that completes
+	 * with a new {@code PngImage} object representing chunks read. The file is transferred
+	 * by {@link XngFile#readAsync(Path, boolean)} without blocking any thread. The future
+	 * completes exceptionally with an {@code IllegalArgumentException} or
+	 * {@code IOException} in the cases where {@link #read(File)} would throw them.
+	 * @param inFile the input file to read from
+	 * @return a future (not {@code null}) for the {@code PngImage} object representing chunks read
+	 * @throws NullPointerException if {@code inFile} is {@code null}
+	 */
+	public static CompletableFuture<PngImage> readAsync(Path inFile) {
+		Objects.requireNonNull(inFile);
+		return XngFile.readAsync(inFile, true).thenApply(PngImage::fromXngFile);
+	}
+	
+	
+	private static PngImage fromXngFile(XngFile xng) {
 		if (xng.type() != XngFile.Type.PNG)
 			throw new IllegalArgumentException("File signature is not PNG");
 		return new PngImage(xng.chunks());
@@ -96,13 +179,11 @@ public final class PngImage {
 	public static <T> Optional<T> getChunk(Class<T> type, List<? extends Chunk>... lists) {
 		Optional<T> result = Optional.empty();
 		for (List<? extends Chunk> lst : lists) {
-			for (Chunk chk : lst) {
-				if (type.isInstance(chk)) {
-					if (result.isPresent())
-						throw new IllegalArgumentException("Multiple chunks with given type");
-					result = Optional.of(type.cast(chk));
-				}
-			}
+			List<T> matches = ChunkList.instancesOf(lst, type);
+			if (matches.size() > 1 || matches.size() == 1 && result.isPresent())
+				throw new IllegalArgumentException("Multiple chunks with given type");
+			if (matches.size() == 1)
+				result = Optional.of(matches.get(0));
 		}
 		return result;
 	}
@@ -119,27 +200,25 @@ public final class PngImage {
 	@SafeVarargs
 	public static <T> List<T> getChunks(Class<T> type, List<? extends Chunk>... lists) {
 		List<T> result = new ArrayList<>();
-		for (List<? extends Chunk> lst : lists) {
-			for (Chunk chk : lst) {
-				if (type.isInstance(chk))
-					result.add(type.cast(chk));
-			}
-		}
+		for (List<? extends Chunk> lst : lists)
+			result.addAll(ChunkList.instancesOf(lst, type));
 		return result;
 	}
 	
 	
+	// The lists initially assigned to the fields below are indexed by chunk type for fast lookups.
+	
 	/** The single IHDR chunk, if present. */
 	public Optional<Ihdr> ihdr = Optional.empty();
 	
 	/** The chunks positioned after IHDR. */
-	public List<Chunk> afterIhdr = new ArrayList<>();
+	public List<Chunk> afterIhdr = new ChunkList<>();
 	
 	/** The consecutive IDAT chunks. */
-	public List<Idat> idats = new ArrayList<>();
+	public List<Idat> idats = new ChunkList<>();
 	
 	/** The chunks positioned after the IDAT chunks. */
-	public List<Chunk> afterIdats = new ArrayList<>();
+	public List<Chunk> afterIdats = new ChunkList<>();
 	
 	
 	/**
@@ -200,6 +279,7 @@ public final class PngImage {
 		"PLTE",
 		"sBIT",
 		"sCAL",
+		"sgIX",
 		"sRGB",
 		"sTER",
 		"tIME",
@@ -238,6 +318,7 @@ public final class PngImage {
 			{"PLTE", "IDAT"},
 			{"sBIT", "IDAT"},
 			{"sCAL", "IDAT"},
+			{"sgIX", "IDAT"},
 			{"sPTL", "IDAT"},
 			{"sRGB", "IDAT"},
 			{"sTER", "IDAT"},
@@ -250,6 +331,20 @@ public final class PngImage {
 	}
 	
 	
+	/**
+	 * Returns an immutable snapshot of the current chunks of this image, which can be shared
+	 * by multiple threads without copying. Later changes to this object's fields or lists
+	 * don't affect the snapshot, but the chunk objects themselves are shared.
+	 * @return a new immutable snapshot (not {@code null}) of this image
+	 * @throws NullPointerException if any of this object's fields or any chunk is {@code null}
+	 * @throws IllegalStateException if the current
+	 * lists of chunks do not form a valid PNG file
+	 */
+	public FrozenPngImage freeze() {
+		return new FrozenPngImage(this);
+	}
+	
+	
 	/**
 	 * Writes the signature and chunks of this PNG file to the specified output file.
 	 * @throws NullPointerException if {@code outFile}
@@ -277,6 +372,45 @@ public final class PngImage {
 	 */
 	public void write(OutputStream out) throws IOException {
 		Objects.requireNonNull(out);
+		toXngFile().write(out);
+	}
+	
+	
+	/**
+	 * Writes the signature and chunks of this PNG file to the specified channel,
+	 * which must be in blocking mode. This does not close the channel. The
+	 * data of IDAT chunks is written by wrapping their arrays, not copying them.
+	 * @throws NullPointerException if {@code out}
+	 * or any of this object's fields is {@code null}
+	 * @throws IllegalStateException if the current
+	 * lists of chunks do not form a valid PNG file
+	 * @throws IOException if an I/O exception occurs
+	 */
+	public void write(WritableByteChannel out) throws IOException {
+		Objects.requireNonNull(out);
+		toXngFile().write(out);
+	}
+	
+	
+	/**
+	 * Asynchronously writes the signature and chunks of this PNG file to the specified
+	 * output file, returning a future that completes when all the bytes are written.
+	 * The current lists of chunks are captured before this method returns, and the
+	 * file is transferred by {@link XngFile#writeAsync(Path)} without blocking any thread.
+	 * @param outFile the output file to write to
+	 * @return a future (not {@code null}) that completes when the file is written
+	 * @throws NullPointerException if {@code outFile}
+	 * or any of this object's fields is {@code null}
+	 * @throws IllegalStateException if the current
+	 * lists of chunks do not form a valid PNG file
+	 */
+	public CompletableFuture<Void> writeAsync(Path outFile) {
+		Objects.requireNonNull(outFile);
+		return toXngFile().writeAsync(outFile);
+	}
+	
+	
+	XngFile toXngFile() {
 		List<Chunk> chunks = new ArrayList<>();
 		chunks.add(ihdr.orElseThrow(() -> new IllegalStateException("Missing IHDR chunk")));
 		chunks.addAll(afterIhdr);
@@ -285,7 +419,7 @@ public final class PngImage {
 		chunks.addAll(idats);
 		chunks.addAll(afterIdats);
 		chunks.add(Iend.SINGLETON);
-		new XngFile(XngFile.Type.PNG, chunks).write(out);
+		return new XngFile(XngFile.Type.PNG, chunks);
 	}
 	
 }
@@ -0,0 +1,287 @@
+/* 
+ * PNG library (Java)
+ * 
+ * Copyright (c) Project Nayuki
+ * MIT License. See readme file.
+ * https://www.nayuki.io/page/png-library
+ */
+
+package io.nayuki.png;
+
+import java.io.ByteArrayInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.PosixFileAttributeView;
+import java.nio.file.attribute.PosixFileAttributes;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Objects;
+import io.nayuki.png.chunk.Chunk;
+import io.nayuki.png.chunk.Iend;
+import io.nayuki.png.chunk.Ihdr;
+
+
+/**
+ * Edits the ancillary chunks of an existing PNG file without loading its image data.
+ * Reading scans the chunk layout of the file, parsing every chunk except IDAT, whose
+ * data is skipped. Writing serializes the metadata chunks and copies the untouched range
+ * of IDAT chunks verbatim with {@link FileChannel#transferTo(long, long,
+ * java.nio.channels.WritableByteChannel) FileChannel.transferTo()}, which lets the
+ * operating system avoid copying the bytes through the Java heap. Like {@link PngImage},
+ * the metadata is split into the chunks before and after the IDAT chunks; unlike it, the
+ * IHDR and IDAT chunks can't be changed. This doesn't check constraints between chunks
+ * (e.g. chunk ordering). The source file must not be modified by anyone else while an
+ * editor for it exists. Instances are mutable and not thread-safe.
+ */
+public final class PngMetadataEditor {
+	
+	/*---- Fields ----*/
+	
+	/** The chunks positioned after IHDR and before the IDAT chunks. */
+	public List<Chunk> afterIhdr;
+	
+	/** The chunks positioned after the IDAT chunks and before IEND. */
+	public List<Chunk> afterIdats;
+	
+	private final Path file;
+	private Ihdr ihdr;
+	
+	// Layout of the file as last scanned
+	private long ihdrEnd;  // Offset where the chunk after IHDR starts
+	private long idatsStart;  // Offset of the first IDAT chunk
+	private long idatsEnd;  // Offset where the chunk after the last IDAT starts
+	private List<Chunk> origAfterIhdr;
+	private List<Chunk> origAfterIdats;
+	
+	
+	
+	/*---- Constructor and factory ----*/
+	
+	/**
+	 * Scans the specified PNG file and returns a new editor for its metadata chunks.
+	 * Every chunk is checked for valid outer structure, but only non-IDAT chunks
+	 * have their CRC-32 verified and their data parsed.
+	 * @param file the PNG file to edit (not {@code null})
+	 * @return a new editor for the file (not {@code null})
+	 * @throws NullPointerException if {@code file} is {@code null}
+	 * @throws IllegalArgumentException if the file contains invalid data in the header
+	 * signature, chunk outer structure, non-IDAT chunk inner structure, or chunk positions
+	 * of IHDR, IDAT, and IEND
+	 * @throws IOException if an I/O exception occurs
+	 */
+	public static PngMetadataEditor read(Path file) throws IOException {
+		var result = new PngMetadataEditor(Objects.requireNonNull(file));
+		result.scan();
+		return result;
+	}
+	
+	
+	private PngMetadataEditor(Path file) {
+		this.file = file;
+	}
+	
+	
+	
+	/*---- Methods ----*/
+	
+	/**
+	 * Returns the IHDR chunk of the file being edited.
+	 * @return the IHDR chunk (not {@code null})
+	 */
+	public Ihdr ihdr() {
+		return ihdr;
+	}
+	
+	
+	/**
+	 * Writes a new PNG file that has the signature, IHDR chunk, and IDAT chunks of the
+	 * source file, and the current metadata chunks of this editor. If the output file is the
+	 * same as the source file, then this is equivalent to {@link #writeInPlace()}.
+	 * @param outFile the output file to write to (not {@code null})
+	 * @throws NullPointerException if {@code outFile} or any field or chunk is {@code null}
+	 * @throws IOException if an I/O exception occurs
+	 */
+	public void write(Path outFile) throws IOException {
+		Objects.requireNonNull(outFile);
+		Objects.requireNonNull(afterIhdr);
+		Objects.requireNonNull(afterIdats);
+		if (Files.exists(outFile) && Files.isSameFile(file, outFile)) {
+			writeInPlace();
+			return;
+		}
+		try (FileChannel in = FileChannel.open(file, StandardOpenOption.READ);
+				FileChannel out = FileChannel.open(outFile, StandardOpenOption.WRITE,
+					StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING)) {
+			transfer(in, 0, ihdrEnd, out);
+			for (Chunk chk : afterIhdr)
+				chk.writeChunk(out);
+			transfer(in, idatsStart, idatsEnd, out);
+			for (Chunk chk : afterIdats)
+				chk.writeChunk(out);
+			Iend.SINGLETON.writeChunk(out);
+		}
+	}
+	
+	
+	/**
+	 * Writes the current metadata chunks of this editor back to the source file, then rescans
+	 * it (which replaces the lists in this editor's fields). If only the chunks after the IDAT
+	 * chunks have changed, then the file is truncated after the last IDAT chunk and the new
+	 * trailing chunks are appended, without touching the bytes before; note that a crash
+	 * during this can leave the file truncated. Otherwise, a new file is written next to
+	 * the source file (after following any symbolic links), given the source file's POSIX
+	 * permissions and owner where possible, and then moved to replace it. If nothing has
+	 * changed, nothing is written.
+	 * @throws NullPointerException if any field or chunk is {@code null}
+	 * @throws IOException if an I/O exception occurs
+	 */
+	public void writeInPlace() throws IOException {
+		Objects.requireNonNull(afterIhdr);
+		Objects.requireNonNull(afterIdats);
+		boolean headChanged = !afterIhdr.equals(origAfterIhdr);
+		boolean tailChanged = !afterIdats.equals(origAfterIdats);
+		if (headChanged) {
+			Path target = file.toRealPath();  // Replace the file that a symbolic link points to, not the link
+			Path temp = Files.createTempFile(target.getParent(), target.getFileName().toString(), ".tmp");
+			try {
+				write(temp);
+				copyAttributes(target, temp);
+				Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+			} finally {
+				Files.deleteIfExists(temp);
+			}
+		} else if (tailChanged) {
+			try (FileChannel out = FileChannel.open(file, StandardOpenOption.WRITE)) {
+				out.truncate(idatsEnd);
+				out.position(idatsEnd);
+				for (Chunk chk : afterIdats)
+					chk.writeChunk(out);
+				Iend.SINGLETON.writeChunk(out);
+			}
+		} else
+			return;
+		scan();
+	}
+	
+	
+	// Reads the chunk layout of the file, and sets all the fields of this object.
+	private void scan() throws IOException {
+		try (FileChannel in = FileChannel.open(file, StandardOpenOption.READ)) {
+			long size = in.size();
+			var sig = ByteBuffer.allocate(8);
+			readFully(in, 0, sig);
+			if (!Arrays.equals(sig.array(), XngFile.Type.PNG.getSignature()))
+				throw new IllegalArgumentException("File signature is not PNG");
+			
+			Ihdr ihdr = null;
+			List<Chunk> head = new ChunkList<>();
+			List<Chunk> tail = new ChunkList<>();
+			long ihdrEnd = -1;
+			long idatsStart = -1;
+			long idatsEnd = -1;
+			boolean hasIend = false;
+			var header = ByteBuffer.allocate(8);
+			for (long pos = sig.capacity(); pos < size; ) {
+				if (hasIend)
+					throw new IllegalArgumentException("Unexpected chunk after IEND");
+				header.clear();
+				readFully(in, pos, header);
+				int dataLen = header.getInt(0);
+				if (dataLen < 0)
+					throw new IllegalArgumentException("Chunk data length out of range");
+				var type = new String(header.array(), 4, 4, StandardCharsets.US_ASCII);
+				Chunk.checkType(type);
+				long end = pos + 12 + dataLen;
+				if (end > size)
+					throw new EOFException();
+				
+				if (type.equals("IDAT")) {
+					if (ihdr == null)
+						throw new IllegalArgumentException("Expected IHDR chunk");
+					if (idatsStart == -1)
+						idatsStart = pos;
+					else if (idatsEnd != pos)
+						throw new IllegalArgumentException("Non-consecutive IDAT chunk");
+					idatsEnd = end;
+				} else {
+					var buf = ByteBuffer.allocate(Math.toIntExact(end - pos));
+					readFully(in, pos, buf);
+					Chunk chk = Chunk.read(new ByteArrayInputStream(buf.array())).orElseThrow();
+					if (ihdr == null) {
+						if (!(chk instanceof Ihdr h))
+							throw new IllegalArgumentException("Expected IHDR chunk");
+						ihdr = h;
+						ihdrEnd = end;
+					} else if (chk instanceof Iend) {
+						if (idatsStart == -1)
+							throw new IllegalArgumentException("Unexpected IEND chunk");
+						hasIend = true;
+					} else
+						(idatsStart == -1 ? head : tail).add(chk);
+				}
+				pos = end;
+			}
+			if (ihdr == null || idatsStart == -1 || !hasIend)
+				throw new IllegalArgumentException("Missing some required chunks");
+			
+			this.ihdr = ihdr;
+			this.ihdrEnd = ihdrEnd;
+			this.idatsStart = idatsStart;
+			this.idatsEnd = idatsEnd;
+			origAfterIhdr = List.copyOf(head);
+			origAfterIdats = List.copyOf(tail);
+			afterIhdr = head;
+			afterIdats = tail;
+		}
+	}
+	
+	
+	
+	/*---- Static helper functions ----*/
+	
+	private static void readFully(FileChannel in, long position, ByteBuffer buf) throws IOException {
+		while (buf.hasRemaining()) {
+			int n = in.read(buf, position);
+			if (n == -1)
+				throw new EOFException();
+			position += n;
+		}
+	}
+	
+	
+	// Gives the destination file the permissions, owner, and group of the source file, on file
+	// systems that support POSIX attributes. Changing the owner or group is skipped if not permitted.
+	private static void copyAttributes(Path source, Path dest) throws IOException {
+		PosixFileAttributeView view = Files.getFileAttributeView(source, PosixFileAttributeView.class);
+		if (view == null)
+			return;
+		PosixFileAttributes attrs = view.readAttributes();
+		PosixFileAttributeView destView = Files.getFileAttributeView(dest, PosixFileAttributeView.class);
+		try {
+			destView.setGroup(attrs.group());
+		} catch (IOException e) {}  // Not a member of the group
+		try {
+			destView.setOwner(attrs.owner());
+		} catch (IOException e) {}  // Usually needs privileges
+		destView.setPermissions(attrs.permissions());
+	}
+	
+	
+	// Copies the byte range [start, end) of the input file to the output channel.
+	private static void transfer(FileChannel in, long start, long end, FileChannel out) throws IOException {
+		while (start < end) {
+			long n = in.transferTo(start, end - start, out);
+			if (n <= 0)  // The file was truncated by someone else
+				throw new EOFException();
+			start += n;
+		}
+	}
+	
+}
@@ -0,0 +1,351 @@
+/* 
+ * PNG library (Java)
+ * 
+ * Copyright (c) Project Nayuki
+ * MIT License. See readme file.
+ * https://www.nayuki.io/page/png-library
+ */
+
+package io.nayuki.png;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Semaphore;
+import io.nayuki.png.chunk.Chunk;
+import io.nayuki.png.chunk.Ihdr;
+import io.nayuki.png.chunk.Itxt;
+import io.nayuki.png.chunk.Text;
+import io.nayuki.png.chunk.Time;
+import io.nayuki.png.chunk.Ztxt;
+
+
+/**
+ * An index of the basic metadata of many PNG files, which can be updated incrementally and
+ * saved to disk. Updating walks directory trees, and reads each PNG file that is new or whose
+ * size or last-modified time changed, using {@link PngMetadataEditor} so that only non-IDAT
+ * chunks are parsed. Files are read in parallel on a caller-supplied executor (e.g. a
+ * virtual-thread-per-task executor on Java 21+) with a bound on concurrent reads. Files that
+ * fail to parse are left out of the index. Instances are thread-safe, but updates must not
+ * run concurrently with each other.
+ */
+public final class PngMetadataIndex {
+	
+	/*---- Fields ----*/
+	
+	private final Map<Path,Entry> entries = new ConcurrentHashMap<>();
+	
+	
+	
+	/*---- Constructor and factory ----*/
+	
+	/**
+	 * Constructs an empty index.
+	 */
+	public PngMetadataIndex() {}
+	
+	
+	/**
+	 * Reads an index that was previously saved to the specified file,
+	 * or returns a new empty index if the file doesn't exist.
+	 * @param indexFile the file to load from (not {@code null})
+	 * @return the loaded index (not {@code null})
+	 * @throws NullPointerException if {@code indexFile} is {@code null}
+	 * @throws IllegalArgumentException if the file is not in the expected format
+	 * @throws IOException if an I/O exception occurs
+	 */
+	public static PngMetadataIndex load(Path indexFile) throws IOException {
+		Objects.requireNonNull(indexFile);
+		var result = new PngMetadataIndex();
+		try (var in = new DataInputStream(new BufferedInputStream(Files.newInputStream(indexFile)))) {
+			if (in.readInt() != MAGIC)
+				throw new IllegalArgumentException("Unrecognized index file format");
+			for (int i = 0, n = in.readInt(); i < n; i++) {
+				Entry entry = Entry.read(in);
+				result.entries.put(Path.of(entry.path()), entry);
+			}
+		} catch (NoSuchFileException e) {}  // Start with an empty index
+		return result;
+	}
+	
+	
+	
+	/*---- Methods ----*/
+	
+	/**
+	 * Returns an unmodifiable view of all the entries currently in this index, in no particular order.
+	 * @return the entries of this index (not {@code null})
+	 */
+	public Collection<Entry> entries() {
+		return Collections.unmodifiableCollection(entries.values());
+	}
+	
+	
+	/**
+	 * Returns the entry for the specified file (by absolute normalized path), or empty if none.
+	 * @param file the file to look up (not {@code null})
+	 * @return the entry for the file or empty
+	 * @throws NullPointerException if {@code file} is {@code null}
+	 */
+	public Optional<Entry> get(Path file) {
+		return Optional.ofNullable(entries.get(file.toAbsolutePath().normalize()));
+	}
+	
+	
+	/**
+	 * Brings this index up to date with all the files with extension ".png" (in any letter case)
+	 * in the specified directory trees. Entries for files that are unchanged (same size and
+	 * last-modified time) are kept, entries for files that no longer exist under the roots are
+	 * removed, and all other files are read as tasks on the specified executor, with at most
+	 * {@code maxConcurrentReads} files being read at once. This method returns after all tasks finish.
+	 * @param roots the directories to scan (not {@code null})
+	 * @param executor the executor to read files on (not {@code null})
+	 * @param maxConcurrentReads the maximum number of files to read at once, at least 1
+	 * @return the number of files that were read (including ones that failed to parse)
+	 * @throws NullPointerException if any argument is {@code null}
+	 * @throws IllegalArgumentException if {@code maxConcurrentReads} is less than 1
+	 * @throws IOException if an I/O exception occurs while walking the
+	 * directories or reading a file (but not for files that failed to parse,
+	 * were truncated, or were deleted during the update)
+	 */
+	public int update(List<Path> roots, Executor executor, int maxConcurrentReads) throws IOException {
+		Objects.requireNonNull(roots);
+		Objects.requireNonNull(executor);
+		if (maxConcurrentReads < 1)
+			throw new IllegalArgumentException("Invalid concurrency");
+		
+		Map<Path,BasicFileAttributes> files = new ConcurrentHashMap<>();
+		List<Path> absRoots = roots.stream().map(p -> p.toAbsolutePath().normalize()).toList();
+		for (Path root : absRoots) {
+			Files.walkFileTree(root, new SimpleFileVisitor<>() {
+				@Override public FileVisitResult visitFile(Path p, BasicFileAttributes attrs) throws IOException {
+					Path name = p.getFileName();
+					if (name == null || !name.toString().toLowerCase().endsWith(".png"))
+						return FileVisitResult.CONTINUE;
+					if (attrs.isSymbolicLink()) {
+						try {
+							attrs = Files.readAttributes(p, BasicFileAttributes.class);
+						} catch (NoSuchFileException e) {  // Dangling link or deleted during the walk
+							return FileVisitResult.CONTINUE;
+						}
+					}
+					if (attrs.isRegularFile())
+						files.put(p, attrs);
+					return FileVisitResult.CONTINUE;
+				}
+				
+				@Override public FileVisitResult visitFileFailed(Path p, IOException e) throws IOException {
+					if (e instanceof NoSuchFileException)  // Deleted during the walk
+						return FileVisitResult.CONTINUE;
+					throw e;
+				}
+				
+				@Override public FileVisitResult postVisitDirectory(Path dir, IOException e) throws IOException {
+					if (e != null && !(e instanceof NoSuchFileException))
+						throw e;
+					return FileVisitResult.CONTINUE;
+				}
+			});
+		}
+		entries.keySet().removeIf(p -> !files.containsKey(p) && absRoots.stream().anyMatch(p::startsWith));
+		
+		var limit = new Semaphore(maxConcurrentReads);
+		List<CompletableFuture<Void>> tasks = new ArrayList<>();
+		files.forEach((path, attrs) -> {
+			long size = attrs.size();
+			long modified = attrs.lastModifiedTime().toMillis();
+			Entry old = entries.get(path);
+			if (old != null && old.size() == size && old.lastModified() == modified)
+				return;
+			entries.remove(path);
+			tasks.add(CompletableFuture.runAsync(() -> {
+				limit.acquireUninterruptibly();
+				try {
+					Entry entry = readEntry(path, size, modified);
+					if (entry != null)
+						entries.put(path, entry);
+				} catch (IOException e) {
+					throw new UncheckedIOException(e);
+				} finally {
+					limit.release();
+				}
+			}, executor));
+		});
+		
+		try {
+			CompletableFuture.allOf(tasks.toArray(new CompletableFuture<?>[0])).join();
+		} catch (CompletionException e) {
+			if (e.getCause() instanceof UncheckedIOException ex)
+				throw ex.getCause();
+			throw e;
+		}
+		return tasks.size();
+	}
+	
+	
+	/**
+	 * Writes all the entries of this index to the specified file,
+	 * by writing a new file next to it and then replacing it.
+	 * @param indexFile the file to save to (not {@code null})
+	 * @throws NullPointerException if {@code indexFile} is {@code null}
+	 * @throws IOException if an I/O exception occurs
+	 */
+	public void save(Path indexFile) throws IOException {
+		Objects.requireNonNull(indexFile);
+		List<Entry> snapshot = new ArrayList<>(entries.values());
+		Path temp = Files.createTempFile(indexFile.toAbsolutePath().getParent(), indexFile.getFileName().toString(), ".tmp");
+		try {
+			try (var out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temp)))) {
+				out.writeInt(MAGIC);
+				out.writeInt(snapshot.size());
+				for (Entry entry : snapshot)
+					entry.write(out);
+			}
+			Files.move(temp, indexFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		} finally {
+			Files.deleteIfExists(temp);
+		}
+	}
+	
+	
+	// Returns the entry for the given file, or null if it isn't a valid PNG file or no longer exists.
+	private static Entry readEntry(Path file, long size, long modified) throws IOException {
+		PngMetadataEditor png;
+		try {
+			png = PngMetadataEditor.read(file);
+		} catch (IllegalArgumentException | EOFException | NoSuchFileException e) {
+			return null;
+		}
+		List<String> keywords = new ArrayList<>();
+		Optional<Time> time = Optional.empty();
+		for (List<Chunk> lst : List.of(png.afterIhdr, png.afterIdats)) {
+			for (Chunk chk : lst) {
+				if (chk instanceof Text c)
+					keywords.add(c.keyword());
+				else if (chk instanceof Ztxt c)
+					keywords.add(c.keyword());
+				else if (chk instanceof Itxt c)
+					keywords.add(c.keyword());
+				else if (chk instanceof Time c)
+					time = Optional.of(c);
+			}
+		}
+		Ihdr ihdr = png.ihdr();
+		return new Entry(file.toString(), size, modified, ihdr.width(), ihdr.height(),
+			ihdr.colorType(), ihdr.bitDepth(), keywords, time);
+	}
+	
+	
+	private static final int MAGIC = 0x504D4931;  // "PMI1"
+	
+	
+	
+	/*---- Helper record ----*/
+	
+	/**
+	 * The metadata of one indexed PNG file.
+	 * @param path the absolute normalized path of the file (not {@code null})
+	 * @param size the size of the file in bytes when it was read
+	 * @param lastModified the last-modified time of the file in Unix milliseconds when it was read
+	 * @param width the width of the image in pixels
+	 * @param height the height of the image in pixels
+	 * @param colorType the color type of the image (not {@code null})
+	 * @param bitDepth the bit depth of the image
+	 * @param keywords the keywords of all the tEXt, zTXt, and iTXt chunks in file order (not {@code null})
+	 * @param time the tIME chunk, if present (not {@code null})
+	 */
+	public record Entry(
+			String path,
+			long size,
+			long lastModified,
+			int width,
+			int height,
+			Ihdr.ColorType colorType,
+			int bitDepth,
+			List<String> keywords,
+			Optional<Time> time) {
+		
+		/**
+		 * Constructs an entry with the specified field values.
+		 * @throws NullPointerException if any object or list element is {@code null}
+		 */
+		public Entry {
+			Objects.requireNonNull(path);
+			Objects.requireNonNull(colorType);
+			keywords = List.copyOf(keywords);
+			Objects.requireNonNull(time);
+		}
+		
+		
+		private static Entry read(DataInputStream in) throws IOException {
+			String path = in.readUTF();
+			long size = in.readLong();
+			long modified = in.readLong();
+			int width = in.readInt();
+			int height = in.readInt();
+			int colorTypeIndex = in.readUnsignedByte();
+			Ihdr.ColorType[] colorTypes = Ihdr.ColorType.values();
+			if (colorTypeIndex >= colorTypes.length)
+				throw new IllegalArgumentException("Unrecognized index file format");
+			int bitDepth = in.readUnsignedByte();
+			List<String> keywords = new ArrayList<>();
+			for (int i = 0, n = in.readUnsignedShort(); i < n; i++)
+				keywords.add(in.readUTF());
+			Optional<Time> time = Optional.empty();
+			if (in.readBoolean()) {
+				time = Optional.of(new Time(in.readUnsignedShort(), in.readUnsignedByte(), in.readUnsignedByte(),
+					in.readUnsignedByte(), in.readUnsignedByte(), in.readUnsignedByte()));
+			}
+			return new Entry(path, size, modified, width, height, colorTypes[colorTypeIndex], bitDepth, keywords, time);
+		}
+		
+		
+		private void write(DataOutputStream out) throws IOException {
+			out.writeUTF(path);
+			out.writeLong(size);
+			out.writeLong(lastModified);
+			out.writeInt(width);
+			out.writeInt(height);
+			out.writeByte(colorType.ordinal());
+			out.writeByte(bitDepth);
+			int n = Math.min(keywords.size(), 0xFFFF);
+			out.writeShort(n);
+			for (String kw : keywords.subList(0, n))
+				out.writeUTF(kw);
+			out.writeBoolean(time.isPresent());
+			if (time.isPresent()) {
+				Time t = time.get();
+				out.writeShort(t.year());
+				out.writeByte(t.month());
+				out.writeByte(t.day());
+				out.writeByte(t.hour());
+				out.writeByte(t.minute());
+				out.writeByte(t.second());
+			}
+		}
+		
+	}
+	
+}
@@ -0,0 +1,377 @@
+/* 
+ * PNG library (Java)
+ * 
+ * Copyright (c) Project Nayuki
+ * MIT License. See readme file.
+ * https://www.nayuki.io/page/png-library
+ */
+
+package io.nayuki.png;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Supplier;
+import java.util.stream.Stream;
+import java.util.zip.Deflater;
+import io.nayuki.png.ImageEncoder.FilterStrategy;
+import io.nayuki.png.chunk.Chunk;
+import io.nayuki.png.chunk.Custom;
+import io.nayuki.png.chunk.Idat;
+import io.nayuki.png.chunk.Ihdr;
+import io.nayuki.png.chunk.Plte;
+import io.nayuki.png.chunk.Trns;
+import io.nayuki.png.image.GrayImage;
+import io.nayuki.png.image.GrayToRgbaImage;
+import io.nayuki.png.image.PaletteImage;
+import io.nayuki.png.image.PaletteToRgbaImage;
+import io.nayuki.png.image.RgbaImage;
+
+
+/**
+ * Losslessly re-encodes the image data of PNG images to make them smaller, like the
+ * optipng and oxipng tools. Not instantiable.
+ * <p>The image is decoded, then encoded with many combinations of color type and bit depth
+ * reduction, palette order, filter strategy, interlace method, and deflate strategy; these
+ * trials run concurrently on an executor. The smallest result whose pixels decode to the
+ * same colors as the original is kept, or the original image data if no trial is smaller.</p>
+ * <p>The IHDR, PLTE, sBIT, tRNS, and IDAT chunks are replaced, and any sgIX chunk is dropped
+ * because it describes the old image data. Every other chunk in
+ * {@code afterIhdr} and {@code afterIdats} is carried through unchanged and in order.
+ * Because the contents of bKGD and hIST chunks depend on the color type, bit depth,
+ * and palette, their presence restricts the trials to results with the same color type,
+ * bit depth, PLTE, and tRNS as the original. The frames (fdAT chunks) of an animated PNG
+ * (acTL chunk) are encoded in that format too, so they likewise pin it, and they also keep
+ * the original interlace method. Unrecognized chunks that are not safe to copy may depend
+ * on the image data, so if any is present then the image data is left unchanged.</p>
+ * @see ImageEncoder
+ */
+public final class PngOptimizer {
+	
+	/*---- Public functions ----*/
+	
+	/**
+	 * Returns a new PNG image that is a losslessly optimized version of the specified
+	 * image, running all trials on the common fork-join pool without a time limit.
+	 * The specified image is not modified, and chunk objects are shared with it.
+	 * @param png the PNG image to optimize (not {@code null})
+	 * @return a new PNG image that is no larger than the original (not {@code null})
+	 * @throws NullPointerException if {@code png} is {@code null}
+	 * @throws IllegalArgumentException if the PNG image is malformed
+	 */
+	public static PngImage optimize(PngImage png) {
+		return optimize(png, null, ForkJoinPool.commonPool());
+	}
+	
+	
+	/**
+	 * Returns a new PNG image that is a losslessly optimized version of the specified
+	 * image, running trials on the common fork-join pool within the specified time budget.
+	 * @param png the PNG image to optimize (not {@code null})
+	 * @param timeBudget the maximum time to spend on trials (not {@code null}, not negative)
+	 * @return a new PNG image that is no larger than the original (not {@code null})
+	 * @throws NullPointerException if {@code png} or {@code timeBudget} is {@code null}
+	 * @throws IllegalArgumentException if the PNG image is malformed or the time budget is negative
+	 * @see #optimize(PngImage, Duration, Executor)
+	 */
+	public static PngImage optimize(PngImage png, Duration timeBudget) {
+		return optimize(png, Objects.requireNonNull(timeBudget), ForkJoinPool.commonPool());
+	}
+	
+	
+	/**
+	 * Returns a new PNG image that is a losslessly optimized version of the specified image,
+	 * running trials on the specified executor within the specified time budget. Trials are
+	 * started roughly in order of how likely they are to win. When the budget runs out,
+	 * trials that haven't started are skipped, and this method returns the best result among
+	 * the trials that finished successfully; trials that threw an exception are skipped, and
+	 * trials that are still running finish in the background and their results are discarded. Decoding the image and verifying the result are not limited by
+	 * the budget. The specified image is not modified, and chunk objects are shared with it.
+	 * @param png the PNG image to optimize (not {@code null})
+	 * @param timeBudget the maximum time to spend on trials (not {@code null}, not negative)
+	 * @param executor the executor to run trials on (not {@code null})
+	 * @return a new PNG image that is no larger than the original (not {@code null})
+	 * @throws NullPointerException if any argument is {@code null}
+	 * @throws IllegalArgumentException if the PNG image is malformed or the time budget is negative
+	 */
+	public static PngImage optimize(PngImage png, Duration timeBudget, Executor executor) {
+		Objects.requireNonNull(png);
+		Objects.requireNonNull(executor);
+		long budgetNanos = Long.MAX_VALUE;
+		if (timeBudget != null) {
+			if (timeBudget.isNegative())
+				throw new IllegalArgumentException("Negative time budget");
+			budgetNanos = timeBudget.compareTo(Duration.ofNanos(Long.MAX_VALUE)) < 0 ? timeBudget.toNanos() : Long.MAX_VALUE;
+		}
+		long startTime = System.nanoTime();
+		
+		Ihdr ihdr = png.ihdr.orElseThrow(() -> new IllegalArgumentException("Missing IHDR chunk"));
+		Object image = ImageDecoder.toImage(png);
+		boolean pinFormat = hasChunk(png, "bKGD") || hasChunk(png, "hIST") || hasChunk(png, "acTL");
+		boolean pinInterlace = hasChunk(png, "acTL");
+		if (Stream.concat(png.afterIhdr.stream(), png.afterIdats.stream())
+				.anyMatch(chk -> chk instanceof Custom && !chk.isSafeToCopy()))
+			return copyOf(png);
+		
+		// Start the trials
+		List<CompletableFuture<PngImage>> futures = new ArrayList<>();
+		final long budget = budgetNanos;
+		for (Supplier<PngImage> trial : makeTrials(image, pinInterlace ? List.of(ihdr.interlaceMethod()) : List.of(Ihdr.InterlaceMethod.values()))) {
+			futures.add(CompletableFuture.supplyAsync(() -> {
+				if (System.nanoTime() - startTime >= budget)
+					return null;
+				PngImage result = trial.get();
+				return !pinFormat || isSameFormat(png, result) ? result : null;
+			}, executor));
+		}
+		
+		// Wait for the trials to finish or the budget to run out
+		try {
+			long remain = budgetNanos - (System.nanoTime() - startTime);
+			CompletableFuture.allOf(futures.toArray(CompletableFuture[]::new)).get(Math.max(remain, 0), TimeUnit.NANOSECONDS);
+		} catch (TimeoutException | ExecutionException e) {
+			// Use the trials that finished successfully
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		
+		// Pick the smallest valid result
+		List<PngImage> candidates = futures.stream()
+			.filter(f -> f.isDone() && !f.isCompletedExceptionally())
+			.map(f -> f.getNow(null))
+			.filter(Objects::nonNull)
+			.sorted(Comparator.comparingLong(PngOptimizer::imageDataSize))
+			.toList();
+		long originalSize = imageDataSize(png);
+		for (PngImage cand : candidates) {
+			if (imageDataSize(cand) >= originalSize)
+				break;
+			Optional<PngImage> result = assemble(png, cand);
+			if (result.isPresent() && isSameImage(image, ImageDecoder.toImage(result.get())))
+				return result.get();
+		}
+		return copyOf(png);
+	}
+	
+	
+	
+	/*---- Private helper functions ----*/
+	
+	// Returns encoding tasks for the given decoded image, roughly from the most to least likely to win.
+	private static List<Supplier<PngImage>> makeTrials(Object image, List<Ihdr.InterlaceMethod> interMeths) {
+		List<ImageTrial> images = new ArrayList<>();
+		RgbaImage rgba;
+		if (image instanceof RgbaImage img) {
+			images.add((im, opts) -> ImageEncoder.toPng(img, im, opts));
+			rgba = img;
+		} else if (image instanceof GrayImage img) {
+			images.add((im, opts) -> ImageEncoder.toPng(img, im, opts));
+			rgba = new GrayToRgbaImage(img);
+		} else if (image instanceof PaletteImage img) {
+			addPaletteTrials(img, images);
+			rgba = new PaletteToRgbaImage(img);
+		} else
+			throw new AssertionError("Unreachable type");
+		ColorReducer.Result red = ColorReducer.reduce(rgba);
+		if (red.image() instanceof PaletteImage img)
+			addPaletteTrials(img, images);
+		else
+			images.add((im, opts) -> ImageEncoder.toPng(red, im, opts));
+		
+		List<Supplier<PngImage>> result = new ArrayList<>();
+		for (Ihdr.InterlaceMethod im : interMeths) {
+			for (int strategy : COMPRESSION_STRATEGIES) {
+				for (FilterStrategy filter : FILTER_STRATEGIES) {
+					var opts = new ImageEncoder.Options(filter, Deflater.BEST_COMPRESSION, strategy, Optional.empty(), 1);
+					for (ImageTrial trial : images)
+						result.add(() -> trial.encode(im, opts));
+				}
+			}
+		}
+		return result;
+	}
+	
+	
+	private static void addPaletteTrials(PaletteImage img, List<ImageTrial> images) {
+		for (PaletteOrder order : PaletteOrder.values()) {
+			PaletteImage ordered = order == PaletteOrder.ORIGINAL ? img : order.apply(img);
+			images.add((im, opts) -> ImageEncoder.toPng(ordered, im, opts));
+		}
+	}
+	
+	
+	private static final List<FilterStrategy> FILTER_STRATEGIES = List.of(
+		FilterStrategy.MINIMUM_SUM,
+		FilterStrategy.NONE,
+		FilterStrategy.PAETH,
+		FilterStrategy.SUB,
+		FilterStrategy.UP,
+		FilterStrategy.AVERAGE);
+	
+	private static final int[] COMPRESSION_STRATEGIES = {Deflater.DEFAULT_STRATEGY, Deflater.FILTERED, Deflater.HUFFMAN_ONLY};
+	
+	
+	// Returns a new image with the same chunk objects as the given image.
+	private static PngImage copyOf(PngImage png) {
+		var result = new PngImage();
+		result.ihdr = png.ihdr;
+		result.afterIhdr.addAll(png.afterIhdr);
+		result.idats.addAll(png.idats);
+		result.afterIdats.addAll(png.afterIdats);
+		return result;
+	}
+	
+	
+	// Returns a new image with the original's ancillary chunks and the candidate's image data
+	// chunks, or empty if the chunks can't be ordered validly.
+	private static Optional<PngImage> assemble(PngImage original, PngImage candidate) {
+		List<Chunk> dataChunks = candidate.afterIhdr.stream()
+			.filter(chk -> IMAGE_DATA_TYPES.contains(chk.getType()))
+			.toList();
+		// Insert the data chunks after the last chunk that must precede PLTE
+		int index = 0;
+		for (int i = 0; i < original.afterIhdr.size(); i++) {
+			if (BEFORE_PLTE_TYPES.contains(original.afterIhdr.get(i).getType()))
+				index = i + 1;
+		}
+		
+		var result = new PngImage();
+		result.ihdr = candidate.ihdr;
+		for (int i = 0; i <= original.afterIhdr.size(); i++) {
+			if (i == index)
+				result.afterIhdr.addAll(dataChunks);
+			if (i < original.afterIhdr.size()) {
+				Chunk chk = original.afterIhdr.get(i);
+				if (!IMAGE_DATA_TYPES.contains(chk.getType()))
+					result.afterIhdr.add(chk);
+			}
+		}
+		result.idats.addAll(candidate.idats);
+		result.afterIdats.addAll(original.afterIdats);
+		try {
+			result.freeze();
+		} catch (IllegalStateException e) {
+			return Optional.empty();
+		}
+		return Optional.of(result);
+	}
+	
+	
+	private static final Set<String> IMAGE_DATA_TYPES = Set.of("PLTE", "sBIT", "sgIX", "tRNS");
+	
+	private static final Set<String> BEFORE_PLTE_TYPES = Set.of("cHRM", "gAMA", "iCCP", "sRGB");
+	
+	
+	// Returns the total serialized size of the chunks that the optimizer replaces.
+	private static long imageDataSize(PngImage png) {
+		long result = 0;
+		for (Chunk chk : png.afterIhdr) {
+			if (IMAGE_DATA_TYPES.contains(chk.getType()))
+				result += chunkSize(chk);
+		}
+		for (Idat chk : png.idats)
+			result += chunkSize(chk);
+		return result;
+	}
+	
+	
+	private static long chunkSize(Chunk chk) {
+		if (chk instanceof Idat idat)
+			return idat.data().length + 12L;
+		var bout = new ByteArrayOutputStream();
+		try {
+			chk.writeChunk(bout);
+		} catch (IOException e) {
+			throw new AssertionError("Unreachable exception", e);
+		}
+		return bout.size();
+	}
+	
+	
+	private static boolean hasChunk(PngImage png, String type) {
+		return png.afterIhdr.stream().anyMatch(chk -> chk.getType().equals(type))
+			|| png.afterIdats.stream().anyMatch(chk -> chk.getType().equals(type));
+	}
+	
+	
+	// Tests whether the given images have the same color type, bit depth, PLTE, and tRNS.
+	private static boolean isSameFormat(PngImage x, PngImage y) {
+		Ihdr xh = x.ihdr.orElseThrow();
+		Ihdr yh = y.ihdr.orElseThrow();
+		return xh.colorType() == yh.colorType() && xh.bitDepth() == yh.bitDepth()
+			&& Arrays.equals(PngImage.getChunk(Plte.class, x.afterIhdr).map(Plte::data).orElse(null),
+				PngImage.getChunk(Plte.class, y.afterIhdr).map(Plte::data).orElse(null))
+			&& Arrays.equals(PngImage.getChunk(Trns.class, x.afterIhdr).map(Trns::data).orElse(null),
+				PngImage.getChunk(Trns.class, y.afterIhdr).map(Trns::data).orElse(null));
+	}
+	
+	
+	// Tests whether the given decoded images have the same color at every pixel.
+	private static boolean isSameImage(Object x, Object y) {
+		RgbaImage xr = toRgba(x);
+		RgbaImage yr = toRgba(y);
+		int width = xr.getWidth();
+		int height = xr.getHeight();
+		if (yr.getWidth() != width || yr.getHeight() != height)
+			return false;
+		int[] xDepths = xr.getBitDepths();
+		int[] yDepths = yr.getBitDepths();
+		for (int y0 = 0; y0 < height; y0++) {
+			for (int x0 = 0; x0 < width; x0++) {
+				if (normalize(xr.getPixel(x0, y0), xDepths) != normalize(yr.getPixel(x0, y0), yDepths))
+					return false;
+			}
+		}
+		return true;
+	}
+	
+	
+	private static RgbaImage toRgba(Object image) {
+		if (image instanceof RgbaImage img)
+			return img;
+		else if (image instanceof GrayImage img)
+			return new GrayToRgbaImage(img);
+		else if (image instanceof PaletteImage img)
+			return new PaletteToRgbaImage(img);
+		else
+			throw new AssertionError("Unreachable type");
+	}
+	
+	
+	// Returns the pixel with every channel scaled to 16 bits, where a missing alpha channel is opaque.
+	private static long normalize(long val, int[] bitDepths) {
+		long result = 0;
+		for (int i = 0; i < 4; i++) {
+			int bits = bitDepths[i];
+			long sample = val >>> ((3 - i) * 16) & 0xFFFF;
+			sample = bits == 0 ? 0xFFFF : sample * 0xFFFF / ((1 << bits) - 1);
+			result = result << 16 | sample;
+		}
+		return result;
+	}
+	
+	
+	private PngOptimizer() {}
+	
+	
+	
+	/*---- Helper type ----*/
+	
+	private interface ImageTrial {
+		public PngImage encode(Ihdr.InterlaceMethod interMeth, ImageEncoder.Options opts);
+	}
+	
+}
@@ -0,0 +1,351 @@
+/* 
+ * PNG library (Java)
+ * 
+ * Copyright (c) Project Nayuki
+ * MIT License. See readme file.
+ * https://www.nayuki.io/page/png-library
+ */
+
+package io.nayuki.png;
+
+import java.io.ByteArrayInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.SequenceInputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Objects;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+import io.nayuki.png.chunk.Chunk;
+import io.nayuki.png.chunk.Idat;
+import io.nayuki.png.chunk.Iend;
+import io.nayuki.png.chunk.Ihdr;
+
+
+/**
+ * Parses the bytes of a PNG file that are pushed in arbitrarily sized fragments,
+ * never waiting for more input. The state of the current chunk (length, type,
+ * data, CRC-32) is kept between calls to {@link #feed(ByteBuffer)}. Each chunk
+ * is parsed with {@link Chunk#read(InputStream)} as soon as its CRC-32 arrives,
+ * and is passed to the listener. Optionally, the data of each IDAT chunk is
+ * decompressed and un-filtered right after that chunk is parsed (so that no
+ * unverified data is decompressed), and each completed row is passed to the
+ * listener. Instances are mutable and are not thread-safe. Once an exception
+ * is thrown, the parser is unusable.
+ * <p>This class checks the file signature, the chunk outer structure, each chunk's
+ * inner structure, and (when decoding rows) that the first chunk is IHDR and that
+ * the decompressed data has exactly the length needed for all the rows. It does
+ * not check the other constraints between chunks that {@link PngImage} checks.</p>
+ */
+public final class PngPushParser {
+	
+	/*---- Fields ----*/
+	
+	private final Listener listener;
+	private final boolean decodeRows;
+	
+	private State state = State.SIGNATURE;
+	private byte[] buffer = new byte[8];  // Holds the signature, then the current chunk's length and type
+	private int bufferFilled = 0;
+	private byte[] chunkHeader;
+	private byte[] chunkData;
+	
+	private RowDecoder rowDecoder = null;
+	
+	
+	
+	/*---- Constructor ----*/
+	
+	/**
+	 * Constructs a parser that is at the beginning of a PNG file and delivers events to the specified listener.
+	 * @param listener the listener to deliver chunks and rows to (not {@code null})
+	 * @param decodeRows whether to decompress and un-filter
+	 * the image data and deliver each row to the listener
+	 * @throws NullPointerException if {@code listener} is {@code null}
+	 */
+	public PngPushParser(Listener listener, boolean decodeRows) {
+		this.listener = Objects.requireNonNull(listener);
+		this.decodeRows = decodeRows;
+	}
+	
+	
+	
+	/*---- Methods ----*/
+	
+	/**
+	 * Consumes all the remaining bytes of the specified buffer, delivering zero or more
+	 * chunks and rows to the listener. This advances the buffer's position to its limit.
+	 * @param data the next fragment of bytes of the PNG file (not {@code null})
+	 * @throws NullPointerException if {@code data} is {@code null}
+	 * @throws IllegalArgumentException if the data contains invalid data in the
+	 * header signature, chunk outer structure, chunk inner structure, or row data,
+	 * or if there is data after the IEND chunk
+	 * @throws IllegalStateException if {@code finish()} was called or an exception was previously thrown
+	 */
+	public void feed(ByteBuffer data) {
+		Objects.requireNonNull(data);
+		if (state == State.FINISHED || state == State.FAILED)
+			throw new IllegalStateException("Parser is no longer usable");
+		try {
+			while (data.hasRemaining()) {
+				switch (state) {
+					case SIGNATURE -> {
+						if (fill(buffer, data)) {
+							if (!Arrays.equals(buffer, XngFile.Type.PNG.getSignature()))
+								throw new IllegalArgumentException("File signature is not PNG");
+							bufferFilled = 0;
+							state = State.CHUNK_HEADER;
+						}
+					}
+					case CHUNK_HEADER -> {
+						if (fill(buffer, data)) {
+							int dataLen = ByteBuffer.wrap(buffer).getInt(0);
+							if (dataLen < 0)
+								throw new IllegalArgumentException("Chunk data length out of range");
+							var type = new String(buffer, 4, 4, StandardCharsets.US_ASCII);
+							Chunk.checkType(type);
+							chunkHeader = buffer.clone();
+							chunkData = new byte[dataLen];
+							bufferFilled = 0;
+							state = State.CHUNK_DATA;
+						}
+					}
+					case CHUNK_DATA -> {
+						if (fill(chunkData, data)) {
+							buffer = new byte[4];
+							bufferFilled = 0;
+							state = State.CHUNK_CRC;
+						}
+					}
+					case CHUNK_CRC -> {
+						if (fill(buffer, data)) {
+							List<InputStream> parts = List.of(
+								new ByteArrayInputStream(chunkHeader),
+								new ByteArrayInputStream(chunkData),
+								new ByteArrayInputStream(buffer));
+							Chunk chunk = Chunk.read(new SequenceInputStream(Collections.enumeration(parts))).get();
+							chunkHeader = null;
+							chunkData = null;
+							buffer = new byte[8];
+							bufferFilled = 0;
+							state = chunk instanceof Iend ? State.AFTER_IEND : State.CHUNK_HEADER;
+							handleChunk(chunk);
+						}
+					}
+					case AFTER_IEND -> throw new IllegalArgumentException("Unexpected data after IEND chunk");
+					default -> throw new AssertionError("Unreachable value");
+				}
+			}
+		} catch (IOException e) {
+			state = State.FAILED;
+			throw new AssertionError("Unreachable exception", e);
+		} catch (RuntimeException e) {
+			state = State.FAILED;
+			if (rowDecoder != null)
+				rowDecoder.inflater.end();
+			throw e;
+		}
+	}
+	
+	
+	/**
+	 * Signals that there are no more bytes in the PNG file, and
+	 * checks that the IEND chunk has been completely parsed.
+	 * @throws EOFException if the file ended before the IEND chunk was completely parsed
+	 * @throws IllegalStateException if {@code finish()} was called or an exception was previously thrown
+	 */
+	public void finish() throws EOFException {
+		if (state == State.FINISHED || state == State.FAILED)
+			throw new IllegalStateException("Parser is no longer usable");
+		boolean complete = state == State.AFTER_IEND;
+		state = complete ? State.FINISHED : State.FAILED;
+		if (rowDecoder != null)
+			rowDecoder.inflater.end();
+		if (!complete)
+			throw new EOFException();
+	}
+	
+	
+	// Copies as many bytes as possible into the array after bufferFilled,
+	// returning whether the array has become completely filled.
+	private boolean fill(byte[] arr, ByteBuffer data) {
+		int n = Math.min(arr.length - bufferFilled, data.remaining());
+		data.get(arr, bufferFilled, n);
+		bufferFilled += n;
+		return bufferFilled == arr.length;
+	}
+	
+	
+	private void handleChunk(Chunk chunk) {
+		if (decodeRows && rowDecoder == null) {
+			if (!(chunk instanceof Ihdr ihdr))
+				throw new IllegalArgumentException("Expected IHDR chunk");
+			rowDecoder = new RowDecoder(ihdr);
+		}
+		listener.chunkParsed(chunk);
+		if (decodeRows) {
+			if (chunk instanceof Idat idat)
+				rowDecoder.decode(idat.data());
+			else if (chunk instanceof Iend)
+				rowDecoder.finish();
+		}
+	}
+	
+	
+	
+	/*---- Helper class ----*/
+	
+	// Decompresses and un-filters IDAT data incrementally, delivering each row as soon as it is complete.
+	private final class RowDecoder {
+		
+		public final Inflater inflater = new Inflater();
+		private final List<int[]> passes = new ArrayList<>();  // Each entry is {xOffset, yOffset, xStep, yStep, subwidth, subheight}
+		private final int bitsPerPixel;
+		private int passIndex = -1;
+		private int rowIndex;
+		private int filterStride;
+		private int filter = -1;  // Either -1 if not yet read or the filter type of the current row
+		private byte[] previousRow;
+		private byte[] currentRow;
+		private int rowFilled;
+		
+		
+		public RowDecoder(Ihdr ihdr) {
+			try {
+				new Interlacer(ihdr) {
+					@Override protected void handleSubimage(int xOffset, int yOffset, int xStep, int yStep, int subwidth, int subheight) {
+						passes.add(new int[]{xOffset, yOffset, xStep, yStep, subwidth, subheight});
+					}
+				}.doInterlace();
+			} catch (IOException e) {
+				throw new AssertionError("Unreachable exception", e);
+			}
+			int channels = switch (ihdr.colorType()) {
+				case GRAYSCALE, INDEXED_COLOR -> 1;
+				case GRAYSCALE_WITH_ALPHA -> 2;
+				case TRUE_COLOR -> 3;
+				case TRUE_COLOR_WITH_ALPHA -> 4;
+			};
+			bitsPerPixel = ihdr.bitDepth() * channels;
+			filterStride = Math.ceilDiv(bitsPerPixel, 8);
+			nextPass();
+		}
+		
+		
+		public void decode(byte[] data) {
+			if (passIndex >= passes.size() && inflater.finished()) {
+				if (data.length > 0)
+					throw new IllegalArgumentException("Extra compressed data after all pixels");
+				return;
+			}
+			inflater.setInput(data);
+			try {
+				while (!inflater.needsInput()) {
+					if (inflater.finished()) {
+						if (passIndex < passes.size())
+							throw new IllegalArgumentException("Compressed data ended before all pixels");
+						if (inflater.getRemaining() > 0)
+							throw new IllegalArgumentException("Extra compressed data after all pixels");
+						break;
+					}
+					if (inflater.needsDictionary())
+						throw new IllegalArgumentException("Unsupported preset dictionary");
+					if (passIndex >= passes.size()) {
+						if (inflater.inflate(new byte[1]) > 0)
+							throw new IllegalArgumentException("Extra decompressed data after all pixels");
+						continue;
+					}
+					if (filter == -1) {
+						var b = new byte[1];
+						if (inflater.inflate(b) == 1)
+							filter = b[0] & 0xFF;
+						continue;
+					}
+					rowFilled += inflater.inflate(currentRow, rowFilled, currentRow.length - rowFilled);
+					if (rowFilled == currentRow.length) {
+						ImageDecoder.unfilterRow(filter, currentRow, previousRow, filterStride);
+						int[] pass = passes.get(passIndex);
+						listener.rowDecoded(pass[0], pass[1] + rowIndex * pass[3], pass[2],
+							Arrays.copyOfRange(currentRow, filterStride, currentRow.length));
+						byte[] temp = currentRow;
+						currentRow = previousRow;
+						previousRow = temp;
+						filter = -1;
+						rowFilled = filterStride;
+						rowIndex++;
+						if (rowIndex >= pass[5])
+							nextPass();
+					}
+				}
+			} catch (DataFormatException e) {
+				throw new IllegalArgumentException("Invalid compressed data", e);
+			}
+		}
+		
+		
+		public void finish() {
+			if (passIndex < passes.size() || !inflater.finished())
+				throw new IllegalArgumentException("Compressed data ended before all pixels");
+		}
+		
+		
+		private void nextPass() {
+			passIndex++;
+			rowIndex = 0;
+			if (passIndex < passes.size()) {
+				int[] pass = passes.get(passIndex);
+				int rowBytes = Math.toIntExact(Math.ceilDiv((long)pass[4] * bitsPerPixel, 8));
+				previousRow = new byte[Math.addExact(rowBytes, filterStride)];
+				currentRow = previousRow.clone();
+				rowFilled = filterStride;
+			}
+		}
+		
+	}
+	
+	
+	
+	/*---- Enumeration and interface ----*/
+	
+	private enum State {
+		SIGNATURE, CHUNK_HEADER, CHUNK_DATA, CHUNK_CRC, AFTER_IEND, FINISHED, FAILED,
+	}
+	
+	
+	/**
+	 * Receives the chunks and rows produced by a {@link PngPushParser}.
+	 * Methods are called on the thread that calls {@link PngPushParser#feed(ByteBuffer)}.
+	 */
+	public interface Listener {
+		
+		/**
+		 * Called when a chunk has been completely read and its CRC-32 verified. Chunks are delivered in file order.
+		 * @param chunk the chunk that was parsed (not {@code null})
+		 */
+		public void chunkParsed(Chunk chunk);
+		
+		
+		/**
+		 * Called when a row of the image has been decompressed and un-filtered, if row decoding is
+		 * enabled. The row covers the pixels at the coordinates (<code>xOffset + i &times; xStep</code>,
+		 * {@code y}) for increasing {@code i}, and the samples are packed exactly as in the PNG
+		 * format for the bit depth and color type given by the IHDR chunk, without the filter
+		 * type byte. With Adam7 interlacing, rows are delivered in the order of the 7 passes.
+		 * The rows decompressed from an IDAT chunk are delivered right after that chunk is
+		 * delivered. The array is newly allocated for each call. The default implementation does nothing.
+		 * @param xOffset the <var>x</var> coordinate of the first pixel in the row
+		 * @param y the <var>y</var> coordinate of all the pixels in the row
+		 * @param xStep the difference in <var>x</var> coordinates between adjacent pixels in the row
+		 * @param samples the un-filtered sample bytes of the row (not {@code null})
+		 */
+		public default void rowDecoded(int xOffset, int y, int xStep, byte[] samples) {}
+		
+	}
+	
+}
@@ -0,0 +1,372 @@
+/* 
+ * PNG library (Java)
+ * 
+ * Copyright (c) Project Nayuki
+ * MIT License. See readme file.
+ * https://www.nayuki.io/page/png-library
+ */
+
+package io.nayuki.png;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.SequenceInputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Objects;
+import io.nayuki.png.chunk.Idat;
+import io.nayuki.png.chunk.Ihdr;
+
+
+/**
+ * A random-access index of the rows of a non-interlaced PNG image, in the manner of zlib's
+ * zran example. Building the index decodes all the image data once, and records a checkpoint
+ * at the first DEFLATE block boundary after every given number of rows: the bit position in
+ * the compressed data, the preceding 32 KiB of decompressed data, and the unfiltered row above.
+ * Then {@link ImageDecoder#toImage(PngImage, RowIndex, int, int)} decodes a range of rows
+ * by resuming from the nearest checkpoint above it instead of decompressing from the start.
+ * An index can be saved as a sidecar file and loaded later; it is tied to the exact image
+ * data that it was built from. Instances are immutable and thread-safe.
+ */
+public final class RowIndex {
+	
+	/*---- Fields ----*/
+	
+	// Identification of the image data
+	private final long dataLength;
+	private final int dataChecksum;  // The last 4 bytes of the data, i.e. the stored Adler-32
+	private final int height;
+	private final int bytesPerRow;  // Including the filter type byte
+	
+	private final List<Checkpoint> checkpoints;  // In ascending order
+	
+	
+	
+	/*---- Constructors and factories ----*/
+	
+	private RowIndex(long dataLength, int dataChecksum, int height, int bytesPerRow, List<Checkpoint> checkpoints) {
+		this.dataLength = dataLength;
+		this.dataChecksum = dataChecksum;
+		this.height = height;
+		this.bytesPerRow = bytesPerRow;
+		this.checkpoints = List.copyOf(checkpoints);
+	}
+	
+	
+	/**
+	 * Decodes all the image data of the specified PNG image and returns
+	 * a new index with a checkpoint after about every given number of rows.
+	 * @param png the PNG image to index (not {@code null})
+	 * @param rowInterval the minimum number of rows between checkpoints, at least 1
+	 * @return a new index of the image's rows (not {@code null})
+	 * @throws NullPointerException if {@code png} is {@code null}
+	 * @throws IllegalArgumentException if the row interval is not positive,
+	 * the image is interlaced, or the image data is malformed
+	 */
+	public static RowIndex build(PngImage png, int rowInterval) {
+		Objects.requireNonNull(png);
+		if (rowInterval < 1)
+			throw new IllegalArgumentException("Invalid row interval");
+		Ihdr ihdr = png.ihdr.orElseThrow(() -> new IllegalArgumentException("Missing IHDR chunk"));
+		checkInterlace(ihdr);
+		int bytesPerRow = bytesPerRow(ihdr);
+		int filterStride = filterStride(ihdr);
+		byte[] data = concatenateData(png);
+		
+		List<Checkpoint> checkpoints = new ArrayList<>();
+		var inflater = new JavaInflater(data);
+		var rowBuf = new byte[bytesPerRow];  // Filtered bytes of the current row so far
+		int rowFill = 0;
+		var previousRow = new byte[filterStride + bytesPerRow - 1];  // Unfiltered, with zero padding
+		var currentRow = previousRow.clone();
+		int row = 0;
+		long position = 0;
+		var buf = new byte[1 << 16];
+		while (true) {
+			if (inflater.isAtBlockBoundary() && row < ihdr.height() && row >= (checkpoints.isEmpty() ? 0 :
+					rowOf(checkpoints.get(checkpoints.size() - 1).position(), bytesPerRow)) + rowInterval) {
+				byte[] history = inflater.window();
+				if (rowFill > history.length)
+					history = Arrays.copyOf(rowBuf, rowFill);
+				checkpoints.add(new Checkpoint(position, inflater.bitPosition(), history,
+					Arrays.copyOfRange(previousRow, filterStride, previousRow.length)));
+			}
+			int n = inflater.inflate(buf, 0, buf.length);
+			if (n == -1)
+				break;
+			for (int i = 0; i < n; ) {
+				int k = Math.min(n - i, bytesPerRow - rowFill);
+				System.arraycopy(buf, i, rowBuf, rowFill, k);
+				i += k;
+				rowFill += k;
+				if (rowFill == bytesPerRow) {
+					if (row >= ihdr.height())
+						throw new IllegalArgumentException("Extra decompressed data after all pixels");
+					System.arraycopy(rowBuf, 1, currentRow, filterStride, bytesPerRow - 1);
+					ImageDecoder.unfilterRow(rowBuf[0] & 0xFF, currentRow, previousRow, filterStride);
+					byte[] temp = previousRow;
+					previousRow = currentRow;
+					currentRow = temp;
+					row++;
+					rowFill = 0;
+				}
+			}
+			position += n;
+		}
+		if (row < ihdr.height() || rowFill > 0)
+			throw new IllegalArgumentException("Missing decompressed data");
+		return new RowIndex(data.length, lastInt(data), ihdr.height(), bytesPerRow, checkpoints);
+	}
+	
+	
+	/**
+	 * Reads an index that was previously saved to the specified file.
+	 * @param indexFile the file to load from (not {@code null})
+	 * @return the loaded index (not {@code null})
+	 * @throws NullPointerException if {@code indexFile} is {@code null}
+	 * @throws IllegalArgumentException if the file is not in the expected format
+	 * @throws IOException if an I/O exception occurs
+	 */
+	public static RowIndex load(Path indexFile) throws IOException {
+		Objects.requireNonNull(indexFile);
+		try (var in = new DataInputStream(new BufferedInputStream(Files.newInputStream(indexFile)))) {
+			if (in.readInt() != MAGIC)
+				throw new IllegalArgumentException("Unrecognized index file format");
+			long dataLength = in.readLong();
+			int dataChecksum = in.readInt();
+			int height = in.readInt();
+			int bytesPerRow = in.readInt();
+			if (dataLength < 0 || height < 1 || bytesPerRow < 2)
+				throw new IllegalArgumentException("Unrecognized index file format");
+			List<Checkpoint> checkpoints = new ArrayList<>();
+			for (int i = 0, n = in.readInt(); i < n; i++) {
+				long position = in.readLong();
+				long bitPosition = in.readLong();
+				byte[] history = readBytes(in);
+				byte[] previousRow = readBytes(in);
+				long prevPosition = checkpoints.isEmpty() ? 0 : checkpoints.get(i - 1).position();
+				if (position <= prevPosition || position >= (long)height * bytesPerRow || bitPosition < 0
+						|| bitPosition > dataLength * 8 || previousRow.length != bytesPerRow - 1
+						|| history.length < Math.max(position % bytesPerRow, Math.min(position, WINDOW_SIZE)))
+					throw new IllegalArgumentException("Unrecognized index file format");
+				checkpoints.add(new Checkpoint(position, bitPosition, history, previousRow));
+			}
+			if (in.read() != -1)
+				throw new IllegalArgumentException("Unrecognized index file format");
+			return new RowIndex(dataLength, dataChecksum, height, bytesPerRow, checkpoints);
+		}
+	}
+	
+	
+	
+	/*---- Methods ----*/
+	
+	/**
+	 * Returns the number of checkpoints in this index. Decoding a range of rows
+	 * starts from the beginning of the image data if no checkpoint precedes it.
+	 * @return the number of checkpoints, at least 0
+	 */
+	public int checkpointCount() {
+		return checkpoints.size();
+	}
+	
+	
+	/**
+	 * Writes this index to the specified file, by writing a new file next to it and then replacing it.
+	 * @param indexFile the file to save to (not {@code null})
+	 * @throws NullPointerException if {@code indexFile} is {@code null}
+	 * @throws IOException if an I/O exception occurs
+	 */
+	public void save(Path indexFile) throws IOException {
+		Objects.requireNonNull(indexFile);
+		Path temp = Files.createTempFile(indexFile.toAbsolutePath().getParent(), indexFile.getFileName().toString(), ".tmp");
+		try {
+			try (var out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temp)))) {
+				out.writeInt(MAGIC);
+				out.writeLong(dataLength);
+				out.writeInt(dataChecksum);
+				out.writeInt(height);
+				out.writeInt(bytesPerRow);
+				out.writeInt(checkpoints.size());
+				for (Checkpoint cp : checkpoints) {
+					out.writeLong(cp.position());
+					out.writeLong(cp.bitPosition());
+					out.writeInt(cp.history().length);
+					out.write(cp.history());
+					out.writeInt(cp.previousRow().length);
+					out.write(cp.previousRow());
+				}
+			}
+			Files.move(temp, indexFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		} finally {
+			Files.deleteIfExists(temp);
+		}
+	}
+	
+	
+	// Returns a stream of the filtered rows in [startRow, endRow) of the given image, except that
+	// the first row is already unfiltered and has filter type None. Throws IllegalArgumentException
+	// if this index doesn't belong to the image data, or the image data is malformed.
+	InputStream openRows(PngImage png, int startRow, int endRow) throws IOException {
+		Ihdr ihdr = png.ihdr.orElseThrow(() -> new IllegalArgumentException("Missing IHDR chunk"));
+		checkInterlace(ihdr);
+		if (!(0 <= startRow && startRow < endRow && endRow <= ihdr.height()))
+			throw new IllegalArgumentException("Invalid row range");
+		byte[] data = concatenateData(png);
+		if (data.length != dataLength || lastInt(data) != dataChecksum || ihdr.height() != height || bytesPerRow(ihdr) != bytesPerRow)
+			throw new IllegalArgumentException("Index doesn't match image data");
+		int filterStride = filterStride(ihdr);
+		
+		// Find the last checkpoint whose row doesn't come after the start row
+		Checkpoint cp = null;
+		for (Checkpoint c : checkpoints) {
+			if (rowOf(c.position(), bytesPerRow) > startRow)
+				break;
+			cp = c;
+		}
+		var previousRow = new byte[filterStride + bytesPerRow - 1];
+		DataInputStream in;
+		int row;
+		if (cp == null) {
+			in = new DataInputStream(new Stream(new JavaInflater(data)));
+			row = 0;
+		} else {
+			byte[] history = cp.history();
+			int prefixLen = (int)(cp.position() % bytesPerRow);
+			var inflater = new JavaInflater(data, cp.bitPosition(),
+				Arrays.copyOfRange(history, Math.max(history.length - WINDOW_SIZE, 0), history.length));
+			in = new DataInputStream(new SequenceInputStream(
+				new ByteArrayInputStream(history, history.length - prefixLen, prefixLen), new Stream(inflater)));
+			row = rowOf(cp.position(), bytesPerRow);
+			System.arraycopy(cp.previousRow(), 0, previousRow, filterStride, bytesPerRow - 1);
+		}
+		
+		// Decode up to and including the start row
+		var currentRow = previousRow.clone();
+		for (; row <= startRow; row++) {
+			int filter = in.readUnsignedByte();
+			in.readFully(currentRow, filterStride, bytesPerRow - 1);
+			ImageDecoder.unfilterRow(filter, currentRow, previousRow, filterStride);
+			byte[] temp = previousRow;
+			previousRow = currentRow;
+			currentRow = temp;
+		}
+		previousRow[filterStride - 1] = 0;  // Filter type None
+		return new SequenceInputStream(new ByteArrayInputStream(previousRow, filterStride - 1, bytesPerRow), in);
+	}
+	
+	
+	private static void checkInterlace(Ihdr ihdr) {
+		if (ihdr.interlaceMethod() != Ihdr.InterlaceMethod.NONE)
+			throw new IllegalArgumentException("Interlaced images not supported");
+	}
+	
+	
+	private static int bitsPerPixel(Ihdr ihdr) {
+		int channels = switch (ihdr.colorType()) {
+			case GRAYSCALE, INDEXED_COLOR -> 1;
+			case GRAYSCALE_WITH_ALPHA -> 2;
+			case TRUE_COLOR -> 3;
+			case TRUE_COLOR_WITH_ALPHA -> 4;
+		};
+		return ihdr.bitDepth() * channels;
+	}
+	
+	
+	private static int bytesPerRow(Ihdr ihdr) {
+		return Math.toIntExact(Math.ceilDiv((long)ihdr.width() * bitsPerPixel(ihdr), 8) + 1);
+	}
+	
+	
+	private static int filterStride(Ihdr ihdr) {
+		return Math.ceilDiv(bitsPerPixel(ihdr), 8);
+	}
+	
+	
+	private static int rowOf(long position, int bytesPerRow) {
+		return (int)(position / bytesPerRow);
+	}
+	
+	
+	private static byte[] concatenateData(PngImage png) {
+		var bout = new ByteArrayOutputStream();
+		for (Idat idat : png.idats)
+			bout.writeBytes(idat.data());
+		return bout.toByteArray();
+	}
+	
+	
+	private static int lastInt(byte[] data) {
+		int result = 0;
+		for (int i = Math.max(data.length - 4, 0); i < data.length; i++)
+			result = result << 8 | (data[i] & 0xFF);
+		return result;
+	}
+	
+	
+	private static byte[] readBytes(DataInputStream in) throws IOException {
+		int len = in.readInt();
+		if (!(0 <= len && len <= MAX_HISTORY))
+			throw new IllegalArgumentException("Unrecognized index file format");
+		var result = new byte[len];
+		in.readFully(result);
+		return result;
+	}
+	
+	
+	private static final int MAGIC = 0x50524931;  // "PRI1"
+	
+	private static final int WINDOW_SIZE = 1 << 15;
+	
+	private static final int MAX_HISTORY = Integer.MAX_VALUE - 8;
+	
+	
+	
+	/*---- Helper types ----*/
+	
+	// A block boundary at the given offset in the decompressed data. The history is the decompressed
+	// data before it, at least the last 32 KiB (or everything) and the part of the current row.
+	private record Checkpoint(long position, long bitPosition, byte[] history, byte[] previousRow) {}
+	
+	
+	
+	// Reads the output of an inflater, skipping over zero-length results at block boundaries.
+	private static final class Stream extends InputStream {
+		
+		private final JavaInflater inflater;
+		
+		
+		public Stream(JavaInflater inflater) {
+			this.inflater = inflater;
+		}
+		
+		
+		@Override public int read() throws IOException {
+			var b = new byte[1];
+			return read(b) == -1 ? -1 : b[0] & 0xFF;
+		}
+		
+		
+		@Override public int read(byte[] b, int off, int len) throws IOException {
+			if (len == 0)
+				return 0;
+			while (true) {
+				int n = inflater.inflate(b, off, len);
+				if (n != 0)
+					return n;
+			}
+		}
+		
+	}
+	
+}
@@ -0,0 +1,50 @@
+/* 
+ * PNG library (Java)
+ * 
+ * Copyright (c) Project Nayuki
+ * MIT License. See readme file.
+ * https://www.nayuki.io/page/png-library
+ */
+
+package io.nayuki.png;
+
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+
+/**
+ * Provides lookup tables that linearly rescale sample values between bit depths, replacing
+ * a multiplication and a division per sample with an array access. Tables are built on first
+ * use and shared by all images and threads afterward. Not instantiable.
+ */
+final class SampleScaler {
+	
+	/*---- Function ----*/
+	
+	// Returns a table whose entry at each in in [0, 2^inBits) is floor(in / IN_MAX * OUT_MAX + 0.5),
+	// where IN_MAX = 2^inBits - 1 and OUT_MAX = 2^outBits - 1. For inBits = 0 (an absent channel),
+	// the table has the single entry 0. The returned array must not be modified.
+	public static char[] scaleTable(int inBits, int outBits) {
+		if (!(0 <= inBits && inBits <= 16 && 1 <= outBits && outBits <= 16))
+			throw new IllegalArgumentException("Invalid bit depths");
+		int index = inBits * 17 + outBits;
+		char[] result = tables.get(index);
+		if (result == null) {
+			result = new char[1 << inBits];
+			long mul = (2L << outBits) - 2;
+			long div = Math.max((1L << inBits) - 1, 1);
+			for (int i = 0; i < result.length; i++)
+				result[i] = (char)((i * mul + div) / div >>> 1);
+			if (!tables.compareAndSet(index, null, result))
+				result = tables.get(index);
+		}
+		return result;
+	}
+	
+	
+	// Indexed by inBits * 17 + outBits; the atomic array publishes each table safely.
+	private static final AtomicReferenceArray<char[]> tables = new AtomicReferenceArray<>(17 * 17);
+	
+	
+	private SampleScaler() {}
+	
+}
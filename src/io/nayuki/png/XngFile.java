@@ -10,6 +10,7 @@ package io.nayuki.png;
 
 import java.io.BufferedInputStream;
 import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.DataInputStream;
 import java.io.File;
 import java.io.FileInputStream;
@@ -17,14 +18,20 @@ import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
-import java.util.ArrayList;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Path;
 import java.util.Arrays;
 import java.util.List;
 import java.util.Objects;
 import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.stream.Stream;
 import io.nayuki.png.chunk.Chunk;
+import io.nayuki.png.chunk.ChunkInterner;
 import io.nayuki.png.chunk.Custom;
 import io.nayuki.png.chunk.Ihdr;
+import io.nayuki.png.chunk.IntegrityCheck;
 
 
 /**
@@ -63,9 +70,29 @@ public record XngFile(Type type, List<Chunk> chunks) {
 	 * @throws IOException if an I/O exception occurs
 	 */
 	public static XngFile read(File inFile, boolean parse) throws IOException {
+		return read(inFile, parse, new IntegrityCheck(IntegrityCheck.Mode.INLINE));
+	}
+	
+	
+	/**
+	 * Reads the specified input file and returns a new {@code XngFile} object representing
+	 * the type and chunks that were read. This is the same as {@link #read(File, boolean)},
+	 * except that chunk CRC-32 values are verified according to the specified integrity
+	 * check, which also records the stored CRC-32 value of each chunk in order.
+	 * @param inFile the input file to read from
+	 * @param parse whether to try to parse each chunk's internal fields
+	 * @param integrity the integrity check to verify and record CRC-32 values with
+	 * @return a new {@code XngFile} object representing the type and chunks read
+	 * @throws NullPointerException if {@code inFile} or {@code integrity} is {@code null}
+	 * @throws IllegalArgumentException if the file contains invalid data in the header
+	 * signature, chunk outer structure, or chunk inner structure (if parsing is enabled)
+	 * @throws IOException if an I/O exception occurs
+	 */
+	public static XngFile read(File inFile, boolean parse, IntegrityCheck integrity) throws IOException {
 		Objects.requireNonNull(inFile);
+		Objects.requireNonNull(integrity);
 		try (var in = new BufferedInputStream(new FileInputStream(inFile))) {
-			return read(in, parse);
+			return read(in, parse, integrity);
 		}
 	}
 	
@@ -86,7 +113,53 @@ public record XngFile(Type type, List<Chunk> chunks) {
 	 * @throws IOException if an I/O exception occurs
 	 */
 	public static XngFile read(InputStream in, boolean parse) throws IOException {
+		return read(in, parse, new IntegrityCheck(IntegrityCheck.Mode.INLINE));
+	}
+	
+	
+	/**
+	 * Reads the specified input stream and returns a new {@code XngFile} object representing
+	 * the type and chunks that were read. This is the same as {@link #read(InputStream,
+	 * boolean)}, except that chunk CRC-32 values are verified according to the specified
+	 * integrity check, which also records the stored CRC-32 value of each chunk in order.
+	 * @param in the input stream to read from
+	 * @param parse whether to try to parse each chunk's internal fields
+	 * @param integrity the integrity check to verify and record CRC-32 values with
+	 * @return a new {@code XngFile} object representing the type and chunks read
+	 * @throws NullPointerException if {@code in} or {@code integrity} is {@code null}
+	 * @throws IllegalArgumentException if the stream contains invalid data in the header
+	 * signature, chunk outer structure, or chunk inner structure (if parsing is enabled)
+	 * @throws IOException if an I/O exception occurs
+	 */
+	public static XngFile read(InputStream in, boolean parse, IntegrityCheck integrity) throws IOException {
+		return read(in, parse, integrity, Optional.empty());
+	}
+	
+	
+	/**
+	 * Reads the specified input stream and returns a new {@code XngFile} object representing
+	 * the type and chunks that were read. This is the same as {@link #read(InputStream,
+	 * boolean, IntegrityCheck)}, except that each chunk is replaced by its canonical
+	 * instance from the specified interner, so that identical chunks across many
+	 * files read with the same interner are shared instead of duplicated.
+	 * @param in the input stream to read from
+	 * @param parse whether to try to parse each chunk's internal fields
+	 * @param integrity the integrity check to verify and record CRC-32 values with
+	 * @param interner the interner to canonicalize chunks with
+	 * @return a new {@code XngFile} object representing the type and chunks read
+	 * @throws NullPointerException if {@code in}, {@code integrity}, or {@code interner} is {@code null}
+	 * @throws IllegalArgumentException if the stream contains invalid data in the header
+	 * signature, chunk outer structure, or chunk inner structure (if parsing is enabled)
+	 * @throws IOException if an I/O exception occurs
+	 */
+	public static XngFile read(InputStream in, boolean parse, IntegrityCheck integrity, ChunkInterner interner) throws IOException {
+		return read(in, parse, integrity, Optional.of(interner));
+	}
+	
+	
+	private static XngFile read(InputStream in, boolean parse, IntegrityCheck integrity, Optional<ChunkInterner> interner) throws IOException {
 		Objects.requireNonNull(in);
+		Objects.requireNonNull(integrity);
 		
 		var sig = new byte[8];
 		new DataInputStream(in).readFully(sig);
@@ -98,17 +171,41 @@ public record XngFile(Type type, List<Chunk> chunks) {
 		if (fileType == null)
 			throw new IllegalArgumentException("Unrecognized file signature");
 		
-		List<Chunk> chunks = new ArrayList<>();
+		List<Chunk> chunks = new ChunkList<>();
 		while (true) {
-			Optional<? extends Chunk> chk = parse ? Chunk.read(in) : Custom.read(in);
+			Optional<? extends Chunk> chk = parse ? Chunk.read(in, integrity) : Custom.read(in, integrity);
 			if (chk.isEmpty())
 				break;
-			chunks.add(chk.get());
+			chunks.add(interner.isPresent() ? interner.get().intern(chk.get()) : chk.get());
 		}
 		return new XngFile(fileType, chunks);
 	}
 	
 	
+	/**
+	 * Asynchronously reads the specified input file and returns a future that completes
+	 * with a new {@code XngFile} object representing the type and chunks that were read.
+	 * The file is transferred by an {@link java.nio.channels.AsynchronousFileChannel}
+	 * without blocking any thread, then parsed in memory as per {@link #read(File, boolean)}.
+	 * The future completes exceptionally with an {@code IllegalArgumentException}
+	 * or {@code IOException} in the cases where {@code read()} would throw them.
+	 * @param inFile the input file to read from
+	 * @param parse whether to try to parse each chunk's internal fields
+	 * @return a future (not {@code null}) for the {@code XngFile} object representing the type and chunks read
+	 * @throws NullPointerException if {@code inFile} is {@code null}
+	 */
+	public static CompletableFuture<XngFile> readAsync(Path inFile, boolean parse) {
+		Objects.requireNonNull(inFile);
+		return AsyncFileIo.readAll(inFile).thenCompose(in -> {
+			try {
+				return CompletableFuture.completedFuture(read(in, parse));
+			} catch (IOException e) {
+				return CompletableFuture.failedFuture(e);
+			}
+		});
+	}
+	
+	
 	/**
 	 * Returns the single chunk that matches the specified type or empty.
 	 * @param <T> the chunk type
@@ -117,15 +214,10 @@ public record XngFile(Type type, List<Chunk> chunks) {
 	 * @throws IllegalArgumentException if multiple chunks match the type
 	 */
 	public <T> Optional<T> getChunk(Class<T> type) {
-		Optional<T> result = Optional.empty();
-		for (Chunk chk : chunks) {
-			if (type.isInstance(chk)) {
-				if (result.isPresent())
-					throw new IllegalArgumentException("Multiple chunks with given type");
-				result = Optional.of(type.cast(chk));
-			}
-		}
-		return result;
+		List<T> matches = ChunkList.instancesOf(chunks, type);
+		if (matches.size() > 1)
+			throw new IllegalArgumentException("Multiple chunks with given type");
+		return matches.stream().findFirst();
 	}
 	
 	
@@ -137,10 +229,7 @@ public record XngFile(Type type, List<Chunk> chunks) {
 	 * @return a list (not {@code null}) of all the chunks matching the type
 	 */
 	public <T> List<T> getChunks(Class<T> type) {
-		return chunks.stream()
-			.filter(chk -> type.isInstance(chk))
-			.map(chk -> type.cast(chk))
-			.toList();
+		return List.copyOf(ChunkList.instancesOf(chunks, type));
 	}
 	
 	
@@ -158,6 +247,31 @@ public record XngFile(Type type, List<Chunk> chunks) {
 	}
 	
 	
+	/**
+	 * Asynchronously writes the type and chunks of this XNG file to the specified output file,
+	 * returning a future that completes when all the bytes are written. The file is transferred
+	 * by an {@link java.nio.channels.AsynchronousFileChannel} without blocking any thread, and
+	 * each chunk is serialized to memory only when the previous one has finished being written.
+	 * @param outFile the output file to write to
+	 * @return a future (not {@code null}) that completes when the file is written
+	 * @throws NullPointerException if {@code outFile} is {@code null}
+	 */
+	public CompletableFuture<Void> writeAsync(Path outFile) {
+		Objects.requireNonNull(outFile);
+		Stream<ByteBuffer> sig = Stream.of(ByteBuffer.wrap(type.signature));
+		Stream<ByteBuffer> data = chunks.stream().map(chk -> {
+			var bout = new ByteArrayOutputStream();
+			try {
+				chk.writeChunk(bout);
+			} catch (IOException e) {
+				throw new AssertionError("Unreachable exception", e);
+			}
+			return ByteBuffer.wrap(bout.toByteArray());
+		});
+		return AsyncFileIo.writeAll(outFile, Stream.concat(sig, data).iterator());
+	}
+	
+	
 	/**
 	 * Writes the type and chunks of this XNG file to the
 	 * specified output stream. This does not close the stream.
@@ -173,6 +287,24 @@ public record XngFile(Type type, List<Chunk> chunks) {
 	}
 	
 	
+	/**
+	 * Writes the type and chunks of this XNG file to the specified channel, which must
+	 * be in blocking mode. This does not close the channel. Chunks whose payload is a
+	 * single byte array (e.g. IDAT) are written by wrapping the array, not copying it.
+	 * @param out the channel to write to
+	 * @throws NullPointerException if {@code out} is {@code null}
+	 * @throws IOException if an I/O exception occurs
+	 */
+	public void write(WritableByteChannel out) throws IOException {
+		Objects.requireNonNull(out);
+		ByteBuffer sig = ByteBuffer.wrap(type.signature);
+		while (sig.hasRemaining())
+			out.write(sig);
+		for (Chunk chk : chunks)
+			chk.writeChunk(out);
+	}
+	
+	
 	
 	/*---- Enumeration ----*/
 	
@@ -0,0 +1,287 @@
+/* 
+ * PNG library (Java)
+ * 
+ * Copyright (c) Project Nayuki
+ * MIT License. See readme file.
+ * https://www.nayuki.io/page/png-library
+ */
+
+package io.nayuki.png;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.zip.CRC32;
+import io.nayuki.png.chunk.Chunk;
+
+
+/**
+ * Verifies the outer structure of PNG/MNG/JNG files - the signature, and each chunk's length,
+ * type, and CRC-32 - as fast as possible, without parsing or copying chunk data. Files are
+ * memory-mapped in windows and checksummed straight from the mapped buffers, and many files
+ * are checked in parallel on a bounded thread pool. This checks the same things as {@link
+ * XngFile#read(java.io.File, boolean)} with parsing disabled. Not instantiable.
+ */
+public final class XngIntegrityScanner {
+	
+	/*---- Functions ----*/
+	
+	/**
+	 * Checks all the specified files on a new pool of the specified number of threads
+	 * (one task per file), and returns a report of the throughput and the corrupt files.
+	 * @param files the files to check (not {@code null})
+	 * @param threads the number of threads to use, at least 1
+	 * @return a report (not {@code null}) of the scan
+	 * @throws NullPointerException if the list or any file is {@code null}
+	 * @throws IllegalArgumentException if {@code threads} is less than 1
+	 * @throws InterruptedException if the current thread is interrupted while waiting
+	 */
+	public static Report scan(List<Path> files, int threads) throws InterruptedException {
+		Objects.requireNonNull(files);
+		files.forEach(Objects::requireNonNull);
+		if (threads < 1)
+			throw new IllegalArgumentException("Invalid number of threads");
+		
+		long startTime = System.nanoTime();
+		ExecutorService executor = Executors.newFixedThreadPool(threads);
+		try {
+			List<Future<Result>> futures = new ArrayList<>();
+			for (Path file : files)
+				futures.add(executor.submit(() -> checkFile(file)));
+			
+			long bytes = 0;
+			List<Corruption> corruptions = new ArrayList<>();
+			for (Future<Result> f : futures) {
+				Result res;
+				try {
+					res = f.get();
+				} catch (ExecutionException e) {
+					// checkFile() reports I/O errors itself, so this is a bug or a virtual machine error
+					if (e.getCause() instanceof RuntimeException ex)
+						throw ex;
+					if (e.getCause() instanceof Error ex)
+						throw ex;
+					throw new AssertionError("Unreachable exception", e);
+				}
+				bytes += res.bytes();
+				res.corruption().ifPresent(corruptions::add);
+			}
+			return new Report(files.size(), bytes, Duration.ofNanos(System.nanoTime() - startTime), corruptions);
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+	
+	
+	/**
+	 * Checks the specified file on the current thread and returns
+	 * the first problem found, or empty if the file is intact.
+	 * @param file the file to check (not {@code null})
+	 * @return the problem found in the file, or empty
+	 * @throws NullPointerException if {@code file} is {@code null}
+	 */
+	public static Optional<Corruption> check(Path file) {
+		return checkFile(Objects.requireNonNull(file)).corruption();
+	}
+	
+	
+	private static Result checkFile(Path file) {
+		try (FileChannel ch = FileChannel.open(file, StandardOpenOption.READ)) {
+			var win = new Window(ch, ch.size());
+			if (win.size < 8)
+				return new Result(win.size, new Corruption(file, 0, "File too short for signature"));
+			var sig = new byte[8];
+			win.get(0, 8).get(sig);
+			boolean known = false;
+			for (XngFile.Type t : XngFile.Type.values())
+				known |= Arrays.equals(t.getSignature(), sig);
+			if (!known)
+				return new Result(win.size, new Corruption(file, 0, "Unrecognized file signature"));
+			
+			var header = new byte[8];
+			var crc = new CRC32();
+			for (long pos = 8; pos < win.size; ) {
+				if (win.size - pos < 12)
+					return new Result(win.size, new Corruption(file, pos, "Truncated chunk"));
+				win.get(pos, 8).get(header);
+				int dataLen = ByteBuffer.wrap(header).getInt(0);
+				if (dataLen < 0)
+					return new Result(win.size, new Corruption(file, pos, "Chunk data length out of range"));
+				try {
+					Chunk.checkType(new String(header, 4, 4, StandardCharsets.US_ASCII));
+				} catch (IllegalArgumentException e) {
+					return new Result(win.size, new Corruption(file, pos, e.getMessage()));
+				}
+				long crcPos = pos + 8 + dataLen;
+				if (crcPos + 4 > win.size)
+					return new Result(win.size, new Corruption(file, pos, "Truncated chunk"));
+				
+				crc.reset();
+				crc.update(header, 4, 4);
+				for (long p = pos + 8; p < crcPos; ) {
+					int n = (int)Math.min(crcPos - p, WINDOW_SIZE);
+					crc.update(win.get(p, n));
+					p += n;
+				}
+				if (win.get(crcPos, 4).getInt() != (int)crc.getValue())
+					return new Result(win.size, new Corruption(file, pos, "Chunk CRC-32 mismatch"));
+				pos = crcPos + 4;
+			}
+			return new Result(win.size, Optional.empty());
+		} catch (IOException e) {
+			return new Result(0, new Corruption(file, -1, "I/O exception: " + e));
+		} catch (InternalError e) {  // A fault while accessing the mapped file, such as when it was truncated during the scan
+			return new Result(0, new Corruption(file, -1, "I/O error: " + e));
+		}
+	}
+	
+	
+	private static final int WINDOW_SIZE = 1 << 26;
+	
+	
+	private XngIntegrityScanner() {}
+	
+	
+	
+	/*---- Helper records and classes ----*/
+	
+	/**
+	 * A problem found in a file.
+	 * @param file the file (not {@code null})
+	 * @param offset the byte offset of the start of the chunk with the problem,
+	 * 0 for a problem with the signature, or &minus;1 for an I/O exception or error
+	 * @param message a description of the problem (not {@code null})
+	 */
+	public record Corruption(Path file, long offset, String message) {
+		
+		/**
+		 * Constructs a corruption record with the specified field values.
+		 * @throws NullPointerException if {@code file} or {@code message} is {@code null}
+		 */
+		public Corruption {
+			Objects.requireNonNull(file);
+			Objects.requireNonNull(message);
+		}
+		
+	}
+	
+	
+	
+	/**
+	 * The outcome of scanning a list of files.
+	 * @param files the number of files checked
+	 * @param bytes the total size of the files checked
+	 * @param elapsed the wall-clock time of the scan (not {@code null})
+	 * @param corruptions the problems found, at most one per file, in the order of the input list (not {@code null})
+	 */
+	public record Report(int files, long bytes, Duration elapsed, List<Corruption> corruptions) {
+		
+		/**
+		 * Constructs a report with the specified field values.
+		 * @throws NullPointerException if {@code elapsed} or {@code corruptions} or any element is {@code null}
+		 */
+		public Report {
+			Objects.requireNonNull(elapsed);
+			corruptions = List.copyOf(corruptions);
+		}
+		
+		
+		/**
+		 * Returns the number of files checked per second.
+		 * @return the file throughput
+		 */
+		public double filesPerSecond() {
+			return files / seconds();
+		}
+		
+		
+		/**
+		 * Returns the number of bytes checked per second.
+		 * @return the byte throughput
+		 */
+		public double bytesPerSecond() {
+			return bytes / seconds();
+		}
+		
+		
+		private double seconds() {
+			return Math.max(elapsed.toNanos(), 1) / 1e9;
+		}
+		
+		
+		/**
+		 * Returns the corruptions as tab-separated lines of path, offset, and message,
+		 * each line ending with a newline. Backslashes, tabs, and newlines within
+		 * fields are escaped as {@code \\}, {@code \t}, and {@code \n}.
+		 * @return the list of corruptions as text (not {@code null})
+		 */
+		public String corruptionsAsTsv() {
+			var sb = new StringBuilder();
+			for (Corruption c : corruptions) {
+				sb.append(escape(c.file().toString())).append('\t')
+					.append(c.offset()).append('\t')
+					.append(escape(c.message())).append('\n');
+			}
+			return sb.toString();
+		}
+		
+		
+		private static String escape(String s) {
+			return s.replace("\\", "\\\\").replace("\t", "\\t").replace("\n", "\\n");
+		}
+		
+	}
+	
+	
+	
+	private record Result(long bytes, Optional<Corruption> corruption) {
+		
+		public Result(long bytes, Corruption corruption) {
+			this(bytes, Optional.ofNullable(corruption));
+		}
+		
+	}
+	
+	
+	
+	// Provides read-only views of byte ranges of a file, remapping only when a range falls outside the current mapping.
+	private static final class Window {
+		
+		private final FileChannel channel;
+		public final long size;
+		private MappedByteBuffer mapped = null;
+		private long mappedStart = 0;
+		
+		
+		public Window(FileChannel ch, long size) {
+			channel = ch;
+			this.size = size;
+		}
+		
+		
+		// Returns a buffer whose remaining bytes are exactly the given range, where len <= WINDOW_SIZE.
+		public ByteBuffer get(long pos, int len) throws IOException {
+			if (mapped == null || pos < mappedStart || pos + len > mappedStart + mapped.capacity()) {
+				mappedStart = pos;
+				mapped = channel.map(FileChannel.MapMode.READ_ONLY, pos, Math.max(Math.min(size - pos, WINDOW_SIZE), len));
+			}
+			return mapped.slice((int)(pos - mappedStart), len);
+		}
+		
+	}
+	
+}
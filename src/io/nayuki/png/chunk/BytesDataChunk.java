@@ -10,6 +10,7 @@ package io.nayuki.png.chunk;
 
 import java.io.IOException;
 import java.io.OutputStream;
+import java.nio.channels.WritableByteChannel;
 
 
 /**
@@ -25,6 +26,11 @@ interface BytesDataChunk extends Chunk {
 	}
 	
 	
+	@Override public default void writeChunk(WritableByteChannel out) throws IOException {
+		ChunkWriter.writeChunk(getType(), data(), out);
+	}
+	
+	
 	public byte[] data();
 	
 }
@@ -12,6 +12,8 @@ import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
 import java.util.Objects;
 import java.util.Optional;
 import java.util.zip.DeflaterOutputStream;
@@ -44,7 +46,25 @@ public interface Chunk {
 	 * @throws IOException if an I/O exception occurs
 	 */
 	public static Optional<Chunk> read(InputStream in) throws IOException {
-		Optional<ChunkReader> temp = ChunkReader.tryNew(in);
+		return read(in, new IntegrityCheck(IntegrityCheck.Mode.INLINE));
+	}
+	
+	
+	/**
+	 * Reads from the specified input stream and returns a chunk object representing the
+	 * data that is read, or empty if the end of stream is immediately encountered. This is
+	 * the same as {@link #read(InputStream)}, except that the CRC-32 is verified according
+	 * to the specified integrity check, which also records the chunk's stored CRC-32.
+	 * @param in the input to read the chunk's data from (not {@code null})
+	 * @param integrity the integrity check to verify and record the CRC-32 with (not {@code null})
+	 * @return a chunk object representing the data parsed from the chunk reader,
+	 * or empty if the end of stream is immediately encountered, not {@code null}
+	 * @throws NullPointerException if the input stream or integrity check is {@code null}
+	 * @throws IllegalArgumentException if the chunk contains invalid data
+	 * @throws IOException if an I/O exception occurs
+	 */
+	public static Optional<Chunk> read(InputStream in, IntegrityCheck integrity) throws IOException {
+		Optional<ChunkReader> temp = ChunkReader.tryNew(in, integrity);
 		if (temp.isEmpty())
 			return Optional.empty();
 		
@@ -73,6 +93,7 @@ public interface Chunk {
 				case Plte.TYPE -> Plte.read(cin);
 				case Sbit.TYPE -> Sbit.read(cin);
 				case Scal.TYPE -> Scal.read(cin);
+				case Sgix.TYPE -> Sgix.read(cin);
 				case Splt.TYPE -> Splt.read(cin);
 				case Srgb.TYPE -> Srgb.read(cin);
 				case Ster.TYPE -> Ster.read(cin);
@@ -138,6 +159,23 @@ public interface Chunk {
 	public abstract void writeChunk(OutputStream out) throws IOException;
 	
 	
+	/**
+	 * Writes this chunk's entire sequence of bytes (length, type, data, CRC-32) to the
+	 * specified channel, which must be in blocking mode. Chunk types whose payload is a
+	 * single byte array write that array without copying it, by gathering the header,
+	 * data, and CRC-32 into one write; other chunk types are serialized to memory first.
+	 * @param out the channel to write to (not {@code null})
+	 * @throws NullPointerException if {@code out} is {@code null}
+	 * @throws IOException if an I/O exceptions occurs
+	 */
+	public default void writeChunk(WritableByteChannel out) throws IOException {
+		Objects.requireNonNull(out);
+		var bout = new ByteArrayOutputStream();
+		writeChunk(bout);
+		ChunkWriter.writeFully(out, ByteBuffer.wrap(bout.toByteArray()));
+	}
+	
+	
 	/**
 	 * Throws an exception if the specified chunk type string is invalid.
 	 * A type is valid iff all these conditions are met:
@@ -187,6 +225,10 @@ public interface Chunk {
 				return bout.toByteArray();
 			}
 			
+			public byte[] compress(byte[] data, OptimalDeflater deflater) {
+				return deflater.compress(data);
+			}
+			
 			public byte[] decompress(byte[] data) {
 				var bout = new ByteArrayOutputStream(data.length);
 				try (var iout = new InflaterOutputStream(bout)) {
@@ -201,6 +243,16 @@ public interface Chunk {
 		
 		public abstract byte[] compress(byte[] data);
 		
+		/**
+		 * Compresses the specified data with the specified high-effort deflater,
+		 * producing smaller output than {@link #compress(byte[])} but taking more time.
+		 * @param data the data to compress (not {@code null})
+		 * @param deflater the deflater to use (not {@code null})
+		 * @return the compressed data (not {@code null})
+		 * @throws NullPointerException if any argument is {@code null}
+		 */
+		public abstract byte[] compress(byte[] data, OptimalDeflater deflater);
+		
 		public abstract byte[] decompress(byte[] data);
 		
 	}
@@ -0,0 +1,161 @@
+/* 
+ * PNG library (Java)
+ * 
+ * Copyright (c) Project Nayuki
+ * MIT License. See readme file.
+ * https://www.nayuki.io/page/png-library
+ */
+
+package io.nayuki.png.chunk;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.Arrays;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+
+/**
+ * Canonicalizes chunks so that chunks of the same class and with the same serialized bytes
+ * are represented by one shared instance. This saves memory when many images in memory carry
+ * identical ancillary chunks (e.g. PLTE, tRNS, sRGB, gAMA, pHYs, tEXt). Canonical instances are
+ * held weakly, so an interner doesn't keep alive chunks that are no longer used elsewhere.
+ * Chunks whose data is longer than the interner's limit are returned as is. Because shared
+ * chunks are visible to every image that uses them, their arrays must never be modified.
+ * Instances are thread-safe.
+ * @see io.nayuki.png.XngFile#read(java.io.InputStream, boolean, IntegrityCheck, ChunkInterner)
+ */
+public final class ChunkInterner {
+	
+	/*---- Fields ----*/
+	
+	private final int maxDataLength;
+	private final ConcurrentMap<Key,Ref> canonical = new ConcurrentHashMap<>();
+	private final ReferenceQueue<Chunk> cleared = new ReferenceQueue<>();
+	
+	
+	
+	/*---- Constructors ----*/
+	
+	/**
+	 * Constructs an interner for chunks whose data is at most 65536 bytes long.
+	 */
+	public ChunkInterner() {
+		this(1 << 16);
+	}
+	
+	
+	/**
+	 * Constructs an interner for chunks whose data is at most the specified number of bytes long.
+	 * @param maxDataLength the maximum data length of chunks to intern
+	 * @throws IllegalArgumentException if {@code maxDataLength} is negative
+	 */
+	public ChunkInterner(int maxDataLength) {
+		if (maxDataLength < 0)
+			throw new IllegalArgumentException("Negative length");
+		this.maxDataLength = maxDataLength;
+	}
+	
+	
+	
+	/*---- Methods ----*/
+	
+	/**
+	 * Returns the canonical chunk of the same class and serialized bytes as the specified chunk.
+	 * If there is no such chunk yet, then the specified chunk becomes the canonical one and is
+	 * returned. If the chunk's data is longer than this interner's limit, it is returned as is.
+	 * @param <T> the chunk type
+	 * @param chunk the chunk to intern (not {@code null})
+	 * @return the canonical chunk (not {@code null}) equivalent to the specified chunk
+	 * @throws NullPointerException if {@code chunk} is {@code null}
+	 */
+	public <T extends Chunk> T intern(T chunk) {
+		Objects.requireNonNull(chunk);
+		expungeCleared();
+		if (chunk instanceof BytesDataChunk chk && chk.data().length > maxDataLength)
+			return chunk;  // Skip serializing large arrays like IDAT
+		
+		var bout = new ByteArrayOutputStream();
+		try {
+			chunk.writeChunk(bout);
+		} catch (IOException e) {
+			throw new AssertionError("Unreachable exception", e);
+		}
+		if (bout.size() - 12 > maxDataLength)
+			return chunk;
+		
+		var key = new Key(chunk.getClass(), bout.toByteArray());
+		while (true) {
+			Ref ref = canonical.computeIfAbsent(key, k -> new Ref(chunk, k, cleared));
+			Chunk result = ref.get();
+			if (result != null) {
+				@SuppressWarnings("unchecked")
+				T res = (T)result;  // Safe because the key includes the class
+				return res;
+			}
+			canonical.remove(key, ref);
+		}
+	}
+	
+	
+	/**
+	 * Returns the number of canonical chunks currently held by this interner,
+	 * which can include chunks that have become unreachable but are not yet cleared.
+	 * @return the number of canonical chunks
+	 */
+	public int size() {
+		expungeCleared();
+		return canonical.size();
+	}
+	
+	
+	private void expungeCleared() {
+		while (true) {
+			var ref = (Ref)cleared.poll();
+			if (ref == null)
+				break;
+			canonical.remove(ref.key, ref);
+		}
+	}
+	
+	
+	
+	/*---- Helper classes ----*/
+	
+	private record Key(Class<?> type, byte[] bytes, int hash) {
+		
+		public Key(Class<?> type, byte[] bytes) {
+			this(type, bytes, type.hashCode() * 31 + Arrays.hashCode(bytes));
+		}
+		
+		
+		@Override public boolean equals(Object obj) {
+			return obj instanceof Key other && hash == other.hash
+				&& type == other.type && Arrays.equals(bytes, other.bytes);
+		}
+		
+		
+		@Override public int hashCode() {
+			return hash;
+		}
+		
+	}
+	
+	
+	
+	private static final class Ref extends WeakReference<Chunk> {
+		
+		public final Key key;
+		
+		
+		public Ref(Chunk chunk, Key key, ReferenceQueue<Chunk> queue) {
+			super(chunk, queue);
+			this.key = key;
+		}
+		
+	}
+	
+}
@@ -11,12 +11,14 @@ package io.nayuki.png.chunk;
 import java.io.EOFException;
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.ByteBuffer;
 import java.nio.charset.Charset;
 import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.List;
 import java.util.Objects;
 import java.util.Optional;
-import java.util.zip.CRC32;
 import java.util.zip.Checksum;
 
 
@@ -28,12 +30,13 @@ final class ChunkReader implements AutoCloseable {
 	
 	/*---- Factory ----*/
 	
-	public static Optional<ChunkReader> tryNew(InputStream in) throws IOException {
+	public static Optional<ChunkReader> tryNew(InputStream in, IntegrityCheck integrity) throws IOException {
 		Objects.requireNonNull(in);
+		Objects.requireNonNull(integrity);
 		int b = in.read();
 		if (b == -1)
 			return Optional.empty();
-		return Optional.of(new ChunkReader(b, in));
+		return Optional.of(new ChunkReader(b, in, integrity));
 	}
 	
 	
@@ -41,7 +44,9 @@ final class ChunkReader implements AutoCloseable {
 	/*---- Fields ----*/
 	
 	private InputStream input;
-	private Checksum checksum = new CRC32();
+	private final IntegrityCheck integrity;
+	private Checksum checksum = new Crc32();  // Null if not verifying inline
+	private List<ByteBuffer> segments = null;  // Non-null if verifying deferred
 	private final String type;
 	private int dataRemaining;  // Never negative
 	private byte[] buffer = new byte[4];
@@ -50,8 +55,9 @@ final class ChunkReader implements AutoCloseable {
 	
 	/*---- Constructor ----*/
 	
-	private ChunkReader(int lenByte0, InputStream in) throws IOException {
+	private ChunkReader(int lenByte0, InputStream in, IntegrityCheck integrity) throws IOException {
 		input = Objects.requireNonNull(in);
+		this.integrity = Objects.requireNonNull(integrity);
 		
 		dataRemaining = 3;
 		int dataLen = lenByte0 << 24 | readInt(dataRemaining);
@@ -62,6 +68,11 @@ final class ChunkReader implements AutoCloseable {
 		dataRemaining = 4;
 		type = readString(StandardCharsets.US_ASCII, false);
 		Chunk.checkType(type);
+		if (!integrity.verifiesInline(type)) {
+			checksum = null;
+			if (integrity.mode() == IntegrityCheck.Mode.DEFERRED)
+				segments = new ArrayList<>(List.of(ByteBuffer.wrap(type.getBytes(StandardCharsets.US_ASCII))));
+		}
 		
 		dataRemaining = dataLen;
 	}
@@ -70,6 +81,12 @@ final class ChunkReader implements AutoCloseable {
 	
 	/*---- Methods ----*/
 	
+	// Tells chunk types with compressed payloads whether to skip decompressing them now.
+	public boolean lazyValidation() {
+		return integrity.lazyValidation();
+	}
+	
+	
 	public int getRemainingCount() {
 		return dataRemaining;
 	}
@@ -79,14 +96,18 @@ final class ChunkReader implements AutoCloseable {
 		Objects.checkFromIndexSize(off, len, b.length);
 		if (dataRemaining < len)
 			throw new IllegalStateException("Attempt to read too many bytes");
-		for (int end = off + len; off < end; ) {
-			int n = input.read(b, off, end - off);
+		// Checksum the whole range at once, so that a large range can be checksummed in parallel
+		for (int i = off, end = off + len; i < end; ) {
+			int n = input.read(b, i, end - i);
 			if (n == -1)
 				throw new EOFException();
-			checksum.update(b, off, n);
-			off += n;
+			i += n;
 			dataRemaining -= n;
 		}
+		if (checksum != null)
+			checksum.update(b, off, len);
+		else if (segments != null)  // Only the small internal buffer is reused, so other arrays can be retained
+			segments.add(b == buffer ? ByteBuffer.wrap(Arrays.copyOfRange(b, off, off + len)) : ByteBuffer.wrap(b, off, len));
 	}
 	
 	
@@ -148,7 +169,8 @@ final class ChunkReader implements AutoCloseable {
 				int b = input.read();
 				if (b == -1)
 					throw new EOFException();
-				checksum.update(b);
+				if (checksum != null)
+					checksum.update(b);
 				dataRemaining--;
 				if (b == 0)
 					break;
@@ -161,6 +183,10 @@ final class ChunkReader implements AutoCloseable {
 				buf[bufLen] = (byte)b;
 				bufLen++;
 			}
+			if (segments != null) {
+				segments.add(ByteBuffer.wrap(buf, 0, bufLen));
+				segments.add(ByteBuffer.wrap(new byte[1]));
+			}
 			return new String(buf, 0, bufLen, cs);
 		} else {
 			var buf = new byte[dataRemaining];
@@ -178,14 +204,21 @@ final class ChunkReader implements AutoCloseable {
 		if (dataRemaining < 0)  // Due to external bad concurrency or internal logic error
 			throw new AssertionError("Read too many bytes");
 		
-		long crc = checksum.getValue();
-		if (crc >>> 32 != 0)
-			throw new AssertionError("Unreachable value");
+		Checksum cs = checksum;
+		List<ByteBuffer> segs = segments;
+		checksum = null;
+		segments = null;
 		dataRemaining = 4;
-		if (readInt32() != (int)crc)
-			throw new IllegalArgumentException("Chunk CRC-32 mismatch");
+		int storedCrc = readInt32();
+		if (cs != null) {
+			long crc = cs.getValue();
+			if (crc >>> 32 != 0)
+				throw new AssertionError("Unreachable value");
+			if (storedCrc != (int)crc)
+				throw new IllegalArgumentException("Chunk CRC-32 mismatch");
+		}
+		integrity.record(storedCrc, segs);
 		
-		checksum = null;
 		input = null;
 		dataRemaining = -1;
 	}
@@ -10,10 +10,13 @@ package io.nayuki.png.chunk;
 
 import java.io.IOException;
 import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.GatheringByteChannel;
+import java.nio.channels.WritableByteChannel;
 import java.nio.charset.Charset;
 import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
 import java.util.Objects;
-import java.util.zip.CRC32;
 import java.util.zip.Checksum;
 
 
@@ -23,10 +26,49 @@ import java.util.zip.Checksum;
  */
 final class ChunkWriter implements AutoCloseable {
 	
+	/*---- Static functions ----*/
+	
+	// Writes the entire chunk (length, type, data, CRC-32) to the given channel. The data array
+	// is wrapped instead of copied, and the channel receives a gathered write if it supports it.
+	public static void writeChunk(String type, byte[] data, WritableByteChannel out) throws IOException {
+		Chunk.checkType(type);
+		Objects.requireNonNull(data);
+		Objects.requireNonNull(out);
+		
+		var header = ByteBuffer.allocate(8);
+		header.putInt(data.length);
+		header.put(type.getBytes(StandardCharsets.US_ASCII));
+		var checksum = new Crc32();
+		checksum.update(header.array(), 4, 4);
+		checksum.update(data);
+		var footer = ByteBuffer.allocate(4);
+		footer.putInt((int)checksum.getValue());
+		writeFully(out, header.flip(), ByteBuffer.wrap(data), footer.flip());
+	}
+	
+	
+	// Writes all the remaining bytes of all the given buffers to the given channel.
+	// The channel must be in blocking mode, otherwise this can spin indefinitely.
+	public static void writeFully(WritableByteChannel out, ByteBuffer... bufs) throws IOException {
+		Objects.requireNonNull(out);
+		if (out instanceof GatheringByteChannel gout) {
+			long remaining = Arrays.stream(bufs).mapToLong(buf -> buf.remaining()).sum();
+			while (remaining > 0)
+				remaining -= gout.write(bufs);
+		} else {
+			for (ByteBuffer buf : bufs) {
+				while (buf.hasRemaining())
+					out.write(buf);
+			}
+		}
+	}
+	
+	
+	
 	/*---- Fields ----*/
 	
 	private OutputStream output;
-	private Checksum checksum = new CRC32();
+	private Checksum checksum = new Crc32();
 	private int dataRemaining;  // Never negative
 	
 	
@@ -0,0 +1,137 @@
+/* 
+ * PNG library (Java)
+ * 
+ * Copyright (c) Project Nayuki
+ * MIT License. See readme file.
+ * https://www.nayuki.io/page/png-library
+ */
+
+package io.nayuki.png.chunk;
+
+import java.util.Objects;
+import java.util.stream.IntStream;
+import java.util.zip.CRC32;
+import java.util.zip.Checksum;
+
+
+/**
+ * A CRC-32 checksum (same as {@link CRC32}) where each large array range is split into
+ * pieces that are checksummed in parallel on the common fork-join pool, and the partial
+ * values are merged with the CRC combination function (as in zlib's {@code crc32_combine()}).
+ * Small updates are handled serially. Instances are not thread-safe.
+ */
+final class Crc32 implements Checksum {
+	
+	/*---- Fields ----*/
+	
+	private int prefixCrc = 0;  // CRC-32 of all the data preceding the data fed into suffix
+	private CRC32 suffix = new CRC32();
+	private long suffixLength = 0;
+	
+	
+	
+	/*---- Methods ----*/
+	
+	@Override public void update(int b) {
+		suffix.update(b);
+		suffixLength++;
+	}
+	
+	
+	@Override public void update(byte[] b, int off, int len) {
+		Objects.checkFromIndexSize(off, len, b.length);
+		if (len < PARALLEL_THRESHOLD) {
+			suffix.update(b, off, len);
+			suffixLength += len;
+			return;
+		}
+		
+		int numPieces = Math.ceilDiv(len, PIECE_SIZE);
+		int[] pieceCrcs = IntStream.range(0, numPieces).parallel().map(i -> {
+			int start = off + i * PIECE_SIZE;
+			var crc = new CRC32();
+			crc.update(b, start, Math.min(off + len - start, PIECE_SIZE));
+			return (int)crc.getValue();
+		}).toArray();
+		
+		int crc = (int)getValue();
+		for (int i = 0; i < numPieces; i++)
+			crc = combine(crc, pieceCrcs[i], Math.min(len - (long)i * PIECE_SIZE, PIECE_SIZE));
+		prefixCrc = crc;
+		suffix.reset();
+		suffixLength = 0;
+	}
+	
+	
+	@Override public long getValue() {
+		return combine(prefixCrc, (int)suffix.getValue(), suffixLength) & 0xFFFF_FFFFL;
+	}
+	
+	
+	@Override public void reset() {
+		prefixCrc = 0;
+		suffix.reset();
+		suffixLength = 0;
+	}
+	
+	
+	
+	/*---- Static functions ----*/
+	
+	// Returns the CRC-32 of the concatenation of two sequences of bytes, given
+	// the CRC-32 of the first and second sequences, and the length of the second.
+	static int combine(int crc1, int crc2, long len2) {
+		if (len2 < 0)
+			throw new IllegalArgumentException("Negative length");
+		if (len2 == 0)
+			return crc1;
+		return multiplyModP(xPow2nModP(len2, 3), crc1) ^ crc2;
+	}
+	
+	
+	// Returns a * b modulo the CRC-32 polynomial, where a is not zero. Polynomials
+	// are represented in reflected bit order, so bit 31 is the coefficient of x^0.
+	private static int multiplyModP(int a, int b) {
+		int result = 0;
+		for (int m = 1 << 31; ; m >>>= 1) {
+			if ((a & m) != 0) {
+				result ^= b;
+				if ((a & (m - 1)) == 0)
+					return result;
+			}
+			b = (b & 1) != 0 ? (b >>> 1) ^ POLYNOMIAL : b >>> 1;
+		}
+	}
+	
+	
+	// Returns x^(n * 2^k) modulo the CRC-32 polynomial.
+	private static int xPow2nModP(long n, int k) {
+		int result = 1 << 31;  // x^0
+		for (; n != 0; n >>>= 1, k++) {
+			if ((n & 1) != 0)
+				result = multiplyModP(X_POW_2K_TABLE[k & 31], result);
+		}
+		return result;
+	}
+	
+	
+	private static final int POLYNOMIAL = 0xEDB88320;
+	
+	// Entry k is x^(2^k) modulo the CRC-32 polynomial. The sequence has a period of 32.
+	private static final int[] X_POW_2K_TABLE = new int[32];
+	
+	static {
+		int p = 1 << 30;  // x^1
+		for (int k = 0; k < X_POW_2K_TABLE.length; k++) {
+			X_POW_2K_TABLE[k] = p;
+			p = multiplyModP(p, p);
+		}
+	}
+	
+	
+	// Updates shorter than this are computed serially because fork-join overhead would dominate
+	static final int PARALLEL_THRESHOLD = 1 << 24;
+	
+	private static final int PIECE_SIZE = 1 << 22;
+	
+}
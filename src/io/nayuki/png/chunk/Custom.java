@@ -42,7 +42,25 @@ public record Custom(String type, byte[] data) implements BytesDataChunk {
 	 * @throws IOException if an I/O exception occurs
 	 */
 	public static Optional<Custom> read(InputStream in) throws IOException {
-		Optional<ChunkReader> temp = ChunkReader.tryNew(in);
+		return read(in, new IntegrityCheck(IntegrityCheck.Mode.INLINE));
+	}
+	
+	
+	/**
+	 * Reads from the specified input stream and returns a custom chunk object representing the
+	 * data that is read, or empty if the end of stream is immediately encountered. This is the
+	 * same as {@link #read(InputStream)}, except that the CRC-32 is verified according to
+	 * the specified integrity check, which also records the chunk's stored CRC-32.
+	 * @param in the input to read the chunk's data from (not {@code null})
+	 * @param integrity the integrity check to verify and record the CRC-32 with (not {@code null})
+	 * @return a chunk object representing the data parsed from the chunk reader,
+	 * or empty if the end of stream is immediately encountered, not {@code null}
+	 * @throws NullPointerException if the input stream or integrity check is {@code null}
+	 * @throws IllegalArgumentException if the chunk contains invalid data
+	 * @throws IOException if an I/O exception occurs
+	 */
+	public static Optional<Custom> read(InputStream in, IntegrityCheck integrity) throws IOException {
+		Optional<ChunkReader> temp = ChunkReader.tryNew(in, integrity);
 		if (temp.isEmpty())
 			return Optional.empty();
 		try (ChunkReader cin = temp.get()) {
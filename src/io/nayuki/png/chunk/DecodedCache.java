@@ -0,0 +1,60 @@
+/* 
+ * PNG library (Java)
+ * 
+ * Copyright (c) Project Nayuki
+ * MIT License. See readme file.
+ * https://www.nayuki.io/page/png-library
+ */
+
+package io.nayuki.png.chunk;
+
+import java.lang.ref.SoftReference;
+import java.util.Map;
+import java.util.Objects;
+import java.util.WeakHashMap;
+import java.util.function.Function;
+
+
+/**
+ * Remembers the decoded forms of byte arrays held by chunks, so that repeated calls like
+ * {@link Ztxt#getText()} don't decompress the same data again. Keys are compared by identity
+ * (like the array fields of chunk records) and held weakly, so an entry disappears with its
+ * chunk. Values are held softly, so very large decoded payloads can be reclaimed under
+ * memory pressure and are then recomputed on demand. Instances are thread-safe.
+ */
+final class DecodedCache<T> {
+	
+	/*---- Fields ----*/
+	
+	private final Map<byte[],SoftReference<T>> entries = new WeakHashMap<>();
+	
+	
+	
+	/*---- Methods ----*/
+	
+	// Returns the cached value for the given array, or computes it with the given function,
+	// caches it, and returns it. If the function throws an exception, nothing is cached.
+	// The function must return the same value (or an equal one) for the same array contents.
+	public T get(byte[] key, Function<byte[],T> decoder) {
+		Objects.requireNonNull(key);
+		Objects.requireNonNull(decoder);
+		synchronized(this) {
+			SoftReference<T> ref = entries.get(key);
+			T result = ref != null ? ref.get() : null;
+			if (result != null)
+				return result;
+		}
+		T result = Objects.requireNonNull(decoder.apply(key));  // Computed without holding the lock
+		synchronized(this) {
+			entries.put(key, new SoftReference<>(result));
+		}
+		return result;
+	}
+	
+	
+	// Caches the given value for the given array, which must be what the decoder would return.
+	public synchronized void put(byte[] key, T value) {
+		entries.put(Objects.requireNonNull(key), new SoftReference<>(Objects.requireNonNull(value)));
+	}
+	
+}
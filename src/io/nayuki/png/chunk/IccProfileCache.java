@@ -0,0 +1,98 @@
+/* 
+ * PNG library (Java)
+ * 
+ * Copyright (c) Project Nayuki
+ * MIT License. See readme file.
+ * https://www.nayuki.io/page/png-library
+ */
+
+package io.nayuki.png.chunk;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+
+
+/**
+ * A process-wide cache of ICC profiles that have been read and validated, keyed by the
+ * content of the compressed profile. Because files from one source tend to embed one of
+ * a few identical profiles, each {@link Iccp} chunk read with an equal compressed profile
+ * shares the same decompressed array, which is inflated only once. The cache keeps private
+ * copies, so callers that modify their arrays can't affect it. The total size is bounded,
+ * with the least recently used entries evicted first. Not instantiable.
+ */
+final class IccProfileCache {
+	
+	/*---- Functions ----*/
+	
+	// Returns the decompressed profile of a previously validated compressed profile whose content
+	// equals the given array, or null if none. The returned array must not be modified.
+	public static synchronized byte[] findDecompressed(byte[] compressed) {
+		Entry entry = entries.get(new Key(compressed));
+		return entry != null ? entry.decompressed : null;
+	}
+	
+	
+	// Remembers copies of the given validated pair of arrays, unless they are too large.
+	public static synchronized void add(byte[] compressed, byte[] decompressed) {
+		Objects.requireNonNull(compressed);
+		Objects.requireNonNull(decompressed);
+		long size = (long)compressed.length + decompressed.length;
+		if (size > MAX_TOTAL_SIZE)
+			return;
+		compressed = compressed.clone();
+		decompressed = decompressed.clone();
+		Entry old = entries.put(new Key(compressed), new Entry(compressed, decompressed));
+		if (old != null)
+			totalSize -= old.size();
+		totalSize += size;
+		for (var iter = entries.values().iterator(); totalSize > MAX_TOTAL_SIZE; ) {
+			totalSize -= iter.next().size();
+			iter.remove();
+		}
+	}
+	
+	
+	private static final long MAX_TOTAL_SIZE = 16 << 20;
+	
+	private static final Map<Key,Entry> entries = new LinkedHashMap<>(16, 0.75f, true);  // In access order
+	
+	private static long totalSize = 0;
+	
+	
+	private IccProfileCache() {}
+	
+	
+	
+	/*---- Helper records ----*/
+	
+	private record Key(byte[] data, int hash) {
+		
+		public Key(byte[] data) {
+			this(data, Arrays.hashCode(data));
+		}
+		
+		
+		@Override public boolean equals(Object obj) {
+			return obj instanceof Key other && hash == other.hash && Arrays.equals(data, other.data);
+		}
+		
+		
+		@Override public int hashCode() {
+			return hash;
+		}
+		
+	}
+	
+	
+	
+	private record Entry(byte[] compressed, byte[] decompressed) {
+		
+		public long size() {
+			return (long)compressed.length + decompressed.length;
+		}
+		
+	}
+	
+}
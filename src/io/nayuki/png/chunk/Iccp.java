@@ -36,7 +36,8 @@ public record Iccp(
 		Util.checkKeyword(profileName, false);
 		Objects.requireNonNull(compressionMethod);
 		Objects.requireNonNull(compressedProfile);
-		compressionMethod.decompress(compressedProfile);
+		if (!Util.isValidationDeferred())
+			compressionMethod.decompress(compressedProfile);
 		Util.checkedLengthSum(profileName, 2 * Byte.BYTES, compressedProfile);
 	}
 	
@@ -46,12 +47,51 @@ public record Iccp(
 		String profileName = in.readString(StandardCharsets.ISO_8859_1, true);
 		CompressionMethod compMethod = in.readEnum(CompressionMethod.values());
 		byte[] compProfile = in.readRemainingBytes();
-		return new Iccp(profileName, compMethod, compProfile);
+		
+		byte[] shared = IccProfileCache.findDecompressed(compProfile);
+		if (shared != null) {  // Already validated
+			Iccp result = Util.construct(true, () -> new Iccp(profileName, compMethod, compProfile));
+			profileCache.put(compProfile, shared);
+			return result;
+		}
+		if (in.lazyValidation())
+			return Util.construct(true, () -> new Iccp(profileName, compMethod, compProfile));
+		
+		byte[] profile = compMethod.decompress(compProfile);  // Validates the data
+		Iccp result = Util.construct(true, () -> new Iccp(profileName, compMethod, compProfile));
+		profileCache.put(compProfile, profile);
+		IccProfileCache.add(compProfile, profile);
+		return result;
 	}
 	
 	
 	/*---- Methods ----*/
 	
+	/**
+	 * Decompresses the profile field and returns the data as a new byte array. The decompressed
+	 * data is remembered for this chunk's array, so repeated calls only copy it.
+	 * @return the decompressed ICC profile data (not {@code null})
+	 * @throws IllegalArgumentException if the compressed profile is invalid
+	 */
+	public byte[] getProfile() {
+		return profileCache.get(compressedProfile, compressionMethod::decompress).clone();
+	}
+	
+	
+	/**
+	 * Checks that the compressed profile can be decompressed, which is already
+	 * guaranteed unless this chunk was read with lazy validation.
+	 * @throws IllegalArgumentException if the compressed profile is invalid
+	 * @see IntegrityCheck#lazyValidation()
+	 */
+	public void validate() {
+		getProfile();
+	}
+	
+	
+	private static final DecodedCache<byte[]> profileCache = new DecodedCache<>();
+	
+	
 	@Override public String getType() {
 		return TYPE;
 	}
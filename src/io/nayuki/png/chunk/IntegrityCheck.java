@@ -0,0 +1,201 @@
+/* 
+ * PNG library (Java)
+ * 
+ * Copyright (c) Project Nayuki
+ * MIT License. See readme file.
+ * https://www.nayuki.io/page/png-library
+ */
+
+package io.nayuki.png.chunk;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+
+
+/**
+ * Decides how the CRC-32 of each chunk is verified while reading, and records the CRC-32
+ * value stored in each chunk that is read. Verifying inline is the default behavior of
+ * {@link Chunk#read(java.io.InputStream)}. Verifying deferred moves the checksum calculation
+ * off the reading thread onto an executor, and the result is available as a future. Verifying
+ * only critical chunks skips the calculation for ancillary chunks, whose stored values can be
+ * audited later with {@link #computeCrc(Chunk)}. Optionally, the compressed payloads of iCCP,
+ * zTXt, and iTXt chunks can be validated lazily instead of when they are read. Instances
+ * are mutable, and must not be used by multiple reading threads at once.
+ */
+public final class IntegrityCheck {
+	
+	/*---- Fields ----*/
+	
+	private final Mode mode;
+	private final Executor executor;
+	private final boolean lazyValidation;
+	private final List<Integer> storedCrcs = new ArrayList<>();
+	private final List<CompletableFuture<Void>> pendingChecks = new ArrayList<>();
+	
+	
+	
+	/*---- Constructors ----*/
+	
+	/**
+	 * Constructs an integrity check with the specified mode,
+	 * where deferred verifications run on the common fork-join pool.
+	 * @param mode the verification mode (not {@code null})
+	 * @throws NullPointerException if {@code mode} is {@code null}
+	 */
+	public IntegrityCheck(Mode mode) {
+		this(mode, ForkJoinPool.commonPool());
+	}
+	
+	
+	/**
+	 * Constructs an integrity check with the specified mode,
+	 * where deferred verifications run on the specified executor.
+	 * @param mode the verification mode (not {@code null})
+	 * @param executor the executor for deferred verifications (not {@code null})
+	 * @throws NullPointerException if {@code mode} or {@code executor} is {@code null}
+	 */
+	public IntegrityCheck(Mode mode, Executor executor) {
+		this(mode, executor, false);
+	}
+	
+	
+	/**
+	 * Constructs an integrity check with the specified mode, where deferred verifications run
+	 * on the specified executor, and with the specified choice of lazy validation. If lazy
+	 * validation is enabled, then {@link Iccp}, {@link Ztxt}, and {@link Itxt} chunks are read
+	 * without decompressing their payloads, which are instead validated when their content
+	 * is first decompressed or when {@code validate()} is called. The bytes are retained as
+	 * is, so lazily validated chunks still round-trip losslessly.
+	 * @param mode the verification mode (not {@code null})
+	 * @param executor the executor for deferred verifications (not {@code null})
+	 * @param lazyValidation whether to defer validating compressed chunk payloads
+	 * @throws NullPointerException if {@code mode} or {@code executor} is {@code null}
+	 */
+	public IntegrityCheck(Mode mode, Executor executor, boolean lazyValidation) {
+		this.mode = Objects.requireNonNull(mode);
+		this.executor = Objects.requireNonNull(executor);
+		this.lazyValidation = lazyValidation;
+	}
+	
+	
+	
+	/*---- Methods ----*/
+	
+	/**
+	 * Returns the verification mode of this integrity check.
+	 * @return the verification mode (not {@code null})
+	 */
+	public Mode mode() {
+		return mode;
+	}
+	
+	
+	/**
+	 * Returns whether compressed chunk payloads are validated lazily.
+	 * @return whether compressed chunk payloads are validated lazily
+	 */
+	public boolean lazyValidation() {
+		return lazyValidation;
+	}
+	
+	
+	/**
+	 * Returns a new unmodifiable list of the CRC-32 values stored in all the
+	 * chunks read so far with this integrity check, in the order they were read.
+	 * @return the list of stored CRC-32 values (not {@code null})
+	 */
+	public List<Integer> storedCrcs() {
+		return Collections.unmodifiableList(new ArrayList<>(storedCrcs));
+	}
+	
+	
+	/**
+	 * Returns a future that completes normally when all the deferred verifications for the
+	 * chunks read so far have passed, or completes exceptionally with an {@code
+	 * IllegalArgumentException} if any chunk had a CRC-32 mismatch. For modes
+	 * other than deferred, the returned future is already completed normally.
+	 * @return a future (not {@code null}) for the deferred verifications
+	 */
+	public CompletableFuture<Void> verification() {
+		return CompletableFuture.allOf(pendingChecks.toArray(new CompletableFuture<?>[0]));
+	}
+	
+	
+	/**
+	 * Calculates and returns the CRC-32 value of the specified chunk's type and data,
+	 * which can be compared to a stored value returned by {@link #storedCrcs()}. This relies
+	 * on the chunk serializing to the same bytes that it was read from (lossless round-tripping).
+	 * @param chunk the chunk to checksum (not {@code null})
+	 * @return the CRC-32 value of the chunk
+	 * @throws NullPointerException if {@code chunk} is {@code null}
+	 */
+	public static int computeCrc(Chunk chunk) {
+		Objects.requireNonNull(chunk);
+		var checksum = new Crc32();
+		if (chunk instanceof BytesDataChunk chk) {
+			checksum.update(chk.getType().getBytes(StandardCharsets.US_ASCII));
+			checksum.update(chk.data());
+			return (int)checksum.getValue();
+		}
+		var bout = new ByteArrayOutputStream();
+		try {
+			chunk.writeChunk(bout);
+		} catch (IOException e) {
+			throw new AssertionError("Unreachable exception", e);
+		}
+		byte[] b = bout.toByteArray();
+		return ByteBuffer.wrap(b).getInt(b.length - 4);
+	}
+	
+	
+	// Called by ChunkReader after reading a chunk's type.
+	boolean verifiesInline(String type) {
+		return switch (mode) {
+			case INLINE -> true;
+			case DEFERRED -> false;
+			case CRITICAL_ONLY -> (type.charAt(0) & 0x20) == 0;
+		};
+	}
+	
+	
+	// Called by ChunkReader after reading a chunk's stored CRC-32. If the mode is deferred,
+	// then the data segments must be all the bytes of the chunk's type and data, in order.
+	void record(int storedCrc, List<ByteBuffer> segments) {
+		storedCrcs.add(storedCrc);
+		if (mode == Mode.DEFERRED) {
+			pendingChecks.add(CompletableFuture.runAsync(() -> {
+				var checksum = new Crc32();
+				for (ByteBuffer seg : segments)
+					checksum.update(seg);
+				if ((int)checksum.getValue() != storedCrc)
+					throw new IllegalArgumentException("Chunk CRC-32 mismatch");
+			}, executor));
+		}
+	}
+	
+	
+	
+	/*---- Enumeration ----*/
+	
+	/**
+	 * The ways that chunk CRC-32 values can be verified while reading.
+	 */
+	public enum Mode {
+		/** Verify every chunk on the reading thread, throwing an exception immediately on mismatch. */
+		INLINE,
+		/** Verify every chunk on the executor, reporting mismatches through {@link IntegrityCheck#verification()}. */
+		DEFERRED,
+		/** Verify only critical chunks on the reading thread; record but do not verify ancillary chunks. */
+		CRITICAL_ONLY,
+	}
+	
+}
@@ -49,12 +49,8 @@ public record Itxt(
 		
 		Objects.requireNonNull(compressionMethod);
 		Objects.requireNonNull(text);
-		byte[] decompText = compressionMethod.map(cm -> cm.decompress(text)).orElse(text);
-		var textStr = new String(decompText, StandardCharsets.UTF_8);
-		for (int i = 0; i < textStr.length(); i++) {
-			if (textStr.charAt(i) == '\0')
-				throw new IllegalArgumentException("NUL character in text");
-		}
+		if (compressionMethod.isEmpty() || !Util.isValidationDeferred())
+			decodeText(compressionMethod, text);
 		
 		Util.checkedLengthSum(keyword, 3 * Byte.BYTES, languageTag, Byte.BYTES,
 			text, Byte.BYTES, translatedKeyword.getBytes(StandardCharsets.UTF_8));
@@ -86,7 +82,19 @@ public record Itxt(
 		String language = in.readString(StandardCharsets.ISO_8859_1, true);
 		String transKeyword = in.readString(StandardCharsets.UTF_8, true);
 		byte[] text = in.readRemainingBytes();
-		return new Itxt(keyword, language, transKeyword, compMethod, text);
+		return Util.construct(compMethod.isPresent() && in.lazyValidation(),
+			() -> new Itxt(keyword, language, transKeyword, compMethod, text));
+	}
+	
+	
+	private static String decodeText(Optional<CompressionMethod> compMethod, byte[] text) {
+		byte[] decompText = compMethod.map(cm -> cm.decompress(text)).orElse(text);
+		var result = new String(decompText, StandardCharsets.UTF_8);
+		for (int i = 0; i < result.length(); i++) {
+			if (result.charAt(i) == '\0')
+				throw new IllegalArgumentException("NUL character in text");
+		}
+		return result;
 	}
 	
 	
@@ -94,14 +102,31 @@ public record Itxt(
 	
 	/**
 	 * Decompresses the text field, interprets the bytes as UTF-8, and returns the data as a string object.
+	 * If the text is compressed, the result is remembered for this chunk's array, so repeated calls are cheap.
 	 * @return a string representing the text conveyed by the text field (not {@code null})
+	 * @throws IllegalArgumentException if the compressed text is invalid
 	 */
 	public String getText() {
-		byte[] decompText = compressionMethod.map(cm -> cm.decompress(text)).orElse(text);
-		return new String(decompText, StandardCharsets.UTF_8);
+		if (compressionMethod.isEmpty())
+			return decodeText(compressionMethod, text);
+		return textCache.get(text, b -> decodeText(compressionMethod, b));
 	}
 	
 	
+	/**
+	 * Checks that the text field can be decompressed and has no NUL characters,
+	 * which is already guaranteed unless this chunk was read with lazy validation.
+	 * @throws IllegalArgumentException if the text field is invalid
+	 * @see IntegrityCheck#lazyValidation()
+	 */
+	public void validate() {
+		getText();
+	}
+	
+	
+	private static final DecodedCache<String> textCache = new DecodedCache<>();
+	
+	
 	@Override public String getType() {
 		return TYPE;
 	}
@@ -0,0 +1,955 @@
+/* 
+ * PNG library (Java)
+ * 
+ * Copyright (c) Project Nayuki
+ * MIT License. See readme file.
+ * https://www.nayuki.io/page/png-library
+ */
+
+package io.nayuki.png.chunk;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Objects;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.IntToLongFunction;
+import java.util.zip.Adler32;
+
+
+/**
+ * A DEFLATE compressor written in pure Java that spends far more time than {@link
+ * java.util.zip.Deflater} in order to produce smaller output, for data that is compressed
+ * once and decompressed many times. The input is split into blocks at points that minimize
+ * the estimated compressed size, then each block is compressed by iterative optimal parsing:
+ * every iteration finds the cheapest sequence of literals and back-references under a cost
+ * model built from the symbol statistics of the previous iteration, and the smallest result
+ * is kept. Each block is written as stored, fixed Huffman, or dynamic Huffman, whichever is
+ * smallest. Blocks are compressed in parallel on an executor. The output is a ZLIB container
+ * (RFC 1950) that any inflater can decode. Instances are immutable and thread-safe.
+ * @see Chunk.CompressionMethod#compress(byte[], OptimalDeflater)
+ */
+public final class OptimalDeflater {
+	
+	/*---- Fields ----*/
+	
+	private final int iterations;
+	private final int maxBlocks;
+	private final Executor executor;
+	
+	
+	
+	/*---- Constructors ----*/
+	
+	/**
+	 * Constructs a deflater with 15 iterations, at most 15 blocks, and the common fork-join pool.
+	 */
+	public OptimalDeflater() {
+		this(15, 15, ForkJoinPool.commonPool());
+	}
+	
+	
+	/**
+	 * Constructs a deflater with the specified parameters. More iterations usually give
+	 * smaller output but take proportionally more time. More blocks allow more parallelism
+	 * and more adaptation to changing statistics, but each block has its own header.
+	 * @param iterations the number of optimal parsing iterations per block, at least 1
+	 * @param maxBlocks the maximum number of blocks to split the input into, at least 1
+	 * @param executor the executor to compress blocks on (not {@code null})
+	 * @throws NullPointerException if {@code executor} is {@code null}
+	 * @throws IllegalArgumentException if {@code iterations} or {@code maxBlocks} is less than 1
+	 */
+	public OptimalDeflater(int iterations, int maxBlocks, Executor executor) {
+		if (iterations < 1)
+			throw new IllegalArgumentException("Invalid number of iterations");
+		if (maxBlocks < 1)
+			throw new IllegalArgumentException("Invalid number of blocks");
+		this.iterations = iterations;
+		this.maxBlocks = maxBlocks;
+		this.executor = Objects.requireNonNull(executor);
+	}
+	
+	
+	
+	/*---- Methods ----*/
+	
+	/**
+	 * Returns the number of optimal parsing iterations per block.
+	 * @return the number of iterations, at least 1
+	 */
+	public int iterations() {
+		return iterations;
+	}
+	
+	
+	/**
+	 * Returns the maximum number of blocks that the input is split into.
+	 * @return the maximum number of blocks, at least 1
+	 */
+	public int maxBlocks() {
+		return maxBlocks;
+	}
+	
+	
+	/**
+	 * Compresses the specified data into a new ZLIB container. This
+	 * blocks until all the block tasks on the executor are finished.
+	 * @param data the data to compress (not {@code null})
+	 * @return the compressed data (not {@code null})
+	 * @throws NullPointerException if {@code data} is {@code null}
+	 */
+	public byte[] compress(byte[] data) {
+		Objects.requireNonNull(data);
+		var out = new BitWriter();
+		out.writeBits(0x78, 8);  // Deflate with 32 KiB window
+		out.writeBits(0xDA, 8);  // Maximum compression, and header checksum
+		writeBlocks(data, true, out);
+		out.alignToByte();
+		var adler = new Adler32();
+		adler.update(data);
+		out.writeBits(Integer.reverseBytes((int)adler.getValue()), 32);
+		return out.toByteArray();
+	}
+	
+	
+	/**
+	 * Compresses the specified data into a new sequence of raw DEFLATE blocks (RFC 1951)
+	 * without a container. If not final, the blocks end with an empty stored block like a
+	 * ZLIB full flush, so that the output is byte-aligned and more blocks can follow without
+	 * referring back to this data. This blocks until all the block tasks are finished.
+	 * @param data the data to compress (not {@code null})
+	 * @param isFinal whether the last block is marked as the final one of the stream
+	 * @return the compressed data (not {@code null})
+	 * @throws NullPointerException if {@code data} is {@code null}
+	 */
+	public byte[] compressRaw(byte[] data, boolean isFinal) {
+		Objects.requireNonNull(data);
+		var out = new BitWriter();
+		writeBlocks(data, isFinal, out);
+		if (!isFinal)
+			writeStored(data, data.length, data.length, false, out);
+		out.alignToByte();
+		return out.toByteArray();
+	}
+	
+	
+	private void writeBlocks(byte[] data, boolean isFinal, BitWriter out) {
+		List<Integer> bounds = splitBlocks(data);
+		List<CompletableFuture<BitWriter>> blocks = new ArrayList<>();
+		for (int i = 0; i + 1 < bounds.size(); i++) {
+			int start = bounds.get(i);
+			int end = bounds.get(i + 1);
+			boolean isLast = isFinal && i + 2 == bounds.size();
+			blocks.add(CompletableFuture.supplyAsync(() -> compressBlock(data, start, end, isLast), executor));
+		}
+		for (int i = 0; i < blocks.size(); i++) {
+			BitWriter block = blocks.get(i).join();
+			if (block != null)
+				out.append(block);
+			else
+				writeStored(data, bounds.get(i), bounds.get(i + 1), isFinal && i + 1 == blocks.size(), out);
+		}
+	}
+	
+	
+	
+	/*---- Block splitting ----*/
+	
+	// Returns the start of each block, followed by data.length.
+	private List<Integer> splitBlocks(byte[] data) {
+		List<Integer> result = new ArrayList<>(List.of(0, data.length));
+		if (maxBlocks == 1 || data.length < MIN_SPLIT_LENGTH)
+			return result;
+		
+		// Estimate the symbols with a fast greedy parse
+		Parse parse = greedyParse(data);
+		TreeSet<Integer> points = new TreeSet<>(List.of(0, parse.size));  // Symbol indexes
+		Set<Integer> done = new HashSet<>();  // Start indexes of ranges that can't be split profitably
+		while (points.size() - 1 < maxBlocks) {
+			// Find the largest range that is not done
+			int bestStart = -1;
+			int bestEnd = -1;
+			for (int p : points) {
+				Integer q = points.higher(p);
+				if (q != null && !done.contains(p) && q - p > MIN_SPLIT_SYMBOLS && q - p > bestEnd - bestStart) {
+					bestStart = p;
+					bestEnd = q;
+				}
+			}
+			if (bestStart == -1)
+				break;
+			
+			int lo = bestStart;
+			int hi = bestEnd;
+			IntToLongFunction cost = pos -> parse.estimateBits(lo, pos) + parse.estimateBits(pos, hi);
+			int split = findMinimum(cost, lo + 1, hi);
+			if (cost.applyAsLong(split) < parse.estimateBits(lo, hi))
+				points.add(split);
+			else
+				done.add(lo);
+		}
+		
+		// Convert symbol indexes to byte offsets
+		result.clear();
+		int pos = 0;
+		for (int i = 0; i <= parse.size; i++) {
+			if (points.contains(i))
+				result.add(pos);
+			if (i < parse.size)
+				pos += parse.dists[i] == 0 ? 1 : parse.litLens[i];
+		}
+		return result;
+	}
+	
+	
+	// Returns an x in [lo, hi) that approximately minimizes f(x).
+	private static int findMinimum(IntToLongFunction f, int lo, int hi) {
+		if (hi - lo <= 1024) {
+			int best = lo;
+			long bestVal = Long.MAX_VALUE;
+			for (int x = lo; x < hi; x++) {
+				long val = f.applyAsLong(x);
+				if (val < bestVal) {
+					best = x;
+					bestVal = val;
+				}
+			}
+			return best;
+		}
+		
+		final int SAMPLES = 9;
+		int best = lo;
+		long bestVal = Long.MAX_VALUE;
+		var xs = new int[SAMPLES];
+		while (hi - lo > SAMPLES) {
+			int besti = 0;
+			long val = Long.MAX_VALUE;
+			for (int i = 0; i < SAMPLES; i++) {
+				xs[i] = lo + (int)((long)(i + 1) * (hi - lo) / (SAMPLES + 1));
+				long v = f.applyAsLong(xs[i]);
+				if (v < val) {
+					besti = i;
+					val = v;
+				}
+			}
+			if (val > bestVal)
+				break;
+			best = xs[besti];
+			bestVal = val;
+			lo = besti == 0 ? lo : xs[besti - 1];
+			hi = besti == SAMPLES - 1 ? hi : xs[besti + 1];
+		}
+		return best;
+	}
+	
+	
+	private static final int MIN_SPLIT_LENGTH = 1 << 12;
+	private static final int MIN_SPLIT_SYMBOLS = 10;
+	
+	
+	
+	/*---- Block compression ----*/
+	
+	// Returns the encoded block, or null if it should be stored.
+	private BitWriter compressBlock(byte[] data, int start, int end, boolean isFinal) {
+		MatchCache cache = new MatchCache(data, start, end);
+		Parse best = cache.lazyParse();
+		long bestBits = best.dynamicBits();
+		Parse parse = best;
+		for (int i = 0; i < iterations; i++) {
+			parse = cache.optimalParse(new CostModel(parse));
+			long bits = parse.dynamicBits();
+			if (bits < bestBits) {
+				best = parse;
+				bestBits = bits;
+			}
+		}
+		
+		long fixedBits = best.fixedBits();
+		long storedBits = storedBits(end - start);
+		if (storedBits < Math.min(bestBits, fixedBits))
+			return null;
+		var out = new BitWriter();
+		out.writeBits(isFinal ? 1 : 0, 1);
+		if (fixedBits <= bestBits) {
+			out.writeBits(1, 2);
+			best.writeSymbols(FIXED_LIT_LEN_LENGTHS, FIXED_DIST_LENGTHS, out);
+		} else {
+			out.writeBits(2, 2);
+			best.writeDynamic(out);
+		}
+		return out;
+	}
+	
+	
+	// Returns the worst-case number of bits to store the given number of bytes.
+	private static long storedBits(int len) {
+		long blocks = Math.max(Math.ceilDiv(len, 0xFFFF), 1);
+		return blocks * (3 + 7 + 32) + len * 8L;
+	}
+	
+	
+	private static void writeStored(byte[] data, int start, int end, boolean isFinal, BitWriter out) {
+		int pos = start;
+		do {
+			int len = Math.min(end - pos, 0xFFFF);
+			out.writeBits(isFinal && pos + len == end ? 1 : 0, 1);
+			out.writeBits(0, 2);
+			out.alignToByte();
+			out.writeBits(len, 16);
+			out.writeBits(len ^ 0xFFFF, 16);
+			for (int i = 0; i < len; i++)
+				out.writeBits(data[pos + i] & 0xFF, 8);
+			pos += len;
+		} while (pos < end);
+	}
+	
+	
+	// Returns a greedy parse of all the data, using a short hash chain.
+	private static Parse greedyParse(byte[] data) {
+		var finder = new MatchFinder(data, 256);
+		var parse = new Parse();
+		var pairs = new int[MAX_MATCH];
+		for (int i = 0; i < data.length; ) {
+			int n = finder.find(i, Math.min(MAX_MATCH, data.length - i), pairs);
+			int len = n > 0 ? pairs[n - 1] >>> 16 : 1;
+			if (len == 1)
+				parse.add(data[i] & 0xFF, 0);
+			else
+				parse.add(len, pairs[n - 1] & 0xFFFF);
+			for (int end = i + len; i < end; i++)
+				finder.insert(i);
+		}
+		return parse;
+	}
+	
+	
+	
+	/*---- Helper classes ----*/
+	
+	// For each position of a block, the shortest distance for every match length.
+	private static final class MatchCache {
+		
+		private final byte[] data;
+		private final int start;
+		private final int length;
+		private final int[] offsets;  // Index into pairs for each position, and the end
+		private int[] pairs;  // Packed (maximum length << 16 | distance), with increasing length
+		
+		
+		public MatchCache(byte[] data, int start, int end) {
+			this.data = data;
+			this.start = start;
+			length = end - start;
+			offsets = new int[length + 1];
+			pairs = new int[Math.max(length, 16)];
+			int size = 0;
+			var finder = new MatchFinder(data, MAX_CHAIN);
+			for (int i = Math.max(start - WINDOW_SIZE, 0); i < start; i++)
+				finder.insert(i);
+			var temp = new int[MAX_MATCH];
+			for (int i = start; i < end; i++) {
+				int n = finder.find(i, Math.min(MAX_MATCH, end - i), temp);
+				if (pairs.length - size < n)
+					pairs = Arrays.copyOf(pairs, Math.max(pairs.length * 2, size + n));
+				System.arraycopy(temp, 0, pairs, size, n);
+				size += n;
+				offsets[i - start + 1] = size;
+				finder.insert(i);
+			}
+		}
+		
+		
+		private int longest(int i) {
+			int k = offsets[i + 1];
+			return k > offsets[i] ? pairs[k - 1] : 0;
+		}
+		
+		
+		// Takes the longest match at each position, unless the next position has a longer one.
+		public Parse lazyParse() {
+			var result = new Parse();
+			for (int i = 0; i < length; ) {
+				int pair = longest(i);
+				int len = pair >>> 16;
+				if (len >= MIN_MATCH && !(i + 1 < length && (longest(i + 1) >>> 16) > len)) {
+					result.add(len, pair & 0xFFFF);
+					i += len;
+				} else {
+					result.add(data[start + i] & 0xFF, 0);
+					i++;
+				}
+			}
+			return result;
+		}
+		
+		
+		// Returns the parse of minimum cost under the given model, by dynamic programming.
+		public Parse optimalParse(CostModel model) {
+			var costs = new double[length + 1];
+			Arrays.fill(costs, 1, costs.length, Double.POSITIVE_INFINITY);
+			var lengthTo = new int[length + 1];
+			var distTo = new int[length + 1];
+			for (int i = 0; i < length; i++) {
+				double base = costs[i];
+				double c = base + model.litLenCosts[data[start + i] & 0xFF];
+				if (c < costs[i + 1]) {
+					costs[i + 1] = c;
+					lengthTo[i + 1] = 1;
+					distTo[i + 1] = 0;
+				}
+				int longest = longest(i);
+				if (longest >>> 16 == MAX_MATCH && i + MAX_MATCH < length && longest(i + MAX_MATCH) >>> 16 == MAX_MATCH) {
+					// Deep inside a long repetition, only consider the maximum match, which bounds the work per position
+					c = base + model.distCost(longest & 0xFFFF) + model.lengthCosts[MAX_MATCH];
+					if (c < costs[i + MAX_MATCH]) {
+						costs[i + MAX_MATCH] = c;
+						lengthTo[i + MAX_MATCH] = MAX_MATCH;
+						distTo[i + MAX_MATCH] = longest & 0xFFFF;
+					}
+					continue;
+				}
+				int prevLen = MIN_MATCH - 1;
+				for (int k = offsets[i]; k < offsets[i + 1]; k++) {
+					int len = pairs[k] >>> 16;
+					int dist = pairs[k] & 0xFFFF;
+					double dc = base + model.distCost(dist);
+					for (int l = prevLen + 1; l <= len; l++) {
+						c = dc + model.lengthCosts[l];
+						if (c < costs[i + l]) {
+							costs[i + l] = c;
+							lengthTo[i + l] = l;
+							distTo[i + l] = dist;
+						}
+					}
+					prevLen = len;
+				}
+			}
+			
+			int count = 0;
+			for (int i = length; i > 0; i -= lengthTo[i])
+				count++;
+			var lens = new int[count];
+			var dists = new int[count];
+			for (int i = length, j = count - 1; i > 0; i -= lengthTo[i], j--) {
+				dists[j] = distTo[i];
+				lens[j] = dists[j] == 0 ? data[start + i - 1] & 0xFF : lengthTo[i];
+			}
+			var result = new Parse();
+			for (int j = 0; j < count; j++)
+				result.add(lens[j], dists[j]);
+			return result;
+		}
+		
+	}
+	
+	
+	
+	// Finds matches with hash chains over a sliding window.
+	private static final class MatchFinder {
+		
+		private final byte[] data;
+		private final int chainLimit;
+		private final int[] head = new int[HASH_SIZE];
+		private final int[] prev = new int[WINDOW_SIZE];
+		
+		
+		public MatchFinder(byte[] data, int chainLimit) {
+			this.data = data;
+			this.chainLimit = chainLimit;
+			Arrays.fill(head, -1);
+		}
+		
+		
+		private int hash(int i) {
+			int x = (data[i] & 0xFF) << 16 | (data[i + 1] & 0xFF) << 8 | (data[i + 2] & 0xFF);
+			return x * 0x9E3779B1 >>> (32 - HASH_BITS);
+		}
+		
+		
+		public void insert(int i) {
+			if (data.length - i < MIN_MATCH)
+				return;
+			int h = hash(i);
+			prev[i & (WINDOW_SIZE - 1)] = head[h];
+			head[h] = i;
+		}
+		
+		
+		// Writes packed (length << 16 | distance) pairs for each longer match found, nearest
+		// first, so each length has its shortest distance. Returns the number of pairs.
+		public int find(int i, int maxLen, int[] out) {
+			if (maxLen < MIN_MATCH)
+				return 0;
+			int count = 0;
+			int best = MIN_MATCH - 1;
+			int p = head[hash(i)];
+			int limit = chainLimit;
+			for (int chain = 0; p >= 0 && i - p <= WINDOW_SIZE && chain < limit; chain++) {
+				if (data[p + best] == data[i + best]) {
+					int len = 0;
+					while (len < maxLen && data[p + len] == data[i + len])
+						len++;
+					if (len > best) {
+						out[count] = len << 16 | (i - p);
+						count++;
+						best = len;
+						if (len == maxLen)
+							break;
+						if (len >= GOOD_LENGTH)  // Like zlib, search less once a long match is found
+							limit = Math.min(limit, chain + (chainLimit >>> 4));
+					}
+				}
+				int q = prev[p & (WINDOW_SIZE - 1)];
+				if (q >= p)
+					break;
+				p = q;
+			}
+			return count;
+		}
+		
+	}
+	
+	
+	
+	// A sequence of literals and length-distance pairs, with symbol statistics.
+	private static final class Parse {
+		
+		public int[] litLens = new int[16];  // Literal byte, or match length
+		public int[] dists = new int[16];  // 0 for a literal
+		public int size = 0;
+		
+		
+		public void add(int litLen, int dist) {
+			if (size == litLens.length) {
+				litLens = Arrays.copyOf(litLens, size * 2);
+				dists = Arrays.copyOf(dists, size * 2);
+			}
+			litLens[size] = litLen;
+			dists[size] = dist;
+			size++;
+		}
+		
+		
+		// Counts the symbols in the range [from, to) into the given arrays, and returns the number of extra bits.
+		public long count(int from, int to, long[] litLenCounts, long[] distCounts) {
+			long extraBits = 0;
+			for (int i = from; i < to; i++) {
+				if (dists[i] == 0)
+					litLenCounts[litLens[i]]++;
+				else {
+					litLenCounts[LENGTH_SYMBOLS[litLens[i]]]++;
+					int ds = distSymbol(dists[i]);
+					distCounts[ds]++;
+					extraBits += LENGTH_EXTRA_BITS[litLens[i]] + distExtraBits(ds);
+				}
+			}
+			litLenCounts[END_OF_BLOCK]++;
+			return extraBits;
+		}
+		
+		
+		// Returns the estimated number of bits to encode the range [from, to) as one block.
+		public long estimateBits(int from, int to) {
+			var litLenCounts = new long[NUM_LIT_LEN];
+			var distCounts = new long[NUM_DIST];
+			long extra = count(from, to, litLenCounts, distCounts);
+			int[] litLenLens = codeLengths(litLenCounts, 15);
+			int[] distLens = codeLengths(patchCounts(distCounts), 15);
+			long dynamic = writeHeader(litLenLens, distLens, null) + dataBits(litLenCounts, distCounts, litLenLens, distLens);
+			long fixed = dataBits(litLenCounts, distCounts, FIXED_LIT_LEN_LENGTHS, FIXED_DIST_LENGTHS);
+			return extra + 3 + Math.min(dynamic, fixed);
+		}
+		
+		
+		public long dynamicBits() {
+			var litLenCounts = new long[NUM_LIT_LEN];
+			var distCounts = new long[NUM_DIST];
+			long extra = count(0, size, litLenCounts, distCounts);
+			int[] litLenLens = codeLengths(litLenCounts, 15);
+			int[] distLens = codeLengths(patchCounts(distCounts), 15);
+			return 3 + extra + writeHeader(litLenLens, distLens, null) + dataBits(litLenCounts, distCounts, litLenLens, distLens);
+		}
+		
+		
+		public long fixedBits() {
+			var litLenCounts = new long[NUM_LIT_LEN];
+			var distCounts = new long[NUM_DIST];
+			long extra = count(0, size, litLenCounts, distCounts);
+			return 3 + extra + dataBits(litLenCounts, distCounts, FIXED_LIT_LEN_LENGTHS, FIXED_DIST_LENGTHS);
+		}
+		
+		
+		public void writeDynamic(BitWriter out) {
+			var litLenCounts = new long[NUM_LIT_LEN];
+			var distCounts = new long[NUM_DIST];
+			count(0, size, litLenCounts, distCounts);
+			int[] litLenLens = codeLengths(litLenCounts, 15);
+			int[] distLens = codeLengths(patchCounts(distCounts), 15);
+			writeHeader(litLenLens, distLens, out);
+			writeSymbols(litLenLens, distLens, out);
+		}
+		
+		
+		public void writeSymbols(int[] litLenLens, int[] distLens, BitWriter out) {
+			int[] litLenCodes = canonicalCodes(litLenLens);
+			int[] distCodes = canonicalCodes(distLens);
+			for (int i = 0; i < size; i++) {
+				int litLen = litLens[i];
+				if (dists[i] == 0) {
+					out.writeBits(litLenCodes[litLen], litLenLens[litLen]);
+				} else {
+					int ls = LENGTH_SYMBOLS[litLen];
+					out.writeBits(litLenCodes[ls], litLenLens[ls]);
+					out.writeBits(litLen - LENGTH_BASES[ls - 257], LENGTH_EXTRA_BITS[litLen]);
+					int ds = distSymbol(dists[i]);
+					out.writeBits(distCodes[ds], distLens[ds]);
+					out.writeBits(dists[i] - distBase(ds), distExtraBits(ds));
+				}
+			}
+			out.writeBits(litLenCodes[END_OF_BLOCK], litLenLens[END_OF_BLOCK]);
+		}
+		
+		
+		private static long dataBits(long[] litLenCounts, long[] distCounts, int[] litLenLens, int[] distLens) {
+			long result = 0;
+			for (int i = 0; i < litLenCounts.length; i++)
+				result += litLenCounts[i] * litLenLens[i];
+			for (int i = 0; i < distCounts.length; i++)
+				result += distCounts[i] * distLens[i];
+			return result;
+		}
+		
+	}
+	
+	
+	
+	// Costs in bits of each symbol, derived from the statistics of a parse.
+	private static final class CostModel {
+		
+		public final double[] litLenCosts = new double[NUM_LIT_LEN];
+		public final double[] lengthCosts = new double[MAX_MATCH + 1];  // Including extra bits
+		private final double[] distCosts = new double[NUM_DIST];
+		
+		
+		public CostModel(Parse parse) {
+			var litLenCounts = new long[NUM_LIT_LEN];
+			var distCounts = new long[NUM_DIST];
+			parse.count(0, parse.size, litLenCounts, distCounts);
+			entropy(litLenCounts, litLenCosts);
+			entropy(distCounts, distCosts);
+			for (int len = MIN_MATCH; len <= MAX_MATCH; len++)
+				lengthCosts[len] = litLenCosts[LENGTH_SYMBOLS[len]] + LENGTH_EXTRA_BITS[len];
+		}
+		
+		
+		public double distCost(int dist) {
+			int ds = distSymbol(dist);
+			return distCosts[ds] + distExtraBits(ds);
+		}
+		
+		
+		// Sets each cost to -log2(count / total), treating a zero count as one.
+		private static void entropy(long[] counts, double[] costs) {
+			long total = 0;
+			for (long c : counts)
+				total += c;
+			double log2Total = total > 0 ? Math.log(total) / Math.log(2) : Math.log(counts.length) / Math.log(2);
+			for (int i = 0; i < counts.length; i++)
+				costs[i] = counts[i] > 0 ? log2Total - Math.log(counts[i]) / Math.log(2) : log2Total;
+		}
+		
+	}
+	
+	
+	
+	// Accumulates bits in DEFLATE order (least significant bit of each byte first).
+	private static final class BitWriter {
+		
+		private byte[] bytes = new byte[256];
+		private int length = 0;  // Number of whole bytes
+		private long buffer = 0;
+		private int bufferBits = 0;  // In the range [0, 8) between calls
+		
+		
+		public void writeBits(int value, int numBits) {
+			if (numBits == 0)
+				return;
+			buffer |= (value & ((1L << numBits) - 1)) << bufferBits;
+			bufferBits += numBits;
+			while (bufferBits >= 8) {
+				if (length == bytes.length)
+					bytes = Arrays.copyOf(bytes, length * 2);
+				bytes[length] = (byte)buffer;
+				length++;
+				buffer >>>= 8;
+				bufferBits -= 8;
+			}
+		}
+		
+		
+		public void alignToByte() {
+			writeBits(0, (8 - bufferBits) % 8);
+		}
+		
+		
+		public void append(BitWriter other) {
+			for (int i = 0; i < other.length; i++)
+				writeBits(other.bytes[i] & 0xFF, 8);
+			writeBits((int)other.buffer, other.bufferBits);
+		}
+		
+		
+		public byte[] toByteArray() {
+			if (bufferBits != 0)
+				throw new IllegalStateException("Not aligned to byte");
+			return Arrays.copyOf(bytes, length);
+		}
+		
+	}
+	
+	
+	
+	/*---- Huffman coding functions ----*/
+	
+	// Returns code lengths (0 for unused symbols) of a Huffman code for the given frequencies,
+	// limited to maxBits by flattening the frequencies until the code fits.
+	private static int[] codeLengths(long[] freqs, int maxBits) {
+		long[] f = freqs.clone();
+		while (true) {
+			int[] result = huffmanLengths(f);
+			if (Arrays.stream(result).max().getAsInt() <= maxBits)
+				return result;
+			for (int i = 0; i < f.length; i++) {
+				if (f[i] > 0)
+					f[i] = (f[i] >>> 1) + 1;
+			}
+		}
+	}
+	
+	
+	private static int[] huffmanLengths(long[] freqs) {
+		int n = freqs.length;
+		var result = new int[n];
+		var weights = new long[n * 2];
+		var parents = new int[n * 2];
+		var queue = new PriorityQueue<Integer>((a, b) -> weights[a] != weights[b] ? Long.compare(weights[a], weights[b]) : Integer.compare(a, b));
+		for (int i = 0; i < n; i++) {
+			if (freqs[i] > 0) {
+				weights[i] = freqs[i];
+				queue.add(i);
+			}
+		}
+		if (queue.size() == 1)
+			result[queue.remove()] = 1;
+		if (queue.size() < 2)
+			return result;
+		
+		int next = n;
+		while (queue.size() > 1) {
+			int a = queue.remove();
+			int b = queue.remove();
+			weights[next] = weights[a] + weights[b];
+			parents[a] = next;
+			parents[b] = next;
+			queue.add(next);
+			next++;
+		}
+		int root = next - 1;
+		var depths = new int[n * 2];
+		for (int i = root - 1; i >= 0; i--) {
+			if (i >= n || freqs[i] > 0)
+				depths[i] = depths[parents[i]] + 1;
+		}
+		for (int i = 0; i < n; i++)
+			result[i] = freqs[i] > 0 ? depths[i] : 0;
+		return result;
+	}
+	
+	
+	// Returns a copy of the given counts where at least two are nonzero, so that the Huffman
+	// code is complete, because decoders reject some incomplete codes.
+	private static long[] patchCounts(long[] counts) {
+		long[] result = counts.clone();
+		int nonzero = 0;
+		for (long c : result) {
+			if (c > 0)
+				nonzero++;
+		}
+		for (int i = 0; nonzero < 2; i++) {
+			if (result[i] == 0) {
+				result[i] = 1;
+				nonzero++;
+			}
+		}
+		return result;
+	}
+	
+	
+	// Returns the canonical codes for the given lengths, bit-reversed for writing.
+	private static int[] canonicalCodes(int[] lens) {
+		var blCount = new int[16];
+		for (int len : lens)
+			blCount[len]++;
+		blCount[0] = 0;
+		var nextCode = new int[16];
+		for (int bits = 1, code = 0; bits < 16; bits++) {
+			code = (code + blCount[bits - 1]) << 1;
+			nextCode[bits] = code;
+		}
+		var result = new int[lens.length];
+		for (int i = 0; i < lens.length; i++) {
+			int len = lens[i];
+			if (len > 0) {
+				result[i] = Integer.reverse(nextCode[len]) >>> (32 - len);
+				nextCode[len]++;
+			}
+		}
+		return result;
+	}
+	
+	
+	// Writes the dynamic block header after BTYPE (if out is not null) and returns its length in bits.
+	private static long writeHeader(int[] litLenLens, int[] distLens, BitWriter out) {
+		int hlit = NUM_LIT_LEN;
+		while (hlit > 257 && litLenLens[hlit - 1] == 0)
+			hlit--;
+		int hdist = NUM_DIST;
+		while (hdist > 1 && distLens[hdist - 1] == 0)
+			hdist--;
+		var all = new int[hlit + hdist];
+		System.arraycopy(litLenLens, 0, all, 0, hlit);
+		System.arraycopy(distLens, 0, all, hlit, hdist);
+		
+		// Run-length encode the code lengths
+		var syms = new int[all.length];
+		var extras = new int[all.length];
+		int count = 0;
+		for (int i = 0; i < all.length; ) {
+			int val = all[i];
+			int run = 1;
+			while (i + run < all.length && all[i + run] == val)
+				run++;
+			if (val == 0 && run >= 3) {
+				int r = Math.min(run, 138);
+				syms[count] = r >= 11 ? 18 : 17;
+				extras[count] = r - (r >= 11 ? 11 : 3);
+				count++;
+				i += r;
+			} else if (val != 0 && run >= 4) {
+				syms[count] = val;
+				count++;
+				int r = Math.min(run - 1, 6);
+				syms[count] = 16;
+				extras[count] = r - 3;
+				count++;
+				i += r + 1;
+			} else {
+				syms[count] = val;
+				count++;
+				i++;
+			}
+		}
+		
+		var clCounts = new long[19];
+		for (int i = 0; i < count; i++)
+			clCounts[syms[i]]++;
+		int[] clLens = codeLengths(patchCounts(clCounts), 7);
+		int hclen = 19;
+		while (hclen > 4 && clLens[CODE_LENGTH_ORDER[hclen - 1]] == 0)
+			hclen--;
+		
+		long bits = 5 + 5 + 4 + hclen * 3;
+		for (int i = 0; i < count; i++)
+			bits += clLens[syms[i]] + CODE_LENGTH_EXTRA_BITS[syms[i]];
+		if (out != null) {
+			out.writeBits(hlit - 257, 5);
+			out.writeBits(hdist - 1, 5);
+			out.writeBits(hclen - 4, 4);
+			for (int i = 0; i < hclen; i++)
+				out.writeBits(clLens[CODE_LENGTH_ORDER[i]], 3);
+			int[] clCodes = canonicalCodes(clLens);
+			for (int i = 0; i < count; i++) {
+				out.writeBits(clCodes[syms[i]], clLens[syms[i]]);
+				out.writeBits(extras[i], CODE_LENGTH_EXTRA_BITS[syms[i]]);
+			}
+		}
+		return bits;
+	}
+	
+	
+	
+	/*---- DEFLATE constants and tables ----*/
+	
+	private static final int WINDOW_SIZE = 1 << 15;
+	private static final int HASH_BITS = 15;
+	private static final int HASH_SIZE = 1 << HASH_BITS;
+	private static final int MAX_CHAIN = 8192;
+	private static final int GOOD_LENGTH = 32;
+	private static final int MIN_MATCH = 3;
+	private static final int MAX_MATCH = 258;
+	private static final int END_OF_BLOCK = 256;
+	private static final int NUM_LIT_LEN = 286;
+	private static final int NUM_DIST = 30;
+	
+	// Indexed by length symbol minus 257
+	private static final int[] LENGTH_BASES = {3, 4, 5, 6, 7, 8, 9, 10, 11, 13, 15, 17, 19, 23, 27, 31,
+		35, 43, 51, 59, 67, 83, 99, 115, 131, 163, 195, 227, 258};
+	private static final int[] LENGTH_SYMBOL_EXTRA_BITS = {0, 0, 0, 0, 0, 0, 0, 0, 1, 1, 1, 1, 2, 2, 2, 2,
+		3, 3, 3, 3, 4, 4, 4, 4, 5, 5, 5, 5, 0};
+	
+	private static final int[] CODE_LENGTH_ORDER = {16, 17, 18, 0, 8, 7, 9, 6, 10, 5, 11, 4, 12, 3, 13, 2, 14, 1, 15};
+	
+	private static final int[] CODE_LENGTH_EXTRA_BITS = {0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 2, 3, 7};
+	
+	// Indexed by match length
+	private static final int[] LENGTH_SYMBOLS = new int[MAX_MATCH + 1];
+	private static final int[] LENGTH_EXTRA_BITS = new int[MAX_MATCH + 1];
+	
+	private static final int[] FIXED_LIT_LEN_LENGTHS = new int[288];  // Includes the 2 unusable symbols, which shape the canonical code
+	private static final int[] FIXED_DIST_LENGTHS = new int[NUM_DIST];
+	
+	static {
+		for (int sym = 0; sym < LENGTH_BASES.length; sym++) {
+			int end = sym + 1 < LENGTH_BASES.length ? LENGTH_BASES[sym + 1] : MAX_MATCH + 1;
+			if (sym == LENGTH_BASES.length - 2)
+				end = MAX_MATCH;  // Length 258 has its own symbol
+			for (int len = LENGTH_BASES[sym]; len < end; len++) {
+				LENGTH_SYMBOLS[len] = 257 + sym;
+				LENGTH_EXTRA_BITS[len] = LENGTH_SYMBOL_EXTRA_BITS[sym];
+			}
+		}
+		for (int i = 0; i < FIXED_LIT_LEN_LENGTHS.length; i++)
+			FIXED_LIT_LEN_LENGTHS[i] = i < 144 ? 8 : i < 256 ? 9 : i < 280 ? 7 : 8;
+		Arrays.fill(FIXED_DIST_LENGTHS, 5);
+	}
+	
+	
+	private static int distSymbol(int dist) {
+		if (dist <= 4)
+			return dist - 1;
+		int d = dist - 1;
+		int hb = 31 - Integer.numberOfLeadingZeros(d);
+		return hb * 2 + (d >>> (hb - 1) & 1);
+	}
+	
+	
+	private static int distExtraBits(int sym) {
+		return sym < 4 ? 0 : sym / 2 - 1;
+	}
+	
+	
+	private static int distBase(int sym) {
+		if (sym < 4)
+			return sym + 1;
+		int hb = sym / 2;
+		return (1 << hb) + ((sym & 1) << (hb - 1)) + 1;
+	}
+	
+}
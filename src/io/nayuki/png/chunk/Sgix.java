@@ -0,0 +1,84 @@
+/* 
+ * PNG library (Java)
+ * 
+ * Copyright (c) Project Nayuki
+ * MIT License. See readme file.
+ * https://www.nayuki.io/page/png-library
+ */
+
+package io.nayuki.png.chunk;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Objects;
+
+
+/**
+ * A segment index (sgIX) chunk. This private chunk, in the spirit of Apple's iDOT chunk,
+ * splits the rows of a non-interlaced image into segments that can be decompressed and
+ * unfiltered independently, so that a decoder can process them in parallel. The ZLIB
+ * stream of the image data is fully flushed before each segment's start row, and that
+ * row's filter type doesn't refer to the row above. Each data offset is the position of
+ * the segment's first compressed byte within the concatenated data of all IDAT chunks.
+ * The first segment starts at row 0 and is not listed. A chunk of this type whose data
+ * is malformed is read as a {@link Custom} chunk. Instances should be treated
+ * as immutable, but arrays are not copied defensively.
+ */
+public record Sgix(int[] startRows, int[] dataOffsets) implements SmallDataChunk {
+	
+	static final String TYPE = "sgIX";
+	
+	
+	/*---- Constructor and factory ----*/
+	
+	public Sgix {
+		Objects.requireNonNull(startRows);
+		Objects.requireNonNull(dataOffsets);
+		if (startRows.length != dataOffsets.length)
+			throw new IllegalArgumentException("Array lengths differ");
+		if (!(1 <= startRows.length && startRows.length <= (Integer.MAX_VALUE - 8) / 8))
+			throw new IllegalArgumentException("Number of segments out of range");
+		for (int i = 0; i < startRows.length; i++) {
+			if (startRows[i] <= (i > 0 ? startRows[i - 1] : 0) || dataOffsets[i] <= (i > 0 ? dataOffsets[i - 1] : 0))
+				throw new IllegalArgumentException("Values not positive and strictly increasing");
+		}
+	}
+	
+	
+	// Returns a Custom chunk instead if the data is malformed, because the index
+	// is only an optimization and other software might use this chunk type differently.
+	static Chunk read(ChunkReader in) throws IOException {
+		Objects.requireNonNull(in);
+		byte[] data = in.readRemainingBytes();
+		if (data.length % 8 == 0) {
+			var buf = ByteBuffer.wrap(data);
+			int n = data.length / 8;
+			var startRows = new int[n];
+			var dataOffsets = new int[n];
+			for (int i = 0; i < n; i++) {
+				startRows[i] = buf.getInt();
+				dataOffsets[i] = buf.getInt();
+			}
+			try {
+				return new Sgix(startRows, dataOffsets);
+			} catch (IllegalArgumentException e) {}  // Fall through
+		}
+		return new Custom(TYPE, data);
+	}
+	
+	
+	/*---- Methods ----*/
+	
+	@Override public String getType() {
+		return TYPE;
+	}
+	
+	
+	@Override public void writeData(ChunkWriter out) throws IOException {
+		for (int i = 0; i < startRows.length; i++) {
+			out.writeInt32(startRows[i]);
+			out.writeInt32(dataOffsets[i]);
+		}
+	}
+	
+}
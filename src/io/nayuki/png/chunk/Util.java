@@ -9,6 +9,7 @@
 package io.nayuki.png.chunk;
 
 import java.util.Objects;
+import java.util.function.Supplier;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -67,6 +68,30 @@ final class Util {
 	}
 	
 	
+	// Calls the given chunk constructor. If lazy is true, then the constructor
+	// skips validating compressed data, as reported by isValidationDeferred().
+	static <T> T construct(boolean lazy, Supplier<T> constructor) {
+		Objects.requireNonNull(constructor);
+		if (!lazy)
+			return constructor.get();
+		boolean saved = deferValidation.get();
+		deferValidation.set(true);
+		try {
+			return constructor.get();
+		} finally {
+			deferValidation.set(saved);
+		}
+	}
+	
+	
+	static boolean isValidationDeferred() {
+		return deferValidation.get();
+	}
+	
+	
+	private static final ThreadLocal<Boolean> deferValidation = ThreadLocal.withInitial(() -> false);
+	
+	
 	// Classifies the given string which should be in scientific notation.
 	static int testAsciiFloat(String s) {
 		Objects.requireNonNull(s);
@@ -37,10 +37,8 @@ public record Ztxt(
 		
 		Objects.requireNonNull(compressionMethod);
 		Objects.requireNonNull(compressedText);
-		byte[] decompText = compressionMethod.decompress(compressedText);
-		
-		var text = new String(decompText, StandardCharsets.ISO_8859_1);
-		Util.checkIso8859_1(text, true);
+		if (!Util.isValidationDeferred())
+			decompressText(compressionMethod, compressedText);
 		Util.checkedLengthSum(keyword, 2 * Byte.BYTES, compressedText);
 	}
 	
@@ -50,7 +48,15 @@ public record Ztxt(
 		String keyword = in.readString(StandardCharsets.ISO_8859_1, true);
 		CompressionMethod compMethod = in.readEnum(CompressionMethod.values());
 		byte[] compText = in.readRemainingBytes();
-		return new Ztxt(keyword, compMethod, compText);
+		return Util.construct(in.lazyValidation(), () -> new Ztxt(keyword, compMethod, compText));
+	}
+	
+	
+	private static String decompressText(CompressionMethod compMethod, byte[] compText) {
+		byte[] decompText = compMethod.decompress(compText);
+		var text = new String(decompText, StandardCharsets.ISO_8859_1);
+		Util.checkIso8859_1(text, true);
+		return text;
 	}
 	
 	
@@ -58,14 +64,29 @@ public record Ztxt(
 	
 	/**
 	 * Decompresses the text field, interprets the bytes as ISO 8859-1, and returns the data as a string object.
+	 * The result is remembered for this chunk's array, so repeated calls are cheap.
 	 * @return a string representing the text conveyed by the text field (not {@code null})
+	 * @throws IllegalArgumentException if the compressed text is invalid
 	 */
 	public String getText() {
-		byte[] decompText = compressionMethod.decompress(compressedText);
-		return new String(decompText, StandardCharsets.ISO_8859_1);
+		return textCache.get(compressedText, b -> decompressText(compressionMethod, b));
 	}
 	
 	
+	/**
+	 * Checks that the compressed text can be decompressed and is valid ISO 8859-1 text,
+	 * which is already guaranteed unless this chunk was read with lazy validation.
+	 * @throws IllegalArgumentException if the compressed text is invalid
+	 * @see IntegrityCheck#lazyValidation()
+	 */
+	public void validate() {
+		getText();
+	}
+	
+	
+	private static final DecodedCache<String> textCache = new DecodedCache<>();
+	
+	
 	@Override public String getType() {
 		return TYPE;
 	}
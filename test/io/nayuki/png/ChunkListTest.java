@@ -0,0 +1,68 @@
+/* 
+ * PNG library (Java)
+ * 
+ * Copyright (c) Project Nayuki
+ * MIT License. See readme file.
+ * https://www.nayuki.io/page/png-library
+ */
+
+package io.nayuki.png;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import java.util.List;
+import java.util.Optional;
+import org.junit.Test;
+import io.nayuki.png.chunk.Chunk;
+import io.nayuki.png.chunk.Custom;
+import io.nayuki.png.chunk.Gama;
+import io.nayuki.png.chunk.Text;
+
+
+public final class ChunkListTest {
+	
+	@Test public void testLookupAfterMutation() {
+		var png = new PngImage();
+		var gama = new Gama(45455);
+		var text0 = new Text("Title", "A");
+		var text1 = new Text("Author", "B");
+		png.afterIhdr.add(gama);
+		png.afterIdats.add(text0);
+		
+		assertEquals(Optional.of(gama), PngImage.getChunk(Gama.class, png.afterIhdr, png.afterIdats));
+		assertEquals(List.of(text0), PngImage.getChunks(Text.class, png.afterIhdr, png.afterIdats));
+		
+		png.afterIdats.add(text1);
+		assertEquals(List.of(text0, text1), PngImage.getChunks(Text.class, png.afterIdats));
+		TestUtil.runExpect(IllegalArgumentException.class, () -> PngImage.getChunk(Text.class, png.afterIdats));
+		
+		png.afterIdats.subList(0, 1).set(0, gama);
+		assertEquals(List.of(text1), PngImage.getChunks(Text.class, png.afterIdats));
+		TestUtil.runExpect(IllegalArgumentException.class, () -> PngImage.getChunk(Gama.class, png.afterIhdr, png.afterIdats));
+		
+		var iter = png.afterIdats.iterator();
+		iter.next();
+		iter.remove();
+		assertEquals(List.of(text1), png.afterIdats);
+		assertEquals(Optional.of(gama), PngImage.getChunk(Gama.class, png.afterIhdr, png.afterIdats));
+		
+		png.afterIdats.clear();
+		assertEquals(List.of(), PngImage.getChunks(Text.class, png.afterIdats));
+		assertEquals(List.of(gama), PngImage.getChunks(Chunk.class, png.afterIhdr, png.afterIdats));
+	}
+	
+	
+	@Test public void testCriticalCustom() {
+		var lst = new ChunkList<Chunk>();
+		lst.add(new Text("Title", "A"));
+		lst.add(new Custom("abCd", new byte[0]));
+		assertSame(null, ChunkList.findCriticalCustom(lst));
+		var crit = new Custom("AbCD", new byte[0]);
+		lst.add(crit);
+		assertSame(crit, ChunkList.findCriticalCustom(lst));
+		lst.remove(crit);
+		assertSame(null, ChunkList.findCriticalCustom(lst));
+		assertSame(crit, ChunkList.findCriticalCustom(List.of(crit)));
+	}
+	
+}
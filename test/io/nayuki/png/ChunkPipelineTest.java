@@ -0,0 +1,94 @@
+/* 
+ * PNG library (Java)
+ * 
+ * Copyright (c) Project Nayuki
+ * MIT License. See readme file.
+ * https://www.nayuki.io/page/png-library
+ */
+
+package io.nayuki.png;
+
+import static org.junit.Assert.assertArrayEquals;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.List;
+import org.junit.Test;
+import io.nayuki.png.chunk.Chunk;
+import io.nayuki.png.chunk.Gama;
+import io.nayuki.png.chunk.Idat;
+import io.nayuki.png.chunk.Iend;
+import io.nayuki.png.chunk.Ihdr;
+import io.nayuki.png.chunk.Phys;
+import io.nayuki.png.chunk.Text;
+import io.nayuki.png.chunk.Time;
+
+
+public final class ChunkPipelineTest {
+	
+	@Test public void testCopy() throws IOException {
+		byte[] input = toBytes(CHUNKS);
+		assertArrayEquals(input, run(new ChunkPipeline(), input));
+	}
+	
+	
+	@Test public void testStrip() throws IOException {
+		byte[] output = run(new ChunkPipeline().strip("tEXt", "tIME"), toBytes(CHUNKS));
+		assertArrayEquals(toBytes(List.of(CHUNKS.get(0), CHUNKS.get(1), CHUNKS.get(3), CHUNKS.get(4), CHUNKS.get(7))), output);
+	}
+	
+	
+	@Test public void testTransform() throws IOException {
+		var phys = new Phys(1, 1, Phys.UnitSpecifier.UNKNOWN);
+		byte[] output = run(new ChunkPipeline()
+			.transform("gAMA", chk -> List.of(chk, phys))
+			.transform("tIME", chk -> List.of()), toBytes(CHUNKS));
+		assertArrayEquals(toBytes(List.of(CHUNKS.get(0), CHUNKS.get(1), phys, CHUNKS.get(2),
+			CHUNKS.get(3), CHUNKS.get(4), CHUNKS.get(5), CHUNKS.get(7))), output);
+	}
+	
+	
+	@Test public void testMove() throws IOException {
+		byte[] output = run(new ChunkPipeline()
+			.moveBefore("tEXt", "IEND")
+			.moveBefore("gAMA", "IDAT"), toBytes(CHUNKS));
+		assertArrayEquals(toBytes(List.of(CHUNKS.get(0), CHUNKS.get(1), CHUNKS.get(3), CHUNKS.get(4),
+			CHUNKS.get(6), CHUNKS.get(2), CHUNKS.get(5), CHUNKS.get(7))), output);
+		
+		TestUtil.runExpect(IllegalArgumentException.class, () -> new ChunkPipeline().moveBefore("tEXt", "tEXt"));
+	}
+	
+	
+	@Test public void testBadCrc() throws IOException {
+		byte[] input = toBytes(CHUNKS);
+		input[input.length - 13] ^= 0x01;  // Last byte of tIME's CRC-32
+		TestUtil.runExpect(IllegalArgumentException.class, () -> run(new ChunkPipeline(), input));
+		run(new ChunkPipeline().strip("tIME"), input);
+	}
+	
+	
+	private static byte[] run(ChunkPipeline pipeline, byte[] input) throws IOException {
+		var bout = new ByteArrayOutputStream();
+		pipeline.run(new ByteArrayInputStream(input), bout);
+		return bout.toByteArray();
+	}
+	
+	
+	private static byte[] toBytes(List<Chunk> chunks) throws IOException {
+		var bout = new ByteArrayOutputStream();
+		new XngFile(XngFile.Type.PNG, chunks).write(bout);
+		return bout.toByteArray();
+	}
+	
+	
+	private static final List<Chunk> CHUNKS = List.of(
+		new Ihdr(1, 1, 8, Ihdr.ColorType.GRAYSCALE, Ihdr.CompressionMethod.ZLIB_DEFLATE, Ihdr.FilterMethod.ADAPTIVE, Ihdr.InterlaceMethod.NONE),
+		new Gama(45455),
+		new Text("Title", "Pipeline"),
+		new Idat(TestUtil.hexToBytes("789C63600000000200")),
+		new Idat(TestUtil.hexToBytes("01")),
+		new Text("Author", "Somebody"),
+		new Time(2020, 1, 2, 3, 4, 5),
+		Iend.SINGLETON);
+	
+}
@@ -0,0 +1,193 @@
+/* 
+ * PNG library (Java)
+ * 
+ * Copyright (c) Project Nayuki
+ * MIT License. See readme file.
+ * https://www.nayuki.io/page/png-library
+ */
+
+package io.nayuki.png;
+
+import static io.nayuki.png.TestUtil.rand;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import org.junit.Assert;
+import org.junit.Test;
+import io.nayuki.png.chunk.Ihdr;
+import io.nayuki.png.chunk.Ihdr.InterlaceMethod;
+import io.nayuki.png.chunk.Plte;
+import io.nayuki.png.chunk.Trns;
+import io.nayuki.png.image.BufferedRgbaImage;
+import io.nayuki.png.image.GrayImage;
+import io.nayuki.png.image.GrayToRgbaImage;
+import io.nayuki.png.image.PaletteImage;
+import io.nayuki.png.image.PaletteToRgbaImage;
+import io.nayuki.png.image.RgbaImage;
+
+
+public final class ColorReducerTest {
+	
+	@Test public void testGray() {
+		var img = new BufferedRgbaImage(20, 10, new int[]{8, 8, 8, 0});
+		fill(img, (x, y) -> gray8(x * 13 + y));
+		Ihdr ihdr = ImageEncoder.toPngReduced(img, InterlaceMethod.NONE).ihdr.orElseThrow();
+		Assert.assertEquals(Ihdr.ColorType.GRAYSCALE, ihdr.colorType());
+		Assert.assertEquals(8, ihdr.bitDepth());
+	}
+	
+	
+	@Test public void testBlackAndWhite() {
+		var img = new BufferedRgbaImage(20, 10, new int[]{16, 16, 16, 16});
+		fill(img, (x, y) -> ((x ^ y) & 1) == 0 ? 0x0000_0000_0000_FFFFL : -1L);
+		Ihdr ihdr = ImageEncoder.toPngReduced(img, InterlaceMethod.NONE).ihdr.orElseThrow();
+		Assert.assertEquals(Ihdr.ColorType.GRAYSCALE, ihdr.colorType());
+		Assert.assertEquals(1, ihdr.bitDepth());
+	}
+	
+	
+	@Test public void testPalette() {
+		var img = new BufferedRgbaImage(20, 10, new int[]{8, 8, 8, 8});
+		long[] colors = {0x00FF_0000_0000_00FFL, 0x0000_00FF_0000_00FFL, 0x0000_0000_00FF_0080L};
+		fill(img, (x, y) -> colors[(x + y) % colors.length]);
+		PngImage png = ImageEncoder.toPngReduced(img, InterlaceMethod.NONE);
+		Ihdr ihdr = png.ihdr.orElseThrow();
+		Assert.assertEquals(Ihdr.ColorType.INDEXED_COLOR, ihdr.colorType());
+		Assert.assertEquals(2, ihdr.bitDepth());
+		Assert.assertEquals(9, PngImage.getChunk(Plte.class, png.afterIhdr).orElseThrow().data().length);
+		Assert.assertEquals(1, PngImage.getChunk(Trns.class, png.afterIhdr).orElseThrow().data().length);
+	}
+	
+	
+	@Test public void testOpaqueAndHalfDepth() {
+		var img = new BufferedRgbaImage(30, 30, new int[]{16, 16, 16, 16});
+		fill(img, (x, y) -> (x * 8L) * 0x0101_0000_0000_0000L + (y * 8L) * 0x0101_0000_0000L + ((x + y) & 0xFF) * 0x0101_0000L + 0xFFFF);
+		PngImage png = ImageEncoder.toPngReduced(img, InterlaceMethod.NONE);
+		Ihdr ihdr = png.ihdr.orElseThrow();
+		Assert.assertEquals(Ihdr.ColorType.TRUE_COLOR, ihdr.colorType());
+		Assert.assertEquals(8, ihdr.bitDepth());
+		Assert.assertTrue(PngImage.getChunk(Trns.class, png.afterIhdr).isEmpty());
+	}
+	
+	
+	@Test public void testTransparentColor() {
+		var img = new BufferedRgbaImage(30, 30, new int[]{8, 8, 8, 8});
+		fill(img, (x, y) -> (x + y) % 7 == 0 ? 0x0001_0002_0003_0000L : (long)x << 48 | (long)y << 32 | (long)(x * y & 0xFF) << 16 | 0xFF);
+		PngImage png = ImageEncoder.toPngReduced(img, InterlaceMethod.NONE);
+		Ihdr ihdr = png.ihdr.orElseThrow();
+		Assert.assertEquals(Ihdr.ColorType.TRUE_COLOR, ihdr.colorType());
+		TestUtil.assertDataEquals("0001 0002 0003", PngImage.getChunk(Trns.class, png.afterIhdr).orElseThrow());
+		
+		// Transparent color also used by an opaque pixel
+		img.setPixel(1, 0, 0x0001_0002_0003_00FFL);
+		ihdr = ImageEncoder.toPngReduced(img, InterlaceMethod.NONE).ihdr.orElseThrow();
+		Assert.assertEquals(Ihdr.ColorType.TRUE_COLOR_WITH_ALPHA, ihdr.colorType());
+	}
+	
+	
+	@Test public void testSignificantBits() throws IOException {
+		var img = new BufferedRgbaImage(20, 10, new int[]{5, 5, 5, 0});
+		fill(img, (x, y) -> (x + y) % 32 * 0x0001_0001_0001_0000L);
+		PngImage png = ImageEncoder.toPngReduced(img, InterlaceMethod.NONE);
+		var bout = new ByteArrayOutputStream();
+		png.write(bout);
+		var gray = (GrayImage)ImageDecoder.toImage(PngImage.read(new ByteArrayInputStream(bout.toByteArray())));
+		Assert.assertArrayEquals(new int[]{5, 0}, gray.getBitDepths());
+		for (int y = 0; y < img.getHeight(); y++) {
+			for (int x = 0; x < img.getWidth(); x++)
+				Assert.assertEquals((x + y) % 32, gray.getPixel(x, y) >>> 16);
+		}
+	}
+	
+	
+	@Test public void testRandomLossless() throws IOException {
+		final int TRIALS = 300;
+		for (int i = 0; i < TRIALS; i++) {
+			int width  = rand.nextInt(30) + 1;
+			int height = rand.nextInt(30) + 1;
+			int depth = rand.nextBoolean() ? 8 : 16;
+			var img0 = new BufferedRgbaImage(width, height, new int[]{depth, depth, depth, rand.nextBoolean() ? depth : 0});
+			
+			// Random pixel values drawn from a small random set of structured colors
+			var colors = new long[rand.nextInt(rand.nextBoolean() ? 300 : 10) + 1];
+			boolean gray = rand.nextBoolean();
+			boolean half = rand.nextBoolean();
+			int alphaKind = rand.nextInt(3);
+			long max = (1L << depth) - 1;
+			for (int j = 0; j < colors.length; j++) {
+				long r = rand.nextLong() & max;
+				long g = gray ? r : rand.nextLong() & max;
+				long b = gray ? r : rand.nextLong() & max;
+				long a = switch (alphaKind) {
+					case 0 -> max;
+					case 1 -> j == 0 ? 0 : max;
+					case 2 -> rand.nextLong() & max;
+					default -> throw new AssertionError("Unreachable value");
+				};
+				if (half && depth == 16) {
+					r = (r >>> 8) * 257;
+					g = (g >>> 8) * 257;
+					b = (b >>> 8) * 257;
+					a = (a >>> 8) * 257;
+				}
+				colors[j] = r << 48 | g << 32 | b << 16 | a;
+			}
+			for (int y = 0; y < height; y++) {
+				for (int x = 0; x < width; x++)
+					img0.setPixel(x, y, colors[rand.nextInt(colors.length)] & (img0.getBitDepths()[3] > 0 ? -1L : ~0xFFFFL));
+			}
+			
+			InterlaceMethod interMeth = rand.nextDouble() < 0.8 ? InterlaceMethod.NONE : InterlaceMethod.ADAM7;
+			PngImage png = ImageEncoder.toPngReduced(img0, interMeth);
+			var bout = new ByteArrayOutputStream();
+			png.write(bout);
+			Object img1 = ImageDecoder.toImage(PngImage.read(new ByteArrayInputStream(bout.toByteArray())));
+			RgbaImage rgba1;
+			if (img1 instanceof GrayImage im)
+				rgba1 = new GrayToRgbaImage(im);
+			else if (img1 instanceof PaletteImage im)
+				rgba1 = new PaletteToRgbaImage(im);
+			else
+				rgba1 = (RgbaImage)img1;
+			for (int y = 0; y < height; y++) {
+				for (int x = 0; x < width; x++)
+					Assert.assertEquals(normalize(img0, x, y), normalize(rgba1, x, y));
+			}
+		}
+	}
+	
+	
+	// Returns the pixel with every channel scaled to 16 bits, where a missing alpha channel is opaque.
+	private static long normalize(RgbaImage img, int x, int y) {
+		int[] bitDepths = img.getBitDepths();
+		long val = img.getPixel(x, y);
+		long result = 0;
+		for (int i = 0; i < 4; i++) {
+			int bits = bitDepths[i];
+			long sample = val >>> ((3 - i) * 16) & 0xFFFF;
+			sample = bits == 0 ? 0xFFFF : sample * 0xFFFF / ((1 << bits) - 1);
+			result = result << 16 | sample;
+		}
+		return result;
+	}
+	
+	
+	private static long gray8(int val) {
+		long v = val & 0xFF;
+		return v << 48 | v << 32 | v << 16;
+	}
+	
+	
+	private static void fill(BufferedRgbaImage img, PixelFunction func) {
+		for (int y = 0; y < img.getHeight(); y++) {
+			for (int x = 0; x < img.getWidth(); x++)
+				img.setPixel(x, y, func.apply(x, y));
+		}
+	}
+	
+	
+	private interface PixelFunction {
+		public long apply(int x, int y);
+	}
+	
+}
@@ -0,0 +1,65 @@
+/* 
+ * PNG library (Java)
+ * 
+ * Copyright (c) Project Nayuki
+ * MIT License. See readme file.
+ * https://www.nayuki.io/page/png-library
+ */
+
+package io.nayuki.png;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.List;
+import java.util.Optional;
+import org.junit.Test;
+import io.nayuki.png.chunk.Chunk;
+import io.nayuki.png.chunk.Gama;
+import io.nayuki.png.chunk.Ihdr;
+import io.nayuki.png.chunk.Text;
+import io.nayuki.png.image.BufferedRgbaImage;
+
+
+public final class FrozenPngImageTest {
+	
+	@Test public void testFreeze() throws IOException {
+		var img = new BufferedRgbaImage(3, 2, new int[]{8, 8, 8, 8});
+		img.setPixel(1, 1, 0x00FF_0080_0040_0020L);
+		PngImage png = ImageEncoder.toPng(img, Ihdr.InterlaceMethod.NONE);
+		var gama = new Gama(45455);
+		var text = new Text("Title", "Frozen");
+		png.afterIhdr.add(gama);
+		png.afterIdats.add(text);
+		
+		FrozenPngImage frozen = png.freeze();
+		var bout = new ByteArrayOutputStream();
+		png.write(bout);
+		byte[] expect = bout.toByteArray();
+		
+		png.afterIdats.clear();
+		png.afterIhdr.add(new Text("Author", "Nobody"));
+		
+		bout.reset();
+		frozen.write(bout);
+		assertArrayEquals(expect, bout.toByteArray());
+		assertEquals(expect.length, frozen.serializedLength());
+		assertEquals(Optional.of(gama), frozen.getChunk(Gama.class));
+		assertEquals(List.of(text), frozen.getChunks(Text.class));
+		assertEquals(frozen.toXngFile().chunks(), frozen.getChunks(Chunk.class));
+		TestUtil.runExpect(UnsupportedOperationException.class, () -> frozen.afterIdats().clear());
+		
+		var img1 = (BufferedRgbaImage)frozen.toImage();
+		assertEquals(img.getPixel(1, 1), img1.getPixel(1, 1));
+		PngImage thawed = frozen.toPngImage();
+		thawed.afterIdats.clear();
+		assertEquals(List.of(text), frozen.afterIdats());
+	}
+	
+	
+	@Test public void testFreezeBad() {
+		TestUtil.runExpect(IllegalStateException.class, () -> new PngImage().freeze());
+	}
+	
+}
@@ -12,9 +12,21 @@ import static io.nayuki.png.TestUtil.rand;
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Optional;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
 import org.junit.Assert;
 import org.junit.Test;
+import io.nayuki.png.chunk.Idat;
+import io.nayuki.png.chunk.Ihdr;
 import io.nayuki.png.chunk.Ihdr.InterlaceMethod;
+import io.nayuki.png.chunk.OptimalDeflater;
+import io.nayuki.png.chunk.Sgix;
 import io.nayuki.png.image.BufferedGrayImage;
 import io.nayuki.png.image.BufferedPaletteImage;
 import io.nayuki.png.image.BufferedRgbaImage;
@@ -161,4 +173,341 @@ public final class ImageCodecTest {
 		}
 	}
 	
+	
+	@Test public void testEncodeOptions() throws IOException {
+		final int TRIALS = 300;
+		for (int i = 0; i < TRIALS; i++) {
+			int width  = rand.nextInt(30) + 1;
+			int height = rand.nextInt(30) + 1;
+			InterlaceMethod interMeth = rand.nextDouble() < 0.8 ? InterlaceMethod.NONE : InterlaceMethod.ADAM7;
+			ImageEncoder.Options opts = randomOptions();
+			switch (rand.nextInt(3)) {
+				case 0 -> {
+					int[] bitDepths = {rand.nextInt(16) + 1, rand.nextInt(16) + 1, rand.nextInt(16) + 1, rand.nextInt(17)};
+					var img0 = new BufferedRgbaImage(width, height, bitDepths);
+					for (int y = 0; y < height; y++) {
+						for (int x = 0; x < width; x++) {
+							long val = 0;
+							for (int bits : bitDepths)
+								val = (val << 16) | rand.nextInt(1 << bits);
+							img0.setPixel(x, y, val);
+						}
+					}
+					var img1 = (BufferedRgbaImage)roundTrip(ImageEncoder.toPng(img0, interMeth, opts));
+					for (int y = 0; y < height; y++) {
+						for (int x = 0; x < width; x++)
+							Assert.assertEquals(img0.getPixel(x, y), img1.getPixel(x, y));
+					}
+				}
+				case 1 -> {
+					int[] bitDepths = {rand.nextInt(16) + 1, rand.nextInt(17)};
+					var img0 = new BufferedGrayImage(width, height, bitDepths);
+					for (int y = 0; y < height; y++) {
+						for (int x = 0; x < width; x++)
+							img0.setPixel(x, y, rand.nextInt(1 << bitDepths[0]) << 16 | rand.nextInt(1 << bitDepths[1]));
+					}
+					var img1 = (BufferedGrayImage)roundTrip(ImageEncoder.toPng(img0, interMeth, opts));
+					for (int y = 0; y < height; y++) {
+						for (int x = 0; x < width; x++)
+							Assert.assertEquals(img0.getPixel(x, y), img1.getPixel(x, y));
+					}
+				}
+				case 2 -> {
+					var palette = new long[rand.nextInt(256) + 1];
+					for (int j = 0; j < palette.length; j++)
+						palette[j] = (long)rand.nextInt(256) << 48 | (long)rand.nextInt(256) << 32 | (long)rand.nextInt(256) << 16 | 0xFF;
+					var img0 = new BufferedPaletteImage(width, height, new int[]{8, 8, 8, 8}, palette);
+					for (int y = 0; y < height; y++) {
+						for (int x = 0; x < width; x++)
+							img0.setPixel(x, y, rand.nextInt(palette.length));
+					}
+					var img1 = (BufferedPaletteImage)roundTrip(ImageEncoder.toPng(img0, interMeth, opts));
+					for (int y = 0; y < height; y++) {
+						for (int x = 0; x < width; x++)
+							Assert.assertEquals(img0.getPixel(x, y), img1.getPixel(x, y));
+					}
+				}
+				default -> throw new AssertionError("Unreachable value");
+			}
+		}
+	}
+	
+	
+	@Test public void testArgbArray() throws IOException {
+		final int TRIALS = 300;
+		for (int i = 0; i < TRIALS; i++) {
+			int width  = rand.nextInt(30) + 1;
+			int height = rand.nextInt(30) + 1;
+			int stride = width + rand.nextInt(3);
+			int offset = rand.nextInt(5);
+			var argb = new int[offset + (height - 1) * stride + width + rand.nextInt(3)];
+			for (int j = 0; j < argb.length; j++)
+				argb[j] = rand.nextInt();
+			boolean hasAlpha = rand.nextBoolean();
+			InterlaceMethod interMeth = rand.nextDouble() < 0.8 ? InterlaceMethod.NONE : InterlaceMethod.ADAM7;
+			var img = (BufferedRgbaImage)roundTrip(ImageEncoder.toPngFromArgb(argb, offset, stride, width, height, hasAlpha, interMeth, randomOptions()));
+			Assert.assertArrayEquals(new int[]{8, 8, 8, hasAlpha ? 8 : 0}, img.getBitDepths());
+			for (int y = 0; y < height; y++) {
+				for (int x = 0; x < width; x++) {
+					int val = argb[offset + y * stride + x];
+					long expect = (long)(val >>> 16 & 0xFF) << 48 | (long)(val >>> 8 & 0xFF) << 32 | (long)(val & 0xFF) << 16 | (hasAlpha ? val >>> 24 : 0);
+					Assert.assertEquals(expect, img.getPixel(x, y));
+				}
+			}
+		}
+		TestUtil.runExpect(IllegalArgumentException.class, () -> ImageEncoder.toPngFromArgb(new int[100], 0, 9, 10, 10, true, InterlaceMethod.NONE, ImageEncoder.Options.DEFAULT));
+		TestUtil.runExpect(IndexOutOfBoundsException.class, () -> ImageEncoder.toPngFromArgb(new int[100], 1, 10, 10, 10, true, InterlaceMethod.NONE, ImageEncoder.Options.DEFAULT));
+	}
+	
+	
+	@Test public void testRgbaBytes() throws IOException {
+		final int TRIALS = 300;
+		for (int i = 0; i < TRIALS; i++) {
+			int width  = rand.nextInt(30) + 1;
+			int height = rand.nextInt(30) + 1;
+			int stride = width * 4 + rand.nextInt(5);
+			int offset = rand.nextInt(5);
+			var rgba = new byte[offset + (height - 1) * stride + width * 4];
+			rand.nextBytes(rgba);
+			InterlaceMethod interMeth = rand.nextDouble() < 0.8 ? InterlaceMethod.NONE : InterlaceMethod.ADAM7;
+			var img = (BufferedRgbaImage)roundTrip(ImageEncoder.toPngFromRgba(rgba, offset, stride, width, height, interMeth, randomOptions()));
+			for (int y = 0; y < height; y++) {
+				for (int x = 0; x < width; x++) {
+					long expect = 0;
+					for (int k = 0; k < 4; k++)
+						expect = expect << 16 | (rgba[offset + y * stride + x * 4 + k] & 0xFF);
+					Assert.assertEquals(expect, img.getPixel(x, y));
+				}
+			}
+		}
+	}
+	
+	
+	@Test public void testGrayScanlines() throws IOException {
+		final int TRIALS = 300;
+		for (int i = 0; i < TRIALS; i++) {
+			int width  = rand.nextInt(30) + 1;
+			int height = rand.nextInt(30) + 1;
+			int bitDepth = 1 << rand.nextInt(5);
+			boolean hasAlpha = bitDepth >= 8 && rand.nextBoolean();
+			int channels = hasAlpha ? 2 : 1;
+			int rowBytes = (width * bitDepth * channels + 7) / 8;
+			int stride = rowBytes + rand.nextInt(3);
+			var data = new byte[(height - 1) * stride + rowBytes];
+			rand.nextBytes(data);
+			InterlaceMethod interMeth = rand.nextDouble() < 0.5 ? InterlaceMethod.NONE : InterlaceMethod.ADAM7;
+			var ihdr = new Ihdr(width, height, bitDepth,
+				hasAlpha ? Ihdr.ColorType.GRAYSCALE_WITH_ALPHA : Ihdr.ColorType.GRAYSCALE,
+				Ihdr.CompressionMethod.ZLIB_DEFLATE, Ihdr.FilterMethod.ADAPTIVE, interMeth);
+			var img = (BufferedGrayImage)roundTrip(ImageEncoder.toPngFromScanlines(ihdr, data, 0, stride, randomOptions()));
+			for (int y = 0; y < height; y++) {
+				for (int x = 0; x < width; x++) {
+					int expect = 0;
+					for (int k = 0; k < 2; k++) {
+						int val = 0;
+						if (k < channels) {
+							long bit = ((long)x * channels + k) * bitDepth;
+							for (int b = 0; b < bitDepth; b++, bit++)
+								val = val << 1 | (data[y * stride + (int)(bit >>> 3)] >>> (7 - (bit & 7)) & 1);
+						}
+						expect = expect << 16 | val;
+					}
+					Assert.assertEquals(expect, img.getPixel(x, y));
+				}
+			}
+		}
+	}
+	
+	
+	@Test public void testEstimate() throws IOException {
+		// Heights that aren't multiples of the 32-row band size have a partial last band
+		int[][] sizes = {{10, 33}, {37, 100}, {120, 64}, {200, 257}, {1, 1}};
+		var r = new Random(12345);
+		for (int[] size : sizes) {
+			var img = new BufferedGrayImage(size[0], size[1], new int[]{8, 0});
+			for (int y = 0; y < img.getHeight(); y++) {
+				for (int x = 0; x < img.getWidth(); x++)
+					img.setPixel(x, y, r.nextInt(256) << 16);
+			}
+			for (InterlaceMethod interMeth : InterlaceMethod.values()) {
+				for (int level : new int[]{0, 6}) {
+					var opts = new ImageEncoder.Options(ImageEncoder.FilterStrategy.NONE, level, Deflater.DEFAULT_STRATEGY, Optional.empty(), 1);
+					var bout = new ByteArrayOutputStream();
+					ImageEncoder.toPng(img, interMeth, opts).write(bout);
+					int actual = bout.size();
+					
+					// Encoding every band leaves no sampling error, only the overhead of separate bands
+					ImageEncoder.Estimate est = ImageEncoder.estimate(img, interMeth, opts, 1.0);
+					Assert.assertEquals(est.size(), est.sizeLow());
+					Assert.assertEquals(est.size(), est.sizeHigh());
+					Assert.assertEquals(actual, est.size(), actual * 0.03 + 10);
+					
+					est = ImageEncoder.estimate(img, interMeth, opts, 0.2);
+					Assert.assertTrue(est.sizeLow() <= est.size() && est.size() <= est.sizeHigh());
+					Assert.assertTrue(est.nanosLow() <= est.nanos() && est.nanos() <= est.nanosHigh());
+					Assert.assertEquals(actual, est.size(), actual * 0.03 + 10);
+				}
+			}
+		}
+		
+		var img = new BufferedGrayImage(1, 1, new int[]{8, 0});
+		for (double fraction : new double[]{0, -0.5, 1.5, Double.NaN}) {
+			TestUtil.runExpect(IllegalArgumentException.class, () ->
+				ImageEncoder.estimate(img, InterlaceMethod.NONE, ImageEncoder.Options.DEFAULT, fraction));
+		}
+	}
+	
+	
+	@Test public void testSegments() throws IOException, DataFormatException {
+		int width = 37, height = 100;
+		var img = new BufferedRgbaImage(width, height, new int[]{8, 8, 8, 8});
+		for (int y = 0; y < height; y++) {
+			for (int x = 0; x < width; x++)
+				img.setPixel(x, y, (long)(x * y & 0xFF) << 48 | (long)(x + y) << 32 | (long)rand.nextInt(4) << 16 | 0xFF);
+		}
+		for (Optional<OptimalDeflater> deflater : List.of(Optional.<OptimalDeflater>empty(), Optional.of(new OptimalDeflater(1, 2, Runnable::run)))) {
+			var opts = new ImageEncoder.Options(ImageEncoder.FilterStrategy.MINIMUM_SUM, 9, Deflater.DEFAULT_STRATEGY, deflater, 4);
+			PngImage png = ImageEncoder.toPng(img, InterlaceMethod.NONE, opts);
+			Sgix sgix = PngImage.getChunk(Sgix.class, png.afterIhdr).orElseThrow();
+			Assert.assertArrayEquals(new int[]{25, 50, 75}, sgix.startRows());
+			
+			// Each segment decompresses on its own, and begins with a filter that ignores the row above
+			byte[] data = png.idats.get(0).data();
+			for (int i = 0; i < sgix.startRows().length; i++) {
+				var inf = new Inflater(true);
+				inf.setInput(data, sgix.dataOffsets()[i], data.length - sgix.dataOffsets()[i]);
+				var rows = new byte[(height - sgix.startRows()[i]) * (1 + width * 4) + 1];
+				int len = 0;
+				while (!inf.finished())
+					len += inf.inflate(rows, len, rows.length - len);
+				inf.end();
+				Assert.assertEquals(rows.length - 1, len);
+				Assert.assertTrue(rows[0] == 0 || rows[0] == 1);
+			}
+			
+			var tasks = new AtomicInteger();
+			var img1 = (BufferedRgbaImage)ImageDecoder.toImage(png, task -> {
+				tasks.incrementAndGet();
+				task.run();
+			});
+			Assert.assertEquals(3, tasks.get());
+			for (int y = 0; y < height; y++) {
+				for (int x = 0; x < width; x++)
+					Assert.assertEquals(img.getPixel(x, y), img1.getPixel(x, y));
+			}
+			
+			// A segment index that doesn't match the data is ignored
+			int[] offsets = sgix.dataOffsets().clone();
+			offsets[1]++;
+			png.afterIhdr.set(png.afterIhdr.indexOf(sgix), new Sgix(sgix.startRows(), offsets));
+			var img2 = (BufferedRgbaImage)roundTrip(png);
+			for (int y = 0; y < height; y++) {
+				for (int x = 0; x < width; x++)
+					Assert.assertEquals(img.getPixel(x, y), img2.getPixel(x, y));
+			}
+			
+			// Interlaced images are not segmented
+			png = ImageEncoder.toPng(img, InterlaceMethod.ADAM7, opts);
+			Assert.assertTrue(PngImage.getChunk(Sgix.class, png.afterIhdr).isEmpty());
+		}
+	}
+	
+	
+	@Test public void testSegmentStartingWithUpFilter() {
+		byte[] rows0 = {0, 10, 20, 30, 40,  0, 32, 33, 34, 35};
+		byte[] rows1 = {2,  0,  0,  0,  0,  0, 50, 60, 70, 80};  // Up filter on row 2
+		var def = new Deflater();
+		var buf = new byte[1000];
+		def.setInput(rows0);
+		int offset = def.deflate(buf, 0, buf.length, Deflater.FULL_FLUSH);
+		def.setInput(rows1);
+		def.finish();
+		int len = offset + def.deflate(buf, offset, buf.length - offset);
+		Assert.assertTrue(def.finished());
+		def.end();
+		
+		var png = new PngImage();
+		png.ihdr = Optional.of(new Ihdr(4, 4, 8, Ihdr.ColorType.GRAYSCALE,
+			Ihdr.CompressionMethod.ZLIB_DEFLATE, Ihdr.FilterMethod.ADAPTIVE, InterlaceMethod.NONE));
+		png.idats.add(new Idat(Arrays.copyOf(buf, len)));
+		var plain = (BufferedGrayImage)ImageDecoder.toImage(png);
+		png.afterIhdr.add(new Sgix(new int[]{2}, new int[]{offset}));
+		var segmented = (BufferedGrayImage)ImageDecoder.toImage(png, Runnable::run);
+		Assert.assertEquals(32 << 16, plain.getPixel(0, 2));
+		for (int y = 0; y < 4; y++) {
+			for (int x = 0; x < 4; x++)
+				Assert.assertEquals(plain.getPixel(x, y), segmented.getPixel(x, y));
+		}
+	}
+	
+	
+	@Test public void testInflateEngines() throws IOException {
+		final int TRIALS = 100;
+		for (int i = 0; i < TRIALS; i++) {
+			int width  = rand.nextInt(rand.nextBoolean() ? 30 : 300) + 1;
+			int height = rand.nextInt(rand.nextBoolean() ? 30 : 300) + 1;
+			int[] bitDepths = {1 << rand.nextInt(5), rand.nextBoolean() ? 0 : 8};
+			if (bitDepths[1] == 8)
+				bitDepths[0] = 8;
+			var img0 = new BufferedGrayImage(width, height, bitDepths);
+			for (int y = 0; y < height; y++) {
+				for (int x = 0; x < width; x++) {
+					int w = rand.nextInt(4) == 0 ? rand.nextInt(1 << bitDepths[0]) : (x / 3 + y) % (1 << bitDepths[0]);
+					img0.setPixel(x, y, w << 16 | rand.nextInt(1 << bitDepths[1]));
+				}
+			}
+			InterlaceMethod interMeth = rand.nextBoolean() ? InterlaceMethod.NONE : InterlaceMethod.ADAM7;
+			var opts = randomOptions();
+			opts = new ImageEncoder.Options(opts.filterStrategy(), opts.compressionLevel(), opts.compressionStrategy(), opts.optimalDeflater(), 1);
+			PngImage png = ImageEncoder.toPng(img0, interMeth, opts);
+			var img1 = (BufferedGrayImage)ImageDecoder.toImage(png, Runnable::run, ImageDecoder.InflateEngine.PURE_JAVA);
+			for (int y = 0; y < height; y++) {
+				for (int x = 0; x < width; x++)
+					Assert.assertEquals(img0.getPixel(x, y), img1.getPixel(x, y));
+			}
+		}
+	}
+	
+	
+	@Test public void testInflateEnginesMalformed() throws IOException, DataFormatException {
+		var img = new BufferedRgbaImage(20, 10, new int[]{8, 8, 8, 0});
+		PngImage png = ImageEncoder.toPng(img, InterlaceMethod.NONE);
+		var inf = new Inflater();
+		inf.setInput(png.idats.get(0).data());
+		var rows = new byte[10 * (1 + 20 * 3) + 1];
+		Assert.assertEquals(rows.length - 1, inf.inflate(rows));
+		inf.end();
+		
+		var def = new Deflater();
+		def.setInput(rows);
+		def.finish();
+		var buf = new byte[1000];
+		byte[] extra = Arrays.copyOf(buf, def.deflate(buf));
+		def.end();
+		byte[] truncated = Arrays.copyOf(png.idats.get(0).data(), png.idats.get(0).data().length - 5);
+		
+		for (byte[] data : List.of(extra, truncated)) {
+			png.idats.clear();
+			png.idats.add(new Idat(data));
+			for (ImageDecoder.InflateEngine engine : ImageDecoder.InflateEngine.values())
+				TestUtil.runExpect(IllegalArgumentException.class, () -> ImageDecoder.toImage(png, Runnable::run, engine));
+		}
+	}
+	
+	
+	private static Object roundTrip(PngImage png) throws IOException {
+		var bout = new ByteArrayOutputStream();
+		png.write(bout);
+		return ImageDecoder.toImage(PngImage.read(new ByteArrayInputStream(bout.toByteArray())));
+	}
+	
+	
+	private static ImageEncoder.Options randomOptions() {
+		ImageEncoder.FilterStrategy[] filters = ImageEncoder.FilterStrategy.values();
+		int[] strategies = {Deflater.DEFAULT_STRATEGY, Deflater.FILTERED, Deflater.HUFFMAN_ONLY};
+		return new ImageEncoder.Options(filters[rand.nextInt(filters.length)],
+			rand.nextInt(11) - 1, strategies[rand.nextInt(strategies.length)], Optional.empty(),
+			rand.nextBoolean() ? 1 : rand.nextInt(10) + 1);
+	}
+	
 }
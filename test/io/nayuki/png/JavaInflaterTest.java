@@ -0,0 +1,142 @@
+/* 
+ * PNG library (Java)
+ * 
+ * Copyright (c) Project Nayuki
+ * MIT License. See readme file.
+ * https://www.nayuki.io/page/png-library
+ */
+
+package io.nayuki.png;
+
+import static io.nayuki.png.TestUtil.rand;
+import java.io.ByteArrayOutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.zip.Deflater;
+import org.junit.Assert;
+import org.junit.Test;
+
+
+public final class JavaInflaterTest {
+	
+	@Test public void testRandomStreams() {
+		final int TRIALS = 300;
+		for (int i = 0; i < TRIALS; i++) {
+			byte[] data = randomData(rand.nextInt(rand.nextBoolean() ? 100 : 300000));
+			byte[] comp = deflate(data, rand.nextInt(10), rand.nextInt(3));
+			var bout = new ByteArrayOutputStream();
+			var buf = new byte[rand.nextInt(1000) + 1];
+			var inf = new JavaInflater(comp);
+			while (true) {
+				int n = inf.inflate(buf, 0, buf.length);
+				if (n == -1)
+					break;
+				bout.write(buf, 0, n);
+			}
+			Assert.assertArrayEquals(data, bout.toByteArray());
+		}
+	}
+	
+	
+	@Test public void testResumeAtBoundaries() {
+		byte[] data = randomData(500000);
+		for (int i = 0; i < data.length; i += 8)  // Break up matches so that there are many blocks
+			data[i] = (byte)rand.nextInt(256);
+		byte[] comp = deflate(data, 6, 0);
+		List<long[]> points = new ArrayList<>();  // {output position, bit position}
+		List<byte[]> windows = new ArrayList<>();
+		var inf = new JavaInflater(comp);
+		var buf = new byte[4096];
+		long pos = 0;
+		while (true) {
+			if (inf.isAtBlockBoundary() && pos < data.length) {
+				points.add(new long[]{pos, inf.bitPosition()});
+				windows.add(inf.window());
+			}
+			int n = inf.inflate(buf, 0, buf.length);
+			if (n == -1)
+				break;
+			pos += n;
+		}
+		Assert.assertTrue(points.size() > 3);
+		
+		for (int i = 0; i < points.size(); i++) {
+			int start = (int)points.get(i)[0];
+			var resumed = new JavaInflater(comp, points.get(i)[1], windows.get(i));
+			var rest = new byte[data.length - start + 1];
+			int len = 0;
+			while (true) {
+				int n = resumed.inflate(rest, len, rest.length - len);
+				if (n == -1)
+					break;
+				len += n;
+			}
+			Assert.assertEquals(data.length - start, len);
+			Assert.assertArrayEquals(Arrays.copyOfRange(data, start, data.length), Arrays.copyOf(rest, len));
+		}
+	}
+	
+	
+	@Test public void testMalformed() {
+		byte[] data = randomData(10000);
+		byte[] comp = deflate(data, 6, 0);
+		
+		byte[] badChecksum = comp.clone();
+		badChecksum[badChecksum.length - 1] ^= 1;
+		byte[] truncated = Arrays.copyOf(comp, comp.length - 10);
+		byte[] badHeader = comp.clone();
+		badHeader[1] ^= 1;
+		for (byte[] bad : List.of(badChecksum, truncated, badHeader)) {
+			TestUtil.runExpect(IllegalArgumentException.class, () -> {
+				var inf = new JavaInflater(bad);
+				var buf = new byte[data.length + 1];
+				while (inf.inflate(buf, 0, buf.length) != -1);
+			});
+		}
+	}
+	
+	
+	private static byte[] deflate(byte[] data, int level, int strategy) {
+		var def = new Deflater(level);
+		def.setStrategy(new int[]{Deflater.DEFAULT_STRATEGY, Deflater.FILTERED, Deflater.HUFFMAN_ONLY}[strategy]);
+		def.setInput(data);
+		def.finish();
+		var bout = new ByteArrayOutputStream();
+		var buf = new byte[65536];
+		while (!def.finished())
+			bout.write(buf, 0, def.deflate(buf));
+		def.end();
+		return bout.toByteArray();
+	}
+	
+	
+	// Returns data with runs, repeated phrases, and noise.
+	private static byte[] randomData(int len) {
+		var result = new byte[len];
+		int alphabet = rand.nextInt(255) + 1;
+		for (int i = 0; i < len; ) {
+			switch (rand.nextInt(3)) {
+				case 0 -> {
+					result[i] = (byte)rand.nextInt(alphabet);
+					i++;
+				}
+				case 1 -> {
+					byte b = (byte)rand.nextInt(alphabet);
+					for (int end = Math.min(i + rand.nextInt(300), len); i < end; i++)
+						result[i] = b;
+				}
+				case 2 -> {
+					if (i > 0) {
+						int dist = rand.nextInt(Math.min(i, 32768)) + 1;
+						for (int end = Math.min(i + rand.nextInt(300) + 3, len); i < end; i++)
+							result[i] = result[i - dist];
+					}
+				}
+				default -> throw new AssertionError("Unreachable value");
+			}
+		}
+		return result;
+	}
+	
+}
@@ -0,0 +1,116 @@
+/* 
+ * PNG library (Java)
+ * 
+ * Copyright (c) Project Nayuki
+ * MIT License. See readme file.
+ * https://www.nayuki.io/page/png-library
+ */
+
+package io.nayuki.png;
+
+import static io.nayuki.png.TestUtil.rand;
+import org.junit.Assert;
+import org.junit.Test;
+import io.nayuki.png.chunk.Ihdr.InterlaceMethod;
+import io.nayuki.png.chunk.Trns;
+import io.nayuki.png.image.BufferedPaletteImage;
+
+
+public final class PaletteOrderTest {
+	
+	@Test public void testColorsPreserved() {
+		final int TRIALS = 100;
+		for (int i = 0; i < TRIALS; i++) {
+			BufferedPaletteImage img = randomImage();
+			long[] pal = img.getPalette();
+			for (PaletteOrder order : PaletteOrder.values()) {
+				BufferedPaletteImage out = order.apply(img);
+				long[] outPal = out.getPalette();
+				Assert.assertEquals(pal.length, outPal.length);
+				Assert.assertArrayEquals(img.getBitDepths(), out.getBitDepths());
+				for (int y = 0; y < img.getHeight(); y++) {
+					for (int x = 0; x < img.getWidth(); x++)
+						Assert.assertEquals(pal[img.getPixel(x, y)], outPal[out.getPixel(x, y)]);
+				}
+				Assert.assertArrayEquals(outPal, order.apply(img).getPalette());  // Deterministic
+			}
+		}
+	}
+	
+	
+	@Test public void testFrequencyAndTransparency() {
+		long[] pal = {
+			0x0001_0000_0000_00FFL,
+			0x0002_0000_0000_0000L,
+			0x0003_0000_0000_00FFL,
+			0x0004_0000_0000_0080L,
+			0x0005_0000_0000_00FFL,
+		};
+		var img = new BufferedPaletteImage(10, 1, new int[]{8, 8, 8, 8}, pal);
+		int[] pixels = {2, 2, 2, 0, 0, 3, 1, 1, 2, 3};
+		for (int x = 0; x < pixels.length; x++)
+			img.setPixel(x, 0, pixels[x]);
+		
+		long[] expect = {pal[1], pal[3], pal[2], pal[0], pal[4]};
+		Assert.assertArrayEquals(expect, PaletteOrder.FREQUENCY.apply(img).getPalette());
+		Assert.assertArrayEquals(pal, PaletteOrder.ORIGINAL.apply(img).getPalette());
+		
+		PngImage png = ImageEncoder.toPng(img, InterlaceMethod.NONE, PaletteOrder.LUMINANCE);
+		Assert.assertEquals(2, PngImage.getChunk(Trns.class, png.afterIhdr).orElseThrow().data().length);
+		
+		// An unused translucent entry still goes before all the opaque entries
+		long[] pal2 = {
+			0x0001_0000_0000_00FFL,
+			0x0002_0000_0000_00FFL,
+			0x0003_0000_0000_00FFL,
+			0x0004_0000_0000_0040L,
+		};
+		var img2 = new BufferedPaletteImage(4, 1, new int[]{8, 8, 8, 8}, pal2);
+		int[] pixels2 = {0, 1, 1, 0};
+		for (int x = 0; x < pixels2.length; x++)
+			img2.setPixel(x, 0, pixels2[x]);
+		long[] expect2 = {pal2[3], pal2[0], pal2[1], pal2[2]};
+		Assert.assertArrayEquals(expect2, PaletteOrder.FREQUENCY.apply(img2).getPalette());
+		png = ImageEncoder.toPng(img2, InterlaceMethod.NONE, PaletteOrder.FREQUENCY);
+		Assert.assertEquals(1, PngImage.getChunk(Trns.class, png.afterIhdr).orElseThrow().data().length);
+		png = ImageEncoder.toPng(img2, InterlaceMethod.NONE, PaletteOrder.ORIGINAL);
+		Assert.assertEquals(4, PngImage.getChunk(Trns.class, png.afterIhdr).orElseThrow().data().length);
+	}
+	
+	
+	@Test public void testNearestNeighbor() {
+		long[] pal = {
+			0x0000_0000_0000_0000L,
+			0x00F0_00F0_00F0_0000L,
+			0x0010_0010_0010_0000L,
+			0x0080_0080_0080_0000L,
+		};
+		var img = new BufferedPaletteImage(4, 2, new int[]{8, 8, 8, 0}, pal);
+		for (int x = 0; x < 4; x++) {
+			img.setPixel(x, 0, x);
+			img.setPixel(x, 1, 3);
+		}
+		long[] expect = {pal[3], pal[1], pal[2], pal[0]};
+		Assert.assertArrayEquals(expect, PaletteOrder.NEAREST_NEIGHBOR.apply(img).getPalette());
+	}
+	
+	
+	private static BufferedPaletteImage randomImage() {
+		int[] bitDepths = {rand.nextInt(8) + 1, rand.nextInt(8) + 1, rand.nextInt(8) + 1, rand.nextInt(2) * 8};
+		var pal = new long[rand.nextInt(256) + 1];
+		for (int i = 0; i < pal.length; i++) {
+			long val = 0;
+			for (int bits : bitDepths)
+				val = (val << 16) | rand.nextInt(1 << bits);
+			pal[i] = val;
+		}
+		var img = new BufferedPaletteImage(rand.nextInt(20) + 1, rand.nextInt(20) + 1, bitDepths, pal);
+		int colors = rand.nextInt(pal.length) + 1;
+		for (int y = 0; y < img.getHeight(); y++) {
+			for (int x = 0; x < img.getWidth(); x++)
+				img.setPixel(x, y, rand.nextInt(colors));
+		}
+		return img;
+	}
+	
+}
@@ -0,0 +1,128 @@
+/* 
+ * PNG library (Java)
+ * 
+ * Copyright (c) Project Nayuki
+ * MIT License. See readme file.
+ * https://www.nayuki.io/page/png-library
+ */
+
+package io.nayuki.png;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.PosixFileAttributeView;
+import java.nio.file.attribute.PosixFilePermission;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Set;
+import org.junit.Test;
+import io.nayuki.png.chunk.Gama;
+import io.nayuki.png.chunk.Ihdr;
+import io.nayuki.png.chunk.Text;
+import io.nayuki.png.image.BufferedRgbaImage;
+
+
+public final class PngMetadataEditorTest {
+	
+	@Test public void testEdit() throws IOException {
+		var img = new BufferedRgbaImage(20, 7, new int[]{8, 8, 8, 8});
+		for (int y = 0; y < img.getHeight(); y++) {
+			for (int x = 0; x < img.getWidth(); x++)
+				img.setPixel(x, y, TestUtil.rand.nextLong() & 0x00FF_00FF_00FF_00FFL);
+		}
+		PngImage png = ImageEncoder.toPng(img, Ihdr.InterlaceMethod.NONE);
+		png.afterIdats.add(new Text("Title", "Original"));
+		Path file = Files.createTempFile("png-metadata-editor", ".png");
+		Path other = Files.createTempFile("png-metadata-editor", ".png");
+		try {
+			png.write(file.toFile());
+			
+			// Only the trailing chunks change, so the file is truncated and appended to
+			PngMetadataEditor editor = PngMetadataEditor.read(file);
+			assertEquals(png.ihdr.get(), editor.ihdr());
+			assertEquals(png.afterIdats, editor.afterIdats);
+			editor.afterIdats.add(new Text("Author", "Somebody"));
+			editor.writeInPlace();
+			png.afterIdats.add(new Text("Author", "Somebody"));
+			assertArrayEquals(toBytes(png), Files.readAllBytes(file));
+			assertEquals(2, editor.afterIdats.size());
+			
+			// Chunks before the IDATs change, so the file is rewritten
+			editor.afterIhdr.add(new Gama(45455));
+			editor.write(file);
+			png.afterIhdr.add(new Gama(45455));
+			assertArrayEquals(toBytes(png), Files.readAllBytes(file));
+			
+			editor.afterIdats = List.of();
+			editor.write(other);
+			png.afterIdats.clear();
+			assertArrayEquals(toBytes(png), Files.readAllBytes(other));
+			
+			long modified = Files.getLastModifiedTime(other).toMillis();
+			PngMetadataEditor.read(other).writeInPlace();  // No changes
+			assertEquals(modified, Files.getLastModifiedTime(other).toMillis());
+		} finally {
+			Files.delete(file);
+			Files.delete(other);
+		}
+	}
+	
+	
+	@Test public void testWriteInPlaceKeepsFile() throws IOException {
+		PngImage png = ImageEncoder.toPng(new BufferedRgbaImage(3, 2, new int[]{8, 8, 8, 0}), Ihdr.InterlaceMethod.NONE);
+		Path dir = Files.createTempDirectory("png-metadata-editor");
+		Path file = dir.resolve("image.png");
+		Path link = dir.resolve("link.png");
+		try {
+			png.write(file.toFile());
+			if (Files.getFileAttributeView(file, PosixFileAttributeView.class) == null)
+				return;  // Not a POSIX file system
+			Set<PosixFilePermission> perms = PosixFilePermissions.fromString("rw-r-----");
+			Files.setPosixFilePermissions(file, perms);
+			Files.createSymbolicLink(link, file.getFileName());
+			
+			PngMetadataEditor editor = PngMetadataEditor.read(link);
+			editor.afterIhdr.add(new Gama(45455));
+			editor.writeInPlace();
+			assertTrue(Files.isSymbolicLink(link));
+			assertEquals(perms, Files.getPosixFilePermissions(file));
+			png.afterIhdr.add(new Gama(45455));
+			assertArrayEquals(toBytes(png), Files.readAllBytes(file));
+		} finally {
+			Files.deleteIfExists(link);
+			Files.deleteIfExists(file);
+			Files.delete(dir);
+		}
+	}
+	
+	
+	@Test public void testReadBad() throws IOException {
+		Path file = Files.createTempFile("png-metadata-editor", ".png");
+		try {
+			PngImage png = ImageEncoder.toPng(new BufferedRgbaImage(1, 1, new int[]{8, 8, 8, 0}), Ihdr.InterlaceMethod.NONE);
+			byte[] b = toBytes(png);
+			Files.write(file, Arrays.copyOf(b, b.length - 1));
+			TestUtil.runExpect(EOFException.class, () -> PngMetadataEditor.read(file));
+			b[1] = 'Q';
+			Files.write(file, b);
+			TestUtil.runExpect(IllegalArgumentException.class, () -> PngMetadataEditor.read(file));
+		} finally {
+			Files.delete(file);
+		}
+	}
+	
+	
+	private static byte[] toBytes(PngImage png) throws IOException {
+		var bout = new ByteArrayOutputStream();
+		png.write(bout);
+		return bout.toByteArray();
+	}
+	
+}
@@ -0,0 +1,93 @@
+/* 
+ * PNG library (Java)
+ * 
+ * Copyright (c) Project Nayuki
+ * MIT License. See readme file.
+ * https://www.nayuki.io/page/png-library
+ */
+
+package io.nayuki.png;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.Executors;
+import java.util.stream.Stream;
+import org.junit.Test;
+import io.nayuki.png.chunk.Ihdr;
+import io.nayuki.png.chunk.Text;
+import io.nayuki.png.chunk.Time;
+import io.nayuki.png.image.BufferedRgbaImage;
+
+
+public final class PngMetadataIndexTest {
+	
+	@Test public void testUpdateAndSave() throws IOException {
+		Path dir = Files.createTempDirectory("png-metadata-index");
+		var executor = Executors.newFixedThreadPool(4);
+		try {
+			Files.createDirectory(dir.resolve("sub"));
+			var time = new Time(2021, 6, 7, 8, 9, 10);
+			for (int i = 0; i < 10; i++) {
+				PngImage png = ImageEncoder.toPng(new BufferedRgbaImage(i + 1, 2, new int[]{8, 8, 8, 0}), Ihdr.InterlaceMethod.NONE);
+				png.afterIdats.add(new Text("Title", "Image " + i));
+				if (i % 2 == 0)
+					png.afterIhdr.add(time);
+				png.write(dir.resolve((i < 5 ? "sub/" : "") + "img" + i + ".PNG").toFile());
+			}
+			Files.writeString(dir.resolve("broken.png"), "Not a PNG file");
+			byte[] whole = Files.readAllBytes(dir.resolve("img9.PNG"));
+			Files.write(dir.resolve("truncated.png"), Arrays.copyOf(whole, whole.length / 2));
+			Files.writeString(dir.resolve("other.txt"), "Ignored");
+			
+			var index = new PngMetadataIndex();
+			assertEquals(12, index.update(List.of(dir), executor, 2));
+			assertEquals(10, index.entries().size());
+			PngMetadataIndex.Entry entry = index.get(dir.resolve("sub/img4.PNG")).get();
+			assertEquals(5, entry.width());
+			assertEquals(2, entry.height());
+			assertEquals(Ihdr.ColorType.TRUE_COLOR, entry.colorType());
+			assertEquals(List.of("Title"), entry.keywords());
+			assertEquals(Optional.of(time), entry.time());
+			assertEquals(Optional.empty(), index.get(dir.resolve("img5.PNG")).get().time());
+			
+			Path indexFile = dir.resolve("index.bin");
+			index.save(indexFile);
+			PngMetadataIndex loaded = PngMetadataIndex.load(indexFile);
+			assertEquals(10, loaded.entries().size());
+			assertEquals(entry, loaded.get(dir.resolve("sub/img4.PNG")).get());
+			
+			// Only the broken files and the changed file are read again
+			Files.setLastModifiedTime(dir.resolve("img7.PNG"), FileTime.fromMillis(1_000_000_000_000L));
+			Files.delete(dir.resolve("img9.PNG"));
+			assertEquals(3, loaded.update(List.of(dir), executor, 2));
+			assertEquals(9, loaded.entries().size());
+			assertTrue(loaded.get(dir.resolve("img9.PNG")).isEmpty());
+			
+			// A root that no longer exists has its entries removed
+			try (Stream<Path> stream = Files.list(dir.resolve("sub"))) {
+				for (Path p : stream.toList())
+					Files.delete(p);
+			}
+			Files.delete(dir.resolve("sub"));
+			assertEquals(0, loaded.update(List.of(dir.resolve("sub")), executor, 2));
+			assertEquals(4, loaded.entries().size());
+			
+			assertEquals(0, PngMetadataIndex.load(dir.resolve("missing.bin")).entries().size());
+		} finally {
+			executor.shutdown();
+			try (Stream<Path> stream = Files.walk(dir)) {
+				for (Path p : stream.sorted(Comparator.reverseOrder()).toList())
+					Files.delete(p);
+			}
+		}
+	}
+	
+}
@@ -0,0 +1,194 @@
+/* 
+ * PNG library (Java)
+ * 
+ * Copyright (c) Project Nayuki
+ * MIT License. See readme file.
+ * https://www.nayuki.io/page/png-library
+ */
+
+package io.nayuki.png;
+
+import static io.nayuki.png.TestUtil.rand;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.time.Duration;
+import java.util.List;
+import org.junit.Assert;
+import org.junit.Test;
+import io.nayuki.png.chunk.Actl;
+import io.nayuki.png.chunk.Bkgd;
+import io.nayuki.png.chunk.Custom;
+import io.nayuki.png.chunk.Fctl;
+import io.nayuki.png.chunk.Fdat;
+import io.nayuki.png.chunk.Gama;
+import io.nayuki.png.chunk.Ihdr;
+import io.nayuki.png.chunk.Ihdr.InterlaceMethod;
+import io.nayuki.png.chunk.Plte;
+import io.nayuki.png.chunk.Text;
+import io.nayuki.png.image.BufferedRgbaImage;
+import io.nayuki.png.image.GrayImage;
+import io.nayuki.png.image.GrayToRgbaImage;
+import io.nayuki.png.image.PaletteImage;
+import io.nayuki.png.image.PaletteToRgbaImage;
+import io.nayuki.png.image.RgbaImage;
+
+
+public final class PngOptimizerTest {
+	
+	@Test public void testSmallerAndLossless() throws IOException {
+		BufferedRgbaImage img = gradientImage(64, 48, 20);
+		PngImage png = ImageEncoder.toPng(img, InterlaceMethod.ADAM7);
+		var gama = new Gama(45455);
+		var text0 = new Text("Title", "Gradient");
+		var text1 = new Text("Comment", "After the data");
+		png.afterIhdr.add(gama);
+		png.afterIhdr.add(text0);
+		png.afterIdats.add(text1);
+		
+		PngImage opt = PngOptimizer.optimize(png);
+		Assert.assertTrue(size(opt) < size(png));
+		assertSameColors(img, ImageDecoder.toImage(opt));
+		Assert.assertEquals(List.of(gama, text0), opt.afterIhdr.stream().filter(chk -> !chk.getType().equals("PLTE")).toList());
+		Assert.assertEquals(List.of(text1), opt.afterIdats);
+		Assert.assertEquals(3, png.afterIhdr.size() + png.afterIdats.size());  // Input unchanged
+	}
+	
+	
+	@Test public void testRandomLossless() throws IOException {
+		final int TRIALS = 10;
+		for (int i = 0; i < TRIALS; i++) {
+			int[] bitDepths = {rand.nextInt(16) + 1, rand.nextInt(16) + 1, rand.nextInt(16) + 1, rand.nextInt(17)};
+			var img = new BufferedRgbaImage(rand.nextInt(20) + 1, rand.nextInt(20) + 1, bitDepths);
+			var colors = new long[rand.nextInt(rand.nextBoolean() ? 300 : 5) + 1];
+			for (int j = 0; j < colors.length; j++) {
+				long val = 0;
+				for (int bits : bitDepths)
+					val = (val << 16) | rand.nextInt(1 << bits);
+				colors[j] = val;
+			}
+			for (int y = 0; y < img.getHeight(); y++) {
+				for (int x = 0; x < img.getWidth(); x++)
+					img.setPixel(x, y, colors[rand.nextInt(colors.length)]);
+			}
+			PngImage png = ImageEncoder.toPng(img, rand.nextBoolean() ? InterlaceMethod.NONE : InterlaceMethod.ADAM7);
+			PngImage opt = PngOptimizer.optimize(png, Duration.ofMinutes(1), Runnable::run);
+			Assert.assertTrue(size(opt) <= size(png));
+			assertSameColors(img, ImageDecoder.toImage(opt));
+		}
+	}
+	
+	
+	@Test public void testBackgroundKeepsFormat() throws IOException {
+		BufferedRgbaImage img = gradientImage(40, 40, 4);
+		PngImage png = ImageEncoder.toPng(img, InterlaceMethod.NONE);
+		var bkgd = new Bkgd(new byte[]{0, 1, 0, 2, 0, 3});
+		png.afterIhdr.add(bkgd);
+		
+		PngImage opt = PngOptimizer.optimize(png);
+		Ihdr ihdr = opt.ihdr.orElseThrow();
+		Assert.assertEquals(Ihdr.ColorType.TRUE_COLOR, ihdr.colorType());
+		Assert.assertEquals(8, ihdr.bitDepth());
+		Assert.assertTrue(PngImage.getChunk(Plte.class, opt.afterIhdr).isEmpty());
+		Assert.assertEquals(List.of(bkgd), opt.afterIhdr);
+		Assert.assertTrue(size(opt) <= size(png));
+		assertSameColors(img, ImageDecoder.toImage(opt));
+	}
+	
+	
+	@Test public void testAnimationKeepsFormat() throws IOException {
+		BufferedRgbaImage img = gradientImage(40, 40, 4);
+		PngImage png = ImageEncoder.toPng(img, InterlaceMethod.NONE);
+		var actl = new Actl(2, 0);
+		var fctl0 = new Fctl(0, 40, 40, 0, 0, 1, 10, Fctl.DisposeOperation.NONE, Fctl.BlendOperation.SOURCE);
+		var fctl1 = new Fctl(1, 40, 40, 0, 0, 1, 10, Fctl.DisposeOperation.NONE, Fctl.BlendOperation.SOURCE);
+		var fdat = new Fdat(2, png.idats.get(0).data());
+		png.afterIhdr.add(actl);
+		png.afterIhdr.add(fctl0);
+		png.afterIdats.add(fctl1);
+		png.afterIdats.add(fdat);
+		
+		PngImage opt = PngOptimizer.optimize(png);
+		Ihdr ihdr = opt.ihdr.orElseThrow();
+		Assert.assertEquals(Ihdr.ColorType.TRUE_COLOR, ihdr.colorType());
+		Assert.assertEquals(8, ihdr.bitDepth());
+		Assert.assertEquals(InterlaceMethod.NONE, ihdr.interlaceMethod());
+		Assert.assertEquals(List.of(actl, fctl0), opt.afterIhdr);
+		Assert.assertEquals(List.of(fctl1, fdat), opt.afterIdats);
+		assertSameColors(img, ImageDecoder.toImage(opt));
+	}
+	
+	
+	@Test public void testUnsafeToCopyKeepsData() throws IOException {
+		PngImage png = ImageEncoder.toPng(gradientImage(40, 40, 4), InterlaceMethod.NONE);
+		var custom = new Custom("prVT", new byte[]{1, 2, 3});
+		png.afterIhdr.add(custom);
+		PngImage opt = PngOptimizer.optimize(png);
+		Assert.assertEquals(png.ihdr, opt.ihdr);
+		Assert.assertEquals(List.of(custom), opt.afterIhdr);
+		Assert.assertEquals(png.idats, opt.idats);
+		
+		png.afterIhdr.set(0, new Custom("prVt", new byte[]{1, 2, 3}));  // Safe to copy
+		Assert.assertTrue(size(PngOptimizer.optimize(png)) < size(png));
+	}
+	
+	
+	@Test public void testZeroBudget() throws IOException {
+		PngImage png = ImageEncoder.toPng(gradientImage(30, 20, 10), InterlaceMethod.NONE);
+		PngImage opt = PngOptimizer.optimize(png, Duration.ZERO);
+		Assert.assertTrue(size(opt) <= size(png));
+		TestUtil.runExpect(IllegalArgumentException.class, () -> PngOptimizer.optimize(png, Duration.ofSeconds(-1)));
+	}
+	
+	
+	// Returns an opaque 8-bit image whose pixels use the given number of distinct gray levels.
+	private static BufferedRgbaImage gradientImage(int width, int height, int levels) {
+		var img = new BufferedRgbaImage(width, height, new int[]{8, 8, 8, 0});
+		for (int y = 0; y < height; y++) {
+			for (int x = 0; x < width; x++) {
+				long v = (x + y) % levels * 255L / Math.max(levels - 1, 1);
+				img.setPixel(x, y, v << 48 | v << 32 | v << 16);
+			}
+		}
+		return img;
+	}
+	
+	
+	private static void assertSameColors(RgbaImage expect, Object actual) {
+		RgbaImage act;
+		if (actual instanceof GrayImage im)
+			act = new GrayToRgbaImage(im);
+		else if (actual instanceof PaletteImage im)
+			act = new PaletteToRgbaImage(im);
+		else
+			act = (RgbaImage)actual;
+		Assert.assertEquals(expect.getWidth(), act.getWidth());
+		Assert.assertEquals(expect.getHeight(), act.getHeight());
+		for (int y = 0; y < expect.getHeight(); y++) {
+			for (int x = 0; x < expect.getWidth(); x++)
+				Assert.assertEquals(normalize(expect, x, y), normalize(act, x, y));
+		}
+	}
+	
+	
+	// Returns the pixel with every channel scaled to 16 bits, where a missing alpha channel is opaque.
+	private static long normalize(RgbaImage img, int x, int y) {
+		int[] bitDepths = img.getBitDepths();
+		long val = img.getPixel(x, y);
+		long result = 0;
+		for (int i = 0; i < 4; i++) {
+			int bits = bitDepths[i];
+			long sample = val >>> ((3 - i) * 16) & 0xFFFF;
+			sample = bits == 0 ? 0xFFFF : sample * 0xFFFF / ((1 << bits) - 1);
+			result = result << 16 | sample;
+		}
+		return result;
+	}
+	
+	
+	private static int size(PngImage png) throws IOException {
+		var bout = new ByteArrayOutputStream();
+		png.write(bout);
+		return bout.size();
+	}
+	
+}
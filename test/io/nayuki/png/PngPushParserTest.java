@@ -0,0 +1,118 @@
+/* 
+ * PNG library (Java)
+ * 
+ * Copyright (c) Project Nayuki
+ * MIT License. See readme file.
+ * https://www.nayuki.io/page/png-library
+ */
+
+package io.nayuki.png;
+
+import static io.nayuki.png.TestUtil.rand;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import org.junit.Test;
+import io.nayuki.png.chunk.Chunk;
+import io.nayuki.png.chunk.Ihdr.InterlaceMethod;
+import io.nayuki.png.chunk.Text;
+import io.nayuki.png.image.BufferedRgbaImage;
+
+
+public final class PngPushParserTest {
+	
+	@Test public void testChunksAndRows() throws IOException {
+		final int TRIALS = 300;
+		for (int i = 0; i < TRIALS; i++) {
+			int width  = rand.nextInt(30) + 1;
+			int height = rand.nextInt(30) + 1;
+			var img = new BufferedRgbaImage(width, height, new int[]{8, 8, 8, 8});
+			for (int y = 0; y < height; y++) {
+				for (int x = 0; x < width; x++)
+					img.setPixel(x, y, rand.nextLong() & 0x00FF_00FF_00FF_00FFL);
+			}
+			InterlaceMethod interMeth = rand.nextBoolean() ? InterlaceMethod.NONE : InterlaceMethod.ADAM7;
+			PngImage png = ImageEncoder.toPng(img, interMeth);
+			png.afterIdats.add(new Text("Comment", "Push parser test"));
+			var bout = new ByteArrayOutputStream();
+			png.write(bout);
+			byte[] fileBytes = bout.toByteArray();
+			
+			List<Chunk> chunks = new ArrayList<>();
+			var seen = new boolean[height][width];
+			var parser = new PngPushParser(new PngPushParser.Listener() {
+				@Override public void chunkParsed(Chunk chunk) {
+					chunks.add(chunk);
+				}
+				
+				@Override public void rowDecoded(int xOffset, int y, int xStep, byte[] samples) {
+					assertEquals(0, samples.length % 4);
+					for (int j = 0, x = xOffset; j < samples.length; j += 4, x += xStep) {
+						long val = 0;
+						for (int k = 0; k < 4; k++)
+							val = val << 16 | (samples[j + k] & 0xFF);
+						assertEquals(img.getPixel(x, y), val);
+						seen[y][x] = true;
+					}
+				}
+			}, true);
+			for (int off = 0; off < fileBytes.length; ) {
+				int n = Math.min(rand.nextInt(100), fileBytes.length - off);
+				parser.feed(ByteBuffer.wrap(fileBytes, off, n));
+				off += n;
+			}
+			parser.finish();
+			
+			List<Chunk> expect = XngFile.read(new ByteArrayInputStream(fileBytes), true).chunks();
+			assertEquals(expect.size(), chunks.size());
+			for (int j = 0; j < expect.size(); j++)
+				assertEquals(expect.get(j).getType(), chunks.get(j).getType());
+			for (boolean[] row : seen) {
+				for (boolean b : row)
+					assertEquals(true, b);
+			}
+		}
+	}
+	
+	
+	@Test public void testTruncated() throws IOException {
+		var img = new BufferedRgbaImage(5, 4, new int[]{8, 8, 8, 0});
+		var bout = new ByteArrayOutputStream();
+		ImageEncoder.toPng(img, InterlaceMethod.NONE).write(bout);
+		byte[] fileBytes = bout.toByteArray();
+		
+		var parser = new PngPushParser(chunk -> {}, true);
+		parser.feed(ByteBuffer.wrap(Arrays.copyOf(fileBytes, fileBytes.length - 1)));
+		TestUtil.runExpect(EOFException.class, () -> parser.finish());
+	}
+	
+	
+	@Test public void testBadData() throws IOException {
+		var img = new BufferedRgbaImage(5, 4, new int[]{8, 8, 8, 0});
+		var bout = new ByteArrayOutputStream();
+		ImageEncoder.toPng(img, InterlaceMethod.NONE).write(bout);
+		byte[] fileBytes = bout.toByteArray();
+		
+		byte[] badSignature = fileBytes.clone();
+		badSignature[1] = 'Q';
+		TestUtil.runExpect(IllegalArgumentException.class,
+			() -> new PngPushParser(chunk -> {}, false).feed(ByteBuffer.wrap(badSignature)));
+		
+		byte[] badCrc = fileBytes.clone();
+		badCrc[29] ^= 0x01;
+		TestUtil.runExpect(IllegalArgumentException.class,
+			() -> new PngPushParser(chunk -> {}, false).feed(ByteBuffer.wrap(badCrc)));
+		
+		byte[] trailing = Arrays.copyOf(fileBytes, fileBytes.length + 1);
+		TestUtil.runExpect(IllegalArgumentException.class,
+			() -> new PngPushParser(chunk -> {}, false).feed(ByteBuffer.wrap(trailing)));
+	}
+	
+}
@@ -0,0 +1,105 @@
+/* 
+ * PNG library (Java)
+ * 
+ * Copyright (c) Project Nayuki
+ * MIT License. See readme file.
+ * https://www.nayuki.io/page/png-library
+ */
+
+package io.nayuki.png;
+
+import static io.nayuki.png.TestUtil.rand;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Optional;
+import java.util.zip.Deflater;
+import org.junit.Assert;
+import org.junit.Test;
+import io.nayuki.png.chunk.Ihdr.InterlaceMethod;
+import io.nayuki.png.image.BufferedGrayImage;
+import io.nayuki.png.image.BufferedRgbaImage;
+import io.nayuki.png.image.GrayImage;
+import io.nayuki.png.image.RgbaImage;
+
+
+public final class RowIndexTest {
+	
+	@Test public void testRandomRanges() {
+		final int TRIALS = 30;
+		for (int i = 0; i < TRIALS; i++) {
+			int width = rand.nextInt(300) + 1;
+			int height = rand.nextInt(300) + 1;
+			int[] bitDepths = {1 << rand.nextInt(5), 0};
+			var img = new BufferedGrayImage(width, height, bitDepths);
+			for (int y = 0; y < height; y++) {
+				for (int x = 0; x < width; x++)
+					img.setPixel(x, y, (rand.nextInt(4) == 0 ? rand.nextInt(1 << bitDepths[0]) : (x + y) % (1 << bitDepths[0])) << 16);
+			}
+			var opts = new ImageEncoder.Options(ImageEncoder.FilterStrategy.MINIMUM_SUM,
+				rand.nextInt(10), Deflater.DEFAULT_STRATEGY, Optional.empty(), 1);
+			PngImage png = ImageEncoder.toPng(img, InterlaceMethod.NONE, opts);
+			var full = (GrayImage)ImageDecoder.toImage(png);
+			RowIndex index = RowIndex.build(png, rand.nextInt(20) + 1);
+			
+			for (int j = 0; j < 10; j++) {
+				int start = rand.nextInt(height);
+				int end = start + rand.nextInt(height - start) + 1;
+				var part = (GrayImage)ImageDecoder.toImage(png, index, start, end);
+				Assert.assertEquals(width, part.getWidth());
+				Assert.assertEquals(end - start, part.getHeight());
+				for (int y = start; y < end; y++) {
+					for (int x = 0; x < width; x++)
+						Assert.assertEquals(full.getPixel(x, y), part.getPixel(x, y - start));
+				}
+			}
+		}
+	}
+	
+	
+	@Test public void testSaveAndLoad() throws IOException {
+		int width = 500, height = 400;
+		var img = new BufferedRgbaImage(width, height, new int[]{8, 8, 8, 8});
+		for (int y = 0; y < height; y++) {
+			for (int x = 0; x < width; x++)
+				img.setPixel(x, y, (long)(x & 0xFF) << 48 | (long)(y & 0xFF) << 32 | (long)rand.nextInt(256) << 16 | 0xFF);
+		}
+		var opts = new ImageEncoder.Options(ImageEncoder.FilterStrategy.PAETH, 6, Deflater.DEFAULT_STRATEGY, Optional.empty(), 1);
+		PngImage png = ImageEncoder.toPng(img, InterlaceMethod.NONE, opts);
+		RowIndex index = RowIndex.build(png, 16);
+		Assert.assertTrue(index.checkpointCount() > 3);
+		
+		Path file = Files.createTempFile("RowIndexTest", ".idx");
+		try {
+			index.save(file);
+			RowIndex loaded = RowIndex.load(file);
+			Assert.assertEquals(index.checkpointCount(), loaded.checkpointCount());
+			var part = (RgbaImage)ImageDecoder.toImage(png, loaded, 350, 360);
+			for (int y = 350; y < 360; y++) {
+				for (int x = 0; x < width; x++)
+					Assert.assertEquals(img.getPixel(x, y), part.getPixel(x, y - 350));
+			}
+			
+			Files.write(file, new byte[]{1, 2, 3, 4});
+			TestUtil.runExpect(IllegalArgumentException.class, () -> RowIndex.load(file));
+		} finally {
+			Files.delete(file);
+		}
+	}
+	
+	
+	@Test public void testInvalid() {
+		var img = new BufferedGrayImage(10, 10, new int[]{8, 0});
+		PngImage png = ImageEncoder.toPng(img, InterlaceMethod.NONE);
+		RowIndex index = RowIndex.build(png, 1);
+		PngImage other = ImageEncoder.toPng(new BufferedGrayImage(10, 11, new int[]{8, 0}), InterlaceMethod.NONE);
+		PngImage interlaced = ImageEncoder.toPng(img, InterlaceMethod.ADAM7);
+		
+		TestUtil.runExpect(IllegalArgumentException.class, () -> RowIndex.build(png, 0));
+		TestUtil.runExpect(IllegalArgumentException.class, () -> RowIndex.build(interlaced, 1));
+		TestUtil.runExpect(IllegalArgumentException.class, () -> ImageDecoder.toImage(png, index, 5, 5));
+		TestUtil.runExpect(IllegalArgumentException.class, () -> ImageDecoder.toImage(png, index, 0, 11));
+		TestUtil.runExpect(IllegalArgumentException.class, () -> ImageDecoder.toImage(other, index, 0, 1));
+	}
+	
+}
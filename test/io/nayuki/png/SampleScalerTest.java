@@ -0,0 +1,42 @@
+/* 
+ * PNG library (Java)
+ * 
+ * Copyright (c) Project Nayuki
+ * MIT License. See readme file.
+ * https://www.nayuki.io/page/png-library
+ */
+
+package io.nayuki.png;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+
+public final class SampleScalerTest {
+	
+	@Test public void testAllTables() {
+		for (int in = 0; in <= 16; in++) {
+			for (int out = 1; out <= 16; out++) {
+				char[] table = SampleScaler.scaleTable(in, out);
+				Assert.assertEquals(1 << in, table.length);
+				Assert.assertSame(table, SampleScaler.scaleTable(in, out));
+				long inMax = (1L << in) - 1;
+				long outMax = (1L << out) - 1;
+				for (int i = 0; i < table.length; i++) {
+					long expect = in == 0 ? 0 : Math.round((double)i * outMax / inMax);
+					if (in == out)
+						expect = i;
+					Assert.assertEquals(expect, table[i]);
+				}
+			}
+		}
+	}
+	
+	
+	@Test public void testInvalid() {
+		TestUtil.runExpect(IllegalArgumentException.class, () -> SampleScaler.scaleTable(-1, 8));
+		TestUtil.runExpect(IllegalArgumentException.class, () -> SampleScaler.scaleTable(17, 8));
+		TestUtil.runExpect(IllegalArgumentException.class, () -> SampleScaler.scaleTable(8, 0));
+	}
+	
+}
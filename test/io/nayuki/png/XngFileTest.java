@@ -0,0 +1,94 @@
+/* 
+ * PNG library (Java)
+ * 
+ * Copyright (c) Project Nayuki
+ * MIT License. See readme file.
+ * https://www.nayuki.io/page/png-library
+ */
+
+package io.nayuki.png;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import org.junit.Test;
+import io.nayuki.png.chunk.Custom;
+import io.nayuki.png.chunk.Gama;
+import io.nayuki.png.chunk.Iend;
+import io.nayuki.png.chunk.Text;
+
+
+public final class XngFileTest {
+	
+	@Test public void testWriteChannel() throws IOException {
+		var xng = new XngFile(XngFile.Type.MNG, List.of(
+			new Custom("MHDR", TestUtil.hexToBytes("0000000100000001")),
+			new Gama(45455),
+			new Text("Title", "Channel test"),
+			new Custom("IDAT", new byte[100000]),
+			Iend.SINGLETON));
+		
+		var expect = new ByteArrayOutputStream();
+		xng.write(expect);
+		
+		var actual = new ByteArrayOutputStream();
+		xng.write(Channels.newChannel(actual));
+		assertArrayEquals(expect.toByteArray(), actual.toByteArray());
+		
+		Path temp = Files.createTempFile(null, ".mng");
+		try {
+			try (var out = FileChannel.open(temp, StandardOpenOption.WRITE)) {
+				xng.write(out);
+			}
+			assertArrayEquals(expect.toByteArray(), Files.readAllBytes(temp));
+		} finally {
+			Files.delete(temp);
+		}
+	}
+	
+	
+	@Test public void testReadWriteAsync() throws Exception {
+		var xng = new XngFile(XngFile.Type.PNG, List.of(
+			new Gama(45455),
+			new Custom("IDAT", new byte[3000000]),
+			new Text("Comment", "Async test"),
+			Iend.SINGLETON));
+		var expect = new ByteArrayOutputStream();
+		xng.write(expect);
+		
+		Path temp = Files.createTempFile(null, ".png");
+		try {
+			xng.writeAsync(temp).get();
+			assertArrayEquals(expect.toByteArray(), Files.readAllBytes(temp));
+			
+			XngFile xng1 = XngFile.readAsync(temp, false).get();
+			var actual = new ByteArrayOutputStream();
+			xng1.write(actual);
+			assertArrayEquals(expect.toByteArray(), actual.toByteArray());
+			assertEquals(xng.chunks().size(), xng1.chunks().size());
+			
+			Files.write(temp, Arrays.copyOf(expect.toByteArray(), 100));
+			try {
+				XngFile.readAsync(temp, true).get();
+				fail("Expected exception");
+			} catch (ExecutionException e) {
+				assertTrue(e.getCause() instanceof EOFException);
+			}
+		} finally {
+			Files.delete(temp);
+		}
+	}
+	
+}
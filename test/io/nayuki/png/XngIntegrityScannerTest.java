@@ -0,0 +1,74 @@
+/* 
+ * PNG library (Java)
+ * 
+ * Copyright (c) Project Nayuki
+ * MIT License. See readme file.
+ * https://www.nayuki.io/page/png-library
+ */
+
+package io.nayuki.png;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Optional;
+import org.junit.Test;
+import io.nayuki.png.chunk.Ihdr;
+import io.nayuki.png.chunk.Text;
+import io.nayuki.png.image.BufferedRgbaImage;
+
+
+public final class XngIntegrityScannerTest {
+	
+	@Test public void testScan() throws IOException, InterruptedException {
+		PngImage png = ImageEncoder.toPng(new BufferedRgbaImage(7, 3, new int[]{8, 8, 8, 8}), Ihdr.InterlaceMethod.NONE);
+		png.afterIdats.add(new Text("Title", "Scan"));
+		var bout = new ByteArrayOutputStream();
+		png.write(bout);
+		byte[] good = bout.toByteArray();
+		
+		List<Path> files = new ArrayList<>();
+		try {
+			for (int i = 0; i < 8; i++)
+				files.add(write(good));
+			byte[] badCrc = good.clone();
+			badCrc[8 + 8 + 13] ^= 0x01;  // IHDR's CRC-32
+			files.add(write(badCrc));
+			files.add(write(Arrays.copyOf(good, good.length - 1)));
+			byte[] badSig = good.clone();
+			badSig[1] = 'Q';
+			files.add(write(badSig));
+			files.add(files.get(0).resolveSibling(files.get(0).getFileName() + ".missing"));
+			
+			XngIntegrityScanner.Report report = XngIntegrityScanner.scan(files, 3);
+			assertEquals(files.size(), report.files());
+			assertEquals(good.length * 11L - 1, report.bytes());
+			assertEquals(4, report.corruptions().size());
+			assertEquals(new XngIntegrityScanner.Corruption(files.get(8), 8, "Chunk CRC-32 mismatch"), report.corruptions().get(0));
+			assertEquals(files.get(9), report.corruptions().get(1).file());
+			assertEquals(new XngIntegrityScanner.Corruption(files.get(10), 0, "Unrecognized file signature"), report.corruptions().get(2));
+			assertEquals(-1, report.corruptions().get(3).offset());
+			assertTrue(report.corruptionsAsTsv().startsWith(files.get(8) + "\t8\tChunk CRC-32 mismatch\n"));
+			assertTrue(report.filesPerSecond() > 0);
+			
+			assertEquals(Optional.empty(), XngIntegrityScanner.check(files.get(0)));
+		} finally {
+			for (Path p : files)
+				Files.deleteIfExists(p);
+		}
+	}
+	
+	
+	private static Path write(byte[] b) throws IOException {
+		Path result = Files.createTempFile("xng-integrity-scanner", ".png");
+		Files.write(result, b);
+		return result;
+	}
+	
+}
@@ -0,0 +1,79 @@
+/* 
+ * PNG library (Java)
+ * 
+ * Copyright (c) Project Nayuki
+ * MIT License. See readme file.
+ * https://www.nayuki.io/page/png-library
+ */
+
+package io.nayuki.png.chunk;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.List;
+import org.junit.Test;
+import io.nayuki.png.TestUtil;
+import io.nayuki.png.XngFile;
+
+
+public final class ChunkInternerTest {
+	
+	@Test public void testIntern() {
+		var interner = new ChunkInterner();
+		var a = new Text("Copyright", "Public domain");
+		var b = new Text("Copyright", "Public domain");
+		var c = new Text("Copyright", "All rights reserved");
+		assertSame(a, interner.intern(a));
+		assertSame(a, interner.intern(b));
+		assertSame(c, interner.intern(c));
+		
+		var d = new Plte(TestUtil.hexToBytes("000000FF8000"));
+		var e = new Plte(TestUtil.hexToBytes("000000FF8000"));
+		assertSame(d, interner.intern(d));
+		assertSame(d, interner.intern(e));
+		
+		var f = new Custom("tEXt", TestUtil.hexToBytes("436F707972696768740075"));
+		var g = new Text("Copyright", "u");
+		assertSame(f, interner.intern(f));
+		assertSame(g, interner.intern(g));  // Different class despite same bytes
+		assertEquals(5, interner.size());
+	}
+	
+	
+	@Test public void testLimit() {
+		var interner = new ChunkInterner(3);
+		var a = new Idat(new byte[4]);
+		assertSame(a, interner.intern(a));
+		assertSame(a, interner.intern(a));
+		assertNotSame(a, interner.intern(new Idat(new byte[4])));
+		
+		var b = new Text("a", "b");
+		var c = new Text("a", "bc");
+		assertSame(b, interner.intern(b));
+		assertSame(b, interner.intern(new Text("a", "b")));
+		assertNotSame(c, interner.intern(new Text("a", "bc")));
+	}
+	
+	
+	@Test public void testReadFiles() throws IOException {
+		var bout = new ByteArrayOutputStream();
+		new XngFile(XngFile.Type.PNG, List.of(
+			new Srgb(Srgb.RenderingIntent.PERCEPTUAL),
+			new Text("Licence", "CC0"),
+			Iend.SINGLETON)).write(bout);
+		byte[] b = bout.toByteArray();
+		
+		var interner = new ChunkInterner();
+		var check = new IntegrityCheck(IntegrityCheck.Mode.INLINE);
+		XngFile x = XngFile.read(new ByteArrayInputStream(b), true, check, interner);
+		XngFile y = XngFile.read(new ByteArrayInputStream(b), true, check, interner);
+		assertNotSame(x.chunks(), y.chunks());
+		for (int i = 0; i < x.chunks().size(); i++)
+			assertSame(x.chunks().get(i), y.chunks().get(i));
+	}
+	
+}
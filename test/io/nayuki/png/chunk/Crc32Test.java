@@ -0,0 +1,77 @@
+/* 
+ * PNG library (Java)
+ * 
+ * Copyright (c) Project Nayuki
+ * MIT License. See readme file.
+ * https://www.nayuki.io/page/png-library
+ */
+
+package io.nayuki.png.chunk;
+
+import static io.nayuki.png.TestUtil.rand;
+import static org.junit.Assert.assertEquals;
+import java.util.zip.CRC32;
+import org.junit.Test;
+
+
+public final class Crc32Test {
+	
+	@Test public void testCombine() {
+		final int TRIALS = 1000;
+		for (int i = 0; i < TRIALS; i++) {
+			var b = new byte[rand.nextInt(1000)];
+			rand.nextBytes(b);
+			int split = rand.nextInt(b.length + 1);
+			var crc1 = new CRC32();
+			crc1.update(b, 0, split);
+			var crc2 = new CRC32();
+			crc2.update(b, split, b.length - split);
+			var expect = new CRC32();
+			expect.update(b);
+			assertEquals((int)expect.getValue(), Crc32.combine(
+				(int)crc1.getValue(), (int)crc2.getValue(), b.length - split));
+		}
+	}
+	
+	
+	@Test public void testUpdateSmall() {
+		final int TRIALS = 1000;
+		for (int i = 0; i < TRIALS; i++) {
+			var expect = new CRC32();
+			var actual = new Crc32();
+			for (int j = rand.nextInt(10); j >= 0; j--) {
+				var b = new byte[rand.nextInt(100)];
+				rand.nextBytes(b);
+				if (b.length > 0 && rand.nextBoolean()) {
+					expect.update(b[0]);
+					actual.update(b[0]);
+				} else {
+					expect.update(b);
+					actual.update(b);
+				}
+			}
+			assertEquals(expect.getValue(), actual.getValue());
+		}
+	}
+	
+	
+	@Test public void testUpdateLarge() {
+		var b = new byte[Crc32.PARALLEL_THRESHOLD * 2 + 12345];
+		rand.nextBytes(b);
+		var expect = new CRC32();
+		var actual = new Crc32();
+		expect.update(b, 0, 77);
+		actual.update(b, 0, 77);
+		expect.update(b, 77, b.length - 77);
+		actual.update(b, 77, b.length - 77);
+		expect.update(b, 5, 10);
+		actual.update(b, 5, 10);
+		assertEquals(expect.getValue(), actual.getValue());
+		actual.reset();
+		actual.update(b, 1, b.length - 1);
+		expect.reset();
+		expect.update(b, 1, b.length - 1);
+		assertEquals(expect.getValue(), actual.getValue());
+	}
+	
+}
@@ -10,9 +10,14 @@ package io.nayuki.png.chunk;
 
 import static io.nayuki.png.TestUtil.hexToBytes;
 import static io.nayuki.png.chunk.Chunk.CompressionMethod.ZLIB_DEFLATE;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertNotSame;
+import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.nio.charset.StandardCharsets;
 import java.util.Arrays;
+import java.util.zip.CRC32;
 import org.junit.Test;
 import io.nayuki.png.TestUtil;
 
@@ -81,6 +86,53 @@ public final class IccpTest {
 	}
 	
 	
+	@Test public void testGetProfile() {
+		// The decompressed data is not a valid ICCP profile
+		var chk = new Iccp("print er", ZLIB_DEFLATE, TestUtil.hexToBytes("789C0B492D2EC9CC4B57303432060018640395"));
+		byte[] profile = chk.getProfile();
+		assertArrayEquals("Testing 123".getBytes(StandardCharsets.US_ASCII), profile);
+		profile[0] = 'X';  // Must not affect the remembered profile
+		assertArrayEquals("Testing 123".getBytes(StandardCharsets.US_ASCII), chk.getProfile());
+	}
+	
+	
+	@Test public void testReadShared() throws IOException {
+		byte[] b = TestUtil.hexToBytes("0000001D 69434350 7072696E74206572 00 00 789C0B492D2EC9CC4B57303432060018640395 A74D358D");
+		var chk0 = (Iccp)Chunk.read(new ByteArrayInputStream(b)).get();
+		var chk1 = (Iccp)Chunk.read(new ByteArrayInputStream(b)).get();
+		assertNotSame(chk0, chk1);
+		assertNotSame(chk0.compressedProfile(), chk1.compressedProfile());
+		assertArrayEquals(chk0.getProfile(), chk1.getProfile());
+		
+		var bout = new ByteArrayOutputStream();
+		chk1.writeChunk(bout);
+		assertArrayEquals(b, bout.toByteArray());
+	}
+	
+	
+	@Test public void testReadSharedMutated() throws IOException {
+		byte[] b = TestUtil.hexToBytes("0000001B 69434350 707269766174 00 00 789C0B492D2EC9CC4B57303432010018650396 00000000");
+		var crc = new CRC32();
+		crc.update(b, 4, b.length - 8);
+		for (int i = 0; i < 4; i++)
+			b[b.length - 4 + i] = (byte)(crc.getValue() >>> ((3 - i) * 8));
+		var chk0 = (Iccp)Chunk.read(new ByteArrayInputStream(b)).get();
+		
+		// Corrupt the caller's array into the content of a chunk that is read next
+		chk0.compressedProfile()[3] ^= 0x55;
+		byte[] bad = b.clone();
+		bad[4 + 4 + 8 + 3] ^= 0x55;
+		crc.reset();
+		crc.update(bad, 4, bad.length - 8);
+		for (int i = 0; i < 4; i++)
+			bad[bad.length - 4 + i] = (byte)(crc.getValue() >>> ((3 - i) * 8));
+		TestUtil.runExpect(IllegalArgumentException.class, () -> Chunk.read(new ByteArrayInputStream(bad)));
+		
+		var chk1 = (Iccp)Chunk.read(new ByteArrayInputStream(b)).get();
+		assertArrayEquals("Testing 124".getBytes(StandardCharsets.US_ASCII), chk1.getProfile());
+	}
+	
+	
 	@Test public void testWriteChunk() {
 		// The decompressed data is not a valid ICCP profile
 		TestUtil.assertChunkBytesEqual("0000001D 69434350 7072696E74206572 00 00 789C0B492D2EC9CC4B57303432060018640395 A74D358D",
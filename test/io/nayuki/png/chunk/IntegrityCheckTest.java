@@ -0,0 +1,158 @@
+/* 
+ * PNG library (Java)
+ * 
+ * Copyright (c) Project Nayuki
+ * MIT License. See readme file.
+ * https://www.nayuki.io/page/png-library
+ */
+
+package io.nayuki.png.chunk;
+
+import static io.nayuki.png.chunk.Chunk.CompressionMethod.ZLIB_DEFLATE;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import org.junit.Assert;
+import org.junit.Test;
+import io.nayuki.png.TestUtil;
+
+
+public final class IntegrityCheckTest {
+	
+	@Test public void testInline() throws IOException {
+		var check = new IntegrityCheck(IntegrityCheck.Mode.INLINE);
+		List<Chunk> chunks = readAll(makeChunks(), check);
+		assertEquals(CHUNKS.size(), chunks.size());
+		for (int i = 0; i < chunks.size(); i++)
+			assertEquals(IntegrityCheck.computeCrc(CHUNKS.get(i)), check.storedCrcs().get(i).intValue());
+		check.verification().join();
+		
+		TestUtil.runExpect(IllegalArgumentException.class, () -> readAll(corrupt(makeChunks(), 2),
+			new IntegrityCheck(IntegrityCheck.Mode.INLINE)));
+	}
+	
+	
+	@Test public void testCriticalOnly() throws IOException {
+		var check = new IntegrityCheck(IntegrityCheck.Mode.CRITICAL_ONLY);
+		List<Chunk> chunks = readAll(corrupt(makeChunks(), 2), check);
+		assertEquals(CHUNKS.size(), chunks.size());
+		assertTrue(IntegrityCheck.computeCrc(chunks.get(2)) != check.storedCrcs().get(2));
+		assertEquals(IntegrityCheck.computeCrc(chunks.get(1)), check.storedCrcs().get(1).intValue());
+		
+		TestUtil.runExpect(IllegalArgumentException.class, () -> readAll(corrupt(makeChunks(), 1),
+			new IntegrityCheck(IntegrityCheck.Mode.CRITICAL_ONLY)));
+	}
+	
+	
+	@Test public void testDeferred() throws IOException, InterruptedException {
+		var check = new IntegrityCheck(IntegrityCheck.Mode.DEFERRED);
+		readAll(makeChunks(), check);
+		check.verification().join();
+		
+		for (int i = 0; i < CHUNKS.size(); i++) {
+			var bad = new IntegrityCheck(IntegrityCheck.Mode.DEFERRED);
+			readAll(corrupt(makeChunks(), i), bad);
+			try {
+				bad.verification().get();
+				Assert.fail("Expected exception");
+			} catch (ExecutionException e) {
+				assertTrue(e.getCause() instanceof IllegalArgumentException);
+			}
+		}
+	}
+	
+	
+	@Test public void testLazyValidation() throws IOException {
+		byte[] bad = TestUtil.hexToBytes("789C010100FEFF7800790078");
+		Chunk[] CASES = {
+			Util.construct(true, () -> new Iccp("Profile", ZLIB_DEFLATE, bad)),
+			Util.construct(true, () -> new Ztxt("Comment", ZLIB_DEFLATE, bad)),
+			Util.construct(true, () -> new Itxt("Comment", "en", "", Optional.of(ZLIB_DEFLATE), bad)),
+		};
+		for (Chunk cs : CASES) {
+			var bout = new ByteArrayOutputStream();
+			cs.writeChunk(bout);
+			byte[] b = bout.toByteArray();
+			
+			TestUtil.runExpect(IllegalArgumentException.class, () -> readAll(b, new IntegrityCheck(IntegrityCheck.Mode.INLINE)));
+			
+			var lazy = new IntegrityCheck(IntegrityCheck.Mode.INLINE, ForkJoinPool.commonPool(), true);
+			Chunk chk = readAll(b, lazy).get(0);
+			assertEquals(cs.getType(), chk.getType());
+			var bout1 = new ByteArrayOutputStream();
+			chk.writeChunk(bout1);
+			assertArrayEquals(b, bout1.toByteArray());
+			
+			TestUtil.runExpect(IllegalArgumentException.class, () -> {
+				if (chk instanceof Iccp c)
+					c.validate();
+				else if (chk instanceof Ztxt c)
+					c.validate();
+				else if (chk instanceof Itxt c)
+					c.validate();
+			});
+		}
+		
+		var lazy = new IntegrityCheck(IntegrityCheck.Mode.INLINE, ForkJoinPool.commonPool(), true);
+		var chk = (Ztxt)readAll(makeChunks(new Ztxt("Comment", ZLIB_DEFLATE, ZLIB_DEFLATE.compress(new byte[]{'a', 'b'}))), lazy).get(0);
+		chk.validate();
+		assertEquals("ab", chk.getText());
+		TestUtil.runExpect(IllegalArgumentException.class, () -> Util.construct(true,
+			() -> new Itxt("Comment", "en", "", Optional.empty(), new byte[]{0})));
+	}
+	
+	
+	private static List<Chunk> readAll(byte[] b, IntegrityCheck check) throws IOException {
+		var in = new ByteArrayInputStream(b);
+		List<Chunk> result = new ArrayList<>();
+		while (true) {
+			var chk = Chunk.read(in, check);
+			if (chk.isEmpty())
+				return result;
+			result.add(chk.get());
+		}
+	}
+	
+	
+	private static byte[] makeChunks() throws IOException {
+		return makeChunks(CHUNKS.toArray(new Chunk[0]));
+	}
+	
+	
+	private static byte[] makeChunks(Chunk... chunks) throws IOException {
+		var out = new ByteArrayOutputStream();
+		for (Chunk chk : chunks)
+			chk.writeChunk(out);
+		return out.toByteArray();
+	}
+	
+	
+	// Flips a bit in the CRC-32 of the chunk at the given index.
+	private static byte[] corrupt(byte[] b, int index) throws IOException {
+		int offset = 0;
+		for (int i = 0; i <= index; i++) {
+			var out = new ByteArrayOutputStream();
+			CHUNKS.get(i).writeChunk(out);
+			offset += out.size();
+		}
+		b[offset - 1] ^= 0x01;
+		return b;
+	}
+	
+	
+	private static final List<Chunk> CHUNKS = List.of(
+		new Ihdr(3, 2, 8, Ihdr.ColorType.GRAYSCALE, Ihdr.CompressionMethod.ZLIB_DEFLATE, Ihdr.FilterMethod.ADAPTIVE, Ihdr.InterlaceMethod.NONE),
+		new Idat(TestUtil.hexToBytes("789C010200FDFF010000040002")),
+		new Text("Comment", "Integrity test"),
+		new Splt("Palette", 8, new byte[]{1, 2, 3, 4, 0, 5}),
+		Iend.SINGLETON);
+		
+}
@@ -10,6 +10,7 @@ package io.nayuki.png.chunk;
 
 import static io.nayuki.png.TestUtil.hexToBytes;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
 import java.io.IOException;
 import java.nio.charset.StandardCharsets;
 import java.util.Optional;
@@ -112,6 +113,9 @@ public final class ItxtTest {
 	@Test public void testGetText() {
 		assertEquals("t3St!ng", new Itxt("a", "", "", Optional.empty(), hexToBytes("74335374216E67")).getText());
 		assertEquals("ça뉭", new Itxt("a", "", "", Optional.of(Chunk.CompressionMethod.ZLIB_DEFLATE), hexToBytes("789C010600F9FFC3A761EB89AD0DDF03ED")).getText());
+		
+		var chk = new Itxt("a", "", "", Optional.of(Chunk.CompressionMethod.ZLIB_DEFLATE), hexToBytes("789C010600F9FFC3A761EB89AD0DDF03ED"));
+		assertSame(chk.getText(), chk.getText());
 	}
 	
 	
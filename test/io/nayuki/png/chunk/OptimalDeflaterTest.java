@@ -0,0 +1,100 @@
+/* 
+ * PNG library (Java)
+ * 
+ * Copyright (c) Project Nayuki
+ * MIT License. See readme file.
+ * https://www.nayuki.io/page/png-library
+ */
+
+package io.nayuki.png.chunk;
+
+import static io.nayuki.png.TestUtil.rand;
+import java.util.concurrent.Executors;
+import java.util.zip.Deflater;
+import org.junit.Assert;
+import org.junit.Test;
+import io.nayuki.png.TestUtil;
+
+
+public final class OptimalDeflaterTest {
+	
+	@Test public void testRoundTrip() {
+		var deflater = new OptimalDeflater(3, 5, Runnable::run);
+		final int TRIALS = 100;
+		for (int i = 0; i < TRIALS; i++) {
+			byte[] data = randomData(rand.nextInt(rand.nextBoolean() ? 100 : 30000));
+			byte[] comp = deflater.compress(data);
+			Assert.assertArrayEquals(data, Chunk.CompressionMethod.ZLIB_DEFLATE.decompress(comp));
+		}
+	}
+	
+	
+	@Test public void testEmptyAndIncompressible() {
+		var deflater = new OptimalDeflater(1, 1, Runnable::run);
+		Assert.assertArrayEquals(new byte[0], Chunk.CompressionMethod.ZLIB_DEFLATE.decompress(deflater.compress(new byte[0])));
+		var data = new byte[200000];
+		rand.nextBytes(data);
+		byte[] comp = deflater.compress(data);
+		Assert.assertArrayEquals(data, Chunk.CompressionMethod.ZLIB_DEFLATE.decompress(comp));
+		Assert.assertTrue(comp.length < data.length + 40);  // Stored blocks
+	}
+	
+	
+	@Test public void testSmallerThanDeflater() {
+		byte[] data = randomData(100000);
+		var def = new Deflater(Deflater.BEST_COMPRESSION);
+		def.setInput(data);
+		def.finish();
+		var temp = new byte[data.length * 2];
+		int defLen = def.deflate(temp);
+		def.end();
+		
+		var executor = Executors.newFixedThreadPool(4);
+		try {
+			byte[] comp = Chunk.CompressionMethod.ZLIB_DEFLATE.compress(data, new OptimalDeflater(5, 8, executor));
+			Assert.assertArrayEquals(data, Chunk.CompressionMethod.ZLIB_DEFLATE.decompress(comp));
+			Assert.assertTrue(comp.length < defLen);
+		} finally {
+			executor.shutdown();
+		}
+	}
+	
+	
+	@Test public void testInvalidArguments() {
+		TestUtil.runExpect(IllegalArgumentException.class, () -> new OptimalDeflater(0, 1, Runnable::run));
+		TestUtil.runExpect(IllegalArgumentException.class, () -> new OptimalDeflater(1, 0, Runnable::run));
+		TestUtil.runExpect(NullPointerException.class, () -> new OptimalDeflater(1, 1, null));
+	}
+	
+	
+	// Returns data with runs, repeated phrases, and noise, whose statistics change along the way.
+	private static byte[] randomData(int len) {
+		var result = new byte[len];
+		int alphabet = rand.nextInt(255) + 1;
+		for (int i = 0; i < len; ) {
+			if (rand.nextInt(5000) == 0)
+				alphabet = rand.nextInt(255) + 1;
+			switch (rand.nextInt(3)) {
+				case 0 -> {
+					result[i] = (byte)rand.nextInt(alphabet);
+					i++;
+				}
+				case 1 -> {
+					byte b = (byte)rand.nextInt(alphabet);
+					for (int end = Math.min(i + rand.nextInt(300), len); i < end; i++)
+						result[i] = b;
+				}
+				case 2 -> {
+					if (i > 0) {
+						int dist = rand.nextInt(Math.min(i, 40000)) + 1;
+						for (int end = Math.min(i + rand.nextInt(100) + 3, len); i < end; i++)
+							result[i] = result[i - dist];
+					}
+				}
+				default -> throw new AssertionError("Unreachable value");
+			}
+		}
+		return result;
+	}
+	
+}
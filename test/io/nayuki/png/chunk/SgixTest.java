@@ -0,0 +1,58 @@
+/* 
+ * PNG library (Java)
+ * 
+ * Copyright (c) Project Nayuki
+ * MIT License. See readme file.
+ * https://www.nayuki.io/page/png-library
+ */
+
+package io.nayuki.png.chunk;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import org.junit.Assert;
+import org.junit.Test;
+import io.nayuki.png.TestUtil;
+
+
+public final class SgixTest {
+	
+	@Test public void testCreateBad() {
+		int[][][] CASES = {
+			{{}, {}},
+			{{1}, {}},
+			{{1, 2}, {3}},
+			{{0}, {5}},
+			{{4}, {0}},
+			{{-1}, {5}},
+			{{3, 3}, {5, 9}},
+			{{3, 7}, {9, 5}},
+			{{3, 7, 5}, {5, 9, 11}},
+		};
+		
+		for (int[][] cs : CASES) {
+			TestUtil.runExpect(IllegalArgumentException.class,
+				() -> new Sgix(cs[0], cs[1]));
+		}
+	}
+	
+	
+	@Test public void testReadMalformed() throws IOException {
+		String[] CASES = {
+			"00000004 73674958 00000001 5EDFD449",
+			"00000008 73674958 00000000 00000003 63C2886E",
+		};
+		for (String cs : CASES) {
+			Chunk chk = Chunk.read(new ByteArrayInputStream(TestUtil.hexToBytes(cs))).get();
+			Assert.assertTrue(chk instanceof Custom);
+			Assert.assertEquals("sgIX", chk.getType());
+		}
+	}
+	
+	
+	@Test public void testWriteChunk() {
+		TestUtil.assertChunkBytesEqual("00000010 73674958 00000010 00001234 00000020 00005678 37FA0D9B",
+			new Sgix(new int[]{0x10, 0x20}, new int[]{0x1234, 0x5678}));
+	}
+	
+}
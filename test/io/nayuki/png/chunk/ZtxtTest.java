@@ -11,6 +11,7 @@ package io.nayuki.png.chunk;
 import static io.nayuki.png.TestUtil.hexToBytes;
 import static io.nayuki.png.chunk.Chunk.CompressionMethod.ZLIB_DEFLATE;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.util.Arrays;
@@ -110,6 +111,9 @@ public final class ZtxtTest {
 	@Test public void testGetText() {
 		assertEquals("t3St!ng", new Ztxt("a", ZLIB_DEFLATE, hexToBytes("789C010700F8FF74335374216E67097A0265")).getText());
 		assertEquals("ça", new Ztxt("a", ZLIB_DEFLATE, hexToBytes("789C010200FDFFE76102310149")).getText());
+		
+		var chk = new Ztxt("a", ZLIB_DEFLATE, hexToBytes("789C010700F8FF74335374216E67097A0265"));
+		assertSame(chk.getText(), chk.getText());
 	}
 	
 	